@@ -0,0 +1,35 @@
+/*
+ * Copyright 2019 PRImA Research Lab, University of Salford, United Kingdom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.primaresearch.dla.page.converter.benchmark;
+
+/**
+ * A single benchmark operation with untimed preparation.
+ * 
+ * @author Christian Clausner
+ *
+ */
+public interface Benchmark {
+	
+	/**
+	 * Prepares one invocation of {@link #run()} (not measured, e.g. loading a fresh page)
+	 */
+	public void setUp() throws Exception;
+	
+	/**
+	 * The measured operation
+	 */
+	public void run() throws Exception;
+}
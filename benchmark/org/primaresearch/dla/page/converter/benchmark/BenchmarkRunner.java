@@ -0,0 +1,113 @@
+/*
+ * Copyright 2019 PRImA Research Lab, University of Salford, United Kingdom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.primaresearch.dla.page.converter.benchmark;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Minimal benchmark harness: warm-up iterations followed by measured iterations.<br>
+ * Reports the time per operation (mean and percentiles), the allocation rate of the benchmark thread
+ * and the time spent in garbage collection.
+ * 
+ * @author Christian Clausner
+ *
+ */
+public class BenchmarkRunner {
+	
+	private final int warmupIterations;
+	private final int measurementIterations;
+	private final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+	
+	/**
+	 * Constructor
+	 * @param warmupIterations Number of unmeasured runs (JIT warm-up)
+	 * @param measurementIterations Number of measured runs
+	 */
+	public BenchmarkRunner(int warmupIterations, int measurementIterations) {
+		this.warmupIterations = warmupIterations;
+		this.measurementIterations = measurementIterations;
+	}
+	
+	/**
+	 * Prints the header of the result table 
+	 */
+	public static void printHeader() {
+		System.out.println(String.format("%-45s %10s %10s %10s %14s %12s %10s", 
+				"Benchmark", "mean ms", "p50 ms", "p95 ms", "alloc B/op", "alloc MB/s", "GC ms"));
+	}
+	
+	/**
+	 * Runs the given benchmark and prints one result line to stdout
+	 * @param name Name to be printed
+	 */
+	public void run(String name, Benchmark benchmark) throws Exception {
+		for (int i=0; i<warmupIterations; i++) {
+			benchmark.setUp();
+			benchmark.run();
+		}
+		
+		long[] times = new long[measurementIterations];
+		long totalAllocated = 0;
+		long totalTime = 0;
+		long gcTimeBefore = getGcTime();
+		for (int i=0; i<measurementIterations; i++) {
+			benchmark.setUp();
+			long allocatedBefore = getAllocatedBytes();
+			long start = System.nanoTime();
+			benchmark.run();
+			times[i] = System.nanoTime() - start;
+			totalAllocated += getAllocatedBytes() - allocatedBefore;
+			totalTime += times[i];
+		}
+		long gcTime = getGcTime() - gcTimeBefore;
+		Arrays.sort(times);
+		
+		double meanMs = totalTime / 1e6 / measurementIterations;
+		long allocPerOp = allocatedBytesSupported() ? totalAllocated / measurementIterations : -1;
+		double allocRate = allocPerOp >= 0 && totalTime > 0 ? totalAllocated / (totalTime / 1e9) / (1024.0 * 1024.0) : -1;
+		System.out.println(String.format("%-45s %10.3f %10.3f %10.3f %14d %12.1f %10d", 
+				name, meanMs, percentile(times, 50) / 1e6, percentile(times, 95) / 1e6, allocPerOp, allocRate, gcTime));
+	}
+	
+	private static long percentile(long[] sortedValues, int percentile) {
+		int index = (int)Math.ceil(percentile / 100.0 * sortedValues.length) - 1;
+		return sortedValues[Math.max(0, Math.min(sortedValues.length-1, index))];
+	}
+	
+	private boolean allocatedBytesSupported() {
+		return threadBean instanceof com.sun.management.ThreadMXBean;
+	}
+	
+	/** Bytes allocated by the current thread so far (HotSpot only, 0 otherwise) */
+	private long getAllocatedBytes() {
+		if (!allocatedBytesSupported())
+			return 0;
+		return ((com.sun.management.ThreadMXBean)threadBean).getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+	
+	/** Accumulated GC time of all collectors */
+	private static long getGcTime() {
+		long time = 0;
+		List<GarbageCollectorMXBean> beans = ManagementFactory.getGarbageCollectorMXBeans();
+		for (GarbageCollectorMXBean bean : beans)
+			time += Math.max(0, bean.getCollectionTime());
+		return time;
+	}
+}
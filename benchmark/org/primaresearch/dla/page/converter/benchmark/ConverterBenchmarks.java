@@ -0,0 +1,371 @@
+/*
+ * Copyright 2019 PRImA Research Lab, University of Salford, United Kingdom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.primaresearch.dla.page.converter.benchmark;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.primaresearch.dla.page.Page;
+import org.primaresearch.dla.page.converter.PageConverter;
+import org.primaresearch.dla.page.converter.SchemaCache;
+import org.primaresearch.dla.page.converter.benchmark.SyntheticPageGenerator.Size;
+import org.primaresearch.dla.page.converter.json.JsonPullParser;
+import org.primaresearch.dla.page.converter.json.JsonPullParser.Token;
+import org.primaresearch.dla.page.converter.json.StreamingGoogleJsonPageReader;
+import org.primaresearch.dla.page.converter.json.StringTable;
+import org.primaresearch.dla.page.converter.pipeline.BulkCoordinateTransformStage;
+import org.primaresearch.dla.page.converter.pipeline.CoordinateScalingStage;
+import org.primaresearch.dla.page.converter.pipeline.CoordinateTransform;
+import org.primaresearch.dla.page.converter.pipeline.NegativeCoordinatesStage;
+import org.primaresearch.dla.page.converter.pipeline.PageProcessingPipeline;
+import org.primaresearch.dla.page.io.FileInput;
+import org.primaresearch.dla.page.io.FileTarget;
+import org.primaresearch.dla.page.io.json.GoogleJsonPageReader;
+import org.primaresearch.dla.page.io.xml.PageXmlInputOutput;
+import org.primaresearch.dla.page.io.xml.XmlPageWriter_Alto;
+import org.primaresearch.io.xml.XmlValidator;
+import org.primaresearch.io.xml.variable.XmlVariableFileReader;
+import org.primaresearch.shared.variable.VariableMap;
+
+/**
+ * Benchmarks for all stages of a conversion, on synthetic pages of different sizes.<br>
+ * <br>
+ * Usage: <code>ConverterBenchmarks [-sizes TINY,SMALL,MEDIUM,NEWSPAPER] [-warmup n] [-iterations n] [-text-filter rules.xml]</code><br>
+ * Run with <code>-Xmx4g</code> or more for NEWSPAPER pages.
+ * 
+ * @author Christian Clausner
+ *
+ */
+public class ConverterBenchmarks {
+	
+	private static final String[] PAGE_SCHEMA_VERSIONS = { "2010-03-19", "2013-07-15", "2016-07-15", "2017-07-15", "2018-07-15", "2019-07-15" };
+	
+	private final File workDir;
+	private final BenchmarkRunner runner;
+	private VariableMap textFilterRules = null;
+	
+	/**
+	 * Main function
+	 * @param args See class description
+	 */
+	public static void main(String[] args) throws Exception {
+		String sizes = "TINY,SMALL,MEDIUM,NEWSPAPER";
+		int warmup = 5;
+		int iterations = 10;
+		String textFilterFile = null;
+		for (int i=0; i<args.length; i++) {
+			if ("-sizes".equals(args[i]))
+				sizes = args[++i];
+			else if ("-warmup".equals(args[i]))
+				warmup = Integer.parseInt(args[++i]);
+			else if ("-iterations".equals(args[i]))
+				iterations = Integer.parseInt(args[++i]);
+			else if ("-text-filter".equals(args[i]))
+				textFilterFile = args[++i];
+			else
+				System.err.println("Unknown argument: "+args[i]);
+		}
+		
+		File workDir = File.createTempFile("pageconverter-bench", "");
+		workDir.delete();
+		workDir.mkdirs();
+		
+		ConverterBenchmarks benchmarks = new ConverterBenchmarks(workDir, new BenchmarkRunner(warmup, iterations));
+		if (textFilterFile != null)
+			benchmarks.textFilterRules = new XmlVariableFileReader().read(new File(textFilterFile).toURI().toURL());
+		
+		try {
+			BenchmarkRunner.printHeader();
+			for (String size : sizes.split(","))
+				benchmarks.run(Size.valueOf(size.trim()));
+		} finally {
+			deleteAll(workDir);
+		}
+	}
+	
+	public ConverterBenchmarks(File workDir, BenchmarkRunner runner) {
+		this.workDir = workDir;
+		this.runner = runner;
+	}
+	
+	/**
+	 * Runs all benchmarks for the given page size
+	 */
+	public void run(Size size) throws Exception {
+		String prefix = size.name() + " (" + size.getObjectCount() + " obj) ";
+		SyntheticPageGenerator generator = new SyntheticPageGenerator(size, 0.0);
+		SyntheticPageGenerator negGenerator = new SyntheticPageGenerator(size, 0.05);
+		
+		//PAGE read per schema version
+		for (String version : PAGE_SCHEMA_VERSIONS) {
+			final File file = new File(workDir, size.name()+"_"+version+".xml");
+			generator.writePageXml(file, version);
+			runner.run(prefix + "read PAGE " + version, new PageReadBenchmark(file));
+		}
+		final File latestFile = new File(workDir, size.name()+"_"+PAGE_SCHEMA_VERSIONS[PAGE_SCHEMA_VERSIONS.length-1]+".xml");
+		final File negFile = new File(workDir, size.name()+"_neg.xml");
+		negGenerator.writePageXml(negFile, PAGE_SCHEMA_VERSIONS[PAGE_SCHEMA_VERSIONS.length-1]);
+		
+		//Google JSON read
+		final File jsonFile = new File(workDir, size.name()+".json");
+		generator.writeGoogleJson(jsonFile);
+		runner.run(prefix + "read Google JSON (JSON Simple)", new Benchmark() {
+			@Override
+			public void setUp() {
+			}
+			@Override
+			public void run() throws Exception {
+				new GoogleJsonPageReader().read(new FileInput(jsonFile));
+			}
+		});
+		runner.run(prefix + "read Google JSON streaming", new Benchmark() {
+			@Override
+			public void setUp() {
+			}
+			@Override
+			public void run() throws Exception {
+				new StreamingGoogleJsonPageReader().read(new FileInput(jsonFile));
+			}
+		});
+		runner.run(prefix + "parse Google JSON text only", new JsonTextBenchmark(jsonFile, false));
+		runner.run(prefix + "parse Google JSON text only shared", new JsonTextBenchmark(jsonFile, true));
+		
+		//Text filter
+		if (textFilterRules != null) {
+			runner.run(prefix + "text filter", new PageOperationBenchmark(latestFile) {
+				@Override
+				public void run() throws Exception {
+					PageConverter.runTextFilter(textFilterRules, page);
+				}
+			});
+		}
+		
+		//Negative coordinates
+		runner.run(prefix + "neg coords toZero", new PageOperationBenchmark(negFile) {
+			@Override
+			public void run() throws Exception {
+				PageConverter.handleNegativeCoordinates(page, "toZero");
+			}
+		});
+		runner.run(prefix + "neg coords removeObj", new PageOperationBenchmark(negFile) {
+			@Override
+			public void run() throws Exception {
+				PageConverter.handleNegativeCoordinates(page, "removeObj");
+			}
+		});
+		
+		//Coordinate transformation (per point and bulk)
+		runner.run(prefix + "transform coords per point", new PageOperationBenchmark(latestFile) {
+			@Override
+			public void run() throws Exception {
+				PageProcessingPipeline pipeline = new PageProcessingPipeline();
+				pipeline.addStage(new CoordinateScalingStage(300.0 / 1200.0, 300.0 / 1200.0));
+				pipeline.run(page);
+			}
+		});
+		runner.run(prefix + "transform coords bulk", new PageOperationBenchmark(latestFile) {
+			@Override
+			public void run() throws Exception {
+				CoordinateTransform.Builder builder = new CoordinateTransform.Builder(page.getLayout().getWidth(), page.getLayout().getHeight());
+				PageProcessingPipeline pipeline = new PageProcessingPipeline();
+				pipeline.addStage(new BulkCoordinateTransformStage(builder.scale(300.0 / 1200.0, 300.0 / 1200.0)));
+				pipeline.run(page);
+			}
+		});
+		runner.run(prefix + "transform coords bulk rotate", new PageOperationBenchmark(latestFile) {
+			@Override
+			public void run() throws Exception {
+				CoordinateTransform.Builder builder = new CoordinateTransform.Builder(page.getLayout().getWidth(), page.getLayout().getHeight());
+				PageProcessingPipeline pipeline = new PageProcessingPipeline();
+				pipeline.addStage(new BulkCoordinateTransformStage(builder.rotate(1.5).flipHorizontal()));
+				pipeline.run(page);
+			}
+		});
+		runner.run(prefix + "transform packed arrays only", new CoordinateArrayBenchmark(size.getObjectCount() * 4));
+		
+		//Sequential and parallel traversal (all objects, no threshold)
+		runner.run(prefix + "neg coords removeObj + scaling", new PageOperationBenchmark(negFile) {
+			@Override
+			public void run() throws Exception {
+				createPipeline(0).run(page);
+			}
+		});
+		runner.run(prefix + "neg coords removeObj + scaling fork-join", new PageOperationBenchmark(negFile) {
+			@Override
+			public void run() throws Exception {
+				createPipeline(1).run(page);
+			}
+		});
+		
+		//PAGE write
+		final File pageOutFile = new File(workDir, "out.xml");
+		runner.run(prefix + "write PAGE", new PageOperationBenchmark(latestFile, true) {
+			@Override
+			public void run() throws Exception {
+				PageXmlInputOutput.writePage(page, pageOutFile.getPath());
+			}
+		});
+		
+		//ALTO write
+		final File altoOutFile = new File(workDir, "out_alto.xml");
+		runner.run(prefix + "write ALTO", new PageOperationBenchmark(latestFile, true) {
+			@Override
+			public void run() throws Exception {
+				XmlValidator validator = SchemaCache.borrowAltoValidator();
+				try {
+					new XmlPageWriter_Alto(validator).write(page, new FileTarget(altoOutFile));
+				} finally {
+					SchemaCache.returnAltoValidator(validator);
+				}
+			}
+		});
+	}
+	
+	/**
+	 * Pipeline with object removal and per-point scaling
+	 * @param parallelThreshold See {@link PageProcessingPipeline#setParallelThreshold(int)}
+	 */
+	private static PageProcessingPipeline createPipeline(int parallelThreshold) {
+		PageProcessingPipeline pipeline = new PageProcessingPipeline();
+		pipeline.addStage(new NegativeCoordinatesStage(true));
+		pipeline.addStage(new CoordinateScalingStage(300.0 / 1200.0, 300.0 / 1200.0));
+		pipeline.setParallelThreshold(parallelThreshold);
+		return pipeline;
+	}
+	
+	/**
+	 * Measures reading a PAGE file
+	 */
+	private static class PageReadBenchmark implements Benchmark {
+		private final File file;
+		
+		PageReadBenchmark(File file) {
+			this.file = file;
+		}
+		
+		@Override
+		public void setUp() {
+		}
+
+		@Override
+		public void run() throws Exception {
+			PageXmlInputOutput.readPage(file.getPath());
+		}
+	}
+	
+	/**
+	 * Measures an operation on a page that is loaded from a PAGE file during set-up
+	 */
+	private static abstract class PageOperationBenchmark implements Benchmark {
+		private final File file;
+		private final boolean loadOnce;
+		protected Page page = null;
+		
+		PageOperationBenchmark(File file) {
+			this(file, false);
+		}
+		
+		/**
+		 * @param loadOnce Set to true for operations that don't modify the page
+		 */
+		PageOperationBenchmark(File file, boolean loadOnce) {
+			this.file = file;
+			this.loadOnce = loadOnce;
+		}
+		
+		@Override
+		public void setUp() throws Exception {
+			if (page == null || !loadOnce)
+				page = PageXmlInputOutput.readPage(file.getPath());
+		}
+	}
+	
+	/**
+	 * Measures the transformation of packed coordinate arrays without the page object model 
+	 * (upper bound for the bulk transformation)
+	 */
+	private static class CoordinateArrayBenchmark implements Benchmark {
+		private final int[] xs;
+		private final int[] ys;
+		private final CoordinateTransform transform = CoordinateTransform.rotate(1.5).then(CoordinateTransform.scale(0.25, 0.25));
+		
+		CoordinateArrayBenchmark(int pointCount) {
+			xs = new int[pointCount];
+			ys = new int[pointCount];
+		}
+		
+		@Override
+		public void setUp() {
+			for (int i=0; i<xs.length; i++) {
+				xs[i] = i % 5000;
+				ys[i] = i % 7000;
+			}
+		}
+
+		@Override
+		public void run() throws Exception {
+			transform.apply(xs, ys, xs.length);
+		}
+	}
+	
+	/**
+	 * Parses a Google JSON file and keeps the text of all symbols, with or without a {@link StringTable}
+	 * (the part of the streaming reader that doesn't need the libraries).
+	 */
+	private static class JsonTextBenchmark implements Benchmark {
+		private final File file;
+		private final boolean shared;
+		private final List<String> texts = new ArrayList<String>();
+		
+		JsonTextBenchmark(File file, boolean shared) {
+			this.file = file;
+			this.shared = shared;
+		}
+		
+		@Override
+		public void setUp() {
+			texts.clear();
+		}
+
+		@Override
+		public void run() throws Exception {
+			StringTable table = shared ? new StringTable() : null;
+			JsonPullParser parser = new JsonPullParser(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+			try {
+				Token token;
+				while ((token = parser.next()) != null) {
+					if (token == Token.FIELD_NAME && parser.textEquals("text")) {
+						parser.next();
+						texts.add(shared ? parser.getText(table) : parser.getText());
+					}
+				}
+			} finally {
+				parser.close();
+			}
+		}
+	}
+	
+	private static void deleteAll(File file) {
+		File[] children = file.listFiles();
+		if (children != null)
+			for (File child : children)
+				deleteAll(child);
+		file.delete();
+	}
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2019 PRImA Research Lab, University of Salford, United Kingdom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.primaresearch.dla.page.converter.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.primaresearch.dla.page.converter.PageConverter;
+import org.primaresearch.dla.page.converter.benchmark.SyntheticPageGenerator.Size;
+
+/**
+ * Measures the time to first output: a new JVM is started for each conversion of a small page 
+ * and the time until the process has finished is recorded.<br>
+ * <br>
+ * Usage: <code>StartupBenchmark [-runs n] [-cds-archive file]</code><br>
+ * With <code>-cds-archive</code>, the given class data sharing archive (created with 
+ * <code>PageConverter -training-run</code> and <code>-XX:ArchiveClassesAtExit</code>) is measured as well.
+ * 
+ * @author Christian Clausner
+ *
+ */
+public class StartupBenchmark {
+	
+	private final String javaExecutable;
+	private final String classPath;
+	private final int runs;
+	
+	/**
+	 * Main function
+	 * @param args See class description
+	 */
+	public static void main(String[] args) throws Exception {
+		int runs = 10;
+		String cdsArchive = null;
+		for (int i=0; i<args.length; i++) {
+			if ("-runs".equals(args[i]))
+				runs = Integer.parseInt(args[++i]);
+			else if ("-cds-archive".equals(args[i]))
+				cdsArchive = args[++i];
+			else
+				System.err.println("Unknown argument: "+args[i]);
+		}
+		
+		File workDir = File.createTempFile("pageconverter-startup", "");
+		workDir.delete();
+		workDir.mkdirs();
+		try {
+			File source = new File(workDir, "page.xml");
+			new SyntheticPageGenerator(Size.TINY, 0.0).writePageXml(source, "2019-07-15");
+			File target = new File(workDir, "out.xml");
+			File altoTarget = new File(workDir, "out_alto.xml");
+			
+			StartupBenchmark benchmark = new StartupBenchmark(runs);
+			String[] pageArgs = { "-source-xml", source.getPath(), "-target-xml", target.getPath() };
+			String[] altoArgs = { "-source-xml", source.getPath(), "-target-xml", altoTarget.getPath(), "-convert-to", "ALTO" };
+			
+			System.out.println(String.format("%-40s %10s %10s %10s", "Configuration", "min ms", "median ms", "max ms"));
+			benchmark.run("PAGE default", new String[0], pageArgs, target);
+			benchmark.run("PAGE C1 only", new String[] { "-XX:TieredStopAtLevel=1" }, pageArgs, target);
+			benchmark.run("ALTO default", new String[0], altoArgs, altoTarget);
+			if (cdsArchive != null) {
+				String[] cdsOptions = { "-XX:SharedArchiveFile="+cdsArchive };
+				String[] cdsC1Options = { "-XX:SharedArchiveFile="+cdsArchive, "-XX:TieredStopAtLevel=1" };
+				benchmark.run("PAGE AppCDS", cdsOptions, pageArgs, target);
+				benchmark.run("PAGE AppCDS + C1 only", cdsC1Options, pageArgs, target);
+				benchmark.run("ALTO AppCDS", cdsOptions, altoArgs, altoTarget);
+			}
+		} finally {
+			File[] files = workDir.listFiles();
+			if (files != null)
+				for (File file : files)
+					file.delete();
+			workDir.delete();
+		}
+	}
+	
+	public StartupBenchmark(int runs) {
+		this.runs = runs;
+		this.javaExecutable = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+		this.classPath = System.getProperty("java.class.path");
+	}
+	
+	/**
+	 * Runs the converter in a new JVM several times and prints min, median and max time
+	 * @param name Configuration name
+	 * @param jvmOptions Additional JVM options
+	 * @param converterArgs Converter arguments
+	 * @param target Output file (must exist after each run)
+	 */
+	public void run(String name, String[] jvmOptions, String[] converterArgs, File target) throws IOException, InterruptedException {
+		List<String> command = new ArrayList<String>();
+		command.add(javaExecutable);
+		command.addAll(Arrays.asList(jvmOptions));
+		command.add("-cp");
+		command.add(classPath);
+		command.add(PageConverter.class.getName());
+		command.addAll(Arrays.asList(converterArgs));
+		
+		long[] times = new long[runs];
+		for (int i=0; i<runs; i++) {
+			target.delete();
+			ProcessBuilder builder = new ProcessBuilder(command);
+			builder.redirectErrorStream(true);
+			builder.redirectOutput(ProcessBuilder.Redirect.INHERIT);
+			long start = System.nanoTime();
+			Process process = builder.start();
+			process.waitFor();
+			times[i] = System.nanoTime() - start;
+			if (!target.exists()) {
+				System.err.println(name + ": no output written");
+				return;
+			}
+		}
+		Arrays.sort(times);
+		System.out.println(String.format("%-40s %10.1f %10.1f %10.1f", name, 
+				times[0] / 1E6, times[runs / 2] / 1E6, times[runs - 1] / 1E6));
+	}
+}
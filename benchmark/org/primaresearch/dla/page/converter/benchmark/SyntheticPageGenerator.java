@@ -0,0 +1,283 @@
+/*
+ * Copyright 2019 PRImA Research Lab, University of Salford, United Kingdom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.primaresearch.dla.page.converter.benchmark;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Random;
+
+/**
+ * Generates synthetic PAGE XML and Google Cloud Vision JSON files of different sizes for benchmarks.<br>
+ * The content is deterministic (fixed random seed), so results of different runs are comparable.
+ * 
+ * @author Christian Clausner
+ *
+ */
+public class SyntheticPageGenerator {
+	
+	/** Page sizes from a few regions up to a glyph-level newspaper page */
+	public enum Size {
+		TINY(3, 2, 0, 0),
+		SMALL(20, 5, 6, 0),
+		MEDIUM(100, 10, 8, 5),
+		NEWSPAPER(400, 15, 8, 6);
+		
+		final int regions;
+		final int linesPerRegion;
+		final int wordsPerLine;
+		final int glyphsPerWord;
+		
+		private Size(int regions, int linesPerRegion, int wordsPerLine, int glyphsPerWord) {
+			this.regions = regions;
+			this.linesPerRegion = linesPerRegion;
+			this.wordsPerLine = wordsPerLine;
+			this.glyphsPerWord = glyphsPerWord;
+		}
+		
+		/** Total number of layout objects (regions, lines, words and glyphs) */
+		public int getObjectCount() {
+			int lines = regions * linesPerRegion;
+			int words = lines * wordsPerLine;
+			return regions + lines + words + words * glyphsPerWord;
+		}
+	}
+	
+	private static final String PAGE_NAMESPACE_PREFIX = "http://schema.primaresearch.org/PAGE/gts/pagecontent/";
+	private static final String ALPHABET = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789";
+	
+	private static final int GLYPH_WIDTH = 20;
+	private static final int GLYPH_HEIGHT = 30;
+	private static final int LINE_SPACING = 10;
+	private static final int WORD_SPACING = 12;
+	
+	private final Size size;
+	private final double negativeCoordsFraction;
+	private final Random random = new Random(42);
+	
+	/**
+	 * Constructor
+	 * @param size Number of objects to generate
+	 * @param negativeCoordsFraction Fraction of objects (0.0 - 1.0) that get a negative coordinate 
+	 */
+	public SyntheticPageGenerator(Size size, double negativeCoordsFraction) {
+		this.size = size;
+		this.negativeCoordsFraction = negativeCoordsFraction;
+	}
+	
+	/**
+	 * Writes a PAGE XML file
+	 * @param schemaVersion E.g. 2010-03-19 (uses Point elements) or 2013-07-15 and later (uses points attribute)
+	 */
+	public void writePageXml(File file, String schemaVersion) throws IOException {
+		random.setSeed(42);
+		boolean pointElements = schemaVersion.compareTo("2013-07-15") < 0;
+		String ns = PAGE_NAMESPACE_PREFIX + schemaVersion;
+		Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"), 64 * 1024);
+		try {
+			out.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+			out.write("<PcGts xmlns=\""+ns+"\" xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\" xsi:schemaLocation=\""
+						+ns+" "+ns+"/pagecontent.xsd\">\n");
+			out.write("<Metadata><Creator>SyntheticPageGenerator</Creator><Created>2019-01-01T00:00:00</Created><LastChange>2019-01-01T00:00:00</LastChange></Metadata>\n");
+			out.write("<Page imageFilename=\"synthetic.tif\" imageWidth=\""+getPageWidth()+"\" imageHeight=\""+getPageHeight()+"\">\n");
+			
+			int[] box = new int[4];
+			for (int r=0; r<size.regions; r++) {
+				String regionId = "r"+r;
+				regionBox(r, box);
+				out.write("<TextRegion id=\""+regionId+"\" type=\"paragraph\">");
+				writeXmlCoords(out, box, pointElements);
+				StringBuilder regionText = new StringBuilder();
+				for (int l=0; l<size.linesPerRegion; l++) {
+					String lineId = regionId+"_l"+l;
+					lineBox(r, l, box);
+					out.write("\n <TextLine id=\""+lineId+"\">");
+					writeXmlCoords(out, box, pointElements);
+					if (!pointElements)
+						out.write("<Baseline points=\""+box[0]+","+(box[3]-5)+" "+box[2]+","+(box[3]-5)+"\"/>");
+					StringBuilder lineText = new StringBuilder();
+					for (int w=0; w<size.wordsPerLine; w++) {
+						String wordId = lineId+"_w"+w;
+						String wordText = randomWord();
+						wordBox(r, l, w, box);
+						out.write("\n  <Word id=\""+wordId+"\">");
+						writeXmlCoords(out, box, pointElements);
+						for (int g=0; g<size.glyphsPerWord; g++) {
+							glyphBox(r, l, w, g, box);
+							out.write("<Glyph id=\""+wordId+"_g"+g+"\">");
+							writeXmlCoords(out, box, pointElements);
+							writeXmlText(out, wordText.substring(g, g+1));
+							out.write("</Glyph>");
+						}
+						writeXmlText(out, wordText);
+						out.write("</Word>");
+						if (w > 0)
+							lineText.append(' ');
+						lineText.append(wordText);
+					}
+					if (lineText.length() == 0)
+						lineText.append(randomWord());
+					writeXmlText(out, lineText.toString());
+					out.write("</TextLine>");
+					if (l > 0)
+						regionText.append('\n');
+					regionText.append(lineText);
+				}
+				writeXmlText(out, regionText.toString());
+				out.write("</TextRegion>\n");
+			}
+			out.write("</Page>\n</PcGts>\n");
+		} finally {
+			out.close();
+		}
+	}
+	
+	/**
+	 * Writes a Google Cloud Vision response (full text annotation with blocks, paragraphs, words and symbols)
+	 */
+	public void writeGoogleJson(File file) throws IOException {
+		random.setSeed(42);
+		Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"), 64 * 1024);
+		try {
+			int[] box = new int[4];
+			out.write("{\"fullTextAnnotation\":{\"pages\":[{\"width\":"+getPageWidth()+",\"height\":"+getPageHeight()+",\"blocks\":[");
+			for (int r=0; r<size.regions; r++) {
+				if (r > 0)
+					out.write(',');
+				regionBox(r, box);
+				out.write("\n{\"boundingBox\":");
+				writeJsonBox(out, box);
+				out.write(",\"blockType\":\"TEXT\",\"paragraphs\":[{\"boundingBox\":");
+				writeJsonBox(out, box);
+				out.write(",\"words\":[");
+				int glyphs = Math.max(1, size.glyphsPerWord);
+				int words = Math.max(1, size.wordsPerLine);
+				for (int l=0; l<size.linesPerRegion; l++) {
+					for (int w=0; w<words; w++) {
+						if (l > 0 || w > 0)
+							out.write(',');
+						String wordText = randomWord();
+						wordBox(r, l, w, box);
+						out.write("\n {\"boundingBox\":");
+						writeJsonBox(out, box);
+						out.write(",\"symbols\":[");
+						for (int g=0; g<glyphs; g++) {
+							if (g > 0)
+								out.write(',');
+							glyphBox(r, l, w, g, box);
+							out.write("{\"boundingBox\":");
+							writeJsonBox(out, box);
+							if (g == glyphs-1)
+								out.write(",\"property\":{\"detectedBreak\":{\"type\":\""+(w == words-1 ? "EOL_SURE_SPACE" : "SPACE")+"\"}}");
+							out.write(",\"text\":\""+wordText.charAt(g)+"\"}");
+						}
+						out.write("]}");
+					}
+				}
+				out.write("]}]}");
+			}
+			out.write("]}]}}\n");
+		} finally {
+			out.close();
+		}
+	}
+
+	private void writeXmlCoords(Writer out, int[] box, boolean pointElements) throws IOException {
+		int x1 = maybeNegative(box[0]);
+		if (pointElements) {
+			out.write("<Coords><Point x=\""+x1+"\" y=\""+box[1]+"\"/><Point x=\""+box[2]+"\" y=\""+box[1]
+					+"\"/><Point x=\""+box[2]+"\" y=\""+box[3]+"\"/><Point x=\""+x1+"\" y=\""+box[3]+"\"/></Coords>");
+		} else {
+			out.write("<Coords points=\""+x1+","+box[1]+" "+box[2]+","+box[1]+" "+box[2]+","+box[3]+" "+x1+","+box[3]+"\"/>");
+		}
+	}
+	
+	private static void writeXmlText(Writer out, String text) throws IOException {
+		out.write("<TextEquiv><Unicode>");
+		out.write(text);
+		out.write("</Unicode></TextEquiv>");
+	}
+	
+	private void writeJsonBox(Writer out, int[] box) throws IOException {
+		int x1 = maybeNegative(box[0]);
+		out.write("{\"vertices\":[{\"x\":"+x1+",\"y\":"+box[1]+"},{\"x\":"+box[2]+",\"y\":"+box[1]
+				+"},{\"x\":"+box[2]+",\"y\":"+box[3]+"},{\"x\":"+x1+",\"y\":"+box[3]+"}]}");
+	}
+	
+	private int maybeNegative(int x) {
+		if (negativeCoordsFraction > 0.0 && random.nextDouble() < negativeCoordsFraction)
+			return -1 - random.nextInt(10);
+		return x;
+	}
+	
+	private String randomWord() {
+		int len = Math.max(1, size.glyphsPerWord > 0 ? size.glyphsPerWord : 3 + random.nextInt(6));
+		char[] chars = new char[len];
+		for (int i=0; i<len; i++)
+			chars[i] = ALPHABET.charAt(random.nextInt(ALPHABET.length()));
+		return new String(chars);
+	}
+	
+	// Layout: regions in columns of 10, lines below each other, words and glyphs from left to right
+
+	private int getWordWidth() {
+		return Math.max(1, size.glyphsPerWord) * GLYPH_WIDTH;
+	}
+	
+	private int getRegionWidth() {
+		return Math.max(1, size.wordsPerLine) * (getWordWidth() + WORD_SPACING);
+	}
+	
+	private int getRegionHeight() {
+		return size.linesPerRegion * (GLYPH_HEIGHT + LINE_SPACING);
+	}
+	
+	public int getPageWidth() {
+		return ((size.regions + 9) / 10) * (getRegionWidth() + 50) + 50;
+	}
+	
+	public int getPageHeight() {
+		return Math.min(10, size.regions) * (getRegionHeight() + 50) + 50;
+	}
+	
+	private void regionBox(int r, int[] box) {
+		box[0] = 50 + (r / 10) * (getRegionWidth() + 50);
+		box[1] = 50 + (r % 10) * (getRegionHeight() + 50);
+		box[2] = box[0] + getRegionWidth();
+		box[3] = box[1] + getRegionHeight();
+	}
+	
+	private void lineBox(int r, int l, int[] box) {
+		regionBox(r, box);
+		box[1] += l * (GLYPH_HEIGHT + LINE_SPACING);
+		box[3] = box[1] + GLYPH_HEIGHT;
+	}
+	
+	private void wordBox(int r, int l, int w, int[] box) {
+		lineBox(r, l, box);
+		box[0] += w * (getWordWidth() + WORD_SPACING);
+		box[2] = box[0] + getWordWidth();
+	}
+	
+	private void glyphBox(int r, int l, int w, int g, int[] box) {
+		wordBox(r, l, w, box);
+		box[0] += g * GLYPH_WIDTH;
+		box[2] = box[0] + GLYPH_WIDTH;
+	}
+}
@@ -0,0 +1,249 @@
+/*
+ * Copyright 2019 PRImA Research Lab, University of Salford, United Kingdom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.primaresearch.dla.page.converter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.primaresearch.dla.page.converter.ConversionResult.Status;
+import org.primaresearch.dla.page.converter.archive.ArchiveReader;
+import org.primaresearch.dla.page.converter.archive.ArchiveWriter;
+
+/**
+ * Converts all XML and JSON entries of a ZIP or TAR archive and writes the results into an output archive.<br>
+ * <br>
+ * Entries are read one after the other from the source archive, converted in memory on a pool of worker
+ * threads and written to the target archive in the original order. The number of entries held in memory
+ * is limited to twice the number of threads. PAGE XML and JSON entries are read from memory; ALTO, FineReader
+ * and hOCR entries are copied to a temporary file first, as the library reads these formats from files only.<br>
+ * <br>
+ * Entries that map to the same target name (e.g. <code>a.xml</code> and <code>a.json</code>) are reported as
+ * failed; only the first of them is converted.<br>
+ * <br>
+ * Each entry can have a time and memory limit (see {@link #setTimeout(long)} and {@link #setMemoryLimit(long)}),
+ * as in batch mode. The results per entry are available via {@link #getResults()}.
+ * 
+ * @author Christian Clausner
+ *
+ */
+public class ArchiveConverter {
+	
+	private final PageConverter template;
+	private final boolean alto;
+	private final String negCoordsMode;
+	private String gtsidPattern = null;
+	private String targetNamePattern = "{name}.xml";
+	private int threadCount = Runtime.getRuntime().availableProcessors();
+	/** Runs the conversions of the entries within the time and memory limits and collects the results */
+	private final BatchConverter jobs;
+
+	/**
+	 * Constructor
+	 * @param template Converter with the settings to be used for all entries
+	 * @param alto ALTO XML output instead of PAGE?
+	 * @param negCoordsMode Handling of negative coordinates (can be null)
+	 */
+	public ArchiveConverter(PageConverter template, boolean alto, String negCoordsMode) {
+		this.template = template;
+		this.alto = alto;
+		this.negCoordsMode = negCoordsMode;
+		jobs = new BatchConverter(template, null, alto, negCoordsMode);
+	}
+	
+	/**
+	 * Converts the entries of the source archive
+	 * @param sourceArchive ZIP or TAR file
+	 * @param targetArchive ZIP or TAR file to be created
+	 * @return Number of failed conversions
+	 */
+	public int run(File sourceArchive, File targetArchive) throws IOException {
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, threadCount));
+		jobs.setThreadCount(threadCount);
+		Deque<Future<Result>> inFlight = new ArrayDeque<Future<Result>>();
+		int maxInFlight = Math.max(1, threadCount) * 2;
+		Map<String, String> targetNames = new HashMap<String, String>(); //Target name -> source name
+		int total = 0;
+		int failed = 0;
+		
+		ArchiveReader reader = ArchiveReader.open(sourceArchive);
+		try {
+			ArchiveWriter writer = ArchiveWriter.create(targetArchive);
+			try {
+				String entryName;
+				while ((entryName = reader.nextEntry()) != null) {
+					if (!BatchConverter.isSourceFile(entryName))
+						continue;
+					total++;
+					String targetName = getTargetName(entryName);
+					if (targetNames.containsKey(targetName)) {
+						System.err.println("Target name collision: "+entryName+" (same target as "+targetNames.get(targetName)+")");
+						jobs.addResult(new ConversionResult(entryName, Status.ERROR, "Same target entry as "+targetNames.get(targetName), 0L));
+						failed++;
+						continue;
+					}
+					targetNames.put(targetName, entryName);
+					final String sourceName = entryName;
+					final byte[] data = reader.readEntry();
+					inFlight.add(executor.submit(new Callable<Result>() {
+						@Override
+						public Result call() throws Exception {
+							return convert(sourceName, data);
+						}
+					}));
+					if (inFlight.size() >= maxInFlight)
+						failed += writeResult(inFlight.removeFirst(), writer);
+				}
+				while (!inFlight.isEmpty())
+					failed += writeResult(inFlight.removeFirst(), writer);
+			} finally {
+				writer.close();
+			}
+		} finally {
+			reader.close();
+			executor.shutdownNow();
+		}
+		System.out.println("Converted "+(total-failed)+" of "+total+" archive entries");
+		jobs.printFailureSummary(System.out);
+		return failed;
+	}
+	
+	/**
+	 * Waits for the given conversion and writes the result to the target archive.
+	 * The wait is bounded by the time limit of the conversion (if set).
+	 * @return 1 if the conversion failed, 0 otherwise
+	 */
+	private int writeResult(Future<Result> future, ArchiveWriter writer) throws IOException {
+		Result result;
+		try {
+			result = future.get();
+		} catch (ExecutionException exc) {
+			exc.getCause().printStackTrace();
+			return 1;
+		} catch (InterruptedException exc) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted", exc);
+		}
+		jobs.addResult(result.result);
+		if (!result.result.isSuccess())
+			return 1;
+		writer.addEntry(result.targetName, result.data.toByteArray());
+		return 0;
+	}
+	
+	/**
+	 * Converts one archive entry in memory (within the time and memory limits)
+	 */
+	Result convert(String sourceName, byte[] data) {
+		PageConverter converter = new PageConverter(template);
+		if (gtsidPattern != null)
+			converter.setGtsId(gtsidPattern, getFilename(sourceName));
+		String targetName = getTargetName(sourceName);
+		ByteArrayOutputStream out = new ByteArrayOutputStream(data.length + data.length / 4);
+		ConversionResult result = jobs.convert(converter, sourceName, data, isJson(sourceName), targetName, out);
+		return new Result(targetName, result, out);
+	}
+	
+	/**
+	 * Maps a source entry name to the target entry name (same folder, name by target name pattern)
+	 */
+	String getTargetName(String sourceName) {
+		int slash = sourceName.lastIndexOf('/');
+		String folder = slash >= 0 ? sourceName.substring(0, slash+1) : "";
+		String filename = FileStreams.removeCompressionExtension(getFilename(sourceName));
+		String name = filename.contains(".") ? filename.substring(0, filename.lastIndexOf('.')) : filename;
+		return folder + targetNamePattern.replace("{name}", name);
+	}
+	
+	private static String getFilename(String entryName) {
+		return entryName.substring(entryName.lastIndexOf('/') + 1);
+	}
+	
+	private static boolean isJson(String entryName) {
+		return FileStreams.removeCompressionExtension(entryName).toLowerCase().endsWith(".json");
+	}
+
+	/**
+	 * Sets the GtsId pattern that is applied to each entry (see {@link PageConverter#setGtsId(String, String)})
+	 */
+	public void setGtsIdPattern(String gtsidPattern) {
+		this.gtsidPattern = gtsidPattern;
+	}
+
+	/**
+	 * Sets the output filename pattern ({name} is replaced by the source filename without extension)
+	 */
+	public void setTargetNamePattern(String targetNamePattern) {
+		this.targetNamePattern = targetNamePattern;
+	}
+
+	public void setThreadCount(int threadCount) {
+		this.threadCount = threadCount;
+	}
+	
+	/**
+	 * Sets the time limit per entry (see {@link BatchConverter#setTimeout(long)})
+	 */
+	public void setTimeout(long timeoutMillis) {
+		jobs.setTimeout(timeoutMillis);
+	}
+	
+	/**
+	 * Sets the memory limit per entry (see {@link BatchConverter#setMemoryLimit(long)})
+	 */
+	public void setMemoryLimit(long memoryLimit) {
+		jobs.setMemoryLimit(memoryLimit);
+	}
+	
+	/**
+	 * Writes the results of all converted entries (see {@link BatchConverter#writeResults(File, boolean)})
+	 */
+	public void writeResults(File file, boolean append) throws IOException {
+		jobs.writeResults(file, append);
+	}
+	
+	/**
+	 * Returns the results of all converted entries (in the order the entries have been written)
+	 */
+	public List<ConversionResult> getResults() {
+		return jobs.getResults();
+	}
+	
+	/**
+	 * Converted entry (the output is only complete if the conversion succeeded)
+	 */
+	static final class Result {
+		final String targetName;
+		final ConversionResult result;
+		final ByteArrayOutputStream data;
+		
+		Result(String targetName, ConversionResult result, ByteArrayOutputStream data) {
+			this.targetName = targetName;
+			this.result = result;
+			this.data = data;
+		}
+	}
+}
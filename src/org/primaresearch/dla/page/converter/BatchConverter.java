@@ -0,0 +1,907 @@
+/*
+ * Copyright 2019 PRImA Research Lab, University of Salford, United Kingdom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.primaresearch.dla.page.converter;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.primaresearch.dla.page.converter.ConversionResult.Status;
+import org.primaresearch.dla.page.converter.FormatSniffer.SourceFormat;
+import org.primaresearch.dla.page.io.StreamInput;
+import org.primaresearch.dla.page.io.StreamTarget;
+
+/**
+ * Converts many files within one process using a pool of worker threads.<br>
+ * Each file is converted by its own copy of a template {@link PageConverter},
+ * so per-file settings (e.g. a GtsId extracted from the filename) don't interfere.<br>
+ * <br>
+ * In pipelined mode (see {@link #setIoThreadCount(int)}), reading and writing files runs on a separate
+ * I/O pool and the worker threads only parse, process and serialise pages in memory. Bounded queues
+ * between the stages limit the number of files held in memory. ALTO, FineReader and hOCR files are still
+ * copied to a temporary file by the workers (the library reads these formats from files only).<br>
+ * <br>
+ * Each file can have a time and memory limit (see {@link #setTimeout(long)} and {@link #setMemoryLimit(long)}).
+ * Failures are isolated per file and recorded as {@link ConversionResult}.
+ * 
+ * @author Christian Clausner
+ *
+ */
+public class BatchConverter {
+	
+	private static final String DEFAULT_TARGET_NAME_PATTERN = "{name}.xml";
+	
+	/** Prefix of output files that are being written (renamed to the target file when the conversion has completed) */
+	private static final String PART_FILE_PREFIX = ".part-";
+	
+	/** The manifest is saved after this number of updates (so that an aborted batch doesn't lose all progress) ... */
+	private static final int MANIFEST_SAVE_INTERVAL_FILES = 1000;
+	/** ... or when this time has passed since the last save */
+	private static final long MANIFEST_SAVE_INTERVAL_MILLIS = 2 * 60 * 1000L;
+	
+	/** Number of conversions that can keep running after their time limit (in addition to one per worker) */
+	private static final int MAX_HUNG_CONVERSIONS = 8;
+
+	private final PageConverter template;
+	private final File targetDir;
+	private final boolean alto;
+	private final String negCoordsMode;
+	private String gtsidPattern = null;
+	private String targetNamePattern = DEFAULT_TARGET_NAME_PATTERN;
+	private int threadCount = Runtime.getRuntime().availableProcessors();
+	private ConversionManifest manifest = null;
+	private String optionFingerprint = null;
+	private final AtomicInteger skipped = new AtomicInteger();
+	private final AtomicInteger notStarted = new AtomicInteger();
+	private volatile ContinueCondition continueCondition = null;
+	private volatile boolean stopped = false;
+	private final AtomicInteger unsavedManifestUpdates = new AtomicInteger();
+	private final AtomicLong lastManifestSave = new AtomicLong();
+	private MemoryAwareScheduler scheduler = null;
+	private int ioThreadCount = 0;
+	private long timeoutMillis = 0;
+	private long memoryLimit = 0;
+	private final List<ConversionResult> results = Collections.synchronizedList(new ArrayList<ConversionResult>());
+	/** Formats detected by the scheduler when sorting the files (removed when a file is converted) */
+	private final Map<File, SourceFormat> sourceFormats = new ConcurrentHashMap<File, SourceFormat>();
+	
+	private ExecutorService jobPool = null;
+	private Semaphore jobSlots = null;
+	
+	/**
+	 * Constructor
+	 * @param template Converter with the settings to be used for all files
+	 * @param targetDir Output folder (can be null if only used for conversions in memory, e.g. by {@link ArchiveConverter})
+	 * @param alto ALTO XML output instead of PAGE?
+	 * @param negCoordsMode Handling of negative coordinates (can be null)
+	 */
+	public BatchConverter(PageConverter template, File targetDir, boolean alto, String negCoordsMode) {
+		this.template = template;
+		this.targetDir = targetDir;
+		this.alto = alto;
+		this.negCoordsMode = negCoordsMode;
+	}
+	
+	/**
+	 * Converts the given files.
+	 * @param sourceFiles Input files (.json files are read as JSON, all others as XML)
+	 * @return Number of failed conversions
+	 */
+	public int run(List<File> sourceFiles) {
+		if (!targetDir.exists())
+			targetDir.mkdirs();
+		
+		skipped.set(0);
+		notStarted.set(0);
+		stopped = false;
+		results.clear();
+		sourceFormats.clear();
+		unsavedManifestUpdates.set(0);
+		lastManifestSave.set(System.currentTimeMillis());
+		int total = sourceFiles.size();
+		sourceFiles = removeTargetCollisions(sourceFiles);
+		int collisions = total - sourceFiles.size();
+		if (ioThreadCount > 0)
+			return runPipelined(sourceFiles, collisions);
+		if (scheduler != null) {
+			sourceFiles = new ArrayList<File>(sourceFiles);
+			scheduler.sortLargestFirst(sourceFiles, sourceFormats, alto);
+			scheduler.resetHeapPeak();
+		}
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, threadCount));
+		List<Future<ConversionResult>> futures = new ArrayList<Future<ConversionResult>>(sourceFiles.size());
+		try {
+			for (final File sourceFile : sourceFiles) {
+				futures.add(executor.submit(new Callable<ConversionResult>() {
+					@Override
+					public ConversionResult call() throws Exception {
+						if (!canContinue()) {
+							notStarted.incrementAndGet();
+							return null;
+						}
+						return convert(sourceFile);
+					}
+				}));
+			}
+			
+			int failed = collisions;
+			for (int i=0; i<futures.size(); i++) {
+				try {
+					ConversionResult result = futures.get(i).get();
+					if (result != null && !result.isSuccess())
+						failed++;
+				} catch (ExecutionException exc) {
+					System.err.println("Conversion failed: "+sourceFiles.get(i).getPath());
+					exc.getCause().printStackTrace();
+					addResult(new ConversionResult(sourceFiles.get(i).getPath(), Status.ERROR, exc.getCause().toString(), 0L));
+					failed++;
+				} catch (InterruptedException exc) {
+					Thread.currentThread().interrupt();
+					return sourceFiles.size() - i + failed;
+				}
+			}
+			printSummary(total, failed);
+			if (scheduler != null)
+				scheduler.printReport(System.out);
+			return failed;
+		} finally {
+			executor.shutdownNow();
+			saveManifest();
+		}
+	}
+	
+	/**
+	 * Removes source files that map to the same target file as an earlier source file (e.g. <code>a.xml</code>
+	 * and <code>a.json</code>, or files of the same name from different folders of a file list) and records 
+	 * them as failed. Otherwise these conversions would overwrite each other's output.
+	 * @return The remaining source files (in the original order)
+	 */
+	public List<File> removeTargetCollisions(List<File> sourceFiles) {
+		Map<File, File> sourcePerTarget = new HashMap<File, File>(sourceFiles.size() * 2);
+		List<File> remaining = new ArrayList<File>(sourceFiles.size());
+		for (File sourceFile : sourceFiles) {
+			File targetFile = getTargetFile(sourceFile).getAbsoluteFile();
+			File previous = sourcePerTarget.get(targetFile);
+			if (previous != null) {
+				System.err.println("Target name collision: "+sourceFile.getPath()+" (same target as "+previous.getPath()+")");
+				addResult(new ConversionResult(sourceFile.getPath(), Status.ERROR, "Same target file as "+previous.getPath(), 0L));
+				continue;
+			}
+			sourcePerTarget.put(targetFile, sourceFile);
+			remaining.add(sourceFile);
+		}
+		return remaining;
+	}
+	
+	/**
+	 * Converts a single file using a copy of the template converter.
+	 * @return The result (also added to {@link #getResults()})
+	 */
+	ConversionResult convert(File sourceFile) throws IOException, InterruptedException {
+		File targetFile = getTargetFile(sourceFile);
+		if (manifest != null && manifest.isUpToDate(sourceFile, targetFile, optionFingerprint)) {
+			skipped.incrementAndGet();
+			return addResult(new ConversionResult(sourceFile.getPath(), Status.SKIPPED, null, 0L));
+		}
+		if (scheduler == null)
+			return convert(sourceFile, targetFile, null, new ConversionJob(timeoutMillis, memoryLimit));
+		
+		//Wait for enough memory (released when the conversion has ended, which can be after its time limit)
+		SourceFormat format = sourceFormats.remove(sourceFile);
+		if (format == null) //Not sorted (e.g. shared queue)
+			format = MemoryAwareScheduler.getInputFormat(sourceFile);
+		long estimate = scheduler.estimate(sourceFile, format, alto);
+		final long reserved = scheduler.acquire(estimate);
+		ConversionJob job = new ConversionJob(timeoutMillis, memoryLimit);
+		job.addFinishAction(new Runnable() {
+			@Override
+			public void run() {
+				scheduler.release(reserved);
+			}
+		});
+		try {
+			ConversionResult result = convert(sourceFile, targetFile, format, job);
+			if (result.getStatus() != Status.TIMEOUT)
+				scheduler.record(sourceFile, format, alto, estimate, job.getAllocatedBytes());
+			return result;
+		} finally {
+			job.discard();
+		}
+	}
+	
+	/**
+	 * Converts a file into a temporary file in the target folder (unique name), which replaces the target file
+	 * if the conversion succeeds and has not been cancelled. Deferred validation (see {@link OutputValidator})
+	 * is scheduled for the target file after the rename.
+	 * @param format Format of the source if already detected (null to detect it when loading)
+	 */
+	private ConversionResult convert(final File sourceFile, final File targetFile, SourceFormat format, final ConversionJob job) throws IOException {
+		//State of the source before the conversion (a change during the conversion is noticed by the next run)
+		ConversionManifest.SourceState sourceState = null;
+		if (manifest != null) {
+			try {
+				sourceState = ConversionManifest.getSourceState(sourceFile);
+			} catch (IOException exc) {
+				manifest.remove(sourceFile);
+				manifestUpdated();
+				return addResult(new ConversionResult(sourceFile.getPath(), Status.LOAD_ERROR, exc.toString(), 0L));
+			}
+		}
+		final PageConverter converter = createConverter(sourceFile);
+		converter.setSourceFormat(format);
+		final String sourceFilename = sourceFile.getPath();
+		ConversionResult result = execute(sourceFilename, converter, job, new Callable<Boolean>() {
+			@Override
+			public Boolean call() throws Exception {
+				File targetFolder = targetFile.getAbsoluteFile().getParentFile();
+				targetFolder.mkdirs();
+				File partFile = File.createTempFile(PART_FILE_PREFIX, "-" + targetFile.getName(), targetFolder);
+				File written = null;
+				converter.holdValidations();
+				try {
+					if (!converter.run(sourceFilename, partFile.getPath(), isJson(sourceFile), alto, negCoordsMode))
+						return false;
+					if (!job.complete())
+						throw new ConversionJob.CancelledException(Status.TIMEOUT, "Conversion cancelled");
+					Files.move(partFile.toPath(), targetFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+					written = targetFile;
+					return true;
+				} finally {
+					converter.releaseValidations(written);
+					if (partFile.exists())
+						partFile.delete();
+				}
+			}
+		});
+		
+		if (manifest != null) {
+			if (result.isSuccess())
+				manifest.update(sourceFile, sourceState, targetFile, optionFingerprint);
+			else
+				manifest.remove(sourceFile);
+			manifestUpdated();
+		}
+		return addResult(result);
+	}
+	
+	/**
+	 * Runs a conversion within the time and memory limits and determines the result.<br>
+	 * With a time limit, the conversion runs on a separate thread. If it takes too long, it is cancelled
+	 * (interrupt and next checkpoint of the converter) and the calling worker continues with the next file,
+	 * even if the conversion hangs in a reader. Only a limited number of such hung conversions can keep running;
+	 * if all job threads are taken, further conversions fail with TIMEOUT.
+	 * @param converter Converter that runs the conversion (the job is set here)
+	 * @param conversion Runs the conversion with the converter
+	 */
+	private ConversionResult execute(String sourceName, PageConverter converter, final ConversionJob job, final Callable<Boolean> conversion) {
+		long start = System.currentTimeMillis();
+		converter.setJob(job);
+		Callable<Boolean> task = new Callable<Boolean>() {
+			@Override
+			public Boolean call() throws Exception {
+				if (!job.start())
+					throw new ConversionJob.CancelledException(Status.ERROR, "Conversion cancelled");
+				try {
+					return conversion.call();
+				} finally {
+					job.finish();
+				}
+			}
+		};
+		
+		Status status;
+		String message = null;
+		try {
+			boolean success;
+			if (timeoutMillis > 0) {
+				final Semaphore slots = getJobSlots();
+				if (!slots.tryAcquire(timeoutMillis, TimeUnit.MILLISECONDS)) {
+					job.cancel(Status.TIMEOUT);
+					throw new ConversionJob.CancelledException(Status.TIMEOUT, "No free conversion thread (too many hung conversions)");
+				}
+				job.addFinishAction(new Runnable() {
+					@Override
+					public void run() {
+						slots.release();
+					}
+				});
+				Future<Boolean> future = getJobPool().submit(task);
+				try {
+					try {
+						success = future.get(timeoutMillis, TimeUnit.MILLISECONDS);
+					} catch (TimeoutException exc) {
+						if (job.cancel(Status.TIMEOUT)) {
+							future.cancel(true);
+							throw new ConversionJob.CancelledException(Status.TIMEOUT, "No result after "+timeoutMillis+" ms");
+						}
+						success = future.get(); //Completed in the meantime, the output is being moved to the target
+					}
+				} catch (ExecutionException exc) {
+					throw exc.getCause();
+				}
+			}
+			else
+				success = task.call();
+			
+			if (success)
+				status = Status.SUCCESS;
+			else {
+				status = converter.getFailureStatus() != null ? converter.getFailureStatus() : Status.ERROR;
+				message = converter.getFailureMessage();
+			}
+		} catch (ConversionJob.CancelledException exc) {
+			status = exc.getStatus();
+			message = exc.getMessage();
+		} catch (OutOfMemoryError err) {
+			status = Status.OUT_OF_MEMORY;
+			message = err.toString();
+		} catch (InterruptedException exc) {
+			Thread.currentThread().interrupt();
+			job.cancel(Status.ERROR);
+			status = Status.ERROR;
+			message = "Interrupted";
+		} catch (Throwable exc) {
+			exc.printStackTrace();
+			status = Status.ERROR;
+			message = exc.toString();
+		}
+		if (status != Status.SUCCESS)
+			System.err.println("Conversion failed ("+status+"): "+sourceName+(message != null ? " - "+message : ""));
+		return new ConversionResult(sourceName, status, message, System.currentTimeMillis() - start);
+	}
+	
+	/**
+	 * Threads for conversions with time limit (daemon threads, so that a conversion that cannot be stopped
+	 * doesn't prevent the process from exiting). The number of threads is limited by {@link #getJobSlots()}.
+	 */
+	private synchronized ExecutorService getJobPool() {
+		if (jobPool == null) {
+			ThreadPoolExecutor pool = new ThreadPoolExecutor(getJobSlotCount(), getJobSlotCount(), 60L, TimeUnit.SECONDS, 
+					new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "conversion-job");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+			pool.allowCoreThreadTimeOut(true);
+			jobPool = pool;
+		}
+		return jobPool;
+	}
+	
+	/**
+	 * Permits for running conversions with time limit (a permit is returned when the conversion has ended,
+	 * not when its time limit has passed)
+	 */
+	private synchronized Semaphore getJobSlots() {
+		if (jobSlots == null)
+			jobSlots = new Semaphore(getJobSlotCount());
+		return jobSlots;
+	}
+	
+	private int getJobSlotCount() {
+		return Math.max(1, threadCount) + MAX_HUNG_CONVERSIONS;
+	}
+	
+	ConversionResult addResult(ConversionResult result) {
+		results.add(result);
+		return result;
+	}
+	
+	/**
+	 * Converts the given files in three stages: read (I/O pool), convert in memory (worker pool)
+	 * and write (I/O pool). At most twice the number of workers files are waiting for conversion 
+	 * and for being written.
+	 * @param collisions Number of source files that have been removed because of target name collisions (failed)
+	 * @return Number of failed conversions
+	 */
+	private int runPipelined(List<File> sourceFiles, int collisions) {
+		final ExecutorService ioPool = Executors.newFixedThreadPool(ioThreadCount);
+		final ExecutorService cpuPool = Executors.newFixedThreadPool(Math.max(1, threadCount));
+		final Semaphore readAhead = new Semaphore(Math.max(1, threadCount) * 2);
+		final Semaphore writeBehind = new Semaphore(Math.max(1, threadCount) * 2);
+		final AtomicInteger failed = new AtomicInteger(collisions);
+		final CountDownLatch done = new CountDownLatch(sourceFiles.size());
+		try {
+			for (int i=0; i<sourceFiles.size(); i++) {
+				if (!canContinue()) {
+					notStarted.addAndGet(sourceFiles.size() - i);
+					for (; i<sourceFiles.size(); i++)
+						done.countDown();
+					break;
+				}
+				final File sourceFile = sourceFiles.get(i);
+				final File targetFile = getTargetFile(sourceFile);
+				readAhead.acquire();
+				
+				//Read
+				ioPool.execute(new Runnable() {
+					@Override
+					public void run() {
+						final byte[] data;
+						final ConversionManifest.SourceState sourceState;
+						try {
+							if (manifest != null && manifest.isUpToDate(sourceFile, targetFile, optionFingerprint)) {
+								skipped.incrementAndGet();
+								addResult(new ConversionResult(sourceFile.getPath(), Status.SKIPPED, null, 0L));
+								readAhead.release();
+								done.countDown();
+								return;
+							}
+							long modified = sourceFile.lastModified();
+							data = readFile(sourceFile);
+							sourceState = manifest != null ? ConversionManifest.getSourceState(modified, data) : null;
+						} catch (IOException exc) {
+							System.err.println("Could not read source file: "+sourceFile.getPath());
+							exc.printStackTrace();
+							readAhead.release();
+							finish(sourceFile, null, targetFile, new ConversionResult(sourceFile.getPath(), Status.LOAD_ERROR, exc.toString(), 0L), failed, done);
+							return;
+						}
+						
+						//Convert
+						cpuPool.execute(new Runnable() {
+							@Override
+							public void run() {
+								final ByteArrayOutputStream out = new ByteArrayOutputStream(data.length + data.length / 4);
+								final PageConverter converter = createConverter(sourceFile);
+								//Deferred validations are scheduled when the output has reached the target file
+								converter.holdValidations();
+								final ConversionResult result;
+								try {
+									result = convert(converter, sourceFile, targetFile, data, out);
+								} finally {
+									readAhead.release();
+								}
+								if (!result.isSuccess()) {
+									converter.releaseValidations(null);
+									finish(sourceFile, sourceState, targetFile, result, failed, done);
+									return;
+								}
+								try {
+									writeBehind.acquire();
+								} catch (InterruptedException exc) {
+									converter.releaseValidations(null);
+									finish(sourceFile, sourceState, targetFile, new ConversionResult(sourceFile.getPath(), Status.ERROR, "Interrupted", 
+											result.getDurationMillis()), failed, done);
+									return;
+								}
+								
+								//Write
+								ioPool.execute(new Runnable() {
+									@Override
+									public void run() {
+										ConversionResult written = result;
+										File writtenFile = null;
+										try {
+											writeFile(targetFile, out);
+											writtenFile = targetFile;
+										} catch (IOException exc) {
+											System.err.println("Could not write output file: "+targetFile.getPath());
+											exc.printStackTrace();
+											written = new ConversionResult(sourceFile.getPath(), Status.WRITE_ERROR, exc.toString(), result.getDurationMillis());
+										} finally {
+											writeBehind.release();
+											converter.releaseValidations(writtenFile);
+											finish(sourceFile, sourceState, targetFile, written, failed, done);
+										}
+									}
+								});
+							}
+						});
+					}
+				});
+			}
+			done.await();
+			
+			printSummary(sourceFiles.size() + collisions, failed.get());
+			return failed.get();
+		} catch (InterruptedException exc) {
+			Thread.currentThread().interrupt();
+			return sourceFiles.size() + collisions - skipped.get();
+		} finally {
+			cpuPool.shutdownNow();
+			ioPool.shutdownNow();
+			saveManifest();
+		}
+	}
+	
+	/**
+	 * Creates a copy of the template converter for the given source file
+	 */
+	private PageConverter createConverter(File sourceFile) {
+		PageConverter converter = new PageConverter(template);
+		if (gtsidPattern != null)
+			converter.setGtsId(gtsidPattern, sourceFile.getPath());
+		return converter;
+	}
+	
+	/**
+	 * Converts a file that has been read into memory
+	 * @param converter Converter for this file (see {@link #createConverter(File)})
+	 * @param out Receives the output
+	 */
+	private ConversionResult convert(PageConverter converter, File sourceFile, File targetFile, byte[] data, ByteArrayOutputStream out) {
+		return convert(converter, sourceFile.getPath(), data, isJson(sourceFile), targetFile.getPath(), out);
+	}
+	
+	/**
+	 * Converts an input that has been read into memory (e.g. an archive entry) within the time and memory limits 
+	 * (see {@link #setTimeout(long)} and {@link #setMemoryLimit(long)}). The result is not added to {@link #getResults()}.
+	 * @param converter Converter for this input (copy of the template)
+	 * @param sourceName Name of the input (for messages and the result)
+	 * @param json JSON input?
+	 * @param targetName Name of the output (for messages)
+	 * @param out Receives the output
+	 */
+	ConversionResult convert(final PageConverter converter, final String sourceName, final byte[] data, final boolean json, 
+								final String targetName, final ByteArrayOutputStream out) {
+		return execute(sourceName, converter, new ConversionJob(timeoutMillis, memoryLimit), new Callable<Boolean>() {
+			@Override
+			public Boolean call() throws Exception {
+				return converter.run(new StreamInput(new ByteArrayInputStream(data)), sourceName, 
+						new StreamTarget(out), targetName, json, alto, negCoordsMode);
+			}
+		});
+	}
+	
+	/**
+	 * Records the result of a pipelined conversion
+	 * @param sourceState State of the source file when it was read (null if it could not be read)
+	 */
+	private void finish(File sourceFile, ConversionManifest.SourceState sourceState, File targetFile, ConversionResult result, 
+						AtomicInteger failed, CountDownLatch done) {
+		boolean success = result.isSuccess();
+		if (!success)
+			failed.incrementAndGet();
+		addResult(result);
+		try {
+			if (manifest != null) {
+				if (success)
+					manifest.update(sourceFile, sourceState, targetFile, optionFingerprint);
+				else
+					manifest.remove(sourceFile);
+				manifestUpdated();
+			}
+		} finally {
+			done.countDown();
+		}
+	}
+	
+	private static byte[] readFile(File file) throws IOException {
+		long length = file.length();
+		if (length > Integer.MAX_VALUE)
+			throw new IOException("File too large: "+file.getPath());
+		byte[] data = new byte[(int)length];
+		InputStream in = new FileInputStream(file);
+		try {
+			int pos = 0;
+			while (pos < data.length) {
+				int read = in.read(data, pos, data.length - pos);
+				if (read < 0)
+					throw new EOFException("File truncated while reading: "+file.getPath());
+				pos += read;
+			}
+		} finally {
+			in.close();
+		}
+		return data;
+	}
+	
+	/**
+	 * Writes the output of a pipelined conversion to a temporary file in the target folder (unique name),
+	 * which then replaces the target file (as for the worker mode, see {@link #convert(File, File, ConversionJob)})
+	 */
+	private void writeFile(File file, ByteArrayOutputStream data) throws IOException {
+		File targetFolder = file.getAbsoluteFile().getParentFile();
+		targetFolder.mkdirs();
+		File partFile = File.createTempFile(PART_FILE_PREFIX, "-" + file.getName(), targetFolder);
+		try {
+			OutputStream out = FileStreams.openOutput(partFile.getPath(), template.isGzipOutput() || FileStreams.isGzip(file.getPath()));
+			try {
+				data.writeTo(out);
+			} finally {
+				out.close();
+			}
+			Files.move(partFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		} finally {
+			if (partFile.exists())
+				partFile.delete();
+		}
+	}
+	
+	/**
+	 * Saves the manifest every {@link #MANIFEST_SAVE_INTERVAL_FILES} updates or {@link #MANIFEST_SAVE_INTERVAL_MILLIS} ms,
+	 * so that a killed batch only converts the files since the last save again.
+	 * Only one of the threads that reach the interval at the same time saves.
+	 */
+	private void manifestUpdated() {
+		int updates = unsavedManifestUpdates.incrementAndGet();
+		long last = lastManifestSave.get();
+		long now = System.currentTimeMillis();
+		if (updates < MANIFEST_SAVE_INTERVAL_FILES && now - last < MANIFEST_SAVE_INTERVAL_MILLIS)
+			return;
+		if (!lastManifestSave.compareAndSet(last, now))
+			return; //Saved by another thread
+		unsavedManifestUpdates.set(0);
+		saveManifest();
+	}
+	
+	private void saveManifest() {
+		if (manifest == null)
+			return;
+		try {
+			manifest.save();
+		} catch (IOException exc) {
+			System.err.println("Could not save manifest");
+			exc.printStackTrace();
+		}
+	}
+	
+	/**
+	 * Prints the number of converted, unchanged, not started and failed files
+	 */
+	private void printSummary(int total, int failed) {
+		System.out.println("Converted "+(total-failed-skipped.get()-notStarted.get())+" of "+total+" files"
+				+ (manifest != null ? " ("+skipped.get()+" unchanged)" : ""));
+		if (notStarted.get() > 0)
+			System.out.println(notStarted.get()+" files not converted (batch stopped)");
+		printFailureSummary(System.out);
+	}
+	
+	/**
+	 * Checks the continue condition before a file is started (see {@link #setContinueCondition(ContinueCondition)}).
+	 * Once the condition has failed, the batch doesn't start any further files.
+	 */
+	boolean canContinue() {
+		if (stopped)
+			return false;
+		ContinueCondition condition = continueCondition;
+		if (condition == null || condition.canContinue())
+			return true;
+		stopped = true;
+		return false;
+	}
+	
+	/**
+	 * Prints the number of failed files per kind of failure (nothing if all files have been converted)
+	 */
+	public void printFailureSummary(PrintStream out) {
+		Map<Status, Integer> counts = new TreeMap<Status, Integer>();
+		synchronized (results) {
+			for (ConversionResult result : results) {
+				if (!result.isSuccess()) {
+					Integer count = counts.get(result.getStatus());
+					counts.put(result.getStatus(), count != null ? count + 1 : 1);
+				}
+			}
+		}
+		if (counts.isEmpty())
+			return;
+		StringBuilder summary = new StringBuilder("Failed:");
+		for (Map.Entry<Status, Integer> entry : counts.entrySet())
+			summary.append(' ').append(entry.getKey()).append(' ').append(entry.getValue());
+		out.println(summary);
+	}
+	
+	/**
+	 * Writes the results of the last run (one tab-separated line per file: status, duration in ms, source, message)
+	 * @param append Append to an existing file?
+	 */
+	public void writeResults(File file, boolean append) throws IOException {
+		Writer writer = new OutputStreamWriter(new FileOutputStream(file, append), "UTF-8");
+		try {
+			synchronized (results) {
+				for (ConversionResult result : results)
+					writer.write(result.toString() + "\n");
+			}
+		} finally {
+			writer.close();
+		}
+	}
+	
+	/**
+	 * Returns the results of the last run (in the order the files have been finished)
+	 */
+	public List<ConversionResult> getResults() {
+		synchronized (results) {
+			return new ArrayList<ConversionResult>(results);
+		}
+	}
+	
+	/**
+	 * Maps a source file to the output file using the target name pattern. 
+	 */
+	public File getTargetFile(File sourceFile) {
+		String filename = FileStreams.removeCompressionExtension(sourceFile.getName());
+		String name = filename.contains(".") ? filename.substring(0, filename.lastIndexOf('.')) : filename;
+		return new File(targetDir, targetNamePattern.replace("{name}", name));
+	}
+	
+	/**
+	 * Checks if the given file is to be read as JSON (by file extension, also for compressed files)
+	 */
+	static boolean isJson(File file) {
+		return FileStreams.removeCompressionExtension(file.getName()).toLowerCase().endsWith(".json");
+	}
+	
+	/**
+	 * Checks if the given file can be a source file (by file extension, also gzip compressed, e.g. .xml.gz)
+	 */
+	static boolean isSourceFile(String filename) {
+		String name = filename.toLowerCase();
+		if (name.endsWith(FileStreams.GZIP_EXTENSION))
+			name = FileStreams.removeCompressionExtension(name);
+		return name.endsWith(".xml") || name.endsWith(".json") || name.endsWith(".html") || name.endsWith(".hocr");
+	}
+	
+	/**
+	 * Lists all XML, JSON and hOCR files (plain or gzip compressed) in the given folder (not recursive, sorted by name).
+	 */
+	public static List<File> listSourceFiles(File folder) throws IOException {
+		File[] files = folder.listFiles();
+		if (files == null)
+			throw new IOException("Cannot list folder: "+folder.getPath());
+		Arrays.sort(files);
+		List<File> sourceFiles = new ArrayList<File>(files.length);
+		for (File file : files) {
+			String name = file.getName().toLowerCase();
+			if (file.isFile() && isSourceFile(name))
+				sourceFiles.add(file);
+		}
+		return sourceFiles;
+	}
+	
+	/**
+	 * Reads a list of file paths (one per line, empty lines and lines starting with '#' are ignored).
+	 */
+	public static List<File> readFileList(File listFile) throws IOException {
+		List<File> sourceFiles = new ArrayList<File>();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(listFile), "UTF-8"));
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				line = line.trim();
+				if (!line.isEmpty() && !line.startsWith("#"))
+					sourceFiles.add(new File(line));
+			}
+		} finally {
+			reader.close();
+		}
+		return sourceFiles;
+	}
+
+	/**
+	 * Sets the GtsId pattern that is applied to each file (see {@link PageConverter#setGtsId(String, String)})
+	 */
+	public void setGtsIdPattern(String gtsidPattern) {
+		this.gtsidPattern = gtsidPattern;
+	}
+
+	/**
+	 * Sets the output filename pattern ({name} is replaced by the source filename without extension)
+	 */
+	public void setTargetNamePattern(String targetNamePattern) {
+		this.targetNamePattern = targetNamePattern;
+	}
+
+	/**
+	 * Enables incremental conversion: files that are up to date according to the manifest are skipped
+	 * @param manifest Manifest of previous conversions (updated by {@link #run(List)}, saved regularly during the batch and at the end)
+	 * @param optionFingerprint Fingerprint of the conversion options
+	 */
+	public void setManifest(ConversionManifest manifest, String optionFingerprint) {
+		this.manifest = manifest;
+		this.optionFingerprint = optionFingerprint;
+	}
+
+	/**
+	 * Enables memory-aware scheduling: files are converted largest first and only as many 
+	 * at the same time as the memory budget of the scheduler allows
+	 */
+	public void setScheduler(MemoryAwareScheduler scheduler) {
+		this.scheduler = scheduler;
+	}
+
+	/**
+	 * Enables the pipelined mode: files are read and written by the given number of I/O threads,
+	 * while the worker threads (see {@link #setThreadCount(int)}) only convert in memory. 
+	 * Useful for slow or network file systems. Memory-aware scheduling and streaming mode 
+	 * are not used in this mode.
+	 * @param ioThreadCount Number of I/O threads or 0 to disable the pipelined mode (default)
+	 */
+	public void setIoThreadCount(int ioThreadCount) {
+		this.ioThreadCount = ioThreadCount;
+	}
+
+	/**
+	 * Sets the time limit per file. Conversions that take longer are cancelled and recorded as TIMEOUT,
+	 * so that a single file can't block a worker thread.
+	 * @param timeoutMillis Milliseconds or 0 for no limit (default)
+	 */
+	public void setTimeout(long timeoutMillis) {
+		this.timeoutMillis = timeoutMillis;
+	}
+
+	/**
+	 * Sets the memory limit per file (bytes allocated by the conversion, checked between the conversion phases).
+	 * Conversions that exceed the limit are cancelled and recorded as MEMORY_LIMIT.
+	 * @param memoryLimit Bytes or 0 for no limit (default)
+	 */
+	public void setMemoryLimit(long memoryLimit) {
+		this.memoryLimit = memoryLimit;
+	}
+
+	public void setThreadCount(int threadCount) {
+		this.threadCount = threadCount;
+	}
+
+	/**
+	 * Sets a condition that is checked before each file is started. Once it fails, the remaining files
+	 * of the run are not converted (and not counted as failed). Conversions that are running are finished.
+	 * @param continueCondition Condition or null (default)
+	 */
+	public void setContinueCondition(ContinueCondition continueCondition) {
+		this.continueCondition = continueCondition;
+	}
+	
+	/**
+	 * Condition for starting further files of a batch (e.g. the lease of a {@link SharedWorkQueue} chunk is still held)
+	 */
+	public static interface ContinueCondition {
+		/**
+		 * @return False to stop the batch
+		 */
+		boolean canContinue();
+	}
+}
@@ -0,0 +1,217 @@
+/*
+ * Copyright 2019 PRImA Research Lab, University of Salford, United Kingdom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.primaresearch.dla.page.converter;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.primaresearch.dla.page.converter.ConversionResult.Status;
+
+/**
+ * Time and memory limits of a single conversion with cooperative cancellation.<br>
+ * <br>
+ * The converter calls {@link #checkpoint()} between its phases (load, processing, schema conversion, write).
+ * The checkpoint aborts the conversion with a {@link CancelledException} if the job has been cancelled,
+ * the thread has been interrupted, the time limit has passed or the thread has allocated more than
+ * the memory limit since {@link #start()}. Allocated bytes include garbage, so the memory limit is 
+ * an upper bound for the memory the conversion has used.<br>
+ * <br>
+ * A conversion that has been cancelled may still be running (e.g. blocked in a reader). Resources that
+ * belong to the conversion are therefore released by finish actions, which run when the conversion
+ * has actually ended (or if it never started). The output of the conversion should only be published
+ * after {@link #complete()}, which fails for cancelled jobs and prevents later cancellation.
+ * 
+ * @author Christian Clausner
+ *
+ */
+public class ConversionJob {
+	
+	private static final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+
+	private final long deadline;
+	private final long memoryLimit;
+	private volatile Status cancelReason = null;
+	private volatile Thread thread = null;
+	private volatile long allocatedAtStart = -1L;
+	private volatile long allocated = -1L;
+	private boolean started = false;
+	private boolean completed = false;
+	private boolean ended = false;
+	private final List<Runnable> finishActions = new ArrayList<Runnable>();
+	
+	/**
+	 * Constructor (the time limit starts here)
+	 * @param timeoutMillis Time limit in milliseconds (0 for no limit)
+	 * @param memoryLimit Maximum bytes allocated by the conversion (0 for no limit)
+	 */
+	public ConversionJob(long timeoutMillis, long memoryLimit) {
+		this.deadline = timeoutMillis > 0 ? System.nanoTime() + timeoutMillis * 1000000L : 0L;
+		this.memoryLimit = memoryLimit;
+	}
+	
+	/**
+	 * Adds an action that runs once when the conversion has ended, on the thread that ran the conversion.
+	 * If the job is cancelled before it has started, the action runs when it is cancelled.
+	 */
+	public synchronized void addFinishAction(Runnable action) {
+		finishActions.add(action);
+	}
+	
+	/**
+	 * Called on the thread that runs the conversion, before the conversion starts
+	 * @return False if the job has been cancelled already (the conversion must not run)
+	 */
+	public boolean start() {
+		synchronized (this) {
+			if (cancelReason != null || ended)
+				return false;
+			started = true;
+			thread = Thread.currentThread();
+		}
+		allocatedAtStart = getAllocatedBytes(thread);
+		return true;
+	}
+	
+	/**
+	 * Called on the conversion thread after the conversion (measures the allocated memory and runs the finish actions)
+	 */
+	public void finish() {
+		allocated = getAllocatedBytesSinceStart();
+		end();
+	}
+	
+	/**
+	 * Marks the conversion as completed, so that it can be published (e.g. by moving the output file to its target).
+	 * A completed job cannot be cancelled anymore.
+	 * @return False if the job has been cancelled (the output must be discarded)
+	 */
+	public synchronized boolean complete() {
+		if (cancelReason != null)
+			return false;
+		completed = true;
+		return true;
+	}
+	
+	/**
+	 * Aborts the conversion at the next checkpoint and interrupts the conversion thread
+	 * @param reason Status for the result of the conversion (e.g. TIMEOUT)
+	 * @return False if the job has already completed (see {@link #complete()})
+	 */
+	public boolean cancel(Status reason) {
+		Thread running;
+		boolean notStarted;
+		synchronized (this) {
+			if (completed)
+				return false;
+			if (cancelReason == null)
+				cancelReason = reason;
+			running = thread;
+			notStarted = !started;
+		}
+		if (running != null)
+			running.interrupt();
+		if (notStarted)
+			end();
+		return true;
+	}
+	
+	/**
+	 * Called if the conversion will not be started (anymore). Runs the finish actions unless the conversion is running.
+	 */
+	public void discard() {
+		synchronized (this) {
+			if (started)
+				return;
+		}
+		end();
+	}
+	
+	/**
+	 * Runs the finish actions (only once)
+	 */
+	private void end() {
+		List<Runnable> actions;
+		synchronized (this) {
+			if (ended)
+				return;
+			ended = true;
+			actions = new ArrayList<Runnable>(finishActions);
+		}
+		for (Runnable action : actions)
+			action.run();
+	}
+	
+	/**
+	 * Throws a {@link CancelledException} if the conversion is to be stopped
+	 */
+	public void checkpoint() {
+		if (cancelReason != null)
+			throw new CancelledException(cancelReason, "Conversion cancelled");
+		if (Thread.currentThread().isInterrupted())
+			throw new CancelledException(Status.ERROR, "Conversion interrupted");
+		if (deadline != 0L && System.nanoTime() - deadline > 0)
+			throw new CancelledException(Status.TIMEOUT, "Time limit exceeded");
+		if (memoryLimit > 0) {
+			long used = getAllocatedBytesSinceStart();
+			if (used > memoryLimit)
+				throw new CancelledException(Status.MEMORY_LIMIT, "Memory limit exceeded ("+(used >> 20)+" MB allocated)");
+		}
+	}
+	
+	/**
+	 * Bytes allocated by the conversion thread (-1 if unknown). After {@link #finish()} the total of the conversion.
+	 */
+	public long getAllocatedBytes() {
+		return allocated >= 0 ? allocated : getAllocatedBytesSinceStart();
+	}
+	
+	private long getAllocatedBytesSinceStart() {
+		Thread running = thread;
+		if (running == null || allocatedAtStart < 0)
+			return -1L;
+		long now = getAllocatedBytes(running);
+		return now >= 0 ? now - allocatedAtStart : -1L;
+	}
+	
+	private static long getAllocatedBytes(Thread thread) {
+		if (!(threadBean instanceof com.sun.management.ThreadMXBean))
+			return -1L;
+		return ((com.sun.management.ThreadMXBean)threadBean).getThreadAllocatedBytes(thread.getId());
+	}
+	
+	/**
+	 * Thrown at a checkpoint if the conversion has been stopped
+	 */
+	public static class CancelledException extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+		
+		private final Status status;
+		
+		public CancelledException(Status status, String message) {
+			super(message);
+			this.status = status;
+		}
+		
+		/**
+		 * Reason for the cancellation (TIMEOUT, MEMORY_LIMIT or ERROR)
+		 */
+		public Status getStatus() {
+			return status;
+		}
+	}
+}
@@ -0,0 +1,292 @@
+/*
+ * Copyright 2019 PRImA Research Lab, University of Salford, United Kingdom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.primaresearch.dla.page.converter;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Record of previous conversions for incremental runs.<br>
+ * <br>
+ * For each source file, the manifest stores size, modification time, content hash (SHA-256),
+ * a fingerprint of the conversion options, the converter version and the output file.
+ * A file doesn't need to be converted again if all of these are unchanged and the output still exists.
+ * Size and modification time are checked first, so unchanged files are neither hashed nor parsed.
+ * The state of the source is taken before it is converted (see {@link #getSourceState(File)}), so that a change
+ * during the conversion is noticed by the next run.<br>
+ * <br>
+ * The manifest is a tab separated text file that is replaced atomically when saved. Thread-safe.
+ * 
+ * @author Christian Clausner
+ *
+ */
+public class ConversionManifest {
+	
+	private static final String HEADER = "#PageConverter manifest v1: source, size, modified, sha256, options, converter version, target";
+
+	private final File file;
+	private final Map<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+	/** Outputs that failed validation in this run (see {@link #invalidate(File)}) */
+	private final Set<String> invalidTargets = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+	
+	/**
+	 * Creates a manifest and loads the given file (if it exists)
+	 */
+	public ConversionManifest(File file) throws IOException {
+		this.file = file;
+		if (file.exists())
+			load();
+	}
+	
+	private void load() throws IOException {
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (line.isEmpty() || line.startsWith("#"))
+					continue;
+				String[] fields = line.split("\t", -1);
+				if (fields.length != 7)
+					continue; //Ignore corrupt lines (file will be converted again)
+				try {
+					entries.put(fields[0], new Entry(Long.parseLong(fields[1]), Long.parseLong(fields[2]), fields[3], fields[4], fields[5], fields[6]));
+				} catch (NumberFormatException exc) {
+					//Corrupt line
+				}
+			}
+		} finally {
+			reader.close();
+		}
+	}
+	
+	/**
+	 * Checks if the given source file has been converted before with the same options and converter version
+	 * and hasn't changed since. 
+	 * @param source Source file
+	 * @param target Output file
+	 * @param optionFingerprint Fingerprint of all options that affect the output
+	 * @return True if the conversion can be skipped
+	 */
+	public boolean isUpToDate(File source, File target, String optionFingerprint) throws IOException {
+		String key = getKey(source);
+		Entry entry = entries.get(key);
+		if (entry == null 
+				|| !entry.optionFingerprint.equals(optionFingerprint)
+				|| !entry.converterVersion.equals(PageConverter.VERSION)
+				|| !entry.target.equals(target.getAbsolutePath())
+				|| !target.exists())
+			return false;
+		
+		long size = source.length();
+		long modified = source.lastModified();
+		if (entry.size == size && entry.modified == modified)
+			return true;
+		
+		//Size or time stamp changed - compare content
+		if (entry.size != size || !entry.hash.equals(hash(source)))
+			return false;
+		entries.put(key, new Entry(size, modified, entry.hash, entry.optionFingerprint, entry.converterVersion, entry.target));
+		return true;
+	}
+	
+	/**
+	 * Records a successful conversion (ignored if the output has failed validation, see {@link #invalidate(File)})
+	 * @param sourceState State of the source file before it was converted (see {@link #getSourceState(File)})
+	 */
+	public synchronized void update(File source, SourceState sourceState, File target, String optionFingerprint) {
+		String targetPath = target.getAbsolutePath();
+		if (invalidTargets.contains(targetPath))
+			return;
+		entries.put(getKey(source), new Entry(sourceState.size, sourceState.modified, sourceState.hash, optionFingerprint, 
+				PageConverter.VERSION, targetPath));
+	}
+	
+	/**
+	 * Removes the entry of the given output file after it has failed validation, so that the source is converted
+	 * again by the next run. Later updates for this output are ignored, because a deferred validation 
+	 * can finish before the conversion has been recorded.
+	 */
+	public synchronized void invalidate(File target) {
+		String targetPath = target.getAbsolutePath();
+		invalidTargets.add(targetPath);
+		for (Iterator<Entry> it = entries.values().iterator(); it.hasNext(); ) {
+			if (it.next().target.equals(targetPath))
+				it.remove();
+		}
+	}
+	
+	/**
+	 * Takes size and modification time and then the content hash of the given source file.
+	 * To be called before the file is converted.
+	 */
+	public static SourceState getSourceState(File source) throws IOException {
+		long size = source.length();
+		long modified = source.lastModified();
+		return new SourceState(size, modified, hash(source));
+	}
+	
+	/**
+	 * Returns the state of a source file that has been read into memory
+	 * @param modified Modification time of the file, taken before it was read
+	 * @param content Content of the file
+	 */
+	public static SourceState getSourceState(long modified, byte[] content) {
+		return new SourceState(content.length, modified, toHex(createDigest().digest(content)));
+	}
+	
+	/**
+	 * Removes the entry of the given source file (e.g. after a failed conversion)
+	 */
+	public void remove(File source) {
+		entries.remove(getKey(source));
+	}
+	
+	/**
+	 * Writes the manifest to a temporary file and then replaces the manifest file in one step. 
+	 */
+	public synchronized void save() throws IOException {
+		File folder = file.getAbsoluteFile().getParentFile();
+		if (folder != null && !folder.exists())
+			folder.mkdirs();
+		File temp = File.createTempFile(file.getName(), ".tmp", folder);
+		try {
+			Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(temp), "UTF-8"));
+			try {
+				writer.write(HEADER);
+				writer.write('\n');
+				for (Map.Entry<String, Entry> e : new TreeMap<String, Entry>(entries).entrySet()) {
+					Entry entry = e.getValue();
+					writer.write(e.getKey() + '\t' + entry.size + '\t' + entry.modified + '\t' + entry.hash + '\t' 
+							+ entry.optionFingerprint + '\t' + entry.converterVersion + '\t' + entry.target + '\n');
+				}
+			} finally {
+				writer.close();
+			}
+			Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		} finally {
+			if (temp.exists())
+				temp.delete();
+		}
+	}
+	
+	private static String getKey(File source) {
+		return source.getAbsolutePath();
+	}
+	
+	/**
+	 * SHA-256 of the file content (hex)
+	 */
+	static String hash(File file) throws IOException {
+		InputStream in = new FileInputStream(file);
+		try {
+			return hash(in);
+		} finally {
+			in.close();
+		}
+	}
+	
+	/**
+	 * SHA-256 of the stream content (hex). The stream is not closed.
+	 */
+	static String hash(InputStream in) throws IOException {
+		MessageDigest digest = createDigest();
+		byte[] buffer = new byte[64 * 1024];
+		int read;
+		while ((read = in.read(buffer)) > 0)
+			digest.update(buffer, 0, read);
+		return toHex(digest.digest());
+	}
+	
+	/**
+	 * SHA-256 of the given text (hex)
+	 */
+	static String hash(String text) {
+		try {
+			return toHex(createDigest().digest(text.getBytes("UTF-8")));
+		} catch (IOException exc) {
+			throw new IllegalStateException(exc);
+		}
+	}
+	
+	private static MessageDigest createDigest() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException exc) {
+			throw new IllegalStateException(exc); //Every JRE has SHA-256
+		}
+	}
+	
+	private static String toHex(byte[] bytes) {
+		StringBuilder hex = new StringBuilder(bytes.length * 2);
+		for (byte b : bytes)
+			hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+		return hex.toString();
+	}
+	
+	/**
+	 * Size, modification time and content hash of a source file
+	 */
+	public static final class SourceState {
+		final long size;
+		final long modified;
+		final String hash;
+		
+		private SourceState(long size, long modified, String hash) {
+			this.size = size;
+			this.modified = modified;
+			this.hash = hash;
+		}
+	}
+	
+	/**
+	 * Manifest entry of one source file
+	 */
+	private static final class Entry {
+		final long size;
+		final long modified;
+		final String hash;
+		final String optionFingerprint;
+		final String converterVersion;
+		final String target;
+		
+		Entry(long size, long modified, String hash, String optionFingerprint, String converterVersion, String target) {
+			this.size = size;
+			this.modified = modified;
+			this.hash = hash;
+			this.optionFingerprint = optionFingerprint;
+			this.converterVersion = converterVersion;
+			this.target = target;
+		}
+	}
+}
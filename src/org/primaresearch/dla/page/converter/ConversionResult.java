@@ -0,0 +1,96 @@
+/*
+ * Copyright 2019 PRImA Research Lab, University of Salford, United Kingdom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.primaresearch.dla.page.converter;
+
+/**
+ * Outcome of the conversion of a single file in a batch, with the kind of failure.
+ * 
+ * @author Christian Clausner
+ *
+ */
+public class ConversionResult {
+
+	/** Result of a conversion */
+	public static enum Status {
+		SUCCESS,
+		/** Output up to date (incremental mode) */
+		SKIPPED,
+		/** Source could not be read or parsed */
+		LOAD_ERROR,
+		/** Output not valid according to the schema */
+		VALIDATION_ERROR,
+		/** Output could not be written */
+		WRITE_ERROR,
+		/** Time limit exceeded */
+		TIMEOUT,
+		/** Memory limit of a single conversion exceeded */
+		MEMORY_LIMIT,
+		/** Java heap exhausted */
+		OUT_OF_MEMORY,
+		/** Any other error */
+		ERROR
+	}
+
+	private final String source;
+	private final Status status;
+	private final String message;
+	private final long durationMillis;
+
+	/**
+	 * Constructor
+	 * @param source Source file path
+	 * @param status Result
+	 * @param message Description of the failure (can be null)
+	 * @param durationMillis Time spent on the file
+	 */
+	public ConversionResult(String source, Status status, String message, long durationMillis) {
+		this.source = source;
+		this.status = status;
+		this.message = message;
+		this.durationMillis = durationMillis;
+	}
+
+	/**
+	 * Returns true if the file has been converted or was up to date
+	 */
+	public boolean isSuccess() {
+		return status == Status.SUCCESS || status == Status.SKIPPED;
+	}
+
+	public String getSource() {
+		return source;
+	}
+
+	public Status getStatus() {
+		return status;
+	}
+
+	public String getMessage() {
+		return message;
+	}
+
+	public long getDurationMillis() {
+		return durationMillis;
+	}
+
+	/**
+	 * Returns a tab-separated line: status, duration in milliseconds, source, message
+	 */
+	@Override
+	public String toString() {
+		return status + "\t" + durationMillis + "\t" + source + "\t" + (message != null ? message.replaceAll("[\t\r\n]+", " ") : "");
+	}
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2019 PRImA Research Lab, University of Salford, United Kingdom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.primaresearch.dla.page.converter;
+
+import org.primaresearch.io.FormatVersion;
+import org.primaresearch.io.xml.XmlFormatVersion;
+
+/**
+ * Output file and format of a conversion (PAGE XML of a given schema version or ALTO XML).
+ * 
+ * @author Christian Clausner
+ *
+ */
+public class ConversionTarget {
+	
+	private final String filename;
+	private final boolean alto;
+	private final FormatVersion schemaVersion;
+	
+	/**
+	 * Constructor
+	 * @param filename Output file path
+	 * @param alto ALTO XML output instead of PAGE?
+	 * @param schemaVersion PAGE schema version (null to keep the version of the source)
+	 */
+	public ConversionTarget(String filename, boolean alto, FormatVersion schemaVersion) {
+		this.filename = filename;
+		this.alto = alto;
+		this.schemaVersion = schemaVersion;
+	}
+	
+	/**
+	 * Creates a target from a format string as used for <code>-convert-to</code>
+	 * @param format ALTO, LATEST or a PAGE schema version (e.g. 2019-07-15), null to keep the version of the source
+	 * @param filename Output file path
+	 */
+	public static ConversionTarget parse(String format, String filename) {
+		if (format == null)
+			return new ConversionTarget(filename, false, null);
+		if ("ALTO".equals(format))
+			return new ConversionTarget(filename, true, null);
+		if ("LATEST".equals(format))
+			return new ConversionTarget(filename, false, SchemaCache.getLatestSchemaModel().getVersion());
+		return new ConversionTarget(filename, false, new XmlFormatVersion(format));
+	}
+
+	public String getFilename() {
+		return filename;
+	}
+
+	public boolean isAlto() {
+		return alto;
+	}
+
+	/**
+	 * PAGE schema version (null to keep the version of the source or for ALTO)
+	 */
+	public FormatVersion getSchemaVersion() {
+		return schemaVersion;
+	}
+	
+	@Override
+	public String toString() {
+		return (alto ? "ALTO" : schemaVersion != null ? schemaVersion.toString() : "PAGE") + ":" + filename;
+	}
+}
@@ -0,0 +1,706 @@
+/*
+ * Copyright 2019 PRImA Research Lab, University of Salford, United Kingdom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.primaresearch.dla.page.converter;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.primaresearch.dla.page.converter.metrics.MetricsRecorder;
+import org.primaresearch.dla.page.converter.pipeline.CompiledTextFilter;
+
+import org.primaresearch.io.xml.variable.XmlVariableFileReader;
+
+/**
+ * Parsed command line arguments of the converter tool.<br>
+ * Holds a pre-configured {@link PageConverter} and the input/output settings
+ * for either a single conversion or a batch conversion.
+ * 
+ * @author Christian Clausner
+ *
+ */
+public class ConverterArguments {
+	
+	/** Options with value that affect the output of a conversion (for the option fingerprint). 
+	 *  The source options are included because they select the reader (XML or JSON). */
+	private static final Set<String> OUTPUT_OPTIONS_WITH_VALUE = new HashSet<String>(Arrays.asList(
+			"-source", "-source-xml", "-source-json", "-set-gtsid", "-convert-to", "-text-filter", "-neg-coords", "-set-xres", "-set-yres", "-set-res", "-set-res-unit", "-target-name", "-transform"));
+	
+	/** Options without value that affect the output of a conversion */
+	private static final Set<String> OUTPUT_FLAGS = new HashSet<String>(Arrays.asList(
+			"-transform-coords", "-streaming", "-gzip"));
+	
+	/** Prepared text filters by rule file (path and modification date) */
+	private static final Map<String, CompiledTextFilter> textFilterCache = new ConcurrentHashMap<String, CompiledTextFilter>();
+
+	private PageConverter converter = new PageConverter();
+	
+	//Single file
+	private String sourceFilename = null;
+	private boolean json = false;
+	private String targetFilename = null;
+	private String convertTo = null;
+	private List<ConversionTarget> additionalTargets = new ArrayList<ConversionTarget>();
+	
+	//Batch
+	private String sourceDir = null;
+	private String sourceList = null;
+	private String targetDir = null;
+	private String targetNamePattern = null;
+	private int threads = 0;
+	private Integer memoryBudget = null;
+	private int ioThreads = 0;
+	private String queueDir = null;
+	private String nodeId = null;
+	private int chunkSize = SharedWorkQueue.DEFAULT_CHUNK_SIZE;
+	private int leaseSeconds = 0;
+	private int timeoutSeconds = 0;
+	private int memoryLimit = 0;
+	private String resultsFile = null;
+	
+	//Class data sharing
+	private boolean trainingRun = false;
+	
+	//Validation
+	private String validationMode = null;
+	private String quarantineFolder = null;
+	
+	//Archive
+	private String sourceArchive = null;
+	private String targetArchive = null;
+	
+	//Server
+	private int serverPort = -1;
+	private boolean stdioServer = false;
+	
+	//Options
+	private boolean alto = false;
+	private boolean streaming = false;
+	private String gtsidPattern = null;
+	private String textFilterRuleFile = null;
+	private String negCoordsMode = null;
+	private String metricsFile = null;
+	private String manifestFile = null;
+	private String[] args = null;
+	
+	/**
+	 * Parses the given command line arguments.
+	 * Unknown arguments are reported to stderr and ignored.
+	 * @param args Command line arguments (see usage help of {@link PageConverter})
+	 * @return Parsed arguments
+	 */
+	public static ConverterArguments parse(String[] args) {
+		ConverterArguments arguments = new ConverterArguments();
+		arguments.args = args.clone();
+		PageConverter converter = arguments.converter;
+		
+		for (int i=0; i<args.length; i++) {
+			if ("-source-xml".equals(args[i]) || "-source".equals(args[i])) {
+				i++;
+				arguments.json = false;
+				arguments.sourceFilename = args[i];
+			}
+			else if ("-source-json".equals(args[i])) {
+				i++;
+				arguments.json = true;
+				arguments.sourceFilename = args[i];
+			}
+			else if ("-target-xml".equals(args[i])) {
+				i++;
+				arguments.targetFilename = args[i];
+			}
+			else if ("-target".equals(args[i])) {
+				arguments.additionalTargets.add(ConversionTarget.parse(args[i+1], args[i+2]));
+				i += 2;
+			}
+			else if ("-source-dir".equals(args[i])) {
+				i++;
+				arguments.sourceDir = args[i];
+			}
+			else if ("-source-list".equals(args[i])) {
+				i++;
+				arguments.sourceList = args[i];
+			}
+			else if ("-target-dir".equals(args[i])) {
+				i++;
+				arguments.targetDir = args[i];
+			}
+			else if ("-source-archive".equals(args[i])) {
+				i++;
+				arguments.sourceArchive = args[i];
+			}
+			else if ("-target-archive".equals(args[i])) {
+				i++;
+				arguments.targetArchive = args[i];
+			}
+			else if ("-target-name".equals(args[i])) {
+				i++;
+				arguments.targetNamePattern = args[i];
+			}
+			else if ("-queue".equals(args[i])) {
+				i++;
+				arguments.queueDir = args[i];
+			}
+			else if ("-node-id".equals(args[i])) {
+				i++;
+				arguments.nodeId = args[i];
+			}
+			else if ("-chunk-size".equals(args[i])) {
+				i++;
+				arguments.chunkSize = Integer.parseInt(args[i]);
+			}
+			else if ("-lease".equals(args[i])) {
+				i++;
+				arguments.leaseSeconds = Integer.parseInt(args[i]);
+			}
+			else if ("-timeout".equals(args[i])) {
+				i++;
+				arguments.timeoutSeconds = Integer.parseInt(args[i]);
+			}
+			else if ("-memory-limit".equals(args[i])) {
+				i++;
+				arguments.memoryLimit = Integer.parseInt(args[i]);
+			}
+			else if ("-results".equals(args[i])) {
+				i++;
+				arguments.resultsFile = args[i];
+			}
+			else if ("-io-threads".equals(args[i])) {
+				i++;
+				arguments.ioThreads = Integer.parseInt(args[i]);
+			}
+			else if ("-memory-budget".equals(args[i])) {
+				i++;
+				arguments.memoryBudget = "auto".equals(args[i]) ? 0 : Integer.parseInt(args[i]);
+			}
+			else if ("-threads".equals(args[i])) {
+				i++;
+				arguments.threads = Integer.parseInt(args[i]);
+			}
+			else if ("-server".equals(args[i])) {
+				i++;
+				arguments.serverPort = Integer.parseInt(args[i]);
+			}
+			else if ("-server-stdio".equals(args[i])) {
+				arguments.stdioServer = true;
+			}
+			else if ("-set-gtsid".equals(args[i])) {
+				i++;
+				arguments.gtsidPattern = args[i];
+			}
+			else if ("-convert-to".equals(args[i])) {
+				i++;
+				arguments.convertTo = args[i];
+				if ("ALTO".equals(args[i]))
+					arguments.alto = true;
+				else
+					converter.setTargetSchema(args[i]);
+			}
+			else if ("-text-filter".equals(args[i])) {
+				i++;
+				arguments.textFilterRuleFile = args[i];
+			}
+			else if ("-neg-coords".equals(args[i])) {
+				i++;
+				arguments.negCoordsMode = args[i];
+			}
+			else if ("-set-xres".equals(args[i])) {
+				i++;
+				converter.setxResolution(Double.parseDouble(args[i]));
+			}
+			else if ("-set-yres".equals(args[i])) {
+				i++;
+				converter.setyResolution(Double.parseDouble(args[i]));
+			}
+			else if ("-set-res".equals(args[i])) {
+				i++;
+				converter.setxResolution(Double.parseDouble(args[i]));
+				converter.setyResolution(Double.parseDouble(args[i]));
+			}
+			else if ("-set-res-unit".equals(args[i])) {
+				i++;
+				converter.setResolutionUnit(args[i]);
+			}
+			else if ("-transform-coords".equals(args[i])) {
+				converter.setTransformCoords(true);
+			}
+			else if ("-training-run".equals(args[i])) {
+				arguments.trainingRun = true;
+			}
+			else if ("-validation".equals(args[i])) {
+				i++;
+				arguments.validationMode = args[i];
+			}
+			else if ("-quarantine".equals(args[i])) {
+				i++;
+				arguments.quarantineFolder = args[i];
+			}
+			else if ("-transform".equals(args[i])) {
+				i++;
+				converter.setCoordinateTransform(args[i]);
+			}
+			else if ("-incremental".equals(args[i])) {
+				i++;
+				arguments.manifestFile = args[i];
+			}
+			else if ("-metrics".equals(args[i])) {
+				i++;
+				arguments.metricsFile = args[i];
+			}
+			else if ("-streaming".equals(args[i])) {
+				converter.setStreaming(true);
+				arguments.streaming = true;
+			}
+			else if ("-gzip".equals(args[i])) {
+				converter.setGzipOutput(true);
+			}
+			else if ("-parallel-page".equals(args[i])) {
+				i++;
+				converter.setParallelThreshold(Integer.parseInt(args[i]));
+			}
+			else {
+				System.err.println("Unknown argument: "+args[i]);
+			}
+		}
+		return arguments;
+	}
+	
+	/**
+	 * Runs the conversion(s) as specified by the arguments.
+	 * @return True if all conversions were successful, false otherwise
+	 */
+	public boolean execute() {
+		if (isServer())
+			return runServer();
+		if (trainingRun)
+			return StartupTraining.run();
+		
+		//Text filter
+		if (textFilterRuleFile != null) {
+			try {
+				converter.setTextFilter(loadTextFilter(new File(textFilterRuleFile)));
+			} catch (Exception e) {
+				System.err.println("Could not load text filter rules: "+textFilterRuleFile);
+				e.printStackTrace();
+				return false;
+			}
+		}
+		
+		//Metrics
+		MetricsRecorder metricsRecorder = null;
+		if (metricsFile != null) {
+			try {
+				metricsRecorder = new MetricsRecorder(new File(metricsFile));
+				converter.setMetricsRecorder(metricsRecorder);
+			} catch (Exception e) {
+				System.err.println("Could not open metrics file: "+metricsFile);
+				e.printStackTrace();
+			}
+		}
+		
+		//Incremental
+		ConversionManifest manifest = null;
+		String optionFingerprint = null;
+		if (manifestFile != null) {
+			try {
+				manifest = new ConversionManifest(new File(manifestFile));
+				optionFingerprint = getOptionFingerprint();
+			} catch (Exception e) {
+				System.err.println("Could not load manifest file: "+manifestFile);
+				e.printStackTrace();
+				return false;
+			}
+		}
+		
+		//Validation
+		OutputValidator outputValidator = null;
+		if (validationMode != null) {
+			outputValidator = OutputValidator.create(validationMode, quarantineFolder != null ? new File(quarantineFolder) : null);
+			outputValidator.setManifest(manifest);
+			converter.setOutputValidator(outputValidator);
+		}
+		
+		try {
+			boolean success = runConversions(manifest, optionFingerprint);
+			if (outputValidator != null && !outputValidator.isInline()) {
+				int invalid = outputValidator.awaitCompletion();
+				if (outputValidator.getValidatedCount() > 0)
+					System.out.println("Validated "+outputValidator.getValidatedCount()+" outputs after writing, "+invalid+" invalid");
+				success &= invalid == 0;
+				//Save again without the invalid outputs (the manifest has been saved before the validations finished)
+				if (invalid > 0 && manifest != null) {
+					try {
+						manifest.save();
+					} catch (IOException e) {
+						System.err.println("Could not update manifest file: "+manifestFile);
+						e.printStackTrace();
+						success = false;
+					}
+				}
+			}
+			return success;
+		} finally {
+			if (outputValidator != null)
+				outputValidator.shutdown();
+			if (metricsRecorder != null) {
+				if (isBatch())
+					metricsRecorder.printSummary(System.out);
+				try {
+					metricsRecorder.close();
+				} catch (Exception e) {
+					e.printStackTrace();
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Runs an archive, batch or single file conversion (depending on the arguments)
+	 * @param manifest Manifest for incremental conversion (can be null)
+	 * @param optionFingerprint Hash of all options that affect the output (for the manifest)
+	 */
+	private boolean runConversions(ConversionManifest manifest, String optionFingerprint) {
+		try {
+			if (sourceArchive != null)
+				return runArchive();
+			if (isBatch())
+				return runBatch(manifest, optionFingerprint);
+			
+			if (sourceFilename == null) {
+				System.err.println("No source file specified (-source, -source-xml or -source-json)");
+				return false;
+			}
+			List<ConversionTarget> targets = getTargets();
+			if (targets.isEmpty()) {
+				System.err.println("No target file specified (-target-xml or -target)");
+				return false;
+			}
+			File source = new File(sourceFilename);
+			File target = new File(targets.get(0).getFilename());
+			if (usesStandardStreams() && manifest != null) {
+				System.err.println("-incremental is not supported with stdin/stdout (ignored)");
+				manifest = null;
+			}
+			if (manifest != null && manifest.isUpToDate(source, target, optionFingerprint) && targetsExist(targets))
+				return true;
+			
+			//Set GtsID
+			if (gtsidPattern != null)
+				converter.setGtsId(gtsidPattern, sourceFilename);
+	
+			converter.preloadSchemas(json, alto);
+			ConversionManifest.SourceState sourceState = manifest != null && source.isFile() ? ConversionManifest.getSourceState(source) : null;
+			boolean success;
+			if (additionalTargets.isEmpty())
+				success = converter.run(sourceFilename, targetFilename, json, alto, negCoordsMode);
+			else
+				success = converter.run(sourceFilename, targets, json, negCoordsMode);
+			if (manifest != null) {
+				if (success && sourceState != null)
+					manifest.update(source, sourceState, target, optionFingerprint);
+				else
+					manifest.remove(source);
+				manifest.save();
+			}
+			return success;
+		} catch (IOException e) {
+			System.err.println("Could not update manifest file: "+manifestFile);
+			e.printStackTrace();
+			return false;
+		}
+	}
+	
+	/**
+	 * Loads the text filter rules from the given file. The prepared filter is cached
+	 * (per path and modification date), so that a long running process reads each rule file only once.
+	 */
+	private static CompiledTextFilter loadTextFilter(File ruleFile) throws Exception {
+		String key = ruleFile.getAbsolutePath() + "|" + ruleFile.lastModified();
+		CompiledTextFilter filter = textFilterCache.get(key);
+		if (filter == null) {
+			XmlVariableFileReader reader = new XmlVariableFileReader();
+			filter = new CompiledTextFilter(reader.read(ruleFile.toURI().toURL()));
+			textFilterCache.put(key, filter);
+		}
+		return filter;
+	}
+	
+	/**
+	 * Returns a hash over all options that affect the output (including the content of the text filter file)
+	 */
+	String getOptionFingerprint() throws IOException {
+		StringBuilder options = new StringBuilder();
+		for (int i=0; i<args.length; i++) {
+			if (OUTPUT_FLAGS.contains(args[i]))
+				options.append(args[i]).append('\n');
+			else if ("-target".equals(args[i]) && i+2 < args.length) {
+				options.append(args[i]).append('\n').append(args[i+1]).append('\n').append(args[i+2]).append('\n');
+				i += 2;
+			}
+			else if (OUTPUT_OPTIONS_WITH_VALUE.contains(args[i]) && i+1 < args.length) {
+				options.append(args[i]).append('\n').append(args[i+1]).append('\n');
+				i++;
+			}
+		}
+		if (textFilterRuleFile != null)
+			options.append("text filter content: ").append(ConversionManifest.hash(new File(textFilterRuleFile)));
+		return ConversionManifest.hash(options.toString());
+	}
+	
+	/**
+	 * Runs the converter server (socket or stdin/stdout)
+	 */
+	private boolean runServer() {
+		ConverterServer server = new ConverterServer(threads);
+		try {
+			if (stdioServer)
+				server.runStdioServer();
+			else
+				server.runSocketServer(serverPort);
+		} catch (Exception exc) {
+			System.err.println("Converter server error");
+			exc.printStackTrace();
+			return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * Returns the main target (-target-xml) followed by all additional targets (-target)
+	 * @return The targets (empty if none has been specified)
+	 */
+	private List<ConversionTarget> getTargets() {
+		List<ConversionTarget> targets = new ArrayList<ConversionTarget>();
+		if (targetFilename != null)
+			targets.add(alto ? ConversionTarget.parse("ALTO", targetFilename) : ConversionTarget.parse(convertTo, targetFilename));
+		targets.addAll(additionalTargets);
+		return targets;
+	}
+	
+	/**
+	 * Checks if the source or a target of a single file conversion is stdin/stdout ('-')
+	 */
+	boolean usesStandardStreams() {
+		if (FileStreams.isStandardStream(sourceFilename) || FileStreams.isStandardStream(targetFilename))
+			return true;
+		for (ConversionTarget target : additionalTargets) {
+			if (FileStreams.isStandardStream(target.getFilename()))
+				return true;
+		}
+		return false;
+	}
+	
+	private static boolean targetsExist(List<ConversionTarget> targets) {
+		for (ConversionTarget target : targets) {
+			if (!new File(target.getFilename()).exists())
+				return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * Converts the entries of an archive
+	 */
+	private boolean runArchive() {
+		if (targetArchive == null) {
+			System.err.println("No target archive specified (-target-archive)");
+			return false;
+		}
+		ArchiveConverter archiveConverter = new ArchiveConverter(converter, alto, negCoordsMode);
+		archiveConverter.setGtsIdPattern(gtsidPattern);
+		if (targetNamePattern != null)
+			archiveConverter.setTargetNamePattern(targetNamePattern);
+		if (threads > 0)
+			archiveConverter.setThreadCount(threads);
+		if (timeoutSeconds > 0)
+			archiveConverter.setTimeout(timeoutSeconds * 1000L);
+		if (memoryLimit > 0)
+			archiveConverter.setMemoryLimit(memoryLimit * 1024L * 1024L);
+		boolean success;
+		try {
+			success = archiveConverter.run(new File(sourceArchive), new File(targetArchive)) == 0;
+		} catch (IOException exc) {
+			System.err.println("Could not convert archive: "+sourceArchive);
+			exc.printStackTrace();
+			success = false;
+		}
+		if (resultsFile != null) {
+			try {
+				archiveConverter.writeResults(new File(resultsFile), false);
+			} catch (IOException exc) {
+				System.err.println("Could not write results file: "+resultsFile);
+				exc.printStackTrace();
+			}
+		}
+		return success;
+	}
+	
+	/**
+	 * Runs a batch conversion (source folder or file list)
+	 */
+	private boolean runBatch(ConversionManifest manifest, String optionFingerprint) {
+		if (targetDir == null) {
+			System.err.println("No target folder specified (-target-dir)");
+			return false;
+		}
+		
+		List<File> sourceFiles = null;
+		try {
+			if (sourceDir != null)
+				sourceFiles = BatchConverter.listSourceFiles(new File(sourceDir));
+			else if (sourceList != null)
+				sourceFiles = BatchConverter.readFileList(new File(sourceList));
+		} catch (Exception exc) {
+			System.err.println("Could not determine source files");
+			exc.printStackTrace();
+			return false;
+		}
+		
+		if (queueDir != null)
+			return runQueue(sourceFiles, manifest);
+		
+		BatchConverter batch = createBatchConverter();
+		if (manifest != null)
+			batch.setManifest(manifest, optionFingerprint);
+		boolean success = batch.run(sourceFiles) == 0;
+		if (resultsFile != null) {
+			try {
+				batch.writeResults(new File(resultsFile), false);
+			} catch (IOException exc) {
+				System.err.println("Could not write results file: "+resultsFile);
+				exc.printStackTrace();
+			}
+		}
+		return success;
+	}
+	
+	/**
+	 * Creates a batch converter with the options of the arguments
+	 */
+	private BatchConverter createBatchConverter() {
+		BatchConverter batch = new BatchConverter(converter, new File(targetDir), alto, negCoordsMode);
+		batch.setGtsIdPattern(gtsidPattern);
+		if (targetNamePattern != null)
+			batch.setTargetNamePattern(targetNamePattern);
+		else if (converter.isGzipOutput())
+			batch.setTargetNamePattern("{name}.xml" + FileStreams.GZIP_EXTENSION);
+		if (threads > 0)
+			batch.setThreadCount(threads);
+		if (memoryBudget != null)
+			batch.setScheduler(MemoryAwareScheduler.create(memoryBudget.intValue()));
+		if (ioThreads > 0) {
+			batch.setIoThreadCount(ioThreads);
+			if (streaming)
+				System.err.println("Warning: -streaming is not used with -io-threads (conversions run in memory)");
+			if (memoryBudget != null)
+				System.err.println("Warning: -memory-budget is not used with -io-threads");
+		}
+		if (timeoutSeconds > 0)
+			batch.setTimeout(timeoutSeconds * 1000L);
+		if (memoryLimit > 0)
+			batch.setMemoryLimit(memoryLimit * 1024L * 1024L);
+		return batch;
+	}
+	
+	/**
+	 * Converts files from a work queue shared with other nodes (see {@link SharedWorkQueue})
+	 * @param sourceFiles Files for the queue (if it hasn't been created yet), can be null to join an existing queue
+	 * @param manifest Not supported with a shared queue (ignored)
+	 */
+	private boolean runQueue(List<File> sourceFiles, ConversionManifest manifest) {
+		if (manifest != null)
+			System.err.println("-incremental is not supported with -queue (ignored)");
+		if (resultsFile != null)
+			System.err.println("-results is not supported with -queue (ignored)");
+		SharedWorkQueue queue = new SharedWorkQueue(new File(queueDir), nodeId);
+		if (leaseSeconds > 0)
+			queue.setLeaseTimeout(leaseSeconds * 1000L);
+		try {
+			BatchConverter batch = createBatchConverter();
+			//Target name collisions are found before queueing but the batch converter clears its results per chunk
+			List<ConversionResult> collisions = new ArrayList<ConversionResult>();
+			if (sourceFiles != null) {
+				queue.initialize(batch.removeTargetCollisions(sourceFiles), chunkSize);
+				collisions.addAll(batch.getResults());
+			}
+			int failed = queue.process(batch);
+			for (ConversionResult collision : collisions)
+				batch.addResult(collision);
+			if (!collisions.isEmpty())
+				System.out.println(collisions.size()+" files not queued (target name collision)");
+			queue.printStatus();
+			return failed == 0 && collisions.isEmpty();
+		} catch (InterruptedException exc) {
+			Thread.currentThread().interrupt();
+			return false;
+		} catch (IOException exc) {
+			System.err.println("Error in work queue "+queueDir);
+			exc.printStackTrace();
+			return false;
+		}
+	}
+	
+	/**
+	 * Returns true if the server mode has been requested (-server or -server-stdio)
+	 */
+	public boolean isServer() {
+		return serverPort >= 0 || stdioServer;
+	}
+	
+	/**
+	 * Returns true if a source folder, file list or work queue has been specified
+	 */
+	public boolean isBatch() {
+		return sourceDir != null || sourceList != null || queueDir != null;
+	}
+
+	/**
+	 * Returns the converter, pre-configured with the parsed settings
+	 */
+	public PageConverter getConverter() {
+		return converter;
+	}
+
+	public String getSourceFilename() {
+		return sourceFilename;
+	}
+
+	public String getTargetFilename() {
+		return targetFilename;
+	}
+
+	public boolean isJson() {
+		return json;
+	}
+
+	public boolean isAlto() {
+		return alto;
+	}
+
+	public String getGtsIdPattern() {
+		return gtsidPattern;
+	}
+
+	public String getNegCoordsMode() {
+		return negCoordsMode;
+	}
+}
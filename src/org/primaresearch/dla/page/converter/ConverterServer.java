@@ -0,0 +1,262 @@
+/*
+ * Copyright 2019 PRImA Research Lab, University of Salford, United Kingdom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.primaresearch.dla.page.converter;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Phaser;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Long-running converter process that accepts conversion requests from a local socket or from stdin.<br>
+ * <br>
+ * Protocol (line based, UTF-8):
+ * <ul>
+ * <li>Request: <code>&lt;request ID&gt; TAB &lt;argument&gt; TAB &lt;argument&gt; ...</code><br>
+ *     The arguments are the same as for the command line tool (e.g. <code>7 -source-xml in.xml -target-xml out.xml -convert-to LATEST</code>, tab separated).</li>
+ * <li>Response: <code>&lt;request ID&gt; TAB OK</code> or <code>&lt;request ID&gt; TAB ERROR TAB &lt;message&gt;</code></li>
+ * <li><code>PING</code> is answered with <code>PONG</code>, <code>SHUTDOWN</code> stops the server after all running requests have finished.</li>
+ * </ul>
+ * Requests are carried out concurrently on a bounded number of threads; responses may therefore arrive in a different order.
+ * Sources and targets must be files (stdin/stdout, <code>-</code>, are rejected).
+ * Reading further requests is paused while all threads and queue slots are busy.
+ * 
+ * @author Christian Clausner
+ *
+ */
+public class ConverterServer {
+	
+	private static final String CMD_PING = "PING";
+	private static final String CMD_SHUTDOWN = "SHUTDOWN";
+	private static final long SHUTDOWN_TIMEOUT_SECONDS = 60;
+
+	private final int threadCount;
+	private final ExecutorService executor;
+	private final Semaphore slots;
+	private final AtomicBoolean shutdown = new AtomicBoolean(false);
+	private volatile ServerSocket serverSocket = null;
+	
+	/**
+	 * Constructor
+	 * @param threadCount Number of concurrent conversions (0 for number of CPUs)
+	 */
+	public ConverterServer(int threadCount) {
+		this.threadCount = threadCount > 0 ? threadCount : Runtime.getRuntime().availableProcessors();
+		this.executor = Executors.newFixedThreadPool(this.threadCount);
+		this.slots = new Semaphore(this.threadCount * 2);
+	}
+	
+	/**
+	 * Listens on the given port of the loopback interface until a SHUTDOWN request is received.
+	 */
+	public void runSocketServer(int port) throws IOException {
+		serverSocket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+		addShutdownHook();
+		System.out.println("PAGE Converter server listening on "+serverSocket.getLocalSocketAddress());
+		try {
+			while (!shutdown.get()) {
+				final Socket socket;
+				try {
+					socket = serverSocket.accept();
+				} catch (SocketException exc) {
+					if (shutdown.get())
+						break; //Closed by shutdown
+					throw exc;
+				}
+				Thread connectionThread = new Thread(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							try {
+								serve(socket.getInputStream(), socket.getOutputStream());
+							} finally {
+								socket.close();
+							}
+						} catch (IOException exc) {
+							if (!shutdown.get())
+								exc.printStackTrace();
+						}
+					}
+				}, "PageConverter connection "+socket.getRemoteSocketAddress());
+				connectionThread.setDaemon(true);
+				connectionThread.start();
+			}
+		} finally {
+			shutdown();
+		}
+	}
+	
+	/**
+	 * Reads requests from stdin and writes responses to stdout until SHUTDOWN or the end of the input.
+	 * Any other output to stdout (e.g. from conversions) is redirected to stderr.
+	 */
+	public void runStdioServer() throws IOException {
+		PrintStream stdout = System.out;
+		System.setOut(System.err);
+		addShutdownHook();
+		try {
+			serve(System.in, stdout);
+		} finally {
+			shutdown();
+		}
+	}
+	
+	/**
+	 * Handles the requests of one connection
+	 */
+	private void serve(InputStream in, OutputStream out) throws IOException {
+		BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+		final Writer writer = new OutputStreamWriter(out, "UTF-8");
+		final Phaser pending = new Phaser(1);
+		String line;
+		while (!shutdown.get() && (line = reader.readLine()) != null) {
+			if (line.trim().isEmpty())
+				continue;
+			if (CMD_PING.equals(line.trim())) {
+				respond(writer, "PONG");
+				continue;
+			}
+			if (CMD_SHUTDOWN.equals(line.trim())) {
+				respond(writer, "BYE");
+				requestShutdown();
+				break;
+			}
+			
+			final String[] tokens = line.split("\t");
+			final String requestId = tokens[0];
+			
+			try {
+				slots.acquire();
+			} catch (InterruptedException exc) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+			pending.register();
+			try {
+				executor.execute(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							respond(writer, requestId + "\t" + handleRequest(tokens));
+						} finally {
+							slots.release();
+							pending.arriveAndDeregister();
+						}
+					}
+				});
+			} catch (RuntimeException exc) { //Rejected (shutting down)
+				slots.release();
+				pending.arriveAndDeregister();
+				respond(writer, requestId + "\tERROR\tServer is shutting down");
+			}
+		}
+		//Wait for the responses of this connection before it is closed
+		pending.arriveAndAwaitAdvance();
+	}
+	
+	/**
+	 * Runs a single conversion request
+	 * @param tokens Request ID followed by the command line arguments
+	 * @return Response (without request ID)
+	 */
+	String handleRequest(String[] tokens) {
+		if (tokens.length < 2)
+			return "ERROR\tNo arguments";
+		String[] args = new String[tokens.length - 1];
+		System.arraycopy(tokens, 1, args, 0, args.length);
+		try {
+			ConverterArguments arguments = ConverterArguments.parse(args);
+			if (arguments.isServer())
+				return "ERROR\tNested server mode not allowed";
+			if (arguments.usesStandardStreams())
+				return "ERROR\tstdin/stdout ('-') not allowed in server requests";
+			if (arguments.execute())
+				return "OK";
+			return "ERROR\tConversion failed (see server log)";
+		} catch (Exception exc) {
+			exc.printStackTrace();
+			return "ERROR\t" + String.valueOf(exc.getMessage()).replace('\t', ' ').replace('\n', ' ');
+		}
+	}
+	
+	private static void respond(Writer writer, String response) {
+		synchronized (writer) {
+			try {
+				writer.write(response);
+				writer.write('\n');
+				writer.flush();
+			} catch (IOException exc) {
+				exc.printStackTrace();
+			}
+		}
+	}
+	
+	/**
+	 * Stops accepting new requests. Requests in progress are finished. 
+	 */
+	public void requestShutdown() {
+		if (shutdown.getAndSet(true))
+			return;
+		ServerSocket socket = serverSocket;
+		if (socket != null) {
+			try {
+				socket.close();
+			} catch (IOException exc) {
+				exc.printStackTrace();
+			}
+		}
+	}
+	
+	/**
+	 * Stops the server and waits for running requests to finish
+	 */
+	private void shutdown() {
+		requestShutdown();
+		executor.shutdown();
+		try {
+			if (!executor.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS))
+				System.err.println("Server shutdown: conversions still running after "+SHUTDOWN_TIMEOUT_SECONDS+" seconds");
+		} catch (InterruptedException exc) {
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	/**
+	 * Finishes running requests when the process is terminated (e.g. Ctrl+C)
+	 */
+	private void addShutdownHook() {
+		Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+			@Override
+			public void run() {
+				shutdown();
+			}
+		}, "PageConverter shutdown"));
+	}
+}
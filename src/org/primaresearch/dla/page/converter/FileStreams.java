@@ -0,0 +1,200 @@
+/*
+ * Copyright 2019 PRImA Research Lab, University of Salford, United Kingdom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.primaresearch.dla.page.converter;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Buffered input and output streams for source and target paths: '-' stands for stdin/stdout, 
+ * gzip compressed input is detected from the first bytes and output is compressed for files ending
+ * with '.gz' (or on request).<br>
+ * <br>
+ * Zstandard is detected but not supported (there is no codec in the Java class library).
+ *
+ * @author Christian Clausner
+ *
+ */
+public class FileStreams {
+
+	/** Source or target path for stdin / stdout */
+	public static final String STANDARD_STREAM = "-";
+	/** File extension for gzip compression */
+	public static final String GZIP_EXTENSION = ".gz";
+	/** File extension for Zstandard compression (not supported) */
+	public static final String ZSTD_EXTENSION = ".zst";
+	
+	private static final int BUFFER_SIZE = 64 * 1024;
+	
+	/**
+	 * Returns true if the path stands for stdin or stdout
+	 */
+	public static boolean isStandardStream(String path) {
+		return STANDARD_STREAM.equals(path);
+	}
+	
+	/**
+	 * Returns true if the file is gzip compressed (by file extension)
+	 */
+	public static boolean isGzip(String path) {
+		return path.toLowerCase().endsWith(GZIP_EXTENSION);
+	}
+	
+	/**
+	 * Returns true if the path cannot be read or written as a plain file (stdin/stdout or compressed)
+	 */
+	public static boolean needsStream(String path) {
+		String name = path.toLowerCase();
+		return isStandardStream(path) || name.endsWith(GZIP_EXTENSION) || name.endsWith(ZSTD_EXTENSION);
+	}
+	
+	/**
+	 * Removes the compression extension (e.g. page.xml.gz becomes page.xml)
+	 */
+	public static String removeCompressionExtension(String filename) {
+		String name = filename.toLowerCase();
+		if (name.endsWith(GZIP_EXTENSION))
+			return filename.substring(0, filename.length() - GZIP_EXTENSION.length());
+		if (name.endsWith(ZSTD_EXTENSION))
+			return filename.substring(0, filename.length() - ZSTD_EXTENSION.length());
+		return filename;
+	}
+	
+	/**
+	 * Opens the given file or stdin (decompressed if gzip compressed). 
+	 * Closing the stream doesn't close stdin.
+	 * @param path File path or '-'
+	 */
+	public static InputStream openInput(String path) throws IOException {
+		InputStream in;
+		if (isStandardStream(path)) {
+			in = new FilterInputStream(new FileInputStream(FileDescriptor.in)) {
+				@Override
+				public void close() {
+				}
+			};
+		}
+		else
+			in = new FileInputStream(path);
+		try {
+			return decompress(in);
+		} catch (IOException exc) {
+			in.close();
+			throw exc;
+		}
+	}
+	
+	/**
+	 * Returns a buffered stream (with mark support) with the decompressed content 
+	 * if the given stream starts with the gzip signature, otherwise with the content as is.
+	 */
+	public static InputStream decompress(InputStream in) throws IOException {
+		BufferedInputStream buffered = in instanceof BufferedInputStream ? (BufferedInputStream)in : new BufferedInputStream(in, BUFFER_SIZE);
+		buffered.mark(4);
+		int b0 = buffered.read();
+		int b1 = buffered.read();
+		int b2 = buffered.read();
+		int b3 = buffered.read();
+		buffered.reset();
+		if (b0 == 0x1F && b1 == 0x8B)
+			return new BufferedInputStream(new GZIPInputStream(buffered, BUFFER_SIZE), BUFFER_SIZE);
+		if (b0 == 0x28 && b1 == 0xB5 && b2 == 0x2F && b3 == 0xFD)
+			throw new IOException("Zstandard compressed input is not supported");
+		return buffered;
+	}
+	
+	/**
+	 * Creates a buffered output stream for the given file or stdout. The file is created when the first bytes
+	 * are written, so a failed conversion doesn't leave an empty file. Closing the stream doesn't close stdout.
+	 * @param path File path or '-'
+	 * @param compress Compress with gzip (always compressed for files ending with '.gz')
+	 */
+	public static OutputStream openOutput(String path, boolean compress) throws IOException {
+		if (path.toLowerCase().endsWith(ZSTD_EXTENSION))
+			throw new IOException("Zstandard compression is not supported: "+path);
+		return new DeferredOutputStream(path, compress || isGzip(path));
+	}
+	
+	/**
+	 * Output stream that opens the target on the first write
+	 */
+	private static class DeferredOutputStream extends OutputStream {
+		private final String path;
+		private final boolean compress;
+		private OutputStream out = null;
+		
+		public DeferredOutputStream(String path, boolean compress) {
+			this.path = path;
+			this.compress = compress;
+		}
+		
+		private OutputStream getStream() throws IOException {
+			if (out == null) {
+				OutputStream target;
+				if (isStandardStream(path)) {
+					target = new FilterOutputStream(new FileOutputStream(FileDescriptor.out)) {
+						@Override
+						public void write(byte[] b, int off, int len) throws IOException {
+							out.write(b, off, len);
+						}
+						
+						@Override
+						public void close() throws IOException {
+							flush();
+						}
+					};
+				}
+				else
+					target = new FileOutputStream(path);
+				out = compress ? new BufferedOutputStream(new GZIPOutputStream(target, BUFFER_SIZE), BUFFER_SIZE)
+								: new BufferedOutputStream(target, BUFFER_SIZE);
+			}
+			return out;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			getStream().write(b);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			getStream().write(b, off, len);
+		}
+
+		@Override
+		public void flush() throws IOException {
+			if (out != null)
+				out.flush();
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (out != null)
+				out.close();
+		}
+	}
+}
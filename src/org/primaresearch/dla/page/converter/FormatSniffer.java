@@ -0,0 +1,171 @@
+/*
+ * Copyright 2019 PRImA Research Lab, University of Salford, United Kingdom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.primaresearch.dla.page.converter;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+
+/**
+ * Detects the format of a page file from its first few kilobytes
+ * (JSON start token, XML root element and namespace), without parsing the document.
+ *
+ * @author Christian Clausner
+ *
+ */
+public class FormatSniffer {
+
+	/** Supported source formats */
+	public static enum SourceFormat {
+		PAGE,
+		ALTO,
+		FINEREADER,
+		HOCR,
+		GOOGLE_JSON,
+		UNKNOWN
+	}
+
+	/** Number of bytes that are inspected (enough for XML declaration, comments and root element) */
+	public static final int HEAD_SIZE = 4096;
+
+	private static final Charset UTF_16BE = Charset.forName("UTF-16BE");
+	private static final Charset UTF_16LE = Charset.forName("UTF-16LE");
+	private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+
+	/**
+	 * Detects the format of the given file
+	 */
+	public static SourceFormat detect(File file) throws IOException {
+		InputStream in = new FileInputStream(file);
+		try {
+			byte[] head = new byte[HEAD_SIZE];
+			return detect(head, readFully(in, head));
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Detects the format of the given stream. The stream is reset to its start afterwards,
+	 * so it can be passed on to the reader.
+	 * @param in Stream with mark support (e.g. BufferedInputStream)
+	 */
+	public static SourceFormat detect(InputStream in) throws IOException {
+		if (!in.markSupported())
+			throw new IllegalArgumentException("Stream does not support mark/reset");
+		in.mark(HEAD_SIZE);
+		try {
+			byte[] head = new byte[HEAD_SIZE];
+			return detect(head, readFully(in, head));
+		} finally {
+			in.reset();
+		}
+	}
+
+	/**
+	 * Detects the format from the start of a file
+	 * @param head First bytes of the file
+	 * @param length Number of valid bytes in <code>head</code>
+	 */
+	public static SourceFormat detect(byte[] head, int length) {
+		String text = decode(head, length);
+		int pos = skipWhitespace(text, 0);
+		if (pos >= text.length())
+			return SourceFormat.UNKNOWN;
+
+		char c = text.charAt(pos);
+		if (c == '{' || c == '[')
+			return SourceFormat.GOOGLE_JSON;
+		if (c != '<')
+			return SourceFormat.UNKNOWN;
+
+		//Skip XML declaration, processing instructions, comments and doctype
+		while (pos < text.length() && text.charAt(pos) == '<') {
+			if (text.startsWith("<?", pos))
+				pos = skipPast(text, pos, "?>");
+			else if (text.startsWith("<!--", pos))
+				pos = skipPast(text, pos, "-->");
+			else if (text.startsWith("<!", pos))
+				pos = skipPast(text, pos, ">");
+			else
+				break;
+			if (pos < 0)
+				return SourceFormat.UNKNOWN;
+			pos = skipWhitespace(text, pos);
+		}
+		if (pos >= text.length() || text.charAt(pos) != '<')
+			return SourceFormat.UNKNOWN;
+
+		//Root element
+		int nameEnd = pos + 1;
+		while (nameEnd < text.length() && !Character.isWhitespace(text.charAt(nameEnd))
+				&& text.charAt(nameEnd) != '>' && text.charAt(nameEnd) != '/')
+			nameEnd++;
+		String name = text.substring(pos + 1, nameEnd);
+		if (name.indexOf(':') >= 0)
+			name = name.substring(name.indexOf(':') + 1);
+		int tagEnd = text.indexOf('>', nameEnd);
+		String attributes = text.substring(nameEnd, tagEnd >= 0 ? tagEnd : text.length());
+
+		if ("PcGts".equals(name))
+			return SourceFormat.PAGE;
+		if ("alto".equals(name))
+			return SourceFormat.ALTO;
+		if ("document".equals(name) && attributes.contains("abbyy.com/FineReader"))
+			return SourceFormat.FINEREADER;
+		if ("html".equalsIgnoreCase(name))
+			return SourceFormat.HOCR;
+		return SourceFormat.UNKNOWN;
+	}
+
+	/**
+	 * Decodes the head (UTF-16 if there is a byte order mark, otherwise byte by byte,
+	 * which is sufficient for the ASCII markup of UTF-8 and single-byte encodings)
+	 */
+	private static String decode(byte[] head, int length) {
+		if (length >= 2 && (head[0] & 0xFF) == 0xFE && (head[1] & 0xFF) == 0xFF)
+			return new String(head, 2, length - 2, UTF_16BE);
+		if (length >= 2 && (head[0] & 0xFF) == 0xFF && (head[1] & 0xFF) == 0xFE)
+			return new String(head, 2, length - 2, UTF_16LE);
+		if (length >= 3 && (head[0] & 0xFF) == 0xEF && (head[1] & 0xFF) == 0xBB && (head[2] & 0xFF) == 0xBF)
+			return new String(head, 3, length - 3, ISO_8859_1);
+		return new String(head, 0, length, ISO_8859_1);
+	}
+
+	private static int skipWhitespace(String text, int pos) {
+		while (pos < text.length() && Character.isWhitespace(text.charAt(pos)))
+			pos++;
+		return pos;
+	}
+
+	/**
+	 * Returns the position after the next occurrence of the given string or -1
+	 */
+	private static int skipPast(String text, int pos, String end) {
+		int index = text.indexOf(end, pos);
+		return index < 0 ? -1 : index + end.length();
+	}
+
+	private static int readFully(InputStream in, byte[] buffer) throws IOException {
+		int length = 0;
+		int read;
+		while (length < buffer.length && (read = in.read(buffer, length, buffer.length - length)) > 0)
+			length += read;
+		return length;
+	}
+}
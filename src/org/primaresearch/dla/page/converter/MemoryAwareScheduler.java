@@ -0,0 +1,325 @@
+/*
+ * Copyright 2019 PRImA Research Lab, University of Salford, United Kingdom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.primaresearch.dla.page.converter;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.ThreadMXBean;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.primaresearch.dla.page.converter.FormatSniffer.SourceFormat;
+
+/**
+ * Admits conversion jobs against a heap budget, based on an estimate of the memory each job needs.<br>
+ * <br>
+ * The estimate is the input file size times a factor for the input format (PAGE, ALTO, FineReader, hOCR
+ * or JSON, detected from the start of XML files) plus a factor for the output format (PAGE or ALTO) and
+ * a fixed overhead. The size of gzip compressed input is multiplied by a typical expansion ratio first.
+ * Jobs are admitted in the order in which
+ * they ask for memory, as long as the sum of the estimates of running jobs stays within the budget.
+ * A job whose estimate exceeds the budget waits until no other job is running and then runs on its own.<br>
+ * <br>
+ * For tuning the factors, the scheduler records the bytes allocated by each job (if supported by the JVM)
+ * and reports them together with the estimates and the peak heap usage of the batch. Allocated bytes
+ * include garbage and are therefore not comparable to the live heap of a job; the heap peak is the
+ * figure to compare with the budget.
+ * 
+ * @author Christian Clausner
+ *
+ */
+public class MemoryAwareScheduler {
+	
+	/** Fixed memory per job (converter objects, buffers) */
+	private static final long JOB_OVERHEAD = 4L * 1024 * 1024;
+	
+	/** Assumed ratio of uncompressed to gzip compressed size (typical for PAGE XML and JSON) */
+	private static final double GZIP_EXPANSION = 10.0;
+	
+	private final long budget;
+	private final Map<SourceFormat, Double> inputFactors = new EnumMap<SourceFormat, Double>(SourceFormat.class);
+	private double pageOutputFactor = 4.0;
+	private double altoOutputFactor = 6.0;
+	
+	//Admission
+	private long reserved = 0;
+	private long nextTicket = 0;
+	private long servingTicket = 0;
+	private final Set<Long> abandonedTickets = new HashSet<Long>();
+	
+	//Statistics
+	private final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+	private final Map<String, FormatStatistics> statistics = new TreeMap<String, FormatStatistics>();
+	private int exclusiveJobs = 0;
+	private long maxReserved = 0;
+	
+	/**
+	 * Constructor
+	 * @param budget Heap budget in bytes for all running jobs
+	 */
+	public MemoryAwareScheduler(long budget) {
+		this.budget = budget;
+		//ALTO, FineReader, hOCR (and unknown formats) are converted by the library while reading,
+		//which holds the document of the source and the page at the same time
+		inputFactors.put(SourceFormat.PAGE, 12.0);
+		inputFactors.put(SourceFormat.ALTO, 16.0);
+		inputFactors.put(SourceFormat.FINEREADER, 16.0);
+		inputFactors.put(SourceFormat.HOCR, 16.0);
+		inputFactors.put(SourceFormat.GOOGLE_JSON, 8.0);
+		inputFactors.put(SourceFormat.UNKNOWN, 16.0);
+	}
+	
+	/**
+	 * Creates a scheduler with the given budget in megabytes (0 for 70% of the maximum heap size)
+	 */
+	public static MemoryAwareScheduler create(int budgetMegabytes) {
+		long budget = budgetMegabytes > 0 ? budgetMegabytes * 1024L * 1024L : (long)(Runtime.getRuntime().maxMemory() * 0.7);
+		return new MemoryAwareScheduler(budget);
+	}
+	
+	/**
+	 * Returns the format of the given source file: JSON by file extension (as for the conversion), 
+	 * otherwise detected from the start of the (decompressed) file. UNKNOWN if the file can't be read.
+	 */
+	public static SourceFormat getInputFormat(File sourceFile) {
+		if (BatchConverter.isJson(sourceFile))
+			return SourceFormat.GOOGLE_JSON;
+		try {
+			InputStream in = FileStreams.openInput(sourceFile.getPath());
+			try {
+				return FormatSniffer.detect(in);
+			} finally {
+				in.close();
+			}
+		} catch (IOException exc) {
+			return SourceFormat.UNKNOWN;
+		}
+	}
+	
+	/**
+	 * Estimates the peak memory of converting the given file
+	 * @param format Input format (see {@link #getInputFormat(File)})
+	 * @param alto ALTO output (otherwise PAGE)?
+	 */
+	public long estimate(File sourceFile, SourceFormat format, boolean alto) {
+		double factor = inputFactors.get(format).doubleValue() + (alto ? altoOutputFactor : pageOutputFactor);
+		return JOB_OVERHEAD + (long)(getUncompressedSize(sourceFile) * factor);
+	}
+	
+	/**
+	 * File size, or the assumed uncompressed size for gzip compressed files
+	 */
+	private static double getUncompressedSize(File file) {
+		double size = file.length();
+		return FileStreams.isGzip(file.getName()) ? size * GZIP_EXPANSION : size;
+	}
+	
+	/**
+	 * Sorts the files by estimated memory, largest first (large jobs don't end up at the tail of a batch).
+	 * The estimate of each file (file size and format) is determined once before sorting,
+	 * so files that change during the sort can't break the order.
+	 * @param formats Receives the detected format of each file (so that the files aren't read again to detect it)
+	 */
+	public void sortLargestFirst(List<File> sourceFiles, Map<File, SourceFormat> formats, boolean alto) {
+		final Map<File, Long> estimates = new HashMap<File, Long>(sourceFiles.size() * 2);
+		for (File sourceFile : sourceFiles) {
+			SourceFormat format = getInputFormat(sourceFile);
+			formats.put(sourceFile, format);
+			estimates.put(sourceFile, Long.valueOf(estimate(sourceFile, format, alto)));
+		}
+		Collections.sort(sourceFiles, new Comparator<File>() {
+			@Override
+			public int compare(File f1, File f2) {
+				return estimates.get(f2).compareTo(estimates.get(f1));
+			}
+		});
+	}
+	
+	/**
+	 * Waits until the given amount of memory can be reserved (first come, first served).
+	 * Estimates larger than the budget wait for all other jobs to finish.
+	 * @param estimate Estimated memory (see {@link #estimate(File, SourceFormat, boolean)})
+	 * @return The reserved amount (to be passed to {@link #release(long)})
+	 */
+	public synchronized long acquire(long estimate) throws InterruptedException {
+		long amount = Math.min(estimate, budget);
+		long ticket = nextTicket++;
+		try {
+			while (ticket != servingTicket || reserved + amount > budget)
+				wait();
+		} catch (InterruptedException exc) {
+			//Give up the turn (or skip it when it comes)
+			if (ticket == servingTicket)
+				servingTicket++;
+			else
+				abandonedTickets.add(ticket);
+			advanceServingTicket();
+			notifyAll();
+			throw exc;
+		}
+		reserved += amount;
+		maxReserved = Math.max(maxReserved, reserved);
+		if (estimate > budget)
+			exclusiveJobs++;
+		servingTicket++;
+		advanceServingTicket();
+		notifyAll();
+		return amount;
+	}
+	
+	/**
+	 * Skips the tickets of waits that have been interrupted
+	 */
+	private void advanceServingTicket() {
+		while (abandonedTickets.remove(servingTicket))
+			servingTicket++;
+	}
+	
+	/**
+	 * Releases memory reserved with {@link #acquire(long)}
+	 */
+	public synchronized void release(long amount) {
+		reserved -= amount;
+		notifyAll();
+	}
+	
+	/**
+	 * Bytes allocated by the calling thread so far (-1 if not supported by the JVM)
+	 */
+	public long getAllocatedBytes() {
+		if (!(threadBean instanceof com.sun.management.ThreadMXBean))
+			return -1L;
+		return ((com.sun.management.ThreadMXBean)threadBean).getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+	
+	/**
+	 * Records estimate and observed allocation of a finished job
+	 * @param sourceFile Input file
+	 * @param format Input format
+	 * @param alto ALTO output?
+	 * @param estimate Estimated memory
+	 * @param allocated Bytes allocated by the job (-1 if unknown)
+	 */
+	public synchronized void record(File sourceFile, SourceFormat format, boolean alto, long estimate, long allocated) {
+		String key = format + " > " + (alto ? "ALTO" : "PAGE");
+		FormatStatistics stats = statistics.get(key);
+		if (stats == null) {
+			stats = new FormatStatistics();
+			statistics.put(key, stats);
+		}
+		stats.jobs++;
+		stats.inputBytes += (long)getUncompressedSize(sourceFile);
+		stats.estimatedBytes += estimate;
+		if (allocated >= 0) {
+			stats.allocatedBytes += allocated;
+			stats.maxRatio = Math.max(stats.maxRatio, (double)allocated / Math.max(1L, estimate));
+		}
+	}
+	
+	/**
+	 * Resets the peak heap usage of the JVM (to measure the peak of one batch)
+	 */
+	public void resetHeapPeak() {
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP)
+				pool.resetPeakUsage();
+		}
+	}
+	
+	/**
+	 * Sum of the peak usage of all heap memory pools since the last reset
+	 */
+	public long getHeapPeak() {
+		long peak = 0;
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP && pool.getPeakUsage() != null)
+				peak += pool.getPeakUsage().getUsed();
+		}
+		return peak;
+	}
+	
+	/**
+	 * Prints estimates and observations per format combination. The ratio of allocated bytes to the estimate
+	 * is an allocation ratio (including garbage), not a ratio of live memory.
+	 */
+	public synchronized void printReport(PrintStream out) {
+		out.println("Memory scheduler: budget " + toMegabytes(budget) + " MB, max. reserved " + toMegabytes(maxReserved) 
+				+ " MB, heap peak " + toMegabytes(getHeapPeak()) + " MB, " + exclusiveJobs + " exclusive jobs");
+		for (Map.Entry<String, FormatStatistics> entry : statistics.entrySet()) {
+			FormatStatistics stats = entry.getValue();
+			StringBuilder line = new StringBuilder("  ").append(entry.getKey()).append(": ").append(stats.jobs).append(" jobs");
+			line.append(", avg. input (uncompressed) ").append(String.format("%.2f", toMegabytes((double)stats.inputBytes / stats.jobs))).append(" MB");
+			line.append(", avg. estimate ").append(String.format("%.2f", toMegabytes((double)stats.estimatedBytes / stats.jobs))).append(" MB");
+			if (stats.allocatedBytes > 0) {
+				line.append(", avg. allocated (incl. garbage) ").append(String.format("%.2f", toMegabytes((double)stats.allocatedBytes / stats.jobs))).append(" MB");
+				line.append(" (max. allocation ").append(String.format("%.2f", stats.maxRatio)).append(" x estimate)");
+			}
+			out.println(line);
+		}
+	}
+	
+	private static long toMegabytes(long bytes) {
+		return bytes / (1024L * 1024L);
+	}
+	
+	private static double toMegabytes(double bytes) {
+		return bytes / (1024.0 * 1024.0);
+	}
+	
+	public long getBudget() {
+		return budget;
+	}
+	
+	/**
+	 * Sets the memory factor for the given input format (multiplied with the input file size)
+	 */
+	public void setInputFactor(SourceFormat format, double factor) {
+		inputFactors.put(format, factor);
+	}
+	
+	/**
+	 * Sets the additional memory factors for the output format (multiplied with the input file size)
+	 * @param pageOutput Additional factor for PAGE output
+	 * @param altoOutput Additional factor for ALTO output
+	 */
+	public void setOutputFactors(double pageOutput, double altoOutput) {
+		this.pageOutputFactor = pageOutput;
+		this.altoOutputFactor = altoOutput;
+	}
+	
+	/**
+	 * Accumulated estimates and observations for one combination of input and output format
+	 */
+	private static final class FormatStatistics {
+		int jobs = 0;
+		long inputBytes = 0;
+		long estimatedBytes = 0;
+		long allocatedBytes = 0;
+		double maxRatio = 0.0;
+	}
+}
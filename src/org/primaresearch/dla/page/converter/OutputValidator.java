@@ -0,0 +1,421 @@
+/*
+ * Copyright 2019 PRImA Research Lab, University of Salford, United Kingdom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.primaresearch.dla.page.converter;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.transform.stream.StreamSource;
+import javax.xml.validation.Validator;
+
+import org.primaresearch.dla.page.Page;
+import org.primaresearch.dla.page.io.StreamTarget;
+import org.primaresearch.dla.page.io.xml.XmlPageWriter_Alto;
+import org.primaresearch.dla.page.io.xml.XmlPageWriter_GenericSchema;
+import org.primaresearch.io.UnsupportedFormatVersionException;
+import org.primaresearch.io.xml.IOError;
+import org.primaresearch.io.xml.XmlFormatVersion;
+import org.primaresearch.io.xml.XmlValidator;
+import org.xml.sax.ErrorHandler;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+
+/**
+ * Schema validation of the output, either while writing (inline) or afterwards on separate threads.<br>
+ * <br>
+ * For deferred validation, the output is written without validation and the page is validated later
+ * by running the writer with validator again (discarding the output). Errors are reported via
+ * the writers' <code>getErrors()</code>. Output that has been written without the object model (streaming
+ * mode) is validated by reading the file again as a stream. Invalid output files can be moved to a quarantine folder.
+ * 
+ * @author Christian Clausner
+ *
+ */
+public class OutputValidator {
+	
+	/** Validation modes */
+	public enum Mode {
+		/** Validate while writing (default) */
+		INLINE,
+		/** Write without validation, validate all files on separate threads */
+		ASYNC,
+		/** Write without validation, validate a percentage of the files on separate threads */
+		SAMPLED,
+		/** No validation */
+		OFF
+	}
+	
+	/** Maximum number of errors that are collected when validating a file */
+	public static final int MAX_FILE_ERRORS = 20;
+	
+	private final Mode mode;
+	private final int samplePercent;
+	private final File quarantineFolder;
+	private final ExecutorService executor;
+	private final Semaphore pending;
+	private final int maxPending;
+	private final List<String> failures = Collections.synchronizedList(new ArrayList<String>());
+	private int validatedCount = 0;
+	private volatile ConversionManifest manifest = null;
+	
+	/**
+	 * Constructor
+	 * @param mode Validation mode
+	 * @param samplePercent Percentage of files to validate (for SAMPLED mode)
+	 * @param quarantineFolder Folder for invalid output files (null to leave them in place)
+	 * @param threadCount Number of validation threads (for ASYNC and SAMPLED mode)
+	 */
+	public OutputValidator(Mode mode, int samplePercent, File quarantineFolder, int threadCount) {
+		this.mode = mode;
+		this.samplePercent = samplePercent;
+		this.quarantineFolder = quarantineFolder;
+		if (mode == Mode.ASYNC || mode == Mode.SAMPLED) {
+			int threads = Math.max(1, threadCount);
+			executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "PageConverter-validator");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+			//Limit the number of pages that are kept in memory for validation
+			maxPending = threads * 2;
+			pending = new Semaphore(maxPending);
+		} else {
+			executor = null;
+			maxPending = 0;
+			pending = null;
+		}
+	}
+	
+	/**
+	 * Creates a validator from a mode string
+	 * @param modeString inline, async, sampled:&lt;percent&gt; or off
+	 * @param quarantineFolder Folder for invalid output files (can be null)
+	 * @throws IllegalArgumentException Invalid mode
+	 */
+	public static OutputValidator create(String modeString, File quarantineFolder) {
+		int threads = Runtime.getRuntime().availableProcessors();
+		if ("inline".equals(modeString))
+			return new OutputValidator(Mode.INLINE, 100, quarantineFolder, threads);
+		if ("async".equals(modeString))
+			return new OutputValidator(Mode.ASYNC, 100, quarantineFolder, threads);
+		if ("off".equals(modeString))
+			return new OutputValidator(Mode.OFF, 0, quarantineFolder, threads);
+		if (modeString != null && modeString.startsWith("sampled:")) {
+			int percent = Integer.parseInt(modeString.substring("sampled:".length()));
+			if (percent < 0 || percent > 100)
+				throw new IllegalArgumentException("Sample percentage out of range: "+percent);
+			return new OutputValidator(Mode.SAMPLED, percent, quarantineFolder, threads);
+		}
+		throw new IllegalArgumentException("Unknown validation mode: "+modeString);
+	}
+	
+	/**
+	 * Sets the manifest of an incremental conversion. Invalid outputs are removed from it,
+	 * so that their sources are converted again by the next run.
+	 * @param manifest Manifest or null
+	 */
+	public void setManifest(ConversionManifest manifest) {
+		this.manifest = manifest;
+	}
+	
+	/**
+	 * Validate while writing?
+	 */
+	public boolean isInline() {
+		return mode == Mode.INLINE;
+	}
+	
+	public Mode getMode() {
+		return mode;
+	}
+	
+	/**
+	 * Schedules the validation of a page that has been written without validation 
+	 * (blocks if too many validations are pending). Does nothing if the page is not to be validated.<br>
+	 * The page must not be changed afterwards.
+	 * @param page The page as written
+	 * @param alto ALTO XML output (otherwise PAGE XML)?
+	 * @param targetName Name of the output (for messages)
+	 * @param targetFile Output file (moved to the quarantine folder if invalid), can be null
+	 */
+	public void validateLater(final Page page, final boolean alto, final String targetName, final File targetFile) {
+		schedule(targetName, new Runnable() {
+			@Override
+			public void run() {
+				validate(page, alto, targetName, targetFile);
+			}
+		});
+	}
+	
+	/**
+	 * Schedules the validation of an output file that has been written without the object model 
+	 * (see {@link StreamingPageConverter}). The file is read again and validated as a stream (see 
+	 * {@link #validateFile(File, XmlFormatVersion)}). Blocks if too many validations are pending. 
+	 * Does nothing if the file is not to be validated.
+	 * @param targetFile The output file (moved to the quarantine folder if invalid)
+	 * @param version Schema version of the output
+	 * @param targetName Name of the output (for messages)
+	 */
+	public void validateFileLater(final File targetFile, final XmlFormatVersion version, final String targetName) {
+		schedule(targetName, new Runnable() {
+			@Override
+			public void run() {
+				List<String> errors;
+				try {
+					errors = validateFile(targetFile, version);
+				} catch (Exception exc) {
+					System.err.println("Could not validate: "+targetName);
+					exc.printStackTrace();
+					errors = Collections.singletonList(exc.toString());
+				}
+				report(errors.isEmpty(), errors, targetName, targetFile);
+			}
+		});
+	}
+	
+	/**
+	 * Runs the given validation on a validation thread (if the output is part of the sample)
+	 */
+	private void schedule(String targetName, final Runnable validation) {
+		if (executor == null || !isSampled(targetName))
+			return;
+		try {
+			pending.acquire();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return;
+		}
+		try {
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						validation.run();
+					} finally {
+						pending.release();
+					}
+				}
+			});
+		} catch (RuntimeException exc) {
+			pending.release();
+			throw exc;
+		}
+	}
+	
+	/**
+	 * Validates a written XML file against the schema of the given version. The file is read as a stream,
+	 * so the memory use doesn't depend on the size of the file.
+	 * @param file XML file (can be compressed, see {@link FileStreams#openInput(String)})
+	 * @param version Schema version (e.g. PAGE version)
+	 * @return Validation errors (empty if the file is valid, at most {@link #MAX_FILE_ERRORS})
+	 * @throws IOException The file could not be read
+	 */
+	public static List<String> validateFile(File file, XmlFormatVersion version) throws IOException, UnsupportedFormatVersionException {
+		final List<String> errors = new ArrayList<String>();
+		Validator validator = SchemaCache.getSchema(version).newValidator();
+		validator.setErrorHandler(new ErrorHandler() {
+			@Override
+			public void warning(SAXParseException exc) {
+			}
+			
+			@Override
+			public void error(SAXParseException exc) throws SAXException {
+				errors.add("Line "+exc.getLineNumber()+": "+exc.getMessage());
+				if (errors.size() >= MAX_FILE_ERRORS)
+					throw exc;
+			}
+			
+			@Override
+			public void fatalError(SAXParseException exc) throws SAXException {
+				errors.add("Line "+exc.getLineNumber()+": "+exc.getMessage());
+				throw exc;
+			}
+		});
+		InputStream in = FileStreams.openInput(file.getPath());
+		try {
+			validator.validate(new StreamSource(in));
+		} catch (SAXException exc) {
+			if (errors.isEmpty())
+				errors.add(exc.getMessage());
+		} finally {
+			in.close();
+		}
+		return errors;
+	}
+	
+	/**
+	 * Checks if the given output is part of the sample (always the same result for the same name)
+	 */
+	private boolean isSampled(String targetName) {
+		if (mode != Mode.SAMPLED)
+			return true;
+		return ((targetName.hashCode() & 0x7fffffff) % 100) < samplePercent;
+	}
+	
+	private void validate(Page page, boolean alto, String targetName, File targetFile) {
+		List<IOError> errors = null;
+		boolean valid;
+		try {
+			StreamTarget nullTarget = new StreamTarget(new NullOutputStream());
+			if (alto) {
+				XmlValidator validator = SchemaCache.borrowAltoValidator();
+				try {
+					XmlPageWriter_Alto writer = new XmlPageWriter_Alto(validator);
+					valid = writer.write(page, nullTarget);
+					errors = writer.getErrors();
+				} finally {
+					SchemaCache.returnAltoValidator(validator);
+				}
+			} else {
+				XmlFormatVersion version = (XmlFormatVersion)page.getFormatVersion();
+				XmlValidator validator = SchemaCache.borrowValidator(version);
+				try {
+					XmlPageWriter_GenericSchema writer = new XmlPageWriter_GenericSchema(validator);
+					valid = writer.write(page, nullTarget);
+					errors = writer.getErrors();
+				} finally {
+					SchemaCache.returnValidator(version, validator);
+				}
+			}
+		} catch (Exception exc) {
+			System.err.println("Could not validate: "+targetName);
+			exc.printStackTrace();
+			valid = false;
+		}
+		List<String> messages = new ArrayList<String>();
+		if (errors != null)
+			for (IOError error : errors)
+				messages.add(error.getMessage());
+		report(valid, messages, targetName, targetFile);
+	}
+	
+	/**
+	 * Counts a finished validation and reports and quarantines the output if it is invalid
+	 */
+	private void report(boolean valid, List<String> errors, String targetName, File targetFile) {
+		synchronized (this) {
+			validatedCount++;
+		}
+		if (valid)
+			return;
+		
+		failures.add(targetName);
+		if (manifest != null && targetFile != null)
+			manifest.invalidate(targetFile);
+		StringBuilder message = new StringBuilder("Validation failed: ").append(targetName);
+		for (String error : errors)
+			message.append("\n  ").append(error);
+		System.err.println(message);
+		quarantine(targetFile);
+	}
+	
+	/**
+	 * Moves the given file to the quarantine folder (if set). Files of the same name (e.g. from different
+	 * target folders) don't replace each other; a counter is appended instead (a.xml, a-1.xml, ...).
+	 * Synchronized, so that concurrent validations don't pick the same name.
+	 */
+	private synchronized void quarantine(File file) {
+		if (quarantineFolder == null || file == null || !file.exists())
+			return;
+		try {
+			quarantineFolder.mkdirs();
+			String name = file.getName();
+			int dot = name.indexOf('.');
+			String baseName = dot > 0 ? name.substring(0, dot) : name;
+			String extension = dot > 0 ? name.substring(dot) : ""; //Including .gz
+			File target = new File(quarantineFolder, name);
+			for (int i=1; target.exists(); i++)
+				target = new File(quarantineFolder, baseName + "-" + i + extension);
+			Files.move(file.toPath(), target.toPath());
+		} catch (IOException exc) {
+			System.err.println("Could not move invalid file to quarantine folder: "+file.getPath());
+			exc.printStackTrace();
+		}
+	}
+	
+	/**
+	 * Waits until all scheduled validations are finished
+	 * @return Number of invalid outputs (so far)
+	 */
+	public int awaitCompletion() {
+		if (pending != null) {
+			try {
+				pending.acquire(maxPending);
+				pending.release(maxPending);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		return failures.size();
+	}
+	
+	/**
+	 * Waits for pending validations and stops the validation threads
+	 */
+	public void shutdown() {
+		awaitCompletion();
+		if (executor != null) {
+			executor.shutdown();
+			try {
+				executor.awaitTermination(1, TimeUnit.MINUTES);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+	
+	/**
+	 * Names of all invalid outputs
+	 */
+	public List<String> getFailures() {
+		synchronized (failures) {
+			return new ArrayList<String>(failures);
+		}
+	}
+	
+	/**
+	 * Number of outputs validated after writing (ASYNC and SAMPLED mode)
+	 */
+	public synchronized int getValidatedCount() {
+		return validatedCount;
+	}
+	
+	/**
+	 * Output stream that discards everything
+	 */
+	private static final class NullOutputStream extends OutputStream {
+		@Override
+		public void write(int b) {
+		}
+		@Override
+		public void write(byte[] b, int off, int len) {
+		}
+	}
+}
@@ -15,45 +15,59 @@
  */
 package org.primaresearch.dla.page.converter;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.util.LinkedList;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import javax.xml.stream.XMLStreamException;
 
 import org.primaresearch.dla.page.Page;
 import org.primaresearch.dla.page.Page.MeasurementUnit;
+import org.primaresearch.dla.page.converter.ConversionResult.Status;
+import org.primaresearch.dla.page.converter.FormatSniffer.SourceFormat;
+import org.primaresearch.dla.page.converter.json.StreamingGoogleJsonPageReader;
+import org.primaresearch.dla.page.converter.metrics.ConversionMetrics;
+import org.primaresearch.dla.page.converter.metrics.MetricsRecorder;
+import org.primaresearch.dla.page.converter.pipeline.BulkCoordinateTransformStage;
+import org.primaresearch.dla.page.converter.pipeline.CompiledTextFilter;
+import org.primaresearch.dla.page.converter.pipeline.CoordinateScalingStage;
+import org.primaresearch.dla.page.converter.pipeline.CoordinateTransform;
+import org.primaresearch.dla.page.converter.pipeline.NegativeCoordinatesStage;
+import org.primaresearch.dla.page.converter.pipeline.PageObjectStage;
+import org.primaresearch.dla.page.converter.pipeline.PageProcessingPipeline;
+import org.primaresearch.dla.page.converter.pipeline.TextFilterStage;
 import org.primaresearch.dla.page.io.FileInput;
 import org.primaresearch.dla.page.io.FileTarget;
+import org.primaresearch.dla.page.io.InputSource;
+import org.primaresearch.dla.page.io.OutputTarget;
 import org.primaresearch.dla.page.io.PageWriter;
-import org.primaresearch.dla.page.io.json.GoogleJsonPageReader;
+import org.primaresearch.dla.page.io.StreamInput;
+import org.primaresearch.dla.page.io.StreamTarget;
 import org.primaresearch.dla.page.io.xml.PageXmlInputOutput;
-import org.primaresearch.dla.page.io.xml.PageXmlModelAndValidatorProvider;
 import org.primaresearch.dla.page.io.xml.XmlPageWriter_Alto;
-import org.primaresearch.dla.page.layout.PageLayout;
-import org.primaresearch.dla.page.layout.physical.ContentObject;
-import org.primaresearch.dla.page.layout.physical.ContentObjectProcessor;
-import org.primaresearch.dla.page.layout.physical.Region;
-import org.primaresearch.dla.page.layout.physical.text.LowLevelTextContainer;
-import org.primaresearch.dla.page.layout.physical.text.LowLevelTextObject;
-import org.primaresearch.dla.page.layout.physical.text.TextObject;
-import org.primaresearch.dla.page.layout.physical.text.impl.Glyph;
-import org.primaresearch.dla.page.layout.physical.text.impl.TextLine;
-import org.primaresearch.dla.page.layout.physical.text.impl.TextRegion;
-import org.primaresearch.dla.page.layout.physical.text.impl.Word;
-import org.primaresearch.dla.page.layout.shared.GeometricObject;
+import org.primaresearch.dla.page.io.xml.XmlPageWriter_GenericSchema;
 import org.primaresearch.io.FormatVersion;
 import org.primaresearch.io.UnsupportedFormatVersionException;
 import org.primaresearch.io.xml.IOError;
 import org.primaresearch.io.xml.XmlFormatVersion;
-import org.primaresearch.io.xml.XmlModelAndValidatorProvider;
 import org.primaresearch.io.xml.XmlValidator;
-import org.primaresearch.io.xml.variable.XmlVariableFileReader;
-import org.primaresearch.maths.geometry.Point;
-import org.primaresearch.maths.geometry.Polygon;
 import org.primaresearch.shared.variable.DoubleValue;
 import org.primaresearch.shared.variable.StringValue;
 import org.primaresearch.shared.variable.VariableMap;
-import org.primaresearch.text.filter.TextFilter;
-import org.primaresearch.text.filter.TextFilter.TextObjectTypeFilterCallback;
 
 
 /**
@@ -63,6 +77,9 @@ import org.primaresearch.text.filter.TextFilter.TextObjectTypeFilterCallback;
  *
  */
 public class PageConverter {
+	
+	/** Converter version (to be changed whenever the output for the same input and options changes) */
+	public static final String VERSION = "1.3";
 
 	private static final String NEG_COORDS_MODE_REMOVE_OBJECT = "removeObj";
 	//private static final String NEG_COORDS_MODE_TO_ZERO = "toZero";
@@ -70,10 +87,53 @@ public class PageConverter {
 	private String gtsidToSet = null;
 	private FormatVersion targetformat = null;
 	private VariableMap textFilterRules = null;
+	private CompiledTextFilter textFilter = null;
 	private Double xResolution = null;
 	private Double yResolution = null;
 	private String resolutionUnit = null;
 	private boolean transformCoords = false;
+	private String coordinateTransform = null;
+	private boolean streaming = false;
+	private boolean gzipOutput = false;
+	private int parallelThreshold = 0;
+	private MetricsRecorder metricsRecorder = null;
+	private OutputValidator outputValidator = null;
+	private ConversionJob job = null;
+	private SourceFormat sourceFormat = null;
+	private Status failureStatus = null;
+	private String failureMessage = null;
+	/** Deferred validations that are held until the output has reached its final location (null if not held) */
+	private List<HeldValidation> heldValidations = null;
+	
+	private static ExecutorService writerPool = null;
+	
+	/**
+	 * Default constructor
+	 */
+	public PageConverter() {
+	}
+	
+	/**
+	 * Copy constructor. Creates a converter with the same settings as the given template
+	 * (used to run several conversions with the same options, e.g. in batch mode).
+	 * @param template Converter to copy the settings from
+	 */
+	public PageConverter(PageConverter template) {
+		this.gtsidToSet = template.gtsidToSet;
+		this.targetformat = template.targetformat;
+		this.textFilterRules = template.textFilterRules;
+		this.textFilter = template.textFilter;
+		this.xResolution = template.xResolution;
+		this.yResolution = template.yResolution;
+		this.resolutionUnit = template.resolutionUnit;
+		this.transformCoords = template.transformCoords;
+		this.coordinateTransform = template.coordinateTransform;
+		this.streaming = template.streaming;
+		this.gzipOutput = template.gzipOutput;
+		this.parallelThreshold = template.parallelThreshold;
+		this.metricsRecorder = template.metricsRecorder;
+		this.outputValidator = template.outputValidator;
+	}
 	
 	/**
 	 * Main function
@@ -85,109 +145,42 @@ public class PageConverter {
 			return;
 		}
 
-		PageConverter converter = new PageConverter();
-		boolean alto = false;
-		
 		//Parse arguments
-		String sourceFilename = null;
-		boolean json = false;
-		String targetFilename = null;
-		String gtsidPattern = null;
-		String textFilterRuleFile = null;
-		String negCoordsMode = null;
+		ConverterArguments arguments = ConverterArguments.parse(args);
 		
-		for (int i=0; i<args.length; i++) {
-			if ("-source-xml".equals(args[i])) {
-				i++;
-				json = false;
-				sourceFilename = args[i];
-			}
-			else if ("-source-json".equals(args[i])) {
-				i++;
-				json = true;
-				sourceFilename = args[i];
-			}
-			else if ("-target-xml".equals(args[i])) {
-				i++;
-				targetFilename = args[i];
-			}
-			else if ("-set-gtsid".equals(args[i])) {
-				i++;
-				gtsidPattern = args[i];
-			}
-			else if ("-convert-to".equals(args[i])) {
-				i++;
-				if ("ALTO".equals(args[i]))
-					alto = true;
-				else
-					converter.setTargetSchema(args[i]);
-			}
-			else if ("-text-filter".equals(args[i])) {
-				i++;
-				textFilterRuleFile = args[i];
-			}
-			else if ("-neg-coords".equals(args[i])) {
-				i++;
-				negCoordsMode = args[i];
-			}
-			else if ("-set-xres".equals(args[i])) {
-				i++;
-				converter.setxResolution(Double.parseDouble(args[i]));
-			}
-			else if ("-set-yres".equals(args[i])) {
-				i++;
-				converter.setyResolution(Double.parseDouble(args[i]));
-			}
-			else if ("-set-res".equals(args[i])) {
-				i++;
-				converter.setxResolution(Double.parseDouble(args[i]));
-				converter.setyResolution(Double.parseDouble(args[i]));
-			}
-			else if ("-set-res-unit".equals(args[i])) {
-				i++;
-				converter.setResolutionUnit(args[i]);
-			}
-			else if ("-transform-coords".equals(args[i])) {
-				converter.setTransformCoords(true);
-			}
-			else {
-				System.err.println("Unknown argument: "+args[i]);
-			}
-		}
-		
-		//Set GtsID
-		if (gtsidPattern != null)
-			converter.setGtsId(gtsidPattern, sourceFilename);
+		//Keep stdout for the output document (messages go to stderr)
+		if (arguments.usesStandardStreams())
+			System.setOut(System.err);
 		
-		//Text filter
-		if (textFilterRuleFile != null) {
-			XmlVariableFileReader reader = new XmlVariableFileReader();
-			try {
-				converter.setTextFilterRules(reader.read(new File(textFilterRuleFile).toURI().toURL()));
-			} catch (Exception e) {
-				e.printStackTrace();
-			}
-		}
-
 		//Run conversion
-		converter.run(sourceFilename, targetFilename, json, alto, negCoordsMode);
+		arguments.execute();
 	}
 
 	/**
 	 * Print usage help to stdout
 	 */
-	private static void showUsage() {
+	static void showUsage() {
 		System.out.println("PAGE Converter");
 		System.out.println("");
 		System.out.println("PRImA Research Lab, University of Salford, UK");
 		System.out.println("");
 		System.out.println("Arguments:");
 		System.out.println("");
-		System.out.println("  -source-xml <XML file>        PAGE XML file to convert.");
+		System.out.println("  -source <file>                File to convert (PAGE, ALTO, FineReader or hOCR XML or Google");
+		System.out.println("                                Cloud Vision JSON, detected from the start of the file).");
+		System.out.println("                                '-' reads from stdin. Gzip compressed input is detected.");
+		System.out.println("     OR");
+		System.out.println("  -source-xml <XML file>        XML file to convert (format detected as for -source).");
 		System.out.println("     OR");
 		System.out.println("  -source-json <JSON file>      JSON file to convert (e.g. Google Cloud Vision output).");
 		System.out.println("");
-		System.out.println("  -target-xml <XML file>        Output PAGE XML file.");
+		System.out.println("  -target-xml <XML file>        Output PAGE XML file ('-' for stdout, compressed if ending with .gz).");
+		System.out.println("");
+		System.out.println("  -target <format> <file>       Additional output file (can be used several times, not in batch mode).");
+		System.out.println("                                Format: ALTO, LATEST or a PAGE schema version.");
+		System.out.println("                                The source is read once. Outputs with the same schema version are written");
+		System.out.println("                                one after another, other versions (and ALTO with pixel coordinates) need a");
+		System.out.println("                                copy of the page, which is written and parsed again as PAGE XML in memory.");
 		System.out.println("");
 		System.out.println("  -convert-to <schema version>  Target PAGE schema version. (optional)");
 		System.out.println("              Available versions:");
@@ -223,28 +216,501 @@ public class PageConverter {
 		System.out.println("  -set-res-unit <PPI|PPCM|other>    To set resolution unit of PAGE output. (optional)");
 		System.out.println("  -transform-coords    Adjust all coords according to resolution");
 		System.out.println("                       and measurement unit. (optional)");
+		System.out.println("  -transform <steps>   Transform all coords and the page size. Steps separated by ';':");
+		System.out.println("                       scale:<f> or scale:<fx>,<fy>, translate:<dx>,<dy>,");
+		System.out.println("                       rotate:<degrees clockwise>, flip:h or flip:v");
+		System.out.println("                       Example: \"rotate:90;scale:0.5\" (optional)");
+		System.out.println("");
+		System.out.println("  -streaming           Convert PAGE XML (2013-07-15 or newer) to PAGE XML without loading");
+		System.out.println("                       the whole document (for very large files). Falls back to normal");
+		System.out.println("                       conversion for JSON, ALTO output, text filter, -transform");
+		System.out.println("                       and -neg-coords removeObj.");
+		System.out.println("                       Streamed outputs are validated by reading the written file again");
+		System.out.println("                       (output to stdout is only streamed with -validation off).");
+		System.out.println("");
+		System.out.println("  -gzip                Compress all outputs with gzip (batch mode default file names: {name}.xml.gz).");
+		System.out.println("                       Outputs ending with .gz are always compressed. (optional)");
+		System.out.println("");
+		System.out.println("  -parallel-page <n>   Process the objects of pages with at least n regions and text objects");
+		System.out.println("                       on all CPUs (text filter, negative coords, transformation). (optional)");
+		System.out.println("");
+		System.out.println("  -validation <mode>   Schema validation of the output (optional, default: inline)");
+		System.out.println("       Modes:");
+		System.out.println("         inline            - Validate while writing");
+		System.out.println("         async             - Write without validation, validate on separate threads");
+		System.out.println("         sampled:<percent> - Like async, but only for the given percentage of files");
+		System.out.println("         off               - No validation");
+		System.out.println("  -quarantine <folder> Move output files that fail deferred validation to this folder");
+		System.out.println("");
+		System.out.println("  -metrics <file>      Append timings and counts per conversion phase to the file");
+		System.out.println("                       (one JSON line per file, summary with percentiles at the end). (optional)");
+		System.out.println("");
+		System.out.println("Batch mode (instead of -source and -target-xml):");
+		System.out.println("");
+		System.out.println("  -source-dir <folder>          Convert all XML and JSON files in the folder.");
+		System.out.println("     OR");
+		System.out.println("  -source-list <text file>      Convert all files listed in the text file (one path per line).");
+		System.out.println("");
+		System.out.println("  -target-dir <folder>          Output folder.");
+		System.out.println("  -target-name <pattern>        Output filename pattern (optional, default: {name}.xml)");
+		System.out.println("                                {name} is the source filename without extension.");
+		System.out.println("  -threads <number>             Number of worker threads (optional, default: number of CPUs)");
+		System.out.println("  -queue <folder>               Shared work queue for several machines/processes: files are split");
+		System.out.println("                                into chunks that the nodes claim one after the other. The first");
+		System.out.println("                                node creates the queue from -source-dir/-source-list, further");
+		System.out.println("                                nodes can join with -queue and -target-dir only.");
+		System.out.println("  -chunk-size <number>          Files per chunk (optional, default: 50)");
+		System.out.println("  -lease <seconds>              Time after which chunks of crashed nodes are taken over");
+		System.out.println("                                (optional, default: 300)");
+		System.out.println("  -node-id <name>               Name of this node in the queue (optional, default: process and host)");
+		System.out.println("  -io-threads <number>          Read and write files on separate I/O threads while the worker");
+		System.out.println("                                threads convert in memory (for network file systems, optional).");
+		System.out.println("                                -streaming and -memory-budget are not used in this mode.");
+		System.out.println("  -memory-budget <MB|auto>      Convert largest files first and limit concurrent conversions");
+		System.out.println("                                by estimated memory use (optional, auto: 70% of max. heap)");
+		System.out.println("  -timeout <seconds>            Time limit per file (or archive entry): conversions that take longer");
+		System.out.println("                                are cancelled and the worker continues with the next file (optional)");
+		System.out.println("  -memory-limit <MB>            Memory limit per file (allocated memory, checked between the");
+		System.out.println("                                conversion phases) (optional)");
+		System.out.println("  -results <file>               Write the result of each file (status, time in ms, path, message;");
+		System.out.println("                                tab-separated), e.g. LOAD_ERROR or TIMEOUT (optional)");
+		System.out.println("  -incremental <manifest file>  Skip files that haven't changed since the last run with the same");
+		System.out.println("                                options (also for single files). (optional)");
+		System.out.println("");
+		System.out.println("  -source-archive <ZIP or TAR file>   Convert all XML and JSON entries of the archive");
+		System.out.println("  -target-archive <ZIP or TAR file>   Output archive (for -source-archive)");
+		System.out.println("");
+		System.out.println("  Source files: .xml, .json, .html and .hocr, also gzip compressed (e.g. .xml.gz).");
+		System.out.println("  Files ending with .json (or .json.gz) are read as JSON,");
+		System.out.println("  the format of all others is detected from the start of the file.");
+		System.out.println("  The GtsId pattern of -set-gtsid is applied to each file separately.");
+		System.out.println("");
+		System.out.println("Fast start-up:");
+		System.out.println("");
+		System.out.println("  -training-run        Convert built-in sample pages (to create a class data sharing");
+		System.out.println("                       archive with -XX:ArchiveClassesAtExit=<file>, see README)");
+		System.out.println("");
+		System.out.println("Server mode (keeps running and accepts conversion requests):");
+		System.out.println("");
+		System.out.println("  -server <port>       Listen on the given port of localhost.");
+		System.out.println("     OR");
+		System.out.println("  -server-stdio        Read requests from stdin and write responses to stdout.");
+		System.out.println("");
+		System.out.println("  -threads <number>    Number of concurrent conversions (optional, default: number of CPUs)");
+		System.out.println("");
+		System.out.println("  One request per line: <request ID><TAB><argument><TAB><argument>...");
+		System.out.println("  (same arguments as above). Response: <request ID><TAB>OK or");
+		System.out.println("  <request ID><TAB>ERROR<TAB><message>. Send SHUTDOWN to stop the server.");
+	}
+	
+	/**
+	 * Starts loading the schema models and validators that will be needed for the output
+	 * on a background thread (to overlap with reading the input of a single conversion)
+	 * @param json JSON input?
+	 * @param altoOutput ALTO XML output instead of PAGE?
+	 */
+	public void preloadSchemas(boolean json, boolean altoOutput) {
+		if (altoOutput)
+			SchemaCache.preload(new XmlFormatVersion(SchemaCache.ALTO_V4_NAMESPACE));
+		else if (targetformat instanceof XmlFormatVersion)
+			SchemaCache.preload((XmlFormatVersion)targetformat);
+		else if (json)
+			SchemaCache.preloadLatestSchemaModel();
 	}
 	
 	/**
 	 * Runs the conversion
-	 * @param sourceFilename File path of input PAGE XML
-	 * @param targetFilename File path to output PAGE XML
+	 * @param sourceFilename File path of input PAGE XML, '-' for stdin (gzip compressed input is detected)
+	 * @param targetFilename File path to output PAGE XML, '-' for stdout (gzip compressed if ending with '.gz')
 	 * @param json JSON input?
 	 * @param altoOutput ALTO XML output instead of PAGE?
+	 * @param negCoordsMode Handling of negative coordinates (see {@link #handleNegativeCoordinates(Page, String)}), can be null
+	 * @return True if the conversion was successful, false otherwise
+	 */
+	public boolean run(String sourceFilename, String targetFilename, boolean json, boolean altoOutput, String negCoordsMode) {
+		ConversionMetrics metrics = new ConversionMetrics(sourceFilename, targetFilename);
+		boolean success = false;
+		try {
+			metrics.setCount(ConversionMetrics.COUNT_INPUT_BYTES, new File(sourceFilename).length());
+			
+			//Streaming conversion (falls back to the object model if not possible)
+			if (streaming && canStream(sourceFilename, targetFilename, json, altoOutput, negCoordsMode)) {
+				long start = System.nanoTime();
+				success = runStreaming(sourceFilename, targetFilename, negCoordsMode);
+				metrics.endPhase(ConversionMetrics.PHASE_STREAMING, start);
+			}
+			else if (FileStreams.needsStream(sourceFilename) || FileStreams.needsStream(targetFilename) || gzipOutput) {
+				success = runWithStreams(sourceFilename, targetFilename, json, altoOutput, negCoordsMode, metrics);
+			}
+			else {
+				success = run(new FileInput(new File(sourceFilename)), sourceFilename, 
+						new FileTarget(new File(targetFilename)), targetFilename, json, altoOutput, negCoordsMode, metrics);
+			}
+		} finally {
+			metrics.finish(success);
+			if (metricsRecorder != null)
+				metricsRecorder.record(metrics);
+		}
+		return success;
+	}
+	
+	/**
+	 * Runs the conversion for stdin/stdout or compressed files (see {@link FileStreams})
+	 */
+	private boolean runWithStreams(String sourceFilename, String targetFilename, boolean json, boolean altoOutput, 
+									String negCoordsMode, ConversionMetrics metrics) {
+		InputStream in;
+		try {
+			in = FileStreams.openInput(sourceFilename);
+		} catch (IOException exc) {
+			System.err.println("Could not open source file: "+sourceFilename);
+			exc.printStackTrace();
+			return setFailure(Status.LOAD_ERROR, exc.toString());
+		}
+		try {
+			OutputStream out = FileStreams.openOutput(targetFilename, gzipOutput);
+			boolean success = false;
+			try {
+				success = run(new StreamInput(in), sourceFilename, new StreamTarget(out), targetFilename, json, altoOutput, negCoordsMode, metrics);
+			} finally {
+				out.close();
+			}
+			return success;
+		} catch (IOException exc) {
+			System.err.println("Could not write target file: "+targetFilename);
+			exc.printStackTrace();
+			return setFailure(Status.WRITE_ERROR, exc.toString());
+		} finally {
+			try {
+				in.close();
+			} catch (IOException exc) {
+				exc.printStackTrace();
+			}
+		}
+	}
+	
+	/**
+	 * Runs the conversion with the given input and output (e.g. streams of archive entries). 
+	 * @param source Input (FileInput or StreamInput)
+	 * @param sourceName Name of the input (file path or archive entry), for messages and metrics
+	 * @param target Output (FileTarget or StreamTarget)
+	 * @param targetName Name of the output, for messages and metrics
+	 * @param json JSON input?
+	 * @param altoOutput ALTO XML output instead of PAGE?
+	 * @param negCoordsMode Handling of negative coordinates (see {@link #handleNegativeCoordinates(Page, String)}), can be null
+	 * @return True if the conversion was successful, false otherwise
+	 */
+	public boolean run(InputSource source, String sourceName, OutputTarget target, String targetName, boolean json, boolean altoOutput, String negCoordsMode) {
+		ConversionMetrics metrics = new ConversionMetrics(sourceName, targetName);
+		boolean success = false;
+		try {
+			success = run(source, sourceName, target, targetName, json, altoOutput, negCoordsMode, metrics);
+		} finally {
+			metrics.finish(success);
+			if (metricsRecorder != null)
+				metricsRecorder.record(metrics);
+		}
+		return success;
+	}
+	
+	/**
+	 * Runs the conversion and adds the timings to the given metrics
+	 */
+	private boolean run(InputSource source, String sourceName, OutputTarget target, String targetName, boolean json, boolean altoOutput, 
+						String negCoordsMode, ConversionMetrics metrics) {
+		clearFailure();
+		
+		//Load, GtsId and resolution
+		checkpoint();
+		Page page = loadAndPrepare(source, sourceName, json, metrics);
+		if (page == null)
+			return false;
+		checkpoint();
+		long start = System.nanoTime();
+		
+		//Text filter, negative coordinates and coordinate transformation (in one pass over all objects)
+		PageProcessingPipeline pipeline = createPipeline(page, altoOutput, negCoordsMode);
+		start = runPipeline(pipeline, page, metrics, start);
+		checkpoint();
+		
+		if (altoOutput) {
+			//Write ALTO	
+			if (!writeAlto(page, target, targetName))
+				return false;
+		}
+		else {
+			//Convert to specified schema version
+			if (targetformat != null) {
+				convertSchema(page, targetformat);
+				start = metrics.endPhase(ConversionMetrics.PHASE_SCHEMA_CONVERSION, start);
+				checkpoint();
+			}
+
+			//Write PAGE
+			if (!writePageAndReport(page, target, targetName))
+				return false;
+		}
+		metrics.endPhase(ConversionMetrics.PHASE_WRITE, start);
+		return true;
+	}
+	
+	/**
+	 * Converts one source file to several targets (e.g. latest PAGE and ALTO).<br>
+	 * The source is loaded and processed once. Targets that need a different page 
+	 * (other PAGE schema version, or ALTO if coordinates are converted to pixels for PAGE only) 
+	 * get a copy of the processed page (written and parsed again as PAGE XML, which costs about as much as
+	 * loading a PAGE source). The targets of one page are written one after another, different pages in parallel.
+	 * @param sourceFilename File path of input PAGE XML or JSON
+	 * @param targets Output files and formats
+	 * @param json JSON input?
+	 * @param negCoordsMode Handling of negative coordinates (see {@link #handleNegativeCoordinates(Page, String)}), can be null
+	 * @return True if all targets have been written successfully, false otherwise
 	 */
-	public void run(String sourceFilename, String targetFilename, boolean json, boolean altoOutput, String negCoordsMode) {
+	public boolean run(String sourceFilename, List<ConversionTarget> targets, boolean json, String negCoordsMode) {
+		StringBuilder targetNames = new StringBuilder();
+		for (ConversionTarget target : targets) {
+			if (targetNames.length() > 0)
+				targetNames.append(';');
+			targetNames.append(target.getFilename());
+		}
+		ConversionMetrics metrics = new ConversionMetrics(sourceFilename, targetNames.toString());
+		boolean success = false;
+		try {
+			metrics.setCount(ConversionMetrics.COUNT_INPUT_BYTES, new File(sourceFilename).length());
+			success = runMultiple(sourceFilename, targets, json, negCoordsMode, metrics);
+		} finally {
+			metrics.finish(success);
+			if (metricsRecorder != null)
+				metricsRecorder.record(metrics);
+		}
+		return success;
+	}
+	
+	private boolean runMultiple(String sourceFilename, List<ConversionTarget> targets, boolean json, String negCoordsMode, ConversionMetrics metrics) {
+		clearFailure();
+		Page page;
+		if (FileStreams.needsStream(sourceFilename)) {
+			try {
+				InputStream in = FileStreams.openInput(sourceFilename);
+				try {
+					page = loadAndPrepare(new StreamInput(in), sourceFilename, json, metrics);
+				} finally {
+					in.close();
+				}
+			} catch (IOException exc) {
+				System.err.println("Could not open source file: "+sourceFilename);
+				exc.printStackTrace();
+				return setFailure(Status.LOAD_ERROR, exc.toString());
+			}
+		}
+		else
+			page = loadAndPrepare(new FileInput(new File(sourceFilename)), sourceFilename, json, metrics);
+		if (page == null)
+			return false;
+		long start = System.nanoTime();
+		
+		//Text filter and negative coordinates (shared by all targets)
+		PageProcessingPipeline pipeline = new PageProcessingPipeline();
+		addSharedStages(pipeline, negCoordsMode);
+		start = runPipeline(pipeline, page, metrics, start);
+		
+		//Group targets that can be written from the same page
+		List<List<ConversionTarget>> groups = groupTargets(page, targets);
+		
+		//Copies for all groups but the first (before anything group specific is changed)
+		Page[] pages = new Page[groups.size()];
+		pages[0] = page;
+		for (int i=1; i<groups.size(); i++) {
+			pages[i] = copyPage(page);
+			if (pages[i] == null)
+				return false;
+		}
+		if (groups.size() > 1)
+			start = metrics.endPhase(ConversionMetrics.PHASE_COPY, start);
+		
+		//Coordinate transformation and schema version per group
+		for (int i=0; i<groups.size(); i++) {
+			List<ConversionTarget> group = groups.get(i);
+			PageObjectStage transformStage = createCoordinateTransformStage(pages[i], isAltoOnly(group));
+			if (transformStage != null) {
+				PageProcessingPipeline groupPipeline = new PageProcessingPipeline();
+				groupPipeline.addStage(transformStage);
+				start = runPipeline(groupPipeline, pages[i], metrics, start);
+			}
+			FormatVersion version = getSchemaVersion(group);
+			if (version != null) {
+				convertSchema(pages[i], version);
+				start = metrics.endPhase(ConversionMetrics.PHASE_SCHEMA_CONVERSION, start);
+			}
+		}
+		
+		//Write the groups in parallel. The writers are not meant to share a page, so the targets of a group
+		//are written one after another and deferred validations (which write the page again) are held until the end.
+		boolean holding;
+		synchronized (this) {
+			holding = heldValidations == null;
+			if (holding)
+				heldValidations = new ArrayList<HeldValidation>();
+		}
+		boolean success = true;
+		try {
+			List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+			for (int i=0; i<groups.size(); i++) {
+				final List<ConversionTarget> group = groups.get(i);
+				final Page groupPage = pages[i];
+				results.add(getWriterPool().submit(new Callable<Boolean>() {
+					@Override
+					public Boolean call() throws Exception {
+						boolean written = true;
+						for (ConversionTarget target : group)
+							written &= writeTarget(groupPage, target.getFilename(), target.isAlto());
+						return written;
+					}
+				}));
+			}
+			for (Future<Boolean> result : results) {
+				try {
+					success &= result.get();
+				} catch (ExecutionException exc) {
+					exc.getCause().printStackTrace();
+					success = false;
+				} catch (InterruptedException exc) {
+					Thread.currentThread().interrupt();
+					return false;
+				}
+			}
+		} finally {
+			if (holding)
+				releaseHeldValidations();
+		}
+		metrics.endPhase(ConversionMetrics.PHASE_WRITE, start);
+		return success;
+	}
+	
+	/**
+	 * Writes the page to the given file (or stdout / compressed file, see {@link FileStreams}) 
+	 */
+	private boolean writeTarget(Page page, String targetFilename, boolean alto) throws IOException {
+		if (!FileStreams.needsStream(targetFilename) && !gzipOutput) {
+			FileTarget fileTarget = new FileTarget(new File(targetFilename));
+			return alto ? writeAlto(page, fileTarget, targetFilename) : writePageAndReport(page, fileTarget, targetFilename);
+		}
+		OutputStream out = FileStreams.openOutput(targetFilename, gzipOutput);
+		try {
+			StreamTarget streamTarget = new StreamTarget(out);
+			return alto ? writeAlto(page, streamTarget, targetFilename) : writePageAndReport(page, streamTarget, targetFilename);
+		} finally {
+			out.close();
+		}
+	}
+	
+	/**
+	 * Groups the targets so that each group can be written from one page:
+	 * PAGE targets by schema version, ALTO targets with the first PAGE group 
+	 * (or separately if PAGE coordinates are converted to pixels).
+	 */
+	private List<List<ConversionTarget>> groupTargets(Page page, List<ConversionTarget> targets) {
+		Map<String, List<ConversionTarget>> groups = new LinkedHashMap<String, List<ConversionTarget>>();
+		List<ConversionTarget> altoTargets = new ArrayList<ConversionTarget>();
+		for (ConversionTarget target : targets) {
+			if (target.isAlto()) {
+				altoTargets.add(target);
+				continue;
+			}
+			String key = target.getSchemaVersion() != null ? target.getSchemaVersion().toString() : "";
+			List<ConversionTarget> group = groups.get(key);
+			if (group == null) {
+				group = new ArrayList<ConversionTarget>();
+				groups.put(key, group);
+			}
+			group.add(target);
+		}
+		List<List<ConversionTarget>> result = new ArrayList<List<ConversionTarget>>(groups.values());
+		if (!altoTargets.isEmpty()) {
+			boolean altoSeparate = result.isEmpty() || (transformCoords && needsPixelScaling(page));
+			if (altoSeparate)
+				result.add(altoTargets);
+			else
+				result.get(0).addAll(altoTargets);
+		}
+		return result;
+	}
+	
+	private static boolean isAltoOnly(List<ConversionTarget> group) {
+		for (ConversionTarget target : group) {
+			if (!target.isAlto())
+				return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * Returns the PAGE schema version of the given target group (null to keep the version)
+	 */
+	private static FormatVersion getSchemaVersion(List<ConversionTarget> group) {
+		for (ConversionTarget target : group) {
+			if (!target.isAlto())
+				return target.getSchemaVersion();
+		}
+		return null;
+	}
+	
+	/**
+	 * Creates a copy of the given page (by writing and reading PAGE XML in memory)
+	 * @return The copy or null if the page could not be copied
+	 */
+	private static Page copyPage(Page page) {
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			if (!writePage(page, new StreamTarget(out), false))
+				throw new IllegalStateException("Writing failed");
+			return PageXmlInputOutput.getReader().read(new StreamInput(new ByteArrayInputStream(out.toByteArray())));
+		} catch (Exception exc) {
+			System.err.println("Could not copy page for multiple output formats");
+			exc.printStackTrace();
+			return null;
+		}
+	}
+	
+	/**
+	 * Pool for writing several targets at the same time
+	 */
+	private static synchronized ExecutorService getWriterPool() {
+		if (writerPool == null) {
+			writerPool = Executors.newCachedThreadPool(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "PageConverter-writer");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return writerPool;
+	}
+	
+	/**
+	 * Loads the page and sets GtsId and resolution
+	 * @return The page or null if it could not be loaded
+	 */
+	private Page loadAndPrepare(InputSource source, String sourceName, boolean json, ConversionMetrics metrics) {
 		//Load
+		long start = System.nanoTime();
 		Page page = null;
 		try {
-			if (json)
-				page = new GoogleJsonPageReader().read(new FileInput(new File(sourceFilename)));
-			else //XML
-				page = PageXmlInputOutput.readPage(sourceFilename);
+			page = loadPage(source, sourceName, json);
 		} catch (Exception e) {
-			System.err.println("Could not load source PAGE XML file: "+sourceFilename);
+			System.err.println("Could not load source PAGE XML file: "+sourceName);
 			e.printStackTrace();
-			return;
+			setFailure(Status.LOAD_ERROR, e.toString());
+			return null;
+		}
+		if (page == null) {
+			System.err.println("Could not load source file: "+sourceName);
+			setFailure(Status.LOAD_ERROR, "No page loaded");
+			return null;
 		}
+		start = metrics.endPhase(ConversionMetrics.PHASE_LOAD, start);
 		
 		//Set GtsId
 		if (gtsidToSet != null && !gtsidToSet.isEmpty()) {
@@ -255,6 +721,7 @@ public class PageConverter {
 				exc.printStackTrace();
 			}
 		}
+		start = metrics.endPhase(ConversionMetrics.PHASE_GTSID, start);
 		
 		//Resolution
 		try {
@@ -267,72 +734,432 @@ public class PageConverter {
 		} catch (Exception exc) {
 			exc.printStackTrace();
 		}
-		
-		//Text filter
-		if (textFilterRules != null) {
-			runTextFilter(textFilterRules, page);
+		metrics.endPhase(ConversionMetrics.PHASE_RESOLUTION, start);
+		return page;
+	}
+	
+	/**
+	 * Runs the given pipeline and adds its timings to the metrics
+	 * @param start Start time (System.nanoTime())
+	 * @return The current time
+	 */
+	private long runPipeline(PageProcessingPipeline pipeline, Page page, ConversionMetrics metrics, long start) {
+		pipeline.setCollectStatistics(metricsRecorder != null);
+		pipeline.setParallelThreshold(parallelThreshold);
+		try {
+			pipeline.run(page);
+		} catch (Exception exc) {
+			System.err.println("Error while processing page objects.");
+			exc.printStackTrace();
 		}
-		
-		//Handle negative coordinates?
-		if (negCoordsMode != null) {
-			handleNegativeCoordinates(page, negCoordsMode);
+		return addPipelineMetrics(pipeline, metrics, start);
+	}
+	
+	/**
+	 * Converts the page to the given PAGE schema version
+	 */
+	private static void convertSchema(Page page, FormatVersion version) {
+		try {
+			//ConverterHub.convert(page, XmlInputOutput.getInstance().getFormatModel(targetformat)); 
+			page.setFormatVersion(SchemaCache.getFormatModel(version));
+		} catch(Exception exc) {
+			System.err.println("Could not convert to target XML schema format.");
+			exc.printStackTrace();
 		}
-		
-		if (altoOutput) {
-			//Write ALTO	
+	}
+	
+	/**
+	 * Writes the page as ALTO XML and prints errors (validation depends on the validation mode)
+	 * @return True if successful
+	 */
+	private boolean writeAlto(Page page, OutputTarget target, String targetName) {
+		boolean validateInline = isValidatingInline();
+		XmlValidator validator = null;
+		try {
+			validator = validateInline ? SchemaCache.borrowAltoValidator() : null;
+
+			//Valid
+			PageWriter writer = new XmlPageWriter_Alto(validator);
+	
 			try {
-				XmlModelAndValidatorProvider validatorProvider = new PageXmlModelAndValidatorProvider();
-				XmlValidator validator = null;
-				if (validatorProvider != null) {
-					validator = validatorProvider.getValidator(new XmlFormatVersion("http://www.loc.gov/standards/alto/ns-v4#"));
+				if (!writer.write(page, target)) {
+					System.err.println("Error writing target ALTO XML file");
+					List<IOError> errors = ((XmlPageWriter_Alto)writer).getErrors();
+					if (errors != null)
+						for (IOError error : errors) {
+							System.err.println(error.getMessage());
+						}
+					return setFailure(errors != null && !errors.isEmpty() ? Status.VALIDATION_ERROR : Status.WRITE_ERROR, 
+							errors != null && !errors.isEmpty() ? errors.get(0).getMessage() : "ALTO writer failed");
 				}
+			} catch (UnsupportedFormatVersionException e) {
+				System.err.println("Could not save target ALTO XML file: "+targetName);
+				e.printStackTrace();
+				return setFailure(Status.WRITE_ERROR, e.toString());
+			}
+		} catch (Exception exc) {
+			System.err.println("Could not initialise ALTO XML writer");
+			exc.printStackTrace();
+			return setFailure(Status.WRITE_ERROR, exc.toString());
+		} finally {
+			SchemaCache.returnAltoValidator(validator);
+		}
+		if (!validateInline)
+			validateLater(page, true, target, targetName);
+		return true;
+	}
+	
+	/**
+	 * Writes the page as PAGE XML and prints errors (validation depends on the validation mode)
+	 * @return True if successful
+	 */
+	private boolean writePageAndReport(Page page, OutputTarget target, String targetName) {
+		boolean validateInline = isValidatingInline();
+		try {
+			if (!writePage(page, target, validateInline)) {
+				System.err.println("Error writing target PAGE XML file");
+				return setFailure(validateInline ? Status.VALIDATION_ERROR : Status.WRITE_ERROR, "PAGE writer failed");
+			}
+		} catch (Exception e) {
+			System.err.println("Could not save target PAGE XML file: "+targetName);
+			e.printStackTrace();
+			return setFailure(Status.WRITE_ERROR, e.toString());
+		}
+		if (!validateInline)
+			validateLater(page, false, target, targetName);
+		return true;
+	}
+	
+	/**
+	 * Schedules the deferred validation of the written page or holds it (see {@link #holdValidations()})
+	 */
+	private void validateLater(Page page, boolean alto, OutputTarget target, String targetName) {
+		synchronized (this) {
+			if (heldValidations != null) {
+				heldValidations.add(new HeldValidation(page, alto, null, targetName, target instanceof FileTarget ? new File(targetName) : null));
+				return;
+			}
+		}
+		outputValidator.validateLater(page, alto, targetName, target instanceof FileTarget ? new File(targetName) : null);
+	}
+	
+	/**
+	 * Holds back deferred validations of the following conversion until {@link #releaseValidations(File)} is called
+	 * (for output that is written to a temporary file first)
+	 */
+	synchronized void holdValidations() {
+		heldValidations = new ArrayList<HeldValidation>();
+	}
+	
+	/**
+	 * Schedules the held validations for the given output file (the final location of the output).
+	 * Nothing is scheduled if the file is null (e.g. the output has been discarded).
+	 */
+	void releaseValidations(File targetFile) {
+		List<HeldValidation> validations;
+		synchronized (this) {
+			validations = heldValidations;
+			heldValidations = null;
+		}
+		if (validations == null || targetFile == null)
+			return;
+		for (HeldValidation validation : validations)
+			validation.schedule(outputValidator, targetFile.getPath(), targetFile);
+	}
+	
+	/**
+	 * Schedules the held validations for the outputs they have been held for (see {@link #run(String, List, boolean, String)})
+	 */
+	private void releaseHeldValidations() {
+		List<HeldValidation> validations;
+		synchronized (this) {
+			validations = heldValidations;
+			heldValidations = null;
+		}
+		if (validations == null)
+			return;
+		for (HeldValidation validation : validations)
+			validation.schedule(outputValidator, validation.targetName, validation.targetFile);
+	}
+	
+	/**
+	 * Stops the conversion if the job has been cancelled or a limit has been exceeded (see {@link ConversionJob})
+	 */
+	private void checkpoint() {
+		if (job != null)
+			job.checkpoint();
+	}
 	
-				//Valid
-				PageWriter writer = new XmlPageWriter_Alto(validator);
+	/**
+	 * Records the reason why the conversion failed (the first one counts).
+	 * Synchronized, as the writers of {@link #runMultiple} report their failures from their own threads.
+	 * @return False
+	 */
+	private synchronized boolean setFailure(Status status, String message) {
+		if (failureStatus == null) {
+			failureStatus = status;
+			failureMessage = message;
+		}
+		return false;
+	}
+	
+	private synchronized void clearFailure() {
+		failureStatus = null;
+		failureMessage = null;
+	}
+	
+	/**
+	 * Validate output while writing? (otherwise validation is deferred or disabled)
+	 */
+	private boolean isValidatingInline() {
+		return outputValidator == null || outputValidator.isInline();
+	}
+	
+	/**
+	 * Reads a page from the given input. The format is detected from the start of the input
+	 * (see {@link FormatSniffer}) and the input is passed to the matching reader directly.
+	 * Input of unknown format is passed to the library, as before the detection was added.
+	 * Gzip compressed stream input is decompressed.
+	 * @param sourceName File path for file input
+	 * @param json JSON input? (skips the format detection, as does a known format, see {@link #setSourceFormat(SourceFormat)})
+	 */
+	private Page loadPage(InputSource source, String sourceName, boolean json) throws UnsupportedFormatVersionException, IOException {
+		if (source instanceof StreamInput)
+			source = new StreamInput(FileStreams.decompress(((StreamInput)source).getInputStream()));
 		
-				try {
-					if (!writer.write(page, new FileTarget(new File(targetFilename)))) {
-						System.err.println("Error writing target ALTO XML file");
-						List<IOError> errors = ((XmlPageWriter_Alto)writer).getErrors();
-						if (errors != null)
-							for (IOError error : errors) {
-								System.err.println(error.getMessage());
-							}
-					}
-				} catch (UnsupportedFormatVersionException e) {
-					System.err.println("Could not save target ALTO XML file: "+targetFilename);
-					e.printStackTrace();
-				}
-			} catch (Exception exc) {
-				System.err.println("Could not initialise ALTO XML writer");
+		SourceFormat format;
+		if (json)
+			format = SourceFormat.GOOGLE_JSON;
+		else if (sourceFormat != null)
+			format = sourceFormat;
+		else if (source instanceof FileInput)
+			format = FormatSniffer.detect(((FileInput)source).getFile());
+		else
+			format = FormatSniffer.detect(((StreamInput)source).getInputStream());
+		
+		switch (format) {
+			case GOOGLE_JSON:
+				return new StreamingGoogleJsonPageReader().read(source);
+			case PAGE:
+				return PageXmlInputOutput.getReader().read(source);
+			default:
+				//ALTO, FineReader, hOCR and anything not recognised by the sniffer 
+				//(the library has its own detection). The library reads these formats from files only.
+				if (source instanceof FileInput)
+					return PageXmlInputOutput.readPage(sourceName);
+				return readPageFromTempFile(((StreamInput)source).getInputStream());
+		}
+	}
+	
+	/**
+	 * Copies the given stream to a temporary file and reads the page from there
+	 */
+	private static Page readPageFromTempFile(InputStream in) throws UnsupportedFormatVersionException, IOException {
+		File tempFile = File.createTempFile("pageconverter", ".xml");
+		try {
+			OutputStream out = new FileOutputStream(tempFile);
+			try {
+				byte[] buffer = new byte[8192];
+				int read;
+				while ((read = in.read(buffer)) > 0)
+					out.write(buffer, 0, read);
+			} finally {
+				out.close();
+			}
+			return PageXmlInputOutput.readPage(tempFile.getPath());
+		} finally {
+			tempFile.delete();
+		}
+	}
+	
+	/**
+	 * Writes a page as PAGE XML (in the schema version of the page) to the given output.
+	 * The validator is borrowed from the {@link SchemaCache} for the write (also for file output).
+	 * @param validate Validate against the schema while writing?
+	 */
+	private static boolean writePage(Page page, OutputTarget target, boolean validate) throws UnsupportedFormatVersionException {
+		XmlFormatVersion version = (XmlFormatVersion)page.getFormatVersion();
+		XmlValidator validator = validate ? SchemaCache.borrowValidator(version) : null;
+		try {
+			return new XmlPageWriter_GenericSchema(validator).write(page, target);
+		} finally {
+			SchemaCache.returnValidator(version, validator);
+		}
+	}
+	
+	/**
+	 * Adds the time per stage and the counts of the processing pipeline to the metrics
+	 * @param start Start time of the pipeline (System.nanoTime())
+	 * @return The current time
+	 */
+	private static long addPipelineMetrics(PageProcessingPipeline pipeline, ConversionMetrics metrics, long start) {
+		long end = System.nanoTime();
+		long stagesTotal = 0;
+		for (int i=0; i<pipeline.getStageCount(); i++) {
+			PageObjectStage stage = pipeline.getStage(i);
+			String phase = stage.getClass().getSimpleName();
+			if (stage instanceof TextFilterStage)
+				phase = ConversionMetrics.PHASE_TEXT_FILTER;
+			else if (stage instanceof NegativeCoordinatesStage)
+				phase = ConversionMetrics.PHASE_NEG_COORDS;
+			else if (stage instanceof BulkCoordinateTransformStage || stage instanceof CoordinateScalingStage)
+				phase = ConversionMetrics.PHASE_COORD_TRANSFORM;
+			metrics.addPhaseTime(phase, pipeline.getStageTime(i));
+			stagesTotal += pipeline.getStageTime(i);
+		}
+		if (!pipeline.isEmpty()) {
+			metrics.addPhaseTime(ConversionMetrics.PHASE_TRAVERSAL, Math.max(0, end - start - stagesTotal));
+			metrics.setCount(ConversionMetrics.COUNT_OBJECTS, pipeline.getObjectCount());
+			metrics.setCount(ConversionMetrics.COUNT_POINTS, pipeline.getPointCount());
+			metrics.setCount(ConversionMetrics.COUNT_REMOVED, pipeline.getRemovedCount());
+		}
+		return end;
+	}
+
+	/**
+	 * Checks if the conversion can be carried out by the {@link StreamingPageConverter}
+	 * (PAGE to PAGE, no text filter, no removal of objects).<br>
+	 * <code>-transform-coords</code> doesn't prevent streaming: PAGE coordinates are always pixels,
+	 * so the scaling to pixels doesn't apply (see {@link #needsPixelScaling(Page)}).<br>
+	 * The output is validated by reading the written file again, so output to stdout can only be streamed without validation.
+	 */
+	private boolean canStream(String sourceFilename, String targetFilename, boolean json, boolean altoOutput, String negCoordsMode) {
+		if (json || altoOutput || textFilterRules != null || NEG_COORDS_MODE_REMOVE_OBJECT.equals(negCoordsMode)
+				|| coordinateTransform != null)
+			return false;
+		if (FileStreams.isStandardStream(sourceFilename))
+			return false; //Can be read only once
+		if (sourceFormat != null && sourceFormat != SourceFormat.PAGE)
+			return false;
+		if (FileStreams.isStandardStream(targetFilename) && (outputValidator == null || outputValidator.getMode() != OutputValidator.Mode.OFF))
+			return false; //Cannot be validated
+		try {
+			InputStream in = FileStreams.openInput(sourceFilename);
+			try {
+				return StreamingPageConverter.isStreamable(in, targetformat != null ? targetformat.toString() : null);
+			} finally {
+				in.close();
+			}
+		} catch (IOException exc) {
+			return false;
+		}
+	}
+	
+	/**
+	 * Runs the conversion in streaming mode (see {@link StreamingPageConverter}).
+	 * The written output is validated according to the validation mode (see {@link #validateStreamed(String, String)}).
+	 */
+	private boolean runStreaming(String sourceFilename, String targetFilename, String negCoordsMode) {
+		clearFailure();
+		StreamingPageConverter streamingConverter = new StreamingPageConverter();
+		if (targetformat != null)
+			streamingConverter.setTargetVersion(targetformat.toString());
+		streamingConverter.setGtsId(gtsidToSet);
+		streamingConverter.setxResolution(xResolution);
+		streamingConverter.setyResolution(yResolution);
+		streamingConverter.setResolutionUnit(resolutionUnit);
+		streamingConverter.setNegativeCoordsToZero(negCoordsMode != null);
+		streamingConverter.setCheckpoint(new Runnable() {
+			@Override
+			public void run() {
+				checkpoint();
+			}
+		});
+		
+		checkpoint();
+		InputStream in;
+		try {
+			in = FileStreams.openInput(sourceFilename);
+		} catch (IOException exc) {
+			System.err.println("Could not open source file: "+sourceFilename);
+			exc.printStackTrace();
+			return setFailure(Status.LOAD_ERROR, exc.toString());
+		}
+		try {
+			OutputStream out = FileStreams.openOutput(targetFilename, gzipOutput);
+			try {
+				streamingConverter.convert(in, out);
+			} finally {
+				out.close();
+			}
+		} catch (XMLStreamException exc) {
+			System.err.println("Could not convert PAGE XML file in streaming mode: "+sourceFilename);
+			exc.printStackTrace();
+			return setFailure(Status.LOAD_ERROR, exc.toString());
+		} catch (IOException exc) {
+			System.err.println("Could not write target file: "+targetFilename);
+			exc.printStackTrace();
+			return setFailure(Status.WRITE_ERROR, exc.toString());
+		} finally {
+			try {
+				in.close();
+			} catch (IOException exc) {
 				exc.printStackTrace();
 			}
 		}
-		else {
-			//Convert to specified schema version
-			if (targetformat != null) {
-				try {
-					//ConverterHub.convert(page, XmlInputOutput.getInstance().getFormatModel(targetformat)); 
-					page.setFormatVersion(PageXmlInputOutput.getInstance().getFormatModel(targetformat));
-				} catch(Exception exc) {
-					System.err.println("Could not convert to target XML schema format.");
-					exc.printStackTrace();
+		return validateStreamed(streamingConverter.getOutputVersion(), targetFilename);
+	}
+	
+	/**
+	 * Validates the output file of a streamed conversion. Inline validation reads the written file again as a stream
+	 * (the memory use stays bounded), deferred validation is scheduled like for other outputs.
+	 * @param outputVersion Schema version of the output (see {@link StreamingPageConverter#getOutputVersion()})
+	 * @return True if the output is valid or is validated later
+	 */
+	private boolean validateStreamed(String outputVersion, String targetFilename) {
+		XmlFormatVersion version = targetformat instanceof XmlFormatVersion 
+				? (XmlFormatVersion)targetformat : new XmlFormatVersion(outputVersion);
+		if (!isValidatingInline()) {
+			synchronized (this) {
+				if (heldValidations != null) {
+					heldValidations.add(new HeldValidation(null, false, version, targetFilename, new File(targetFilename)));
+					return true;
 				}
 			}
-			
-			if (transformCoords)
-				transformCoordinates(page);
-				
-			//Write PAGE
-			try {
-				if (!PageXmlInputOutput.writePage(page, targetFilename))
-					System.err.println("Error writing target PAGE XML file");
-			} catch (Exception e) {
-				System.err.println("Could not save target PAGE XML file: "+targetFilename);
-				e.printStackTrace();
+			outputValidator.validateFileLater(new File(targetFilename), version, targetFilename);
+			return true;
+		}
+		checkpoint();
+		try {
+			List<String> errors = OutputValidator.validateFile(new File(targetFilename), version);
+			if (!errors.isEmpty()) {
+				System.err.println("Error writing target PAGE XML file");
+				for (String error : errors)
+					System.err.println(error);
+				return setFailure(Status.VALIDATION_ERROR, errors.get(0));
 			}
+		} catch (Exception exc) {
+			System.err.println("Could not validate target file: "+targetFilename);
+			exc.printStackTrace();
+			return setFailure(Status.VALIDATION_ERROR, exc.toString());
 		}
-		
+		return true;
+	}
+
+	/**
+	 * Creates a pipeline with all enabled operations that are applied to the objects of the page
+	 * (text filter, negative coordinates, coordinate transformation).
+	 * @param page The page to be processed (required to determine the coordinate transformation)
+	 * @param altoOutput ALTO XML output instead of PAGE? (coordinates are only converted to pixels for PAGE output)
+	 * @param negCoordsMode Handling of negative coordinates (see {@link #handleNegativeCoordinates(Page, String)}), can be null
+	 */
+	public PageProcessingPipeline createPipeline(Page page, boolean altoOutput, String negCoordsMode) {
+		PageProcessingPipeline pipeline = new PageProcessingPipeline();
+		addSharedStages(pipeline, negCoordsMode);
+		PageObjectStage transformStage = createCoordinateTransformStage(page, altoOutput);
+		if (transformStage != null)
+			pipeline.addStage(transformStage);
+		return pipeline;
+	}
+
+	/**
+	 * Adds the stages that don't depend on the output format (text filter, negative coordinates)
+	 */
+	private void addSharedStages(PageProcessingPipeline pipeline, String negCoordsMode) {
+		if (textFilter != null)
+			pipeline.addStage(new TextFilterStage(textFilter));
+		if (negCoordsMode != null)
+			pipeline.addStage(new NegativeCoordinatesStage(NEG_COORDS_MODE_REMOVE_OBJECT.equals(negCoordsMode)));
 	}
 
 	/**
@@ -344,50 +1171,12 @@ public class PageConverter {
 	 * @param page Page object with text elements to apply the filter to.
 	 */
 	public static void runTextFilter(VariableMap textFilterRules, Page page) {
-		final TextFilter textFilter = new TextFilter(textFilterRules);
-		final ContentObjectProcessor processor = new ContentObjectProcessor() {
-			@Override
-			public void doProcess(ContentObject contentObject) {
-				if (contentObject != null) {
-					if (contentObject instanceof TextObject) {
-						TextObject textObj = (TextObject)contentObject;
-						String text = textObj.getText(); 
-						if (text != null)
-							textObj.setText(textFilter.filter(text));
-					}
-				}					
-			}
-		};
-		
-		//Callback for allowed text object types
-		textFilter.setTextObjectTypeFilterCallback(new TextObjectTypeFilterCallback() {
-			
-			@Override
-			public boolean textFilterEnabledForObjectType(String textObjectTypeFilter) {
-				if (textObjectTypeFilter == null || textObjectTypeFilter.isEmpty())
-					return true;
-				ContentObject currentObject = processor.getCurrentObject();
-				if (currentObject == null)
-					return true;
-				if (currentObject instanceof TextRegion) {
-					return textObjectTypeFilter.toLowerCase().contains("r"); //Region
-				}
-				if (currentObject instanceof TextLine) {
-					return textObjectTypeFilter.toLowerCase().contains("l"); //Text line
-				}
-				if (currentObject instanceof Word) {
-					return textObjectTypeFilter.toLowerCase().contains("w"); //Word
-				}
-				if (currentObject instanceof Glyph) {
-					return textObjectTypeFilter.toLowerCase().contains("g"); //Glyph
-				}
-				return false;
-			}
-		});
+		PageProcessingPipeline pipeline = new PageProcessingPipeline();
+		pipeline.addStage(new TextFilterStage(textFilterRules));
 		
 		//Run filter process
 		try {
-			processor.run(page);
+			pipeline.run(page);
 		} catch(Exception exc) {
 			System.out.println("Error while applying text filter.");
 			exc.printStackTrace();
@@ -431,7 +1220,7 @@ public class PageConverter {
 	 */
 	public void setTargetSchema(String versionString) {
 		if ("LATEST".equals(versionString))
-			targetformat = PageXmlInputOutput.getLatestSchemaModel().getVersion();
+			targetformat = SchemaCache.getLatestSchemaModel().getVersion();
 		else
 			targetformat = new XmlFormatVersion(versionString);
 	}
@@ -453,108 +1242,23 @@ public class PageConverter {
 	 */
 	public void setTextFilterRules(VariableMap textFilterRules) {
 		this.textFilterRules = textFilterRules;
+		this.textFilter = textFilterRules != null ? new CompiledTextFilter(textFilterRules) : null;
 	}
 	
-	/** Handle negative coordinates of any object with polygon. */
-	public static void handleNegativeCoordinates(Page page, String negCoordsMode) {
-		boolean deleteObjects = NEG_COORDS_MODE_REMOVE_OBJECT.equals(negCoordsMode);
-		PageLayout layout = page.getLayout();
-		
-		//Printspace
-		if (layout.getPrintSpace() != null && hasNegativeCoordinates(layout.getPrintSpace().getCoords())) {
-			if (deleteObjects)
-				layout.setPrintSpace(null);
-			else
-				correctNegativeCoordinates(layout.getPrintSpace().getCoords());
-		}
-		//Border
-		if (layout.getBorder() != null && hasNegativeCoordinates(layout.getBorder().getCoords())) {
-			if (deleteObjects)
-				layout.setBorder(null);
-			else
-				correctNegativeCoordinates(layout.getBorder().getCoords());
-		}
-		//Regions
-		List<Region> toDelete = new LinkedList<Region>();
-		for (int i=0; i<layout.getRegionCount(); i++) {
-			Region region = layout.getRegion(i);
-			if (region == null)
-				continue;
-			if (hasNegativeCoordinates(region.getCoords())) {
-				if (deleteObjects)
-					toDelete.add(region);
-				else
-					correctNegativeCoordinates(region.getCoords());
-			}
-			handleNegativeCoordinatesOfNestedRegions(region, deleteObjects);
-			if (region instanceof TextRegion)
-				handleNegativeCoordinatesOfTextObjects((TextRegion)region, deleteObjects);
-		}
-		for (Region region : toDelete)
-			layout.removeRegion(region.getId());
-	}
-	
-	/** Handle negative coordinates of nested regions (recursive) */
-	private static void handleNegativeCoordinatesOfNestedRegions(Region region, boolean deleteObjects) {
-		List<Region> toDelete = new LinkedList<Region>();
-		for (int i=0; i<region.getRegionCount(); i++) {
-			Region child = region.getRegion(i);
-			if (hasNegativeCoordinates(child.getCoords())) {
-				if (deleteObjects)
-					toDelete.add(child);
-				else
-					correctNegativeCoordinates(child.getCoords());
-			}
-			handleNegativeCoordinatesOfNestedRegions(child, deleteObjects);
-			if (region instanceof TextRegion)
-				handleNegativeCoordinatesOfTextObjects((TextRegion)region, deleteObjects);
-		}
-		for (Region child : toDelete)
-			region.removeRegion(child);
-	}
-	
-	/** Handle negative coordinates of child text objects (recursive) */
-	private static void handleNegativeCoordinatesOfTextObjects(LowLevelTextContainer container, boolean deleteObjects) {
-		List<LowLevelTextObject> toDelete = new LinkedList<LowLevelTextObject>();
-		for (int i=0; i<container.getTextObjectCount(); i++) {
-			LowLevelTextObject child = container.getTextObject(i);
-			if (hasNegativeCoordinates(child.getCoords())) {
-				if (deleteObjects)
-					toDelete.add(child);
-				else
-					correctNegativeCoordinates(child.getCoords());
-			}
-			
-			if (child instanceof LowLevelTextContainer)
-				handleNegativeCoordinatesOfTextObjects((LowLevelTextContainer)child, deleteObjects);
-		}
-		for (LowLevelTextObject child : toDelete)
-			container.removeTextObject(child.getId());
-	}
-	
-	/** Returns true if at least one coordinate is negative */
-	private static boolean hasNegativeCoordinates(Polygon polygon) {
-		if (polygon == null)
-			return false;
-		
-		for (int i=0; i<polygon.getSize(); i++) {
-			if (polygon.getPoint(i).x < 0 || polygon.getPoint(i).y < 0)
-				return true;
-		}
-		return false;
+	/**
+	 * Sets a prepared text filter that is to be applied to all text objects.
+	 * @param textFilter Filter (can be shared with other converters)
+	 */
+	public void setTextFilter(CompiledTextFilter textFilter) {
+		this.textFilter = textFilter;
+		this.textFilterRules = textFilter != null ? textFilter.getRules() : null;
 	}
 	
-	/** Changes negative coordinates to zero */
-	private static void correctNegativeCoordinates(Polygon polygon) {
-		if (polygon == null)
-			return;
-		
-		for (int i=0; i<polygon.getSize(); i++) {
-			if (polygon.getPoint(i).x < 0)
-				polygon.getPoint(i).x = 0;
-			if (polygon.getPoint(i).y < 0)
-				polygon.getPoint(i).y = 0;
-		}
+	/** Handle negative coordinates of any object with polygon. */
+	public static void handleNegativeCoordinates(Page page, String negCoordsMode) {
+		PageProcessingPipeline pipeline = new PageProcessingPipeline();
+		pipeline.addStage(new NegativeCoordinatesStage(NEG_COORDS_MODE_REMOVE_OBJECT.equals(negCoordsMode)));
+		pipeline.run(page);
 	}
 
 	public void setxResolution(Double xResolution) {
@@ -569,9 +1273,35 @@ public class PageConverter {
 		this.resolutionUnit = resolutionUnit;
 	}
 
-	/** Transforms coordinates to pixels, if necessary */
-	private void transformCoordinates(Page page) {
-		if (xResolution == null || yResolution == null || page.getMeasurementUnit() == null || page.getMeasurementUnit().equals(MeasurementUnit.PIXEL))
+	/**
+	 * Creates the pipeline stage that transforms coordinates to pixels (for PAGE output) 
+	 * and applies the coordinate transformation specified by the user
+	 * @return The stage or null if no transformation is necessary or possible
+	 */
+	private PageObjectStage createCoordinateTransformStage(Page page, boolean altoOutput) {
+		CoordinateTransform.Builder builder = new CoordinateTransform.Builder(page.getLayout().getWidth(), page.getLayout().getHeight());
+		if (transformCoords && !altoOutput)
+			addPixelScaling(page, builder);
+		if (coordinateTransform != null)
+			builder.apply(coordinateTransform);
+		if (builder.getTransform().isIdentity())
+			return null;
+		return new BulkCoordinateTransformStage(builder);
+	}
+	
+	/**
+	 * Checks if the coordinates of the given page can and need to be converted to pixels
+	 */
+	private boolean needsPixelScaling(Page page) {
+		return xResolution != null && yResolution != null && page.getMeasurementUnit() != null 
+				&& !page.getMeasurementUnit().equals(MeasurementUnit.PIXEL);
+	}
+	
+	/**
+	 * Adds the scaling from the measurement unit of the page to pixels
+	 */
+	private void addPixelScaling(Page page, CoordinateTransform.Builder builder) {
+		if (!needsPixelScaling(page))
 			return; //Can't transform or no need
 
 		//Determine factor
@@ -595,73 +1325,130 @@ public class PageConverter {
 			pixelHeight = 10.0 * 25.4 / yres;
 		}
 		
-		scaleCoords(page, 1.0 / pixelWidth, 1.0 / pixelHeight);		
+		builder.scale(1.0 / pixelWidth, 1.0 / pixelHeight);
 	}
 	
-	private void scaleCoords(Page page, double xFactor, double yFactor) {
-		//Page size
-		page.getLayout().setSize((int)(page.getLayout().getWidth() * xFactor), (int)(page.getLayout().getHeight() * yFactor));
-		//Border, print space
-		scaleCoords(page.getLayout().getBorder(), xFactor, yFactor);
-		scaleCoords(page.getLayout().getPrintSpace(), xFactor, yFactor);
-		//Regions
-		for (int i=0; i<page.getLayout().getRegionCount(); i++)
-			scaleRegionCoords(page.getLayout().getRegion(i), xFactor, yFactor);
+	public void setTransformCoords(boolean transformCoords) {
+		this.transformCoords = transformCoords;
+	}
+
+	/**
+	 * Sets a transformation for all coordinates (see {@link CoordinateTransform.Builder#apply(String)})
+	 * @throws IllegalArgumentException Invalid transformation specification
+	 */
+	public void setCoordinateTransform(String coordinateTransform) {
+		if (coordinateTransform != null)
+			new CoordinateTransform.Builder(1, 1).apply(coordinateTransform); //Validate
+		this.coordinateTransform = coordinateTransform;
+	}
+
+	/**
+	 * Sets the validation of the output (null for validation while writing)
+	 */
+	public void setOutputValidator(OutputValidator outputValidator) {
+		this.outputValidator = outputValidator;
+	}
+
+	/**
+	 * Sets a recorder for timings and counts of each conversion phase (null to disable)
+	 */
+	public void setMetricsRecorder(MetricsRecorder metricsRecorder) {
+		this.metricsRecorder = metricsRecorder;
+	}
+
+	/**
+	 * Enables the streaming mode for PAGE to PAGE conversions with bounded memory use.
+	 * Conversions that need the full object model (JSON input, ALTO output, text filter,
+	 * removal of objects) still use the object model. Streamed outputs are validated by reading the written file again.
+	 */
+	public void setStreaming(boolean streaming) {
+		this.streaming = streaming;
 	}
 	
-	private void scaleCoords(GeometricObject obj, double xFactor, double yFactor) {
-		if (obj == null)
-			return;
-		
-		scaleCoords(obj.getCoords(), xFactor, yFactor);
+	/**
+	 * Enables gzip compression of all outputs (outputs ending with '.gz' are always compressed)
+	 */
+	public void setGzipOutput(boolean gzipOutput) {
+		this.gzipOutput = gzipOutput;
 	}
 	
-	private void scaleCoords(Polygon polygon, double xFactor, double yFactor) {
-		if (polygon == null)
-			return;
-		
-		Point p;
-		for (int i=0; i<polygon.getSize(); i++) {
-			p = polygon.getPoint(i);
-			p.x = (int)(p.x * xFactor);
-			p.y = (int)(p.y * xFactor);
-		}		
+	public boolean isGzipOutput() {
+		return gzipOutput;
 	}
 	
-	private void scaleRegionCoords(Region region, double xFactor, double yFactor) {
-		//Self
-		scaleCoords(region, xFactor, yFactor);
-		
-		//Nested regions
-		for (int i=0; i<region.getRegionCount(); i++)
-			scaleRegionCoords(region.getRegion(i), xFactor, yFactor);
-		
-		//Text lines
-		if (region instanceof TextRegion) {
-			LowLevelTextContainer container = (LowLevelTextContainer)region;
-			for (int i=0; i<container.getTextObjectCount(); i++) {
-				TextLine textLine = (TextLine)container.getTextObject(i);
-				scaleLowLevelTextObject(textLine, xFactor, yFactor);
-				//Baseline
-				scaleCoords(textLine.getBaseline(), xFactor, yFactor);
-			}
-		}
+	/**
+	 * Enables the parallel processing of the page objects (text filter, negative coordinates,
+	 * coordinate transformation) for pages with at least the given number of objects.
+	 * The top-level regions are distributed over all CPUs.
+	 * @param objectCount Minimum number of regions and text objects, 0 to disable (default)
+	 */
+	public void setParallelThreshold(int objectCount) {
+		this.parallelThreshold = objectCount;
 	}
 	
-	private void scaleLowLevelTextObject(LowLevelTextObject obj, double xFactor, double yFactor) {
-		//Self
-		scaleCoords(obj, xFactor, yFactor);
-		
-		//Children
-		if (obj instanceof LowLevelTextContainer) {
-			LowLevelTextContainer container = (LowLevelTextContainer)obj;
-			for (int i=0; i<container.getTextObjectCount(); i++)
-				scaleLowLevelTextObject(container.getTextObject(i), xFactor, yFactor);
-		}
+	/**
+	 * Sets the limits and cancellation of the next conversion (for converters that are used for one file only,
+	 * e.g. the copies made by {@link BatchConverter}). Not copied by the copy constructor.
+	 * @param job Job or null for no limits
+	 */
+	public void setJob(ConversionJob job) {
+		this.job = job;
 	}
-
-	public void setTransformCoords(boolean transformCoords) {
-		this.transformCoords = transformCoords;
+	
+	/**
+	 * Sets the format of the next source if it is already known (e.g. detected by the {@link MemoryAwareScheduler}
+	 * of a batch), so that the file isn't read and decompressed again to detect it. Not copied by the copy constructor.
+	 * @param format Source format or null to detect it (default)
+	 */
+	public void setSourceFormat(SourceFormat format) {
+		this.sourceFormat = format;
+	}
+	
+	/**
+	 * Returns the kind of failure of the last conversion that returned false (null if unknown)
+	 */
+	public synchronized Status getFailureStatus() {
+		return failureStatus;
+	}
+	
+	/**
+	 * Returns a description of the failure of the last conversion that returned false (can be null)
+	 */
+	public synchronized String getFailureMessage() {
+		return failureMessage;
 	}
 	
+	/**
+	 * Deferred validation that is held back (see {@link PageConverter#holdValidations()})
+	 */
+	private static final class HeldValidation {
+		/** Written page (null for streamed output) */
+		final Page page;
+		/** ALTO output? */
+		final boolean alto;
+		/** Schema version of streamed output (null otherwise) */
+		final XmlFormatVersion version;
+		/** Name of the output as written */
+		final String targetName;
+		/** Output file as written (null if not written to a file) */
+		final File targetFile;
+		
+		HeldValidation(Page page, boolean alto, XmlFormatVersion version, String targetName, File targetFile) {
+			this.page = page;
+			this.alto = alto;
+			this.version = version;
+			this.targetName = targetName;
+			this.targetFile = targetFile;
+		}
+		
+		/**
+		 * Schedules the validation for the given output
+		 */
+		void schedule(OutputValidator validator, String name, File file) {
+			if (page != null)
+				validator.validateLater(page, alto, name, file);
+			else if (file != null) //Streamed output
+				validator.validateFileLater(file, version, name);
+		}
+	}
 }
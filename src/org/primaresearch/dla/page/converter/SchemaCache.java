@@ -0,0 +1,272 @@
+/*
+ * Copyright 2019 PRImA Research Lab, University of Salford, United Kingdom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.primaresearch.dla.page.converter;
+
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.xml.validation.Schema;
+
+import org.primaresearch.dla.page.io.xml.PageXmlInputOutput;
+import org.primaresearch.dla.page.io.xml.PageXmlModelAndValidatorProvider;
+import org.primaresearch.io.FormatModel;
+import org.primaresearch.io.FormatVersion;
+import org.primaresearch.io.UnsupportedFormatVersionException;
+import org.primaresearch.io.xml.XmlFormatVersion;
+import org.primaresearch.io.xml.XmlModelAndValidatorProvider;
+import org.primaresearch.io.xml.XmlValidator;
+
+/**
+ * Process-wide cache for schema format models and XML validators.<br>
+ * <br>
+ * Format models are immutable once loaded and are shared by all threads.
+ * The schema of each version is compiled once per process (the compiled {@link Schema} is thread-safe).
+ * Validators are not thread-safe, therefore they are kept in a process-wide pool per schema version:
+ * a thread borrows a validator for one write and returns it afterwards. If all validators of the version 
+ * are in use, a new one is created that uses the compiled schema, so concurrent writers don't compile 
+ * the schema again.<br>
+ * <br>
+ * To shorten the start-up of single conversions, models and schemas can be preloaded
+ * on a background thread while the input is read.
+ * 
+ * @author Christian Clausner
+ *
+ */
+public class SchemaCache {
+	
+	/** Namespace of ALTO v4 */
+	public static final String ALTO_V4_NAMESPACE = "http://www.loc.gov/standards/alto/ns-v4#";
+
+	private static final Map<String, FormatModel> formatModels = new ConcurrentHashMap<String, FormatModel>();
+	private static volatile FormatModel latestSchemaModel = null;
+	
+	private static final XmlFormatVersion ALTO_V4_VERSION = new XmlFormatVersion(ALTO_V4_NAMESPACE);
+	
+	/** Validators that are not in use, per schema version */
+	private static final ConcurrentMap<String, Queue<XmlValidator>> idleValidators = new ConcurrentHashMap<String, Queue<XmlValidator>>();
+	
+	/** Validator with the compiled schema per schema version (never borrowed, only its schema is shared) */
+	private static final ConcurrentMap<String, Future<XmlValidator>> compiledSchemas = new ConcurrentHashMap<String, Future<XmlValidator>>();
+	private static final AtomicInteger compiledSchemaCount = new AtomicInteger();
+	
+	private SchemaCache() {
+	}
+	
+	/**
+	 * Starts loading the format model (PAGE only) and compiling the schema for the given version on a background thread.
+	 * @param version Schema version (e.g. PAGE version or {@link #ALTO_V4_NAMESPACE})
+	 */
+	public static void preload(final XmlFormatVersion version) {
+		startBackgroundThread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					if (!ALTO_V4_NAMESPACE.equals(version.toString()))
+						getFormatModel(version);
+					getCompiledSchema(version);
+				} catch (Exception exc) {
+					//Reported when the schema is needed
+				}
+			}
+		});
+	}
+	
+	/**
+	 * Starts loading the format model of the latest PAGE schema on a background thread.
+	 */
+	public static void preloadLatestSchemaModel() {
+		if (latestSchemaModel != null)
+			return;
+		startBackgroundThread(new Runnable() {
+			@Override
+			public void run() {
+				getLatestSchemaModel();
+			}
+		});
+	}
+	
+	private static void startBackgroundThread(Runnable task) {
+		Thread thread = new Thread(task, "SchemaCache-preload");
+		thread.setDaemon(true);
+		thread.start();
+	}
+	
+	/**
+	 * Returns the PAGE format model for the given version (loaded once per process).
+	 */
+	public static FormatModel getFormatModel(FormatVersion version) throws UnsupportedFormatVersionException {
+		String key = version.toString();
+		FormatModel model = formatModels.get(key);
+		if (model == null) {
+			synchronized (formatModels) {
+				model = formatModels.get(key);
+				if (model == null) {
+					model = PageXmlInputOutput.getInstance().getFormatModel(version);
+					formatModels.put(key, model);
+				}
+			}
+		}
+		return model;
+	}
+	
+	/**
+	 * Returns the format model of the latest PAGE schema (loaded once per process).
+	 */
+	public static FormatModel getLatestSchemaModel() {
+		FormatModel model = latestSchemaModel;
+		if (model == null) {
+			synchronized (formatModels) {
+				if (latestSchemaModel == null)
+					latestSchemaModel = PageXmlInputOutput.getLatestSchemaModel();
+				model = latestSchemaModel;
+			}
+		}
+		return model;
+	}
+	
+	/**
+	 * Borrows a validator for the given format version. It may only be used by the calling thread
+	 * and must be handed back with {@link #returnValidator(XmlFormatVersion, XmlValidator)} when the write has finished.
+	 * @param version Schema version (e.g. PAGE version or {@link #ALTO_V4_NAMESPACE})
+	 */
+	public static XmlValidator borrowValidator(XmlFormatVersion version) throws UnsupportedFormatVersionException {
+		XmlValidator validator = getIdleValidators(version.toString()).poll();
+		if (validator == null)
+			validator = new SharedSchemaValidator(getCompiledSchema(version));
+		return validator;
+	}
+	
+	/**
+	 * Hands back a validator that has been borrowed with {@link #borrowValidator(XmlFormatVersion)}
+	 * @param validator Validator (nothing is done if null)
+	 */
+	public static void returnValidator(XmlFormatVersion version, XmlValidator validator) {
+		if (validator != null)
+			getIdleValidators(version.toString()).offer(validator);
+	}
+	
+	private static Queue<XmlValidator> getIdleValidators(String key) {
+		Queue<XmlValidator> queue = idleValidators.get(key);
+		if (queue == null) {
+			Queue<XmlValidator> newQueue = new ConcurrentLinkedQueue<XmlValidator>();
+			queue = idleValidators.putIfAbsent(key, newQueue);
+			if (queue == null)
+				queue = newQueue;
+		}
+		return queue;
+	}
+	
+	/**
+	 * Returns the validator holding the compiled schema of the given version. The schema is compiled 
+	 * once per process; threads that ask for it while it is being compiled (e.g. by {@link #preload(XmlFormatVersion)}) wait.
+	 */
+	private static XmlValidator getCompiledSchema(final XmlFormatVersion version) throws UnsupportedFormatVersionException {
+		String key = version.toString();
+		Future<XmlValidator> compiled = compiledSchemas.get(key);
+		if (compiled == null) {
+			FutureTask<XmlValidator> task = new FutureTask<XmlValidator>(new Callable<XmlValidator>() {
+				@Override
+				public XmlValidator call() throws Exception {
+					return compileSchema(version);
+				}
+			});
+			compiled = compiledSchemas.putIfAbsent(key, task);
+			if (compiled == null) {
+				compiled = task;
+				task.run();
+			}
+		}
+		try {
+			return compiled.get();
+		} catch (ExecutionException e) {
+			//Not cached, so that the next request tries again and reports the error
+			compiledSchemas.remove(key, compiled);
+			if (e.getCause() instanceof UnsupportedFormatVersionException)
+				throw (UnsupportedFormatVersionException)e.getCause();
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException)e.getCause();
+			throw new IllegalStateException("Could not load schema "+version, e.getCause());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return compileSchema(version); //Without waiting for the other thread
+		}
+	}
+	
+	/**
+	 * Loads a validator and compiles its schema (with its own provider, as providers reuse their validators)
+	 */
+	private static XmlValidator compileSchema(XmlFormatVersion version) throws UnsupportedFormatVersionException {
+		XmlModelAndValidatorProvider provider = new PageXmlModelAndValidatorProvider();
+		XmlValidator validator = provider.getValidator(version);
+		validator.getSchema();
+		compiledSchemaCount.incrementAndGet();
+		return validator;
+	}
+	
+	/**
+	 * Returns the compiled schema of the given version (thread-safe, e.g. for validating a written file
+	 * with its own {@link javax.xml.validation.Validator})
+	 */
+	public static Schema getSchema(XmlFormatVersion version) throws UnsupportedFormatVersionException {
+		return getCompiledSchema(version).getSchema();
+	}
+	
+	/**
+	 * Number of schemas compiled so far (all versions, including preloaded ones)
+	 */
+	public static int getCompiledSchemaCount() {
+		return compiledSchemaCount.get();
+	}
+	
+	/**
+	 * Borrows an ALTO v4 validator (see {@link #borrowValidator(XmlFormatVersion)})
+	 */
+	public static XmlValidator borrowAltoValidator() throws UnsupportedFormatVersionException {
+		return borrowValidator(ALTO_V4_VERSION);
+	}
+	
+	/**
+	 * Hands back an ALTO v4 validator
+	 */
+	public static void returnAltoValidator(XmlValidator validator) {
+		returnValidator(ALTO_V4_VERSION, validator);
+	}
+	
+	/**
+	 * Validator that uses the schema compiled by another validator instead of compiling its own
+	 */
+	private static final class SharedSchemaValidator extends XmlValidator {
+		private final Schema schema;
+		
+		SharedSchemaValidator(XmlValidator compiled) {
+			super(null, compiled.getSchemaVersion());
+			this.schema = compiled.getSchema();
+		}
+		
+		@Override
+		public Schema getSchema() {
+			return schema;
+		}
+	}
+}
@@ -0,0 +1,406 @@
+/*
+ * Copyright 2019 PRImA Research Lab, University of Salford, United Kingdom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.primaresearch.dla.page.converter;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Work queue in a shared folder (e.g. on NFS) for batch conversions on several machines.<br>
+ * <br>
+ * The source files are split into chunks (text files with one path per line). Nodes claim a chunk
+ * by moving it from <code>pending</code> to <code>claimed</code> (atomic rename, only one node succeeds),
+ * renew their lease by updating the modification time of the claimed file and move it to <code>done</code>
+ * when finished (completion marker). A rename keeps the modification time, so chunks are touched before
+ * they are moved. Chunks whose lease has expired (node crashed) are taken over by another node.
+ * A node that fails to renew its lease stops converting the chunk after the files that are running.
+ * A node finishes when no chunks are pending or claimed. The node that creates the
+ * queue holds a lock with the same kind of lease.<br>
+ * <br>
+ * The lease timeout should be much larger than the clock difference between the nodes
+ * and than the time needed for a single file.
+ *
+ * @author Christian Clausner
+ *
+ */
+public class SharedWorkQueue {
+
+	private static final String PENDING = "pending";
+	private static final String CLAIMED = "claimed";
+	private static final String DONE = "done";
+	private static final String INIT_LOCK = "init.lock";
+	private static final String NODE_SEPARATOR = "@";
+	private static final String STAGING_PREFIX = PENDING + ".tmp" + NODE_SEPARATOR;
+	private static final long POLL_INTERVAL = 2000L;
+
+	/** Default number of files per chunk */
+	public static final int DEFAULT_CHUNK_SIZE = 50;
+	/** Default lease timeout in milliseconds */
+	public static final long DEFAULT_LEASE_TIMEOUT = 5L * 60L * 1000L;
+
+	private final File pendingDir;
+	private final File claimedDir;
+	private final File doneDir;
+	private final File queueDir;
+	private final String nodeId;
+	private long leaseTimeout = DEFAULT_LEASE_TIMEOUT;
+
+	/**
+	 * Constructor
+	 * @param queueDir Shared queue folder
+	 * @param nodeId Unique name of this node (null for process ID and host name)
+	 */
+	public SharedWorkQueue(File queueDir, String nodeId) {
+		this.queueDir = queueDir;
+		this.pendingDir = new File(queueDir, PENDING);
+		this.claimedDir = new File(queueDir, CLAIMED);
+		this.doneDir = new File(queueDir, DONE);
+		this.nodeId = (nodeId != null ? nodeId : ManagementFactory.getRuntimeMXBean().getName())
+						.replaceAll("[^A-Za-z0-9._-]", "_");
+	}
+
+	/**
+	 * Creates the chunks for the given source files, unless the queue has already been created
+	 * (e.g. by another node started with the same arguments). Returns when the queue is ready.<br>
+	 * The node that creates the queue holds <code>init.lock</code> and renews it like a chunk lease.
+	 * If the lock expires (node crashed), another node removes it and its staging folder and creates the queue.
+	 * @param sourceFiles All files to convert
+	 * @param chunkSize Number of files per chunk
+	 * @return True if this node has created the queue
+	 */
+	public boolean initialize(List<File> sourceFiles, int chunkSize) throws IOException, InterruptedException {
+		queueDir.mkdirs();
+		File lock = new File(queueDir, INIT_LOCK);
+		while (!pendingDir.exists()) {
+			if (lock.createNewFile())
+				return createChunks(sourceFiles, chunkSize, lock);
+			
+			//Another node creates the queue
+			if (isExpired(lock)) {
+				System.out.println("Taking over creation of the work queue (lock expired)");
+				removeStaleStagingFolders();
+				lock.delete();
+				continue;
+			}
+			Thread.sleep(POLL_INTERVAL);
+		}
+		return false;
+	}
+	
+	/**
+	 * Writes the chunks to a staging folder of this node and publishes them in one step
+	 * @param lock Lock of the queue creation (renewed while writing)
+	 * @return False if another node has published the queue first
+	 */
+	private boolean createChunks(List<File> sourceFiles, int chunkSize, File lock) throws IOException {
+		File stagingDir = new File(queueDir, STAGING_PREFIX + nodeId);
+		deleteFolder(stagingDir); //Left over from an earlier attempt
+		stagingDir.mkdirs();
+		long lastRenewal = System.currentTimeMillis();
+		int chunkCount = (sourceFiles.size() + chunkSize - 1) / chunkSize;
+		for (int c=0; c<chunkCount; c++) {
+			Writer writer = new OutputStreamWriter(new FileOutputStream(new File(stagingDir, String.format("chunk-%06d.txt", c))), "UTF-8");
+			try {
+				for (int i=c*chunkSize; i<Math.min(sourceFiles.size(), (c+1)*chunkSize); i++)
+					writer.write(sourceFiles.get(i).getAbsolutePath() + "\n");
+			} finally {
+				writer.close();
+			}
+			if (System.currentTimeMillis() - lastRenewal > leaseTimeout / 3) {
+				renewLease(lock);
+				lastRenewal = System.currentTimeMillis();
+			}
+		}
+		claimedDir.mkdirs();
+		doneDir.mkdirs();
+		if (pendingDir.exists() || !move(stagingDir, pendingDir)) {
+			//Lock expired and queue created by another node
+			deleteFolder(stagingDir);
+			if (!pendingDir.exists())
+				throw new IOException("Could not publish the work queue in "+queueDir.getPath());
+			return false;
+		}
+		System.out.println("Created work queue with "+chunkCount+" chunks of up to "+chunkSize+" files");
+		return true;
+	}
+	
+	/**
+	 * Deletes the staging folders of nodes that stopped creating the queue
+	 */
+	private void removeStaleStagingFolders() {
+		for (File folder : listFiles(queueDir)) {
+			if (folder.isDirectory() && folder.getName().startsWith(STAGING_PREFIX) && isExpired(folder))
+				deleteFolder(folder);
+		}
+	}
+	
+	/**
+	 * Returns true if the file exists and hasn't been modified within the lease timeout
+	 */
+	private boolean isExpired(File file) {
+		long lastModified = file.lastModified();
+		return lastModified != 0L && System.currentTimeMillis() - lastModified >= leaseTimeout;
+	}
+	
+	private static void deleteFolder(File folder) {
+		for (File file : listFiles(folder))
+			file.delete();
+		folder.delete();
+	}
+
+	/**
+	 * Claims and converts chunks until no work is left
+	 * @param batch Converter for the files of a chunk
+	 * @return Number of failed conversions (on this node)
+	 */
+	public int process(BatchConverter batch) throws IOException, InterruptedException {
+		if (!pendingDir.exists())
+			throw new IOException("No work queue found in "+queueDir.getPath());
+		claimedDir.mkdirs();
+		doneDir.mkdirs();
+
+		ScheduledExecutorService leaseRenewal = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "lease-renewal");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		int failed = 0;
+		int chunks = 0;
+		try {
+			while (true) {
+				final File claim = claim();
+				if (claim == null) {
+					if (isFinished())
+						break;
+					Thread.sleep(POLL_INTERVAL); //Wait for chunks of other nodes to finish or expire
+					continue;
+				}
+
+				//Renew the lease while the chunk is converted (until a renewal fails)
+				long renewInterval = Math.max(1L, leaseTimeout / 3);
+				final AtomicBoolean leaseLost = new AtomicBoolean(false);
+				final AtomicReference<ScheduledFuture<?>> renewalRef = new AtomicReference<ScheduledFuture<?>>();
+				ScheduledFuture<?> renewal = leaseRenewal.scheduleWithFixedDelay(new Runnable() {
+					@Override
+					public void run() {
+						if (!renewLease(claim)) {
+							leaseLost.set(true);
+							System.err.println("Lease of chunk "+getChunkName(claim)+" lost");
+							ScheduledFuture<?> self = renewalRef.get();
+							if (self != null)
+								self.cancel(false);
+							else
+								throw new IllegalStateException("Lease lost"); //Suppresses further runs
+						}
+					}
+				}, renewInterval, renewInterval, TimeUnit.MILLISECONDS);
+				renewalRef.set(renewal);
+
+				//Check the lease before each file (the chunk can have been taken over by another node)
+				batch.setContinueCondition(new BatchConverter.ContinueCondition() {
+					@Override
+					public boolean canContinue() {
+						return !leaseLost.get() && claim.exists();
+					}
+				});
+				int chunkFailed;
+				try {
+					chunkFailed = batch.run(BatchConverter.readFileList(claim));
+				} finally {
+					renewal.cancel(false);
+					batch.setContinueCondition(null);
+				}
+				failed += chunkFailed;
+				if (leaseLost.get() || !claim.exists()) {
+					System.err.println("Stopped chunk "+getChunkName(claim)+" (lease lost)");
+					continue;
+				}
+				chunks++;
+				complete(claim, chunkFailed);
+			}
+		} finally {
+			leaseRenewal.shutdownNow();
+		}
+		System.out.println("Node "+nodeId+" converted "+chunks+" chunks ("+failed+" failed files)");
+		return failed;
+	}
+
+	/**
+	 * Claims a pending chunk or takes over a chunk with expired lease
+	 * @return The claimed chunk file or null if there is nothing to claim at the moment
+	 */
+	File claim() {
+		//Pending chunks
+		File[] pending = listFiles(pendingDir);
+		for (File chunk : pending) {
+			File claim = new File(claimedDir, chunk.getName() + NODE_SEPARATOR + nodeId);
+			//Touch first: the moved file keeps its modification time and would look expired to other nodes
+			if (!touch(chunk) || !move(chunk, claim))
+				continue; //Claimed by another node
+			if (renewLease(claim))
+				return claim;
+			System.err.println("Lost chunk "+chunk.getName()+" right after claiming it");
+		}
+
+		//Chunks of crashed nodes
+		long now = System.currentTimeMillis();
+		for (File claimed : listFiles(claimedDir)) {
+			long lastModified = claimed.lastModified();
+			if (lastModified == 0L || now - lastModified < leaseTimeout)
+				continue;
+			File claim = new File(claimedDir, getChunkName(claimed) + NODE_SEPARATOR + nodeId);
+			if (!touch(claimed) || !move(claimed, claim))
+				continue; //Taken over by another node
+			if (!renewLease(claim)) {
+				System.err.println("Lost chunk "+getChunkName(claimed)+" right after taking it over");
+				continue;
+			}
+			System.out.println("Took over chunk "+getChunkName(claimed)+" from node "+getNodeId(claimed));
+			return claim;
+		}
+		return null;
+	}
+
+	/**
+	 * Writes the completion marker for the given chunk (moves the chunk to the done folder)
+	 * and records failed conversions
+	 */
+	private void complete(File claim, int failed) throws IOException {
+		File done = new File(doneDir, getChunkName(claim));
+		if (!move(claim, done)) {
+			//Lease expired and chunk taken over by another node
+			System.err.println("Lost chunk to another node: "+getChunkName(claim));
+			return;
+		}
+		if (failed > 0) {
+			Writer writer = new OutputStreamWriter(new FileOutputStream(new File(doneDir, getChunkName(claim) + ".failed")), "UTF-8");
+			try {
+				writer.write("node=" + nodeId + "\nfailed=" + failed + "\n");
+			} finally {
+				writer.close();
+			}
+		}
+	}
+
+	/**
+	 * Updates the modification time of a claimed chunk or lock
+	 * @return False if the lease could not be renewed (e.g. the file has been taken over by another node)
+	 */
+	private boolean renewLease(File claim) {
+		if (claim.setLastModified(System.currentTimeMillis()))
+			return true;
+		if (claim.exists())
+			System.err.println("Could not renew lease of "+claim.getName());
+		return false;
+	}
+
+	/**
+	 * Sets the modification time of a file to now
+	 * @return False if the file doesn't exist (anymore) or cannot be modified
+	 */
+	private static boolean touch(File file) {
+		return file.setLastModified(System.currentTimeMillis());
+	}
+
+	/**
+	 * Returns true if no chunks are pending or being converted
+	 */
+	public boolean isFinished() {
+		return listFiles(pendingDir).length == 0 && listFiles(claimedDir).length == 0;
+	}
+
+	/**
+	 * Prints the number of pending, claimed and completed chunks
+	 */
+	public void printStatus() {
+		System.out.println("Work queue "+queueDir.getPath()+": "+listFiles(pendingDir).length+" pending, "
+				+listFiles(claimedDir).length+" claimed, "+listFiles(doneDir, ".txt").length+" done");
+	}
+
+	/**
+	 * Renames a file atomically
+	 * @return False if the source doesn't exist anymore (claimed by another node)
+	 */
+	private static boolean move(File source, File target) {
+		try {
+			Files.move(source.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+			return true;
+		} catch (IOException exc) {
+			return false;
+		}
+	}
+
+	private static File[] listFiles(File folder) {
+		return listFiles(folder, null);
+	}
+
+	private static File[] listFiles(File folder, String extension) {
+		File[] files = folder.listFiles();
+		if (files == null)
+			return new File[0];
+		if (extension != null) {
+			int count = 0;
+			for (File file : files) {
+				if (file.getName().endsWith(extension))
+					files[count++] = file;
+			}
+			files = Arrays.copyOf(files, count);
+		}
+		Arrays.sort(files);
+		return files;
+	}
+
+	private static String getChunkName(File claim) {
+		String name = claim.getName();
+		int separator = name.indexOf(NODE_SEPARATOR);
+		return separator >= 0 ? name.substring(0, separator) : name;
+	}
+
+	private static String getNodeId(File claim) {
+		String name = claim.getName();
+		return name.substring(name.indexOf(NODE_SEPARATOR) + 1);
+	}
+
+	public String getNodeId() {
+		return nodeId;
+	}
+
+	/**
+	 * Sets the time after which a claimed chunk without lease renewal is taken over by another node
+	 * @param leaseTimeout Milliseconds
+	 */
+	public void setLeaseTimeout(long leaseTimeout) {
+		this.leaseTimeout = leaseTimeout;
+	}
+}
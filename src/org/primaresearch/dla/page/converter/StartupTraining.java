@@ -0,0 +1,117 @@
+/*
+ * Copyright 2019 PRImA Research Lab, University of Salford, United Kingdom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.primaresearch.dla.page.converter;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Training run for class data sharing (AppCDS): converts small built-in sample pages
+ * with the commonly used options, so that all classes of a typical conversion are loaded.<br>
+ * <br>
+ * Run with <code>-XX:ArchiveClassesAtExit=pageconverter.jsa</code> (Java 13 or later) to create 
+ * a class data archive, then start conversions with <code>-XX:SharedArchiveFile=pageconverter.jsa</code>.
+ * 
+ * @author Christian Clausner
+ *
+ */
+class StartupTraining {
+	
+	private static final String SAMPLE_PAGE = 
+			"<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+			+ "<PcGts xmlns=\"http://schema.primaresearch.org/PAGE/gts/pagecontent/2019-07-15\">\n"
+			+ "<Metadata><Creator>PAGE Converter</Creator><Created>2019-07-15T00:00:00</Created><LastChange>2019-07-15T00:00:00</LastChange></Metadata>\n"
+			+ "<Page imageFilename=\"sample.png\" imageWidth=\"200\" imageHeight=\"100\">\n"
+			+ "<TextRegion id=\"r1\"><Coords points=\"10,10 190,10 190,40 10,40\"/>\n"
+			+ "<TextLine id=\"l1\"><Coords points=\"10,10 190,10 190,40 -5,40\"/><Baseline points=\"10,35 190,35\"/>\n"
+			+ "<Word id=\"w1\"><Coords points=\"10,10 30,10 30,40 10,40\"/>\n"
+			+ "<Glyph id=\"g1\"><Coords points=\"10,10 30,10 30,40 10,40\"/><TextEquiv><Unicode>A</Unicode></TextEquiv></Glyph>\n"
+			+ "<TextEquiv><Unicode>A</Unicode></TextEquiv></Word>\n"
+			+ "<TextEquiv><Unicode>A</Unicode></TextEquiv></TextLine>\n"
+			+ "<TextEquiv><Unicode>A</Unicode></TextEquiv></TextRegion>\n"
+			+ "</Page>\n"
+			+ "</PcGts>\n";
+	
+	private static final String SAMPLE_JSON = 
+			"{\"fullTextAnnotation\":{\"pages\":[{\"width\":200,\"height\":100,\"blocks\":[{"
+			+ "\"boundingBox\":{\"vertices\":[{\"x\":10,\"y\":10},{\"x\":190,\"y\":10},{\"x\":190,\"y\":40},{\"x\":10,\"y\":40}]},"
+			+ "\"paragraphs\":[{\"words\":[{\"boundingBox\":{\"vertices\":[{\"x\":10,\"y\":10},{\"x\":30,\"y\":10},{\"x\":30,\"y\":40},{\"x\":10,\"y\":40}]},"
+			+ "\"symbols\":[{\"text\":\"A\",\"property\":{\"detectedBreak\":{\"type\":\"LINE_BREAK\"}},"
+			+ "\"boundingBox\":{\"vertices\":[{\"x\":10,\"y\":10},{\"x\":30,\"y\":10},{\"x\":30,\"y\":40},{\"x\":10,\"y\":40}]}}]}]}],"
+			+ "\"blockType\":\"TEXT\"}]}]}}";
+	
+	private StartupTraining() {
+	}
+
+	/**
+	 * Runs the sample conversions
+	 * @return True if all conversions were successful
+	 */
+	static boolean run() {
+		File folder = null;
+		try {
+			folder = File.createTempFile("pageconverter-training", "");
+			folder.delete();
+			folder.mkdirs();
+			File pageFile = write(new File(folder, "sample.xml"), SAMPLE_PAGE);
+			File jsonFile = write(new File(folder, "sample.json"), SAMPLE_JSON);
+			String target = new File(folder, "out.xml").getPath();
+			
+			boolean success = true;
+			PageConverter converter = new PageConverter();
+			success &= converter.run(pageFile.getPath(), target, false, false, "toZero");
+			success &= converter.run(pageFile.getPath(), target, false, true, "removeObj");
+			success &= converter.run(jsonFile.getPath(), target, true, false, null);
+			
+			converter.setTargetSchema("LATEST");
+			converter.setCoordinateTransform("rotate:90");
+			List<ConversionTarget> targets = new ArrayList<ConversionTarget>();
+			targets.add(ConversionTarget.parse("LATEST", target));
+			targets.add(ConversionTarget.parse("ALTO", new File(folder, "out_alto.xml").getPath()));
+			targets.add(ConversionTarget.parse("2013-07-15", new File(folder, "out_2013.xml").getPath()));
+			success &= converter.run(pageFile.getPath(), targets, false, null);
+			
+			System.out.println(success ? "Training run finished" : "Training run finished with errors");
+			return success;
+		} catch (Exception exc) {
+			System.err.println("Training run failed");
+			exc.printStackTrace();
+			return false;
+		} finally {
+			if (folder != null) {
+				File[] files = folder.listFiles();
+				if (files != null)
+					for (File file : files)
+						file.delete();
+				folder.delete();
+			}
+		}
+	}
+	
+	private static File write(File file, String content) throws IOException {
+		OutputStream out = new FileOutputStream(file);
+		try {
+			out.write(content.getBytes("UTF-8"));
+		} finally {
+			out.close();
+		}
+		return file;
+	}
+}
@@ -0,0 +1,387 @@
+/*
+ * Copyright 2019 PRImA Research Lab, University of Salford, United Kingdom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.primaresearch.dla.page.converter;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLEventFactory;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLEventWriter;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.events.Attribute;
+import javax.xml.stream.events.EndElement;
+import javax.xml.stream.events.Namespace;
+import javax.xml.stream.events.StartDocument;
+import javax.xml.stream.events.StartElement;
+import javax.xml.stream.events.XMLEvent;
+
+/**
+ * Streaming (StAX) conversion of PAGE XML files.<br>
+ * <br>
+ * Elements are read and written one at a time, so the memory use doesn't depend on the size of the document.
+ * Only the operations that don't need the full object model are supported:
+ * <ul>
+ * <li>Schema version upgrade (from 2013-07-15 onwards, newer schema versions only add elements and attributes)</li>
+ * <li>Setting the GtsId</li>
+ * <li>Setting the image resolution attributes</li>
+ * <li>Changing negative coordinates to zero</li>
+ * </ul>
+ * Coordinates in PAGE are always pixel based, so transforming coordinates is not required for PAGE input.<br>
+ * The schema upgrade only replaces the namespace and unknown or invalid content of the source is copied as it is, 
+ * so the output is validated afterwards by reading the written file as a stream 
+ * (see {@link OutputValidator#validateFile(File, org.primaresearch.io.xml.XmlFormatVersion)}).<br>
+ * Use {@link #isStreamable(File, String)} to check if a file can be converted this way.
+ * 
+ * @author Christian Clausner
+ *
+ */
+public class StreamingPageConverter {
+
+	/** Start of all PAGE namespaces (followed by the schema version) */
+	public static final String PAGE_NAMESPACE_PREFIX = "http://schema.primaresearch.org/PAGE/gts/pagecontent/";
+	
+	/** Oldest schema version with the 'points' attribute for coordinates */
+	private static final String OLDEST_STREAMABLE_VERSION = "2013-07-15";
+	
+	/** Number of XML events between two calls of the checkpoint (see {@link #setCheckpoint(Runnable)}) */
+	private static final int CHECKPOINT_INTERVAL = 1000;
+	
+	private static final String XSI_NAMESPACE = "http://www.w3.org/2001/XMLSchema-instance";
+	
+	private static final XMLInputFactory inputFactory = createInputFactory();
+	private static final XMLOutputFactory outputFactory = XMLOutputFactory.newInstance();
+	private static final XMLEventFactory eventFactory = XMLEventFactory.newInstance();
+	
+	private String targetVersion = null;
+	private String gtsid = null;
+	private Double xResolution = null;
+	private Double yResolution = null;
+	private String resolutionUnit = null;
+	private boolean negativeCoordsToZero = false;
+	private Runnable checkpoint = null;
+	
+	//Per document
+	private String sourceNamespace = null;
+	private String targetNamespace = null;
+	
+	/**
+	 * Checks if the given file can be converted in streaming mode.
+	 * Only the root element of the file is read.
+	 * @param sourceFile PAGE XML file
+	 * @param targetVersion Target schema version (e.g. 2019-07-15) or null to keep the version of the file
+	 * @return True if the file is PAGE XML of version 2013-07-15 or newer and the target version is not older
+	 */
+	public static boolean isStreamable(File sourceFile, String targetVersion) {
+		try {
+			InputStream in = new BufferedInputStream(new FileInputStream(sourceFile));
+			try {
+				return isStreamable(in, targetVersion);
+			} finally {
+				in.close();
+			}
+		} catch (Exception exc) {
+			return false;
+		}
+	}
+	
+	/**
+	 * Checks if the document of the given stream can be converted in streaming mode (see {@link #isStreamable(File, String)}).
+	 * Reads only up to the root element, the stream is not closed.
+	 */
+	public static boolean isStreamable(InputStream in, String targetVersion) {
+		try {
+			String sourceVersion = getVersion(readRootNamespace(in));
+			if (sourceVersion == null || sourceVersion.compareTo(OLDEST_STREAMABLE_VERSION) < 0)
+				return false;
+			targetVersion = normalizeVersion(targetVersion);
+			return targetVersion == null || targetVersion.compareTo(sourceVersion) >= 0;
+		} catch (Exception exc) {
+			return false;
+		}
+	}
+	
+	/**
+	 * Creates the factory for the XML readers. DTDs and external entities are not processed
+	 * (PAGE XML doesn't use them, and they could be used to read local files into the output).
+	 */
+	private static XMLInputFactory createInputFactory() {
+		XMLInputFactory factory = XMLInputFactory.newInstance();
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+		factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+		return factory;
+	}
+	
+	/**
+	 * Returns the namespace of the root element (reads only up to the first start element)
+	 */
+	private static String readRootNamespace(InputStream in) throws XMLStreamException {
+		XMLEventReader reader = inputFactory.createXMLEventReader(in);
+		try {
+			while (reader.hasNext()) {
+				XMLEvent event = reader.nextEvent();
+				if (event.isStartElement())
+					return event.asStartElement().getName().getNamespaceURI();
+			}
+			return null;
+		} finally {
+			reader.close();
+		}
+	}
+	
+	/**
+	 * Extracts the schema version from a PAGE namespace
+	 * @return The version (e.g. 2013-07-15) or null if not a PAGE namespace 
+	 */
+	private static String getVersion(String namespace) {
+		if (namespace == null || !namespace.startsWith(PAGE_NAMESPACE_PREFIX))
+			return null;
+		return namespace.substring(PAGE_NAMESPACE_PREFIX.length());
+	}
+	
+	/**
+	 * Accepts a version (2019-07-15) or a full namespace and returns the version 
+	 */
+	private static String normalizeVersion(String version) {
+		if (version == null || !version.startsWith(PAGE_NAMESPACE_PREFIX))
+			return version;
+		return getVersion(version);
+	}
+	
+	/**
+	 * Converts the given file.
+	 * @param sourceFile PAGE XML file (see {@link #isStreamable(File, String)})
+	 * @param targetFile Output file
+	 */
+	public void convert(File sourceFile, File targetFile) throws IOException, XMLStreamException {
+		InputStream in = new BufferedInputStream(new FileInputStream(sourceFile), 64 * 1024);
+		try {
+			OutputStream out = new BufferedOutputStream(new FileOutputStream(targetFile), 64 * 1024);
+			try {
+				convert(in, out);
+			} finally {
+				out.close();
+			}
+		} finally {
+			in.close();
+		}
+	}
+	
+	/**
+	 * Converts a PAGE XML document from the given input stream to the given output stream (UTF-8).
+	 * The streams are not closed.
+	 */
+	public void convert(InputStream in, OutputStream out) throws XMLStreamException {
+		XMLEventReader reader = inputFactory.createXMLEventReader(in);
+		XMLEventWriter writer = outputFactory.createXMLEventWriter(out, "UTF-8");
+		sourceNamespace = null;
+		targetNamespace = null;
+		try {
+			int eventCount = 0;
+			while (reader.hasNext()) {
+				if (checkpoint != null && ++eventCount % CHECKPOINT_INTERVAL == 0)
+					checkpoint.run();
+				XMLEvent event = reader.nextEvent();
+				if (event.isStartDocument()) {
+					StartDocument startDocument = (StartDocument)event;
+					String xmlVersion = startDocument.getVersion() != null ? startDocument.getVersion() : "1.0";
+					writer.add(eventFactory.createStartDocument("UTF-8", xmlVersion));
+				}
+				else if (event.isStartElement())
+					writer.add(handleStartElement(event.asStartElement()));
+				else if (event.isEndElement())
+					writer.add(handleEndElement(event.asEndElement()));
+				else if (event.getEventType() != XMLStreamConstants.DTD) //Document type is not passed on (see createInputFactory)
+					writer.add(event);
+			}
+			writer.flush();
+		} finally {
+			writer.close();
+			reader.close();
+		}
+	}
+	
+	private StartElement handleStartElement(StartElement element) {
+		QName name = element.getName();
+		
+		//Root
+		if (sourceNamespace == null) {
+			sourceNamespace = name.getNamespaceURI();
+			String sourceVersion = getVersion(sourceNamespace);
+			String version = normalizeVersion(targetVersion);
+			targetNamespace = version != null && sourceVersion != null ? PAGE_NAMESPACE_PREFIX + version : sourceNamespace;
+		}
+		
+		String localName = name.getLocalPart();
+		List<Attribute> attributes = new ArrayList<Attribute>();
+		
+		for (Iterator<?> it = element.getAttributes(); it.hasNext(); ) {
+			Attribute attr = (Attribute)it.next();
+			String attrName = attr.getName().getLocalPart();
+			if (attr.getName().getNamespaceURI() != null && !attr.getName().getNamespaceURI().isEmpty()) {
+				//Schema location
+				if (XSI_NAMESPACE.equals(attr.getName().getNamespaceURI()) && "schemaLocation".equals(attrName)) 
+					attr = eventFactory.createAttribute(attr.getName(), attr.getValue().replace(sourceNamespace, targetNamespace));
+				attributes.add(attr);
+				continue;
+			}
+			if ("PcGts".equals(localName) && "pcGtsId".equals(attrName) && gtsid != null && !gtsid.isEmpty())
+				continue; //Replaced below
+			if ("Page".equals(localName) && isResolutionAttributeToReplace(attrName))
+				continue; //Replaced below
+			if ("Coords".equals(localName) && "points".equals(attrName) && negativeCoordsToZero) {
+				String points = correctNegativeCoordinates(attr.getValue());
+				if (points != attr.getValue())
+					attr = eventFactory.createAttribute(attr.getName(), points);
+			}
+			attributes.add(attr);
+		}
+		
+		//GtsId
+		if ("PcGts".equals(localName) && gtsid != null && !gtsid.isEmpty())
+			attributes.add(eventFactory.createAttribute("pcGtsId", gtsid));
+		
+		//Resolution
+		if ("Page".equals(localName)) {
+			if (xResolution != null)
+				attributes.add(eventFactory.createAttribute("imageXResolution", Double.toString(xResolution)));
+			if (yResolution != null)
+				attributes.add(eventFactory.createAttribute("imageYResolution", Double.toString(yResolution)));
+			if (resolutionUnit != null)
+				attributes.add(eventFactory.createAttribute("imageResolutionUnit", resolutionUnit));
+		}
+		
+		//Namespaces
+		List<Namespace> namespaces = new ArrayList<Namespace>();
+		for (Iterator<?> it = element.getNamespaces(); it.hasNext(); ) {
+			Namespace ns = (Namespace)it.next();
+			if (sourceNamespace.equals(ns.getNamespaceURI())) {
+				if (ns.isDefaultNamespaceDeclaration())
+					ns = eventFactory.createNamespace(targetNamespace);
+				else
+					ns = eventFactory.createNamespace(ns.getPrefix(), targetNamespace);
+			}
+			namespaces.add(ns);
+		}
+		
+		return eventFactory.createStartElement(mapName(name), attributes.iterator(), namespaces.iterator());
+	}
+	
+	private EndElement handleEndElement(EndElement element) {
+		return eventFactory.createEndElement(mapName(element.getName()), null);
+	}
+	
+	/**
+	 * Replaces the source namespace by the target namespace
+	 */
+	private QName mapName(QName name) {
+		if (sourceNamespace.equals(name.getNamespaceURI()))
+			return new QName(targetNamespace, name.getLocalPart(), name.getPrefix());
+		return name;
+	}
+	
+	private boolean isResolutionAttributeToReplace(String attrName) {
+		return ("imageXResolution".equals(attrName) && xResolution != null)
+				|| ("imageYResolution".equals(attrName) && yResolution != null)
+				|| ("imageResolutionUnit".equals(attrName) && resolutionUnit != null);
+	}
+	
+	/**
+	 * Changes negative values in a points attribute ("x1,y1 x2,y2 ...") to 0.
+	 * @return The same string instance if there are no negative values
+	 */
+	static String correctNegativeCoordinates(String points) {
+		if (points.indexOf('-') < 0)
+			return points;
+		
+		StringBuilder result = new StringBuilder(points.length());
+		int len = points.length();
+		int i = 0;
+		while (i < len) {
+			char c = points.charAt(i);
+			if (c == '-') {
+				//Skip the number and write 0 instead
+				i++;
+				while (i < len && Character.isDigit(points.charAt(i)))
+					i++;
+				result.append('0');
+				continue;
+			}
+			result.append(c);
+			i++;
+		}
+		return result.toString();
+	}
+
+	/**
+	 * Returns the schema version of the output of the last conversion (e.g. 2019-07-15),
+	 * or null if the document is not PAGE XML
+	 */
+	public String getOutputVersion() {
+		return getVersion(targetNamespace);
+	}
+
+	/**
+	 * Sets the target schema version (e.g. 2019-07-15)
+	 */
+	public void setTargetVersion(String targetVersion) {
+		this.targetVersion = targetVersion;
+	}
+
+	/**
+	 * Sets the GtsId (null or empty to keep the GtsId of the document)
+	 */
+	public void setGtsId(String gtsid) {
+		this.gtsid = gtsid;
+	}
+
+	public void setxResolution(Double xResolution) {
+		this.xResolution = xResolution;
+	}
+
+	public void setyResolution(Double yResolution) {
+		this.yResolution = yResolution;
+	}
+
+	public void setResolutionUnit(String resolutionUnit) {
+		this.resolutionUnit = resolutionUnit;
+	}
+
+	public void setNegativeCoordsToZero(boolean negativeCoordsToZero) {
+		this.negativeCoordsToZero = negativeCoordsToZero;
+	}
+	
+	/**
+	 * Sets an operation that is called regularly during the conversion (every {@value #CHECKPOINT_INTERVAL} XML events).
+	 * It can stop the conversion by throwing an unchecked exception (e.g. the checkpoint of a {@link ConversionJob}).
+	 */
+	public void setCheckpoint(Runnable checkpoint) {
+		this.checkpoint = checkpoint;
+	}
+}
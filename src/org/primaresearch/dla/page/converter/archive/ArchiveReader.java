@@ -0,0 +1,263 @@
+/*
+ * Copyright 2019 PRImA Research Lab, University of Salford, United Kingdom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.primaresearch.dla.page.converter.archive;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Sequential reader for the file entries of a ZIP or TAR archive.<br>
+ * Entries are read one after the other directly from the archive stream (large buffered reads, no temporary files).
+ * 
+ * @author Christian Clausner
+ *
+ */
+public abstract class ArchiveReader implements Closeable {
+	
+	static final int BUFFER_SIZE = 1024 * 1024;
+	
+	/**
+	 * Opens the given archive (ZIP for .zip, TAR for .tar)
+	 */
+	public static ArchiveReader open(File archive) throws IOException {
+		return open(new FileInputStream(archive), archive.getName());
+	}
+	
+	/**
+	 * Opens an archive from the given stream
+	 * @param name Archive name to determine the type (.zip or .tar)
+	 */
+	public static ArchiveReader open(InputStream in, String name) throws IOException {
+		InputStream buffered = new BufferedInputStream(in, BUFFER_SIZE);
+		String lowerName = name.toLowerCase();
+		if (lowerName.endsWith(".zip"))
+			return new Zip(buffered);
+		if (lowerName.endsWith(".tar"))
+			return new Tar(buffered);
+		buffered.close();
+		throw new IOException("Unsupported archive type: "+name);
+	}
+	
+	/**
+	 * Returns true if the given file name has a supported archive extension
+	 */
+	public static boolean isArchive(String name) {
+		String lowerName = name.toLowerCase();
+		return lowerName.endsWith(".zip") || lowerName.endsWith(".tar");
+	}
+	
+	/**
+	 * Advances to the next file entry (folders and other special entries are skipped)
+	 * @return Name of the entry (path within the archive) or null if there are no more entries
+	 */
+	public abstract String nextEntry() throws IOException;
+	
+	/**
+	 * Returns a stream for the content of the current entry. Closing it doesn't close the archive.
+	 */
+	public abstract InputStream getEntryStream();
+	
+	/**
+	 * Reads the content of the current entry
+	 */
+	public byte[] readEntry() throws IOException {
+		InputStream in = getEntryStream();
+		ByteArrayOutputStream out = new ByteArrayOutputStream(64 * 1024);
+		byte[] buffer = new byte[64 * 1024];
+		int read;
+		while ((read = in.read(buffer)) > 0)
+			out.write(buffer, 0, read);
+		return out.toByteArray();
+	}
+	
+	/**
+	 * ZIP archive reader
+	 */
+	private static final class Zip extends ArchiveReader {
+		private final ZipInputStream zip;
+		
+		Zip(InputStream in) {
+			zip = new ZipInputStream(in);
+		}
+
+		@Override
+		public String nextEntry() throws IOException {
+			ZipEntry entry;
+			while ((entry = zip.getNextEntry()) != null) {
+				if (!entry.isDirectory())
+					return entry.getName();
+			}
+			return null;
+		}
+
+		@Override
+		public InputStream getEntryStream() {
+			return new NonClosingInputStream(zip);
+		}
+
+		@Override
+		public void close() throws IOException {
+			zip.close();
+		}
+	}
+	
+	/**
+	 * TAR archive reader (POSIX ustar, pax paths and GNU long names)
+	 */
+	private static final class Tar extends ArchiveReader {
+		private static final Charset UTF8 = Charset.forName("UTF-8");
+		
+		private final InputStream in;
+		private final byte[] header = new byte[TarFormat.BLOCK_SIZE];
+		private long remaining = 0; //Bytes of the current entry not read yet
+		private long padding = 0;   //Padding after the current entry
+		
+		Tar(InputStream in) {
+			this.in = in;
+		}
+
+		@Override
+		public String nextEntry() throws IOException {
+			String longName = null;
+			while (true) {
+				skipFully(remaining + padding);
+				remaining = 0;
+				padding = 0;
+				
+				if (!readBlock(header) || isZeroBlock(header))
+					return null; //End of archive
+				
+				long size = TarFormat.parseOctal(header, TarFormat.SIZE_OFFSET, TarFormat.SIZE_LENGTH);
+				remaining = size;
+				padding = TarFormat.getPadding(size);
+				byte type = header[TarFormat.TYPE_OFFSET];
+				
+				if (type == TarFormat.TYPE_PAX_HEADER) {
+					String path = TarFormat.parsePaxRecord(readEntry(), "path");
+					if (path != null)
+						longName = path;
+					continue;
+				}
+				if (type == TarFormat.TYPE_GNU_LONG_NAME) {
+					byte[] nameBytes = readEntry();
+					int len = nameBytes.length;
+					while (len > 0 && nameBytes[len-1] == 0)
+						len--;
+					longName = new String(nameBytes, 0, len, UTF8);
+					continue;
+				}
+				if (type != TarFormat.TYPE_FILE && type != TarFormat.TYPE_FILE_OLD) {
+					longName = null;
+					continue; //Folders, links, global pax headers, ...
+				}
+				if (longName != null)
+					return longName;
+				
+				String name = TarFormat.parseString(header, TarFormat.NAME_OFFSET, TarFormat.NAME_LENGTH);
+				String prefix = TarFormat.parseString(header, TarFormat.PREFIX_OFFSET, TarFormat.PREFIX_LENGTH);
+				return prefix.isEmpty() ? name : prefix + "/" + name;
+			}
+		}
+
+		@Override
+		public InputStream getEntryStream() {
+			return new InputStream() {
+				@Override
+				public int read() throws IOException {
+					if (remaining <= 0)
+						return -1;
+					int b = in.read();
+					if (b < 0)
+						throw new EOFException("Unexpected end of TAR archive");
+					remaining--;
+					return b;
+				}
+				
+				@Override
+				public int read(byte[] buffer, int offset, int length) throws IOException {
+					if (remaining <= 0)
+						return -1;
+					int read = in.read(buffer, offset, (int)Math.min(length, remaining));
+					if (read < 0)
+						throw new EOFException("Unexpected end of TAR archive");
+					remaining -= read;
+					return read;
+				}
+			};
+		}
+		
+		private boolean readBlock(byte[] block) throws IOException {
+			int offset = 0;
+			while (offset < block.length) {
+				int read = in.read(block, offset, block.length - offset);
+				if (read < 0) {
+					if (offset == 0)
+						return false;
+					throw new EOFException("Unexpected end of TAR archive");
+				}
+				offset += read;
+			}
+			return true;
+		}
+		
+		private void skipFully(long bytes) throws IOException {
+			while (bytes > 0) {
+				long skipped = in.skip(bytes);
+				if (skipped <= 0) {
+					if (in.read() < 0)
+						throw new EOFException("Unexpected end of TAR archive");
+					skipped = 1;
+				}
+				bytes -= skipped;
+			}
+		}
+		
+		private static boolean isZeroBlock(byte[] block) {
+			for (int i=0; i<block.length; i++)
+				if (block[i] != 0)
+					return false;
+			return true;
+		}
+
+		@Override
+		public void close() throws IOException {
+			in.close();
+		}
+	}
+	
+	/**
+	 * Prevents readers (e.g. XML parsers) from closing the archive stream
+	 */
+	private static final class NonClosingInputStream extends FilterInputStream {
+		NonClosingInputStream(InputStream in) {
+			super(in);
+		}
+		
+		@Override
+		public void close() {
+		}
+	}
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright 2019 PRImA Research Lab, University of Salford, United Kingdom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.primaresearch.dla.page.converter.archive;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Sequential writer for ZIP or TAR archives. Entries are appended one after the other. Not thread-safe.
+ * 
+ * @author Christian Clausner
+ *
+ */
+public abstract class ArchiveWriter implements Closeable {
+	
+	/**
+	 * Creates the given archive (ZIP for .zip, TAR for .tar)
+	 */
+	public static ArchiveWriter create(File archive) throws IOException {
+		return create(new FileOutputStream(archive), archive.getName());
+	}
+	
+	/**
+	 * Creates an archive on the given stream
+	 * @param name Archive name to determine the type (.zip or .tar)
+	 */
+	public static ArchiveWriter create(OutputStream out, String name) throws IOException {
+		OutputStream buffered = new BufferedOutputStream(out, ArchiveReader.BUFFER_SIZE);
+		String lowerName = name.toLowerCase();
+		if (lowerName.endsWith(".zip"))
+			return new Zip(buffered);
+		if (lowerName.endsWith(".tar"))
+			return new Tar(buffered);
+		buffered.close();
+		throw new IOException("Unsupported archive type: "+name);
+	}
+	
+	/**
+	 * Appends a file entry
+	 * @param name Path within the archive ('/' as separator)
+	 * @param data Content
+	 */
+	public void addEntry(String name, byte[] data) throws IOException {
+		addEntry(name, data, 0, data.length);
+	}
+	
+	/**
+	 * Appends a file entry
+	 * @param name Path within the archive ('/' as separator)
+	 */
+	public abstract void addEntry(String name, byte[] data, int offset, int length) throws IOException;
+	
+	/**
+	 * ZIP archive writer
+	 */
+	private static final class Zip extends ArchiveWriter {
+		private final ZipOutputStream zip;
+		
+		Zip(OutputStream out) {
+			zip = new ZipOutputStream(out);
+		}
+
+		@Override
+		public void addEntry(String name, byte[] data, int offset, int length) throws IOException {
+			zip.putNextEntry(new ZipEntry(name));
+			zip.write(data, offset, length);
+			zip.closeEntry();
+		}
+
+		@Override
+		public void close() throws IOException {
+			zip.close();
+		}
+	}
+	
+	/**
+	 * TAR archive writer (POSIX ustar, GNU long name entries for paths that don't fit)
+	 */
+	private static final class Tar extends ArchiveWriter {
+		private static final byte[] ZERO_BLOCK = new byte[TarFormat.BLOCK_SIZE];
+		private static final String LONG_NAME_ENTRY = "././@LongLink";
+		
+		private final OutputStream out;
+		private final byte[] header = new byte[TarFormat.BLOCK_SIZE];
+		
+		Tar(OutputStream out) {
+			this.out = out;
+		}
+
+		@Override
+		public void addEntry(String name, byte[] data, int offset, int length) throws IOException {
+			byte[] nameBytes = name.getBytes(TarFormat.UTF8);
+			if (nameBytes.length > TarFormat.NAME_LENGTH) {
+				byte[] longName = new byte[nameBytes.length + 1]; //NUL terminated
+				System.arraycopy(nameBytes, 0, longName, 0, nameBytes.length);
+				writeEntry(LONG_NAME_ENTRY.getBytes(TarFormat.UTF8), TarFormat.TYPE_GNU_LONG_NAME, longName, 0, longName.length);
+			}
+			writeEntry(nameBytes, TarFormat.TYPE_FILE, data, offset, length);
+		}
+		
+		private void writeEntry(byte[] nameBytes, byte type, byte[] data, int offset, int length) throws IOException {
+			Arrays.fill(header, (byte)0);
+			TarFormat.writeString(header, TarFormat.NAME_OFFSET, TarFormat.NAME_LENGTH, nameBytes);
+			TarFormat.writeOctal(header, TarFormat.MODE_OFFSET, 8, 0644);
+			TarFormat.writeOctal(header, TarFormat.UID_OFFSET, 8, 0);
+			TarFormat.writeOctal(header, TarFormat.GID_OFFSET, 8, 0);
+			TarFormat.writeOctal(header, TarFormat.SIZE_OFFSET, TarFormat.SIZE_LENGTH, length);
+			TarFormat.writeOctal(header, TarFormat.MTIME_OFFSET, 12, System.currentTimeMillis() / 1000);
+			header[TarFormat.TYPE_OFFSET] = type;
+			TarFormat.writeString(header, TarFormat.MAGIC_OFFSET, 8, "ustar\u000000".getBytes(TarFormat.UTF8));
+			TarFormat.writeChecksum(header);
+			out.write(header);
+			out.write(data, offset, length);
+			out.write(ZERO_BLOCK, 0, (int)TarFormat.getPadding(length));
+		}
+
+		@Override
+		public void close() throws IOException {
+			//End of archive: two zero blocks
+			out.write(ZERO_BLOCK);
+			out.write(ZERO_BLOCK);
+			out.close();
+		}
+	}
+}
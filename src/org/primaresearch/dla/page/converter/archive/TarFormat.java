@@ -0,0 +1,157 @@
+/*
+ * Copyright 2019 PRImA Research Lab, University of Salford, United Kingdom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.primaresearch.dla.page.converter.archive;
+
+import java.nio.charset.Charset;
+
+/**
+ * Constants and helpers for the TAR header format (POSIX ustar).
+ * 
+ * @author Christian Clausner
+ *
+ */
+final class TarFormat {
+	
+	static final int BLOCK_SIZE = 512;
+	
+	static final int NAME_OFFSET = 0;
+	static final int NAME_LENGTH = 100;
+	static final int MODE_OFFSET = 100;
+	static final int UID_OFFSET = 108;
+	static final int GID_OFFSET = 116;
+	static final int SIZE_OFFSET = 124;
+	static final int SIZE_LENGTH = 12;
+	static final int MTIME_OFFSET = 136;
+	static final int CHECKSUM_OFFSET = 148;
+	static final int CHECKSUM_LENGTH = 8;
+	static final int TYPE_OFFSET = 156;
+	static final int MAGIC_OFFSET = 257;
+	static final int PREFIX_OFFSET = 345;
+	static final int PREFIX_LENGTH = 155;
+	
+	static final byte TYPE_FILE = '0';
+	static final byte TYPE_FILE_OLD = 0;
+	static final byte TYPE_GNU_LONG_NAME = 'L';
+	static final byte TYPE_PAX_HEADER = 'x';
+	
+	static final Charset UTF8 = Charset.forName("UTF-8");
+	
+	private TarFormat() {
+	}
+	
+	/**
+	 * Number of padding bytes after an entry of the given size (entries are aligned to blocks)
+	 */
+	static long getPadding(long size) {
+		long rest = size % BLOCK_SIZE;
+		return rest == 0 ? 0 : BLOCK_SIZE - rest;
+	}
+	
+	/**
+	 * Parses an octal number field (terminated by NUL or space). Also supports the GNU binary format for large sizes.
+	 */
+	static long parseOctal(byte[] header, int offset, int length) {
+		if ((header[offset] & 0x80) != 0) { //GNU base-256
+			long value = 0;
+			for (int i=1; i<length; i++)
+				value = (value << 8) | (header[offset+i] & 0xFF);
+			return value;
+		}
+		long value = 0;
+		for (int i=offset; i<offset+length; i++) {
+			byte b = header[i];
+			if (b == 0 || (b == ' ' && value > 0))
+				break;
+			if (b == ' ')
+				continue;
+			value = (value << 3) + (b - '0');
+		}
+		return value;
+	}
+	
+	/**
+	 * Parses a NUL terminated string field
+	 */
+	static String parseString(byte[] header, int offset, int length) {
+		int end = offset;
+		while (end < offset+length && header[end] != 0)
+			end++;
+		return new String(header, offset, end - offset, UTF8);
+	}
+	
+	/**
+	 * Returns the value of the given key from pax extended header records ('&lt;length&gt; &lt;key&gt;=&lt;value&gt;\n'),
+	 * or null if there is no such record
+	 */
+	static String parsePaxRecord(byte[] records, String key) {
+		int pos = 0;
+		while (pos < records.length) {
+			//Record length (decimal, includes the length field and the newline)
+			int space = pos;
+			int length = 0;
+			while (space < records.length && records[space] >= '0' && records[space] <= '9') {
+				length = length * 10 + (records[space] - '0');
+				space++;
+			}
+			if (length <= 0 || space >= records.length || records[space] != ' ' || pos + length > records.length)
+				return null; //Malformed or padding
+			
+			int equals = space + 1;
+			while (equals < pos + length && records[equals] != '=')
+				equals++;
+			int valueEnd = pos + length - 1; //Newline
+			if (equals < valueEnd && key.equals(new String(records, space + 1, equals - space - 1, UTF8)))
+				return new String(records, equals + 1, valueEnd - equals - 1, UTF8);
+			pos += length;
+		}
+		return null;
+	}
+	
+	/**
+	 * Writes an octal number field (NUL terminated)
+	 */
+	static void writeOctal(byte[] header, int offset, int length, long value) {
+		String octal = Long.toOctalString(value);
+		int digits = length - 1;
+		if (octal.length() > digits)
+			throw new IllegalArgumentException("Value too large for TAR header field: "+value);
+		for (int i=0; i<digits; i++) {
+			int pos = octal.length() - digits + i;
+			header[offset+i] = (byte)(pos >= 0 ? octal.charAt(pos) : '0');
+		}
+		header[offset+digits] = 0;
+	}
+	
+	/**
+	 * Writes a string field (must fit into the field)
+	 */
+	static void writeString(byte[] header, int offset, int length, byte[] value) {
+		System.arraycopy(value, 0, header, offset, Math.min(length, value.length));
+	}
+	
+	/**
+	 * Calculates and writes the header checksum
+	 */
+	static void writeChecksum(byte[] header) {
+		for (int i=CHECKSUM_OFFSET; i<CHECKSUM_OFFSET+CHECKSUM_LENGTH; i++)
+			header[i] = ' ';
+		long sum = 0;
+		for (int i=0; i<header.length; i++)
+			sum += header[i] & 0xFF;
+		writeOctal(header, CHECKSUM_OFFSET, 7, sum);
+		header[CHECKSUM_OFFSET+7] = ' ';
+	}
+}
@@ -0,0 +1,336 @@
+/*
+ * Copyright 2019 PRImA Research Lab, University of Salford, United Kingdom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.primaresearch.dla.page.converter.json;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Minimal JSON pull parser that returns one token at a time without building a document tree.<br>
+ * <br>
+ * Field names and string values are kept in a reusable character buffer and are only turned into
+ * String objects on request. Numbers are parsed directly from the buffer into primitive values.
+ * Separators (commas and colons) are not validated strictly.
+ * 
+ * @author Christian Clausner
+ *
+ */
+public final class JsonPullParser implements Closeable {
+	
+	/** JSON token types */
+	public enum Token {
+		START_OBJECT, END_OBJECT, START_ARRAY, END_ARRAY, FIELD_NAME, STRING, NUMBER, TRUE, FALSE, NULL
+	}
+	
+	private static final int BUFFER_SIZE = 64 * 1024;
+	
+	private final Reader reader;
+	private final char[] buffer = new char[BUFFER_SIZE];
+	private int pos = 0;
+	private int limit = 0;
+	private long offset = 0; //Characters before buffer start
+	
+	private char[] text = new char[256];
+	private int textLength = 0;
+	private Token current = null;
+	
+	/**
+	 * Constructor
+	 * @param reader JSON input (buffering is done by the parser)
+	 */
+	public JsonPullParser(Reader reader) {
+		this.reader = reader;
+	}
+	
+	/**
+	 * Reads the next token
+	 * @return The token or null at the end of the input
+	 */
+	public Token next() throws IOException {
+		int c = skipSeparators();
+		switch (c) {
+		case -1: 
+			return current = null;
+		case '{': 
+			return current = Token.START_OBJECT;
+		case '}': 
+			return current = Token.END_OBJECT;
+		case '[': 
+			return current = Token.START_ARRAY;
+		case ']': 
+			return current = Token.END_ARRAY;
+		case '"':
+			readString();
+			return current = peekNonWhitespace() == ':' ? Token.FIELD_NAME : Token.STRING;
+		case 't':
+			expect("rue");
+			return current = Token.TRUE;
+		case 'f':
+			expect("alse");
+			return current = Token.FALSE;
+		case 'n':
+			expect("ull");
+			return current = Token.NULL;
+		default:
+			if (c == '-' || (c >= '0' && c <= '9')) {
+				readNumber((char)c);
+				return current = Token.NUMBER;
+			}
+			throw new IOException("Unexpected character '"+(char)c+"' at offset "+getOffset());
+		}
+	}
+	
+	/**
+	 * Returns the token that was read last
+	 */
+	public Token getCurrentToken() {
+		return current;
+	}
+	
+	/**
+	 * Skips the current value. If the current token is the start of an object or array,
+	 * everything up to the matching end token is skipped.
+	 */
+	public void skipValue() throws IOException {
+		if (current != Token.START_OBJECT && current != Token.START_ARRAY)
+			return;
+		int depth = 1;
+		while (depth > 0) {
+			Token token = next();
+			if (token == null)
+				throw new IOException("Unexpected end of JSON input");
+			if (token == Token.START_OBJECT || token == Token.START_ARRAY)
+				depth++;
+			else if (token == Token.END_OBJECT || token == Token.END_ARRAY)
+				depth--;
+		}
+	}
+	
+	/**
+	 * Reads the next token and skips it if it is an object or array
+	 */
+	public void skipNextValue() throws IOException {
+		next();
+		skipValue();
+	}
+	
+	/**
+	 * Field name or string value of the current token
+	 */
+	public String getText() {
+		return new String(text, 0, textLength);
+	}
+	
+	/**
+	 * Field name or string value of the current token, shared with identical texts of the given table
+	 * (doesn't create a String object if the text is in the table already)
+	 */
+	public String getText(StringTable table) {
+		return table.get(text, 0, textLength);
+	}
+	
+	/**
+	 * Checks if the field name or string value of the current token equals the given string (without creating a String object)
+	 */
+	public boolean textEquals(String s) {
+		if (s.length() != textLength)
+			return false;
+		for (int i=0; i<textLength; i++) {
+			if (text[i] != s.charAt(i))
+				return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * Integer value of the current number token (decimals are truncated)
+	 */
+	public int getInt() {
+		long value = 0;
+		int i = 0;
+		boolean negative = false;
+		if (textLength > 0 && text[0] == '-') {
+			negative = true;
+			i++;
+		}
+		for (; i<textLength; i++) {
+			char c = text[i];
+			if (c < '0' || c > '9') 
+				return (int)getDouble(); //Decimal or exponent
+			value = value * 10 + (c - '0');
+		}
+		return (int)(negative ? -value : value);
+	}
+	
+	/**
+	 * Floating point value of the current number token
+	 */
+	public double getDouble() {
+		return Double.parseDouble(getText());
+	}
+	
+	/**
+	 * Number of characters read so far (for error messages)
+	 */
+	public long getOffset() {
+		return offset + pos;
+	}
+	
+	@Override
+	public void close() throws IOException {
+		reader.close();
+	}
+	
+	/**
+	 * Skips whitespace, commas and colons
+	 * @return The next character (consumed) or -1 at the end of the input
+	 */
+	private int skipSeparators() throws IOException {
+		while (true) {
+			if (pos >= limit && !fill())
+				return -1;
+			char c = buffer[pos++];
+			if (c != ' ' && c != '\n' && c != '\r' && c != '\t' && c != ',' && c != ':')
+				return c;
+		}
+	}
+	
+	/**
+	 * Skips whitespace and returns the next character without consuming it (-1 at the end of the input)
+	 */
+	private int peekNonWhitespace() throws IOException {
+		while (true) {
+			if (pos >= limit && !fill())
+				return -1;
+			char c = buffer[pos];
+			if (c != ' ' && c != '\n' && c != '\r' && c != '\t')
+				return c;
+			pos++;
+		}
+	}
+	
+	private int read() throws IOException {
+		if (pos >= limit && !fill())
+			return -1;
+		return buffer[pos++];
+	}
+	
+	private boolean fill() throws IOException {
+		offset += limit;
+		pos = 0;
+		limit = 0;
+		int n = reader.read(buffer, 0, buffer.length);
+		if (n <= 0)
+			return false;
+		limit = n;
+		return true;
+	}
+	
+	private void expect(String rest) throws IOException {
+		for (int i=0; i<rest.length(); i++) {
+			if (read() != rest.charAt(i))
+				throw new IOException("Invalid literal at offset "+getOffset());
+		}
+	}
+	
+	private void readString() throws IOException {
+		textLength = 0;
+		while (true) {
+			//Fast path: copy unescaped characters directly from the buffer
+			int start = pos;
+			while (pos < limit) {
+				char c = buffer[pos];
+				if (c == '"' || c == '\\')
+					break;
+				pos++;
+			}
+			append(buffer, start, pos - start);
+			
+			int c = read();
+			if (c == -1)
+				throw new IOException("Unterminated string at offset "+getOffset());
+			if (c == '"')
+				return;
+			if (c == '\\')
+				append(readEscape());
+			else //Buffer boundary
+				append((char)c);
+		}
+	}
+	
+	private char readEscape() throws IOException {
+		int c = read();
+		switch (c) {
+		case '"': return '"';
+		case '\\': return '\\';
+		case '/': return '/';
+		case 'b': return '\b';
+		case 'f': return '\f';
+		case 'n': return '\n';
+		case 'r': return '\r';
+		case 't': return '\t';
+		case 'u':
+			int value = 0;
+			for (int i=0; i<4; i++) {
+				int digit = Character.digit(read(), 16);
+				if (digit < 0)
+					throw new IOException("Invalid unicode escape at offset "+getOffset());
+				value = value * 16 + digit;
+			}
+			return (char)value;
+		default:
+			throw new IOException("Invalid escape sequence at offset "+getOffset());
+		}
+	}
+	
+	private void readNumber(char first) throws IOException {
+		textLength = 0;
+		append(first);
+		while (true) {
+			if (pos >= limit && !fill())
+				return;
+			char c = buffer[pos];
+			if ((c >= '0' && c <= '9') || c == '.' || c == 'e' || c == 'E' || c == '+' || c == '-') {
+				append(c);
+				pos++;
+			}
+			else
+				return;
+		}
+	}
+	
+	private void append(char c) {
+		if (textLength == text.length)
+			grow(textLength + 1);
+		text[textLength++] = c;
+	}
+	
+	private void append(char[] chars, int start, int length) {
+		if (length <= 0)
+			return;
+		if (textLength + length > text.length)
+			grow(textLength + length);
+		System.arraycopy(chars, start, text, textLength, length);
+		textLength += length;
+	}
+	
+	private void grow(int minCapacity) {
+		char[] newText = new char[Math.max(minCapacity, text.length * 2)];
+		System.arraycopy(text, 0, newText, 0, textLength);
+		text = newText;
+	}
+}
@@ -0,0 +1,562 @@
+/*
+ * Copyright 2019 PRImA Research Lab, University of Salford, United Kingdom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.primaresearch.dla.page.converter.json;
+
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import org.primaresearch.dla.page.Page;
+import org.primaresearch.dla.page.converter.SchemaCache;
+import org.primaresearch.dla.page.converter.json.JsonPullParser.Token;
+import org.primaresearch.dla.page.io.FileInput;
+import org.primaresearch.dla.page.io.InputSource;
+import org.primaresearch.dla.page.io.PageReader;
+import org.primaresearch.dla.page.io.StreamInput;
+import org.primaresearch.dla.page.layout.physical.ContentObject;
+import org.primaresearch.dla.page.layout.physical.Region;
+import org.primaresearch.dla.page.layout.physical.shared.RegionType;
+import org.primaresearch.dla.page.layout.physical.text.LowLevelTextContainer;
+import org.primaresearch.dla.page.layout.physical.text.LowLevelTextObject;
+import org.primaresearch.dla.page.layout.physical.text.TextObject;
+import org.primaresearch.maths.geometry.Polygon;
+import org.primaresearch.shared.variable.StringValue;
+import org.primaresearch.shared.variable.Variable;
+
+/**
+ * Reader for Google Cloud Vision OCR results (JSON) that builds the page while the input is parsed.<br>
+ * <br>
+ * Unlike a reader based on a JSON document tree, only the objects of the page are kept in memory.
+ * The hierarchy is mapped as follows: block &gt; region, paragraph and detected line breaks &gt; text line,
+ * word &gt; word, symbol &gt; glyph. Text lines get the bounding box of their words as coordinates.
+ * Confidence values are copied (lines get the confidence of their paragraph) and the first detected
+ * language of blocks and words is used as primary language of regions and language of words.
+ * Identical texts of words and glyphs and identical language codes of a page share one String object
+ * (see {@link StringTable}).<br>
+ * <br>
+ * The objects of a block are buffered until the block has been read completely, because its type
+ * can follow the paragraphs in the input.<br>
+ * <br>
+ * Supported input: a single AnnotateImageResponse or a batch response (<code>responses</code> array).
+ * Only the first page of the <code>fullTextAnnotation</code> is read. Normalised vertices are not supported.
+ * 
+ * @author Christian Clausner
+ *
+ */
+public class StreamingGoogleJsonPageReader implements PageReader {
+	
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	
+	//Break types (detectedBreak)
+	private static final int BREAK_NONE = 0;
+	private static final int BREAK_SPACE = 1;
+	private static final int BREAK_LINE = 2;
+	
+	private JsonPullParser parser;
+	/** Text of words and glyphs and language codes of the page that is read */
+	private StringTable strings;
+	private Page page;
+	private boolean pageRead;
+	
+	//Lines of the current block
+	private List<TextItem> blockLines = new ArrayList<TextItem>();
+	private StringBuilder regionText = new StringBuilder();
+	
+	//Current line
+	private TextItem line;
+	private StringBuilder lineText = new StringBuilder();
+	private int lineMinX, lineMinY, lineMaxX, lineMaxY;
+	
+	//Bounds of the last parsed bounding box
+	private int boxMinX, boxMinY, boxMaxX, boxMaxY;
+	
+	//Break after the last parsed symbol
+	private int lastBreak;
+	
+	//Values of the last parsed property object
+	private int propertyBreak;
+	private String propertyLanguage;
+
+	@Override
+	public Page read(InputSource source) {
+		InputStream in = null;
+		try {
+			if (source instanceof FileInput)
+				in = new FileInputStream(((FileInput)source).getFile());
+			else if (source instanceof StreamInput)
+				in = ((StreamInput)source).getInputStream();
+			else
+				throw new IllegalArgumentException("Unsupported input source: "+source);
+			return read(in);
+		} catch (Exception exc) {
+			exc.printStackTrace();
+			return null;
+		} finally {
+			if (source instanceof FileInput && in != null) {
+				try {
+					in.close();
+				} catch (IOException e) {
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Reads a page from the given stream (the stream is not closed)
+	 */
+	public synchronized Page read(InputStream in) throws IOException {
+		parser = new JsonPullParser(new InputStreamReader(new BufferedInputStream(in, 64 * 1024), UTF8));
+		strings = new StringTable();
+		page = new Page(SchemaCache.getLatestSchemaModel());
+		pageRead = false;
+		try {
+			Token token = parser.next();
+			if (token != Token.START_OBJECT)
+				throw new IOException("JSON object expected");
+			scanValue();
+			if (!pageRead)
+				throw new IOException("No fullTextAnnotation found");
+			return page;
+		} finally {
+			parser = null;
+			strings = null;
+			blockLines.clear();
+			line = null;
+		}
+	}
+	
+	/**
+	 * Searches the current value for the (first) full text annotation
+	 */
+	private void scanValue() throws IOException {
+		Token token = parser.getCurrentToken();
+		if (token == Token.START_OBJECT) {
+			while ((token = parser.next()) == Token.FIELD_NAME) {
+				if (!pageRead && parser.textEquals("fullTextAnnotation"))
+					parseFullTextAnnotation();
+				else if (pageRead || parser.textEquals("textAnnotations"))
+					parser.skipNextValue();
+				else {
+					parser.next();
+					scanValue();
+				}
+			}
+			checkToken(token, Token.END_OBJECT);
+		}
+		else if (token == Token.START_ARRAY) {
+			while ((token = parser.next()) != Token.END_ARRAY) {
+				if (token == null)
+					throw new IOException("Unexpected end of JSON input");
+				scanValue();
+			}
+		}
+	}
+	
+	private void parseFullTextAnnotation() throws IOException {
+		checkToken(parser.next(), Token.START_OBJECT);
+		Token token;
+		while ((token = parser.next()) == Token.FIELD_NAME) {
+			if (parser.textEquals("pages")) {
+				checkToken(parser.next(), Token.START_ARRAY);
+				while ((token = parser.next()) == Token.START_OBJECT) {
+					if (pageRead)
+						parser.skipValue(); //Only one page per PAGE XML document
+					else
+						parsePage();
+				}
+				checkToken(token, Token.END_ARRAY);
+			}
+			else
+				parser.skipNextValue();
+		}
+		checkToken(token, Token.END_OBJECT);
+		pageRead = true;
+	}
+	
+	private void parsePage() throws IOException {
+		int width = 0;
+		int height = 0;
+		Token token;
+		while ((token = parser.next()) == Token.FIELD_NAME) {
+			if (parser.textEquals("width")) {
+				parser.next();
+				width = parser.getInt();
+			}
+			else if (parser.textEquals("height")) {
+				parser.next();
+				height = parser.getInt();
+			}
+			else if (parser.textEquals("blocks")) {
+				checkToken(parser.next(), Token.START_ARRAY);
+				while ((token = parser.next()) == Token.START_OBJECT)
+					parseBlock();
+				checkToken(token, Token.END_ARRAY);
+			}
+			else
+				parser.skipNextValue();
+		}
+		checkToken(token, Token.END_OBJECT);
+		page.getLayout().setSize(width, height);
+		pageRead = true;
+	}
+	
+	private void parseBlock() throws IOException {
+		blockLines.clear();
+		regionText.setLength(0);
+		Polygon coords = null;
+		RegionType type = RegionType.TextRegion;
+		Double confidence = null;
+		String language = null;
+		Token token;
+		while ((token = parser.next()) == Token.FIELD_NAME) {
+			if (parser.textEquals("boundingBox"))
+				coords = parseBoundingBox();
+			else if (parser.textEquals("blockType")) {
+				parser.next();
+				type = getRegionType();
+			}
+			else if (parser.textEquals("confidence"))
+				confidence = parseConfidence();
+			else if (parser.textEquals("property")) {
+				parseProperty();
+				language = propertyLanguage;
+			}
+			else if (parser.textEquals("paragraphs")) {
+				checkToken(parser.next(), Token.START_ARRAY);
+				while ((token = parser.next()) == Token.START_OBJECT)
+					parseParagraph();
+				checkToken(token, Token.END_ARRAY);
+			}
+			else
+				parser.skipNextValue();
+		}
+		checkToken(token, Token.END_OBJECT);
+		
+		//The block type can follow the paragraphs, so the region is only created now
+		Region region = page.getLayout().createRegion(type);
+		if (coords != null)
+			region.setCoords(coords);
+		setLanguage(region, "primaryLanguage", language);
+		if (region instanceof TextObject) {
+			if (confidence != null)
+				((TextObject)region).setConfidence(confidence);
+			if (regionText.length() > 0)
+				((TextObject)region).setText(regionText.toString());
+		}
+		if (region instanceof LowLevelTextContainer)
+			addTextObjects((LowLevelTextContainer)region, blockLines);
+		blockLines.clear();
+	}
+	
+	/**
+	 * Adds the given buffered lines, words or glyphs (including their children) to the specified parent object
+	 */
+	private void addTextObjects(LowLevelTextContainer parent, List<TextItem> items) {
+		for (int i=0; i<items.size(); i++) {
+			TextItem item = items.get(i);
+			LowLevelTextObject obj = parent.createTextObject();
+			if (item.coords != null)
+				obj.setCoords(item.coords);
+			if (item.text != null)
+				obj.setText(item.text);
+			if (item.confidence != null)
+				obj.setConfidence(item.confidence);
+			setLanguage(obj, "language", item.language);
+			if (item.children != null && obj instanceof LowLevelTextContainer)
+				addTextObjects((LowLevelTextContainer)obj, item.children);
+		}
+	}
+	
+	/**
+	 * Sets a language attribute (e.g. 'en' is written as 'English'). Nothing is done if the object has no such attribute.
+	 */
+	private static void setLanguage(ContentObject obj, String attributeName, String languageCode) {
+		if (languageCode == null || obj.getAttributes() == null)
+			return;
+		Variable attribute = obj.getAttributes().get(attributeName);
+		if (attribute == null)
+			return;
+		String language = Locale.forLanguageTag(languageCode).getDisplayLanguage(Locale.ENGLISH);
+		if (language.isEmpty())
+			return;
+		try {
+			attribute.setValue(new StringValue(language));
+		} catch (Exception exc) {
+			System.err.println("Could not set language '"+language+"'");
+		}
+	}
+	
+	/**
+	 * Maps the block type of the current string token to a region type
+	 */
+	private RegionType getRegionType() {
+		if (parser.textEquals("TABLE"))
+			return RegionType.TableRegion;
+		if (parser.textEquals("PICTURE"))
+			return RegionType.ImageRegion;
+		if (parser.textEquals("RULER"))
+			return RegionType.SeparatorRegion;
+		if (parser.textEquals("BARCODE"))
+			return RegionType.GraphicRegion;
+		return RegionType.TextRegion;
+	}
+	
+	private void parseParagraph() throws IOException {
+		int firstLine = blockLines.size();
+		Double confidence = null;
+		Token token;
+		while ((token = parser.next()) == Token.FIELD_NAME) {
+			if (parser.textEquals("words")) {
+				checkToken(parser.next(), Token.START_ARRAY);
+				while ((token = parser.next()) == Token.START_OBJECT)
+					parseWord();
+				checkToken(token, Token.END_ARRAY);
+			}
+			else if (parser.textEquals("confidence"))
+				confidence = parseConfidence();
+			else
+				parser.skipNextValue();
+		}
+		checkToken(token, Token.END_OBJECT);
+		closeLine(); //Lines don't span paragraphs
+		
+		//Lines get the confidence of their paragraph
+		if (confidence != null) {
+			for (int i=firstLine; i<blockLines.size(); i++)
+				blockLines.get(i).confidence = confidence;
+		}
+	}
+	
+	private void parseWord() throws IOException {
+		if (line == null) {
+			line = new TextItem(true);
+			lineText.setLength(0);
+			lineMinX = lineMinY = Integer.MAX_VALUE;
+			lineMaxX = lineMaxY = Integer.MIN_VALUE;
+		}
+		TextItem word = new TextItem(true);
+		line.children.add(word);
+		StringBuilder wordText = new StringBuilder();
+		lastBreak = BREAK_NONE;
+		
+		Token token;
+		while ((token = parser.next()) == Token.FIELD_NAME) {
+			if (parser.textEquals("boundingBox")) {
+				word.coords = parseBoundingBox();
+				lineMinX = Math.min(lineMinX, boxMinX);
+				lineMinY = Math.min(lineMinY, boxMinY);
+				lineMaxX = Math.max(lineMaxX, boxMaxX);
+				lineMaxY = Math.max(lineMaxY, boxMaxY);
+			}
+			else if (parser.textEquals("symbols")) {
+				checkToken(parser.next(), Token.START_ARRAY);
+				while ((token = parser.next()) == Token.START_OBJECT)
+					parseSymbol(word, wordText);
+				checkToken(token, Token.END_ARRAY);
+			}
+			else if (parser.textEquals("confidence"))
+				word.confidence = parseConfidence();
+			else if (parser.textEquals("property")) {
+				parseProperty();
+				word.language = propertyLanguage;
+			}
+			else
+				parser.skipNextValue();
+		}
+		checkToken(token, Token.END_OBJECT);
+		
+		word.text = strings.get(wordText);
+		lineText.append(wordText);
+		if (lastBreak == BREAK_SPACE)
+			lineText.append(' ');
+		else if (lastBreak == BREAK_LINE)
+			closeLine();
+	}
+	
+	private void parseSymbol(TextItem word, StringBuilder wordText) throws IOException {
+		TextItem glyph = new TextItem(false);
+		word.children.add(glyph);
+		lastBreak = BREAK_NONE;
+		Token token;
+		while ((token = parser.next()) == Token.FIELD_NAME) {
+			if (parser.textEquals("text")) {
+				parser.next();
+				glyph.text = parser.getText(strings);
+				wordText.append(glyph.text);
+			}
+			else if (parser.textEquals("boundingBox"))
+				glyph.coords = parseBoundingBox();
+			else if (parser.textEquals("confidence"))
+				glyph.confidence = parseConfidence();
+			else if (parser.textEquals("property")) {
+				parseProperty();
+				lastBreak = propertyBreak;
+			}
+			else
+				parser.skipNextValue();
+		}
+		checkToken(token, Token.END_OBJECT);
+	}
+	
+	private Double parseConfidence() throws IOException {
+		if (parser.next() != Token.NUMBER) {
+			parser.skipValue();
+			return null;
+		}
+		return Double.valueOf(parser.getDouble());
+	}
+	
+	/**
+	 * Parses a text property object (break type and first detected language)
+	 */
+	private void parseProperty() throws IOException {
+		propertyBreak = BREAK_NONE;
+		propertyLanguage = null;
+		checkToken(parser.next(), Token.START_OBJECT);
+		Token token;
+		while ((token = parser.next()) == Token.FIELD_NAME) {
+			if (parser.textEquals("detectedBreak")) {
+				checkToken(parser.next(), Token.START_OBJECT);
+				while ((token = parser.next()) == Token.FIELD_NAME) {
+					if (parser.textEquals("type")) {
+						parser.next();
+						if (parser.textEquals("SPACE") || parser.textEquals("SURE_SPACE"))
+							propertyBreak = BREAK_SPACE;
+						else if (parser.textEquals("EOL_SURE_SPACE") || parser.textEquals("LINE_BREAK") || parser.textEquals("HYPHEN"))
+							propertyBreak = BREAK_LINE;
+					}
+					else
+						parser.skipNextValue();
+				}
+				checkToken(token, Token.END_OBJECT);
+			}
+			else if (parser.textEquals("detectedLanguages")) {
+				checkToken(parser.next(), Token.START_ARRAY);
+				while ((token = parser.next()) == Token.START_OBJECT) {
+					while ((token = parser.next()) == Token.FIELD_NAME) {
+						if (propertyLanguage == null && parser.textEquals("languageCode")) {
+							parser.next();
+							propertyLanguage = parser.getText(strings);
+						}
+						else
+							parser.skipNextValue();
+					}
+					checkToken(token, Token.END_OBJECT);
+				}
+				checkToken(token, Token.END_ARRAY);
+			}
+			else
+				parser.skipNextValue();
+		}
+		checkToken(token, Token.END_OBJECT);
+	}
+	
+	/**
+	 * Parses a bounding box object (vertices with x and y, missing values are 0) and records its bounds
+	 */
+	private Polygon parseBoundingBox() throws IOException {
+		Polygon polygon = new Polygon();
+		boxMinX = boxMinY = Integer.MAX_VALUE;
+		boxMaxX = boxMaxY = Integer.MIN_VALUE;
+		checkToken(parser.next(), Token.START_OBJECT);
+		Token token;
+		while ((token = parser.next()) == Token.FIELD_NAME) {
+			if (parser.textEquals("vertices")) {
+				checkToken(parser.next(), Token.START_ARRAY);
+				while ((token = parser.next()) == Token.START_OBJECT) {
+					int x = 0;
+					int y = 0;
+					while ((token = parser.next()) == Token.FIELD_NAME) {
+						if (parser.textEquals("x")) {
+							parser.next();
+							x = parser.getInt();
+						}
+						else if (parser.textEquals("y")) {
+							parser.next();
+							y = parser.getInt();
+						}
+						else
+							parser.skipNextValue();
+					}
+					checkToken(token, Token.END_OBJECT);
+					polygon.addPoint(x, y);
+					boxMinX = Math.min(boxMinX, x);
+					boxMinY = Math.min(boxMinY, y);
+					boxMaxX = Math.max(boxMaxX, x);
+					boxMaxY = Math.max(boxMaxY, y);
+				}
+				checkToken(token, Token.END_ARRAY);
+			}
+			else
+				parser.skipNextValue();
+		}
+		checkToken(token, Token.END_OBJECT);
+		return polygon;
+	}
+	
+	/**
+	 * Finishes the current text line (text and bounding box of its words)
+	 */
+	private void closeLine() {
+		if (line == null)
+			return;
+		int length = lineText.length();
+		while (length > 0 && lineText.charAt(length-1) == ' ')
+			length--;
+		lineText.setLength(length);
+		line.text = lineText.toString();
+		if (lineMinX <= lineMaxX) {
+			Polygon coords = new Polygon();
+			coords.addPoint(lineMinX, lineMinY);
+			coords.addPoint(lineMaxX, lineMinY);
+			coords.addPoint(lineMaxX, lineMaxY);
+			coords.addPoint(lineMinX, lineMaxY);
+			line.coords = coords;
+		}
+		blockLines.add(line);
+		if (regionText.length() > 0)
+			regionText.append('\n');
+		regionText.append(lineText);
+		line = null;
+	}
+	
+	private void checkToken(Token actual, Token expected) throws IOException {
+		if (actual != expected)
+			throw new IOException("Unexpected JSON token "+actual+" (expected "+expected+") at offset "+parser.getOffset());
+	}
+	
+	/**
+	 * Buffered text line, word or glyph of the current block
+	 */
+	private static final class TextItem {
+		String text;
+		Polygon coords;
+		Double confidence;
+		String language;
+		List<TextItem> children;
+		
+		TextItem(boolean hasChildren) {
+			if (hasChildren)
+				children = new ArrayList<TextItem>();
+		}
+	}
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2019 PRImA Research Lab, University of Salford, United Kingdom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.primaresearch.dla.page.converter.json;
+
+/**
+ * Table of short strings, so that identical texts of a page (e.g. glyph text, language codes)
+ * share one String object.<br>
+ * <br>
+ * Strings are looked up directly from characters (parser buffer or string builder), so a text that is
+ * already in the table doesn't create a String object at all. Texts longer than {@link #MAX_LENGTH} and
+ * texts that don't fit into the table anymore ({@link #MAX_SIZE}) are returned as new strings.
+ * Not thread-safe (one table per page that is read).
+ * 
+ * @author Christian Clausner
+ *
+ */
+public final class StringTable {
+	
+	/** Maximum length of strings in the table */
+	public static final int MAX_LENGTH = 32;
+	/** Maximum number of strings in the table */
+	public static final int MAX_SIZE = 1 << 16;
+	
+	private String[] entries = new String[256];
+	private int size = 0;
+	
+	/**
+	 * Returns the string with the given characters
+	 */
+	public String get(char[] chars, int start, int length) {
+		if (length > MAX_LENGTH)
+			return new String(chars, start, length);
+		int hash = 0;
+		for (int i=0; i<length; i++)
+			hash = 31 * hash + chars[start + i];
+		int mask = entries.length - 1;
+		int index = mix(hash) & mask;
+		String entry;
+		while ((entry = entries[index]) != null) {
+			if (entry.length() == length && entry.hashCode() == hash && equals(entry, chars, start))
+				return entry;
+			index = (index + 1) & mask;
+		}
+		return add(new String(chars, start, length), index);
+	}
+	
+	/**
+	 * Returns the string with the characters of the given sequence
+	 */
+	public String get(CharSequence chars) {
+		int length = chars.length();
+		if (length > MAX_LENGTH)
+			return chars.toString();
+		int hash = 0;
+		for (int i=0; i<length; i++)
+			hash = 31 * hash + chars.charAt(i);
+		int mask = entries.length - 1;
+		int index = mix(hash) & mask;
+		String entry;
+		while ((entry = entries[index]) != null) {
+			if (entry.length() == length && entry.hashCode() == hash && equals(entry, chars))
+				return entry;
+			index = (index + 1) & mask;
+		}
+		return add(chars.toString(), index);
+	}
+	
+	/**
+	 * Number of strings in the table
+	 */
+	public int size() {
+		return size;
+	}
+	
+	/**
+	 * Adds the string at the given (free) index, if the table isn't full
+	 */
+	private String add(String s, int index) {
+		if (size >= MAX_SIZE)
+			return s;
+		entries[index] = s;
+		size++;
+		if (size * 2 > entries.length)
+			grow();
+		return s;
+	}
+	
+	private void grow() {
+		String[] oldEntries = entries;
+		entries = new String[oldEntries.length * 2];
+		int mask = entries.length - 1;
+		for (String entry : oldEntries) {
+			if (entry == null)
+				continue;
+			int index = mix(entry.hashCode()) & mask;
+			while (entries[index] != null)
+				index = (index + 1) & mask;
+			entries[index] = entry;
+		}
+	}
+	
+	/** Spreads the bits of String.hashCode() (similar to HashMap) */
+	private static int mix(int hash) {
+		return hash ^ (hash >>> 16);
+	}
+	
+	private static boolean equals(String s, char[] chars, int start) {
+		for (int i=0; i<s.length(); i++) {
+			if (s.charAt(i) != chars[start + i])
+				return false;
+		}
+		return true;
+	}
+	
+	private static boolean equals(String s, CharSequence chars) {
+		for (int i=0; i<s.length(); i++) {
+			if (s.charAt(i) != chars.charAt(i))
+				return false;
+		}
+		return true;
+	}
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright 2019 PRImA Research Lab, University of Salford, United Kingdom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.primaresearch.dla.page.converter.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Timings (per phase) and counters of a single conversion.
+ * 
+ * @author Christian Clausner
+ *
+ */
+public class ConversionMetrics {
+	
+	public static final String PHASE_LOAD = "load";
+	public static final String PHASE_GTSID = "gtsid";
+	public static final String PHASE_RESOLUTION = "resolution";
+	public static final String PHASE_TEXT_FILTER = "textFilter";
+	public static final String PHASE_NEG_COORDS = "negCoords";
+	public static final String PHASE_COORD_TRANSFORM = "coordTransform";
+	public static final String PHASE_TRAVERSAL = "traversal";
+	public static final String PHASE_SCHEMA_CONVERSION = "schemaConversion";
+	public static final String PHASE_COPY = "copy";
+	public static final String PHASE_WRITE = "write";
+	public static final String PHASE_STREAMING = "streaming";
+	
+	public static final String COUNT_OBJECTS = "objects";
+	public static final String COUNT_POINTS = "points";
+	public static final String COUNT_REMOVED = "removedObjects";
+	public static final String COUNT_INPUT_BYTES = "inputBytes";
+
+	private final String source;
+	private final String target;
+	private final long startTime = System.currentTimeMillis();
+	private final long startNanos = System.nanoTime();
+	private long totalNanos = 0;
+	private boolean success = false;
+	private final Map<String, Long> phaseNanos = new LinkedHashMap<String, Long>();
+	private final Map<String, Long> counts = new LinkedHashMap<String, Long>();
+	
+	/**
+	 * Constructor (the overall time measurement starts here)
+	 * @param source Source file path
+	 * @param target Target file path
+	 */
+	public ConversionMetrics(String source, String target) {
+		this.source = source;
+		this.target = target;
+	}
+	
+	/**
+	 * Adds the time since 'start' to the given phase
+	 * @param phase Phase name (see PHASE_... constants)
+	 * @param start Start time (System.nanoTime())
+	 * @return The current time (can be used as start of the next phase)
+	 */
+	public long endPhase(String phase, long start) {
+		long now = System.nanoTime();
+		addPhaseTime(phase, now - start);
+		return now;
+	}
+	
+	/**
+	 * Adds time to the given phase
+	 */
+	public void addPhaseTime(String phase, long nanos) {
+		Long time = phaseNanos.get(phase);
+		phaseNanos.put(phase, time != null ? time + nanos : nanos);
+	}
+	
+	public void setCount(String name, long count) {
+		counts.put(name, count);
+	}
+	
+	/**
+	 * Stops the overall time measurement
+	 */
+	public void finish(boolean success) {
+		this.success = success;
+		this.totalNanos = System.nanoTime() - startNanos;
+	}
+	
+	public long getTotalNanos() {
+		return totalNanos;
+	}
+	
+	public Map<String, Long> getPhaseNanos() {
+		return phaseNanos;
+	}
+	
+	public boolean isSuccess() {
+		return success;
+	}
+	
+	/**
+	 * Returns the metrics as a single line JSON object (times in microseconds)
+	 */
+	public String toJson() {
+		StringBuilder json = new StringBuilder(256);
+		json.append("{\"source\":");
+		appendJsonString(json, source);
+		json.append(",\"target\":");
+		appendJsonString(json, target);
+		json.append(",\"start\":").append(startTime);
+		json.append(",\"success\":").append(success);
+		json.append(",\"totalUs\":").append(totalNanos / 1000);
+		json.append(",\"phasesUs\":{");
+		boolean first = true;
+		for (Map.Entry<String, Long> entry : phaseNanos.entrySet()) {
+			if (!first)
+				json.append(',');
+			first = false;
+			appendJsonString(json, entry.getKey());
+			json.append(':').append(entry.getValue() / 1000);
+		}
+		json.append("},\"counts\":{");
+		first = true;
+		for (Map.Entry<String, Long> entry : counts.entrySet()) {
+			if (!first)
+				json.append(',');
+			first = false;
+			appendJsonString(json, entry.getKey());
+			json.append(':').append(entry.getValue());
+		}
+		json.append("}}");
+		return json.toString();
+	}
+	
+	/**
+	 * Appends a quoted and escaped JSON string
+	 */
+	static void appendJsonString(StringBuilder json, String value) {
+		if (value == null) {
+			json.append("null");
+			return;
+		}
+		json.append('"');
+		for (int i=0; i<value.length(); i++) {
+			char c = value.charAt(i);
+			if (c == '"' || c == '\\')
+				json.append('\\').append(c);
+			else if (c < 0x20)
+				json.append(String.format("\\u%04x", (int)c));
+			else
+				json.append(c);
+		}
+		json.append('"');
+	}
+}
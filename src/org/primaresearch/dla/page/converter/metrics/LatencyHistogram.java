@@ -0,0 +1,95 @@
+/*
+ * Copyright 2019 PRImA Research Lab, University of Salford, United Kingdom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.primaresearch.dla.page.converter.metrics;
+
+/**
+ * Histogram of durations with fixed memory use and about 1% precision
+ * (log-linear buckets: exact below 256, then 128 sub-buckets per power of two).<br>
+ * Not thread-safe.
+ * 
+ * @author Christian Clausner
+ *
+ */
+public class LatencyHistogram {
+	
+	private static final int LINEAR_BUCKETS = 256;
+	private static final int SUB_BUCKETS = 128;
+	private static final int BUCKET_COUNT = LINEAR_BUCKETS + 56 * SUB_BUCKETS;
+	
+	private final long[] counts = new long[BUCKET_COUNT];
+	private long totalCount = 0;
+	private long max = 0;
+	private long sum = 0;
+	
+	/**
+	 * Adds a value (negative values are counted as 0)
+	 */
+	public void record(long value) {
+		if (value < 0)
+			value = 0;
+		counts[indexOf(value)]++;
+		totalCount++;
+		sum += value;
+		if (value > max)
+			max = value;
+	}
+	
+	/**
+	 * Returns the approximate value at the given percentile
+	 * @param percentile 0.0 - 100.0
+	 * @return The value or 0 if the histogram is empty
+	 */
+	public long getPercentile(double percentile) {
+		if (totalCount == 0)
+			return 0;
+		long target = Math.max(1, (long)Math.ceil(percentile / 100.0 * totalCount));
+		long cumulated = 0;
+		for (int i=0; i<counts.length; i++) {
+			cumulated += counts[i];
+			if (cumulated >= target)
+				return Math.min(max, valueOf(i));
+		}
+		return max;
+	}
+	
+	public long getCount() {
+		return totalCount;
+	}
+	
+	public long getMax() {
+		return max;
+	}
+	
+	public double getMean() {
+		return totalCount > 0 ? (double)sum / totalCount : 0.0;
+	}
+	
+	private static int indexOf(long value) {
+		if (value < LINEAR_BUCKETS)
+			return (int)value;
+		int shift = (63 - Long.numberOfLeadingZeros(value)) - 7; //value >> shift is within [128, 255]
+		return LINEAR_BUCKETS + (shift - 1) * SUB_BUCKETS + (int)((value >> shift) - SUB_BUCKETS);
+	}
+	
+	/** Middle of the value range of the given bucket */
+	private static long valueOf(int index) {
+		if (index < LINEAR_BUCKETS)
+			return index;
+		int shift = (index - LINEAR_BUCKETS) / SUB_BUCKETS + 1;
+		long subBucket = (index - LINEAR_BUCKETS) % SUB_BUCKETS + SUB_BUCKETS;
+		return (subBucket << shift) + (1L << (shift - 1));
+	}
+}
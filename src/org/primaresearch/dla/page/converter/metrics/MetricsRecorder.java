@@ -0,0 +1,128 @@
+/*
+ * Copyright 2019 PRImA Research Lab, University of Salford, United Kingdom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.primaresearch.dla.page.converter.metrics;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Collects the metrics of many conversions (thread-safe).<br>
+ * Each conversion is appended as one JSON line to the metrics file (if specified),
+ * and the durations are aggregated for percentiles over the whole run.
+ * 
+ * @author Christian Clausner
+ *
+ */
+public class MetricsRecorder {
+	
+	private static final String TOTAL = "total";
+	
+	private final OutputStream out;
+	private final Map<String, LatencyHistogram> histograms = new TreeMap<String, LatencyHistogram>();
+	private long failed = 0;
+	
+	/**
+	 * Constructor
+	 * @param metricsFile JSON lines output file (appended to), can be null to only collect percentiles
+	 */
+	public MetricsRecorder(File metricsFile) throws IOException {
+		this.out = metricsFile != null ? new FileOutputStream(metricsFile, true) : null;
+	}
+	
+	/**
+	 * Records the metrics of one conversion
+	 */
+	public void record(ConversionMetrics metrics) {
+		String line = out != null ? metrics.toJson() + "\n" : null;
+		synchronized (this) {
+			if (!metrics.isSuccess())
+				failed++;
+			getHistogram(TOTAL).record(metrics.getTotalNanos() / 1000);
+			for (Map.Entry<String, Long> entry : metrics.getPhaseNanos().entrySet())
+				getHistogram(entry.getKey()).record(entry.getValue() / 1000);
+			if (out != null) {
+				try {
+					out.write(line.getBytes("UTF-8")); //One write per line (appending processes don't interleave)
+				} catch (IOException exc) {
+					exc.printStackTrace();
+				}
+			}
+		}
+	}
+	
+	private LatencyHistogram getHistogram(String phase) {
+		LatencyHistogram histogram = histograms.get(phase);
+		if (histogram == null) {
+			histogram = new LatencyHistogram();
+			histograms.put(phase, histogram);
+		}
+		return histogram;
+	}
+	
+	/**
+	 * Returns the summary (count, p50/p95/p99/max per phase in microseconds) as JSON line
+	 */
+	public synchronized String getSummaryJson() {
+		StringBuilder json = new StringBuilder(512);
+		LatencyHistogram total = getHistogram(TOTAL);
+		json.append("{\"summary\":{\"files\":").append(total.getCount());
+		json.append(",\"failed\":").append(failed);
+		json.append(",\"phasesUs\":{");
+		boolean first = true;
+		for (Map.Entry<String, LatencyHistogram> entry : histograms.entrySet()) {
+			if (!first)
+				json.append(',');
+			first = false;
+			LatencyHistogram h = entry.getValue();
+			ConversionMetrics.appendJsonString(json, entry.getKey());
+			json.append(":{\"count\":").append(h.getCount())
+				.append(",\"mean\":").append((long)h.getMean())
+				.append(",\"p50\":").append(h.getPercentile(50))
+				.append(",\"p95\":").append(h.getPercentile(95))
+				.append(",\"p99\":").append(h.getPercentile(99))
+				.append(",\"max\":").append(h.getMax()).append('}');
+		}
+		json.append("}}}");
+		return json.toString();
+	}
+	
+	/**
+	 * Prints a human readable summary table
+	 */
+	public synchronized void printSummary(PrintStream stream) {
+		stream.println(String.format("%-18s %8s %10s %10s %10s %10s %10s", "Phase", "count", "mean ms", "p50 ms", "p95 ms", "p99 ms", "max ms"));
+		for (Map.Entry<String, LatencyHistogram> entry : histograms.entrySet()) {
+			LatencyHistogram h = entry.getValue();
+			stream.println(String.format("%-18s %8d %10.2f %10.2f %10.2f %10.2f %10.2f", entry.getKey(), h.getCount(), 
+					h.getMean() / 1000.0, h.getPercentile(50) / 1000.0, h.getPercentile(95) / 1000.0, h.getPercentile(99) / 1000.0, h.getMax() / 1000.0));
+		}
+	}
+	
+	/**
+	 * Appends the summary line to the metrics file and closes it
+	 */
+	public synchronized void close() throws IOException {
+		if (out != null) {
+			out.write((getSummaryJson() + "\n").getBytes("UTF-8"));
+			out.close();
+		}
+	}
+}
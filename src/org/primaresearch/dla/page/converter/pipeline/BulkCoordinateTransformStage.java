@@ -0,0 +1,187 @@
+/*
+ * Copyright 2019 PRImA Research Lab, University of Salford, United Kingdom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.primaresearch.dla.page.converter.pipeline;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.primaresearch.dla.page.Page;
+import org.primaresearch.dla.page.layout.physical.text.impl.TextLine;
+import org.primaresearch.dla.page.layout.shared.GeometricObject;
+import org.primaresearch.maths.geometry.Point;
+import org.primaresearch.maths.geometry.Polygon;
+
+/**
+ * Applies a coordinate transformation to all polygons of a page (coords of all objects and baselines)
+ * and sets the new page size.<br>
+ * <br>
+ * The polygons are only collected during the traversal (in parallel mode in one list per fork-join task, 
+ * merged when the tasks are joined). At the end of the page, all points are copied into packed int arrays, 
+ * transformed in one loop and written back. The arrays are reused per thread, up to
+ * {@link #MAX_RETAINED_POINTS} points; larger pages get arrays that are released after the page.
+ * 
+ * @author Christian Clausner
+ *
+ */
+public class BulkCoordinateTransformStage implements PartitionedPageObjectStage<BulkCoordinateTransformStage.Polygons> {
+	
+	/** Maximum number of points the reused buffers of a thread can hold (2 MB per thread) */
+	static final int MAX_RETAINED_POINTS = 1 << 18;
+	
+	private static final ThreadLocal<int[][]> buffers = new ThreadLocal<int[][]>() {
+		@Override
+		protected int[][] initialValue() {
+			return new int[][] { new int[0], new int[0] };
+		}
+	};
+	
+	private final CoordinateTransform transform;
+	private final int pageWidth;
+	private final int pageHeight;
+	private Polygons polygons = new Polygons();
+
+	/**
+	 * Constructor
+	 * @param transform Transformation for all coordinates
+	 * @param pageWidth New page width
+	 * @param pageHeight New page height
+	 */
+	public BulkCoordinateTransformStage(CoordinateTransform transform, int pageWidth, int pageHeight) {
+		this.transform = transform;
+		this.pageWidth = pageWidth;
+		this.pageHeight = pageHeight;
+	}
+	
+	/**
+	 * Constructor
+	 * @param builder Transformation and resulting page size
+	 */
+	public BulkCoordinateTransformStage(CoordinateTransform.Builder builder) {
+		this(builder.getTransform(), builder.getWidth(), builder.getHeight());
+	}
+
+	@Override
+	public void beginPage(Page page) {
+		polygons = new Polygons();
+		page.getLayout().setSize(pageWidth, pageHeight);
+	}
+
+	/**
+	 * Collects the polygons of the given object for the current page (for sequential use outside a pipeline)
+	 */
+	@Override
+	public boolean process(GeometricObject obj) {
+		return process(obj, polygons);
+	}
+	
+	@Override
+	public Polygons createPartition() {
+		return new Polygons();
+	}
+
+	@Override
+	public boolean process(GeometricObject obj, Polygons partition) {
+		partition.add(obj.getCoords());
+		if (obj instanceof TextLine)
+			partition.add(((TextLine)obj).getBaseline());
+		return true;
+	}
+
+	@Override
+	public void merge(Polygons target, Polygons source) {
+		target.list.addAll(source.list);
+		target.pointCount += source.pointCount;
+	}
+
+	@Override
+	public void setPageResult(Polygons result) {
+		polygons = result;
+	}
+
+	@Override
+	public void endPage(Page page) {
+		List<Polygon> polygons = this.polygons.list;
+		int pointCount = this.polygons.pointCount;
+		if (pointCount > 0) {
+			int[][] buffer = getBuffers(pointCount);
+			int[] xs = buffer[0];
+			int[] ys = buffer[1];
+			
+			//Gather
+			int k = 0;
+			for (int p=0; p<polygons.size(); p++) {
+				Polygon polygon = polygons.get(p);
+				for (int i=0; i<polygon.getSize(); i++) {
+					Point point = polygon.getPoint(i);
+					xs[k] = point.x;
+					ys[k] = point.y;
+					k++;
+				}
+			}
+			
+			transform.apply(xs, ys, pointCount);
+			
+			//Scatter
+			k = 0;
+			for (int p=0; p<polygons.size(); p++) {
+				Polygon polygon = polygons.get(p);
+				for (int i=0; i<polygon.getSize(); i++) {
+					Point point = polygon.getPoint(i);
+					point.x = xs[k];
+					point.y = ys[k];
+					k++;
+				}
+			}
+		}
+		this.polygons = new Polygons();
+	}
+	
+	/**
+	 * Returns the thread's coordinate buffers, enlarged if necessary, or new buffers
+	 * that are not kept if the size exceeds {@link #MAX_RETAINED_POINTS}
+	 * (so worker threads of batches and the server don't hold the buffers of their largest page)
+	 */
+	static int[][] getBuffers(int size) {
+		if (size > MAX_RETAINED_POINTS)
+			return new int[][] { new int[size], new int[size] };
+		int[][] buffer = buffers.get();
+		if (buffer[0].length < size) {
+			int capacity = Math.min(Math.max(size, buffer[0].length * 2), MAX_RETAINED_POINTS);
+			buffer[0] = new int[capacity];
+			buffer[1] = new int[capacity];
+		}
+		return buffer;
+	}
+	
+	public CoordinateTransform getTransform() {
+		return transform;
+	}
+	
+	/**
+	 * Collected polygons and their total number of points
+	 */
+	public static final class Polygons {
+		final List<Polygon> list = new ArrayList<Polygon>();
+		int pointCount = 0;
+		
+		void add(Polygon polygon) {
+			if (polygon == null || polygon.getSize() == 0)
+				return;
+			list.add(polygon);
+			pointCount += polygon.getSize();
+		}
+	}
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright 2019 PRImA Research Lab, University of Salford, United Kingdom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.primaresearch.dla.page.converter.pipeline;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.primaresearch.dla.page.layout.physical.text.impl.Glyph;
+import org.primaresearch.dla.page.layout.physical.text.impl.TextLine;
+import org.primaresearch.dla.page.layout.physical.text.impl.TextRegion;
+import org.primaresearch.dla.page.layout.physical.text.impl.Word;
+import org.primaresearch.shared.variable.VariableMap;
+import org.primaresearch.text.filter.TextFilter;
+import org.primaresearch.text.filter.TextFilter.TextObjectTypeFilterCallback;
+
+/**
+ * Text filter that is prepared once and can then be used for any number of pages and threads.<br>
+ * <br>
+ * The rules are interpreted by {@link TextFilter} (same rule format as before, see user guide).
+ * There is one {@link TextFilter} per text object type (region, line, word, glyph), each with a fixed
+ * object type. The result of a rule's object type filter (e.g. "lwg") is worked out once per type and cached,
+ * so filtering a text doesn't need to look at the object or parse the type filter again.
+ * The filters are created per thread, because {@link TextFilter} is not meant to be shared between threads.
+ * 
+ * @author Christian Clausner
+ *
+ */
+public class CompiledTextFilter {
+	
+	/** Text object types that rules can be restricted to */
+	public enum ObjectType {
+		REGION('r'), LINE('l'), WORD('w'), GLYPH('g');
+		
+		private final char filterChar;
+		
+		private ObjectType(char filterChar) {
+			this.filterChar = filterChar;
+		}
+		
+		/**
+		 * Returns the type of the given object or null if it is not a region, line, word or glyph
+		 */
+		public static ObjectType of(Object obj) {
+			if (obj instanceof TextRegion)
+				return REGION;
+			if (obj instanceof TextLine)
+				return LINE;
+			if (obj instanceof Word)
+				return WORD;
+			if (obj instanceof Glyph)
+				return GLYPH;
+			return null;
+		}
+	}
+	
+	private final VariableMap rules;
+	private final ThreadLocal<TextFilter[]> filters;
+	
+	/**
+	 * Constructor
+	 * @param rules A collection of String variables, each containing a filter rule in the variable value.
+	 * @throws RuntimeException The rules could not be read by {@link TextFilter}
+	 */
+	public CompiledTextFilter(VariableMap rules) {
+		this.rules = rules;
+		//One callback per object type and one for other text objects (index ObjectType.values().length)
+		final ObjectTypeCallback[] callbacks = new ObjectTypeCallback[ObjectType.values().length + 1];
+		for (ObjectType type : ObjectType.values())
+			callbacks[type.ordinal()] = new ObjectTypeCallback(type);
+		callbacks[callbacks.length - 1] = new ObjectTypeCallback(null);
+		
+		filters = new ThreadLocal<TextFilter[]>() {
+			@Override
+			protected TextFilter[] initialValue() {
+				TextFilter[] filters = new TextFilter[callbacks.length];
+				for (int i=0; i<callbacks.length; i++) {
+					filters[i] = new TextFilter(CompiledTextFilter.this.rules);
+					filters[i].setTextObjectTypeFilterCallback(callbacks[i]);
+				}
+				return filters;
+			}
+		};
+		//Create the filters of this thread right away, so that invalid rules are reported when they are loaded
+		filters.get();
+	}
+	
+	/**
+	 * Applies all rules that are enabled for the given object type to the text
+	 * @param text Text to filter (not null)
+	 * @param type Type of the text object the text belongs to (null for other text objects, 
+	 * 			which only get the rules without object type filter)
+	 * @return Filtered text
+	 */
+	public String filter(String text, ObjectType type) {
+		TextFilter[] typeFilters = filters.get();
+		return typeFilters[type != null ? type.ordinal() : typeFilters.length - 1].filter(text);
+	}
+	
+	/**
+	 * Returns the rules this filter has been created with
+	 */
+	public VariableMap getRules() {
+		return rules;
+	}
+	
+	/**
+	 * Callback for a fixed object type with cached results per type filter string (thread-safe).
+	 * Gives the same answers as the callback of the converter for an object of that type.
+	 */
+	private static final class ObjectTypeCallback implements TextObjectTypeFilterCallback {
+		/** Filter character of the type (0 for other text objects) */
+		private final char filterChar;
+		private final ConcurrentHashMap<String, Boolean> results = new ConcurrentHashMap<String, Boolean>();
+		
+		ObjectTypeCallback(ObjectType type) {
+			filterChar = type != null ? type.filterChar : 0;
+		}
+
+		@Override
+		public boolean textFilterEnabledForObjectType(String textObjectTypeFilter) {
+			if (textObjectTypeFilter == null || textObjectTypeFilter.isEmpty())
+				return true;
+			if (filterChar == 0)
+				return false;
+			Boolean enabled = results.get(textObjectTypeFilter);
+			if (enabled == null) {
+				enabled = textObjectTypeFilter.toLowerCase().indexOf(filterChar) >= 0;
+				results.put(textObjectTypeFilter, enabled);
+			}
+			return enabled;
+		}
+	}
+}
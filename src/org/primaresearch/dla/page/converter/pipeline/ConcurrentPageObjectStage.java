@@ -0,0 +1,28 @@
+/*
+ * Copyright 2019 PRImA Research Lab, University of Salford, United Kingdom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.primaresearch.dla.page.converter.pipeline;
+
+/**
+ * Marker for stages whose {@link #process(org.primaresearch.dla.page.layout.shared.GeometricObject)} 
+ * can be called from several threads at the same time (for different objects of the same page).<br>
+ * {@link #beginPage(org.primaresearch.dla.page.Page)} and {@link #endPage(org.primaresearch.dla.page.Page)} 
+ * are always called from the thread that runs the pipeline.
+ * 
+ * @author Christian Clausner
+ *
+ */
+public interface ConcurrentPageObjectStage extends PageObjectStage {
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2019 PRImA Research Lab, University of Salford, United Kingdom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.primaresearch.dla.page.converter.pipeline;
+
+import org.primaresearch.dla.page.Page;
+import org.primaresearch.dla.page.layout.physical.text.impl.TextLine;
+import org.primaresearch.dla.page.layout.shared.GeometricObject;
+import org.primaresearch.maths.geometry.Point;
+import org.primaresearch.maths.geometry.Polygon;
+
+/**
+ * Scales the coordinates of all objects (including baselines) and the page size by given factors.
+ * 
+ * @author Christian Clausner
+ *
+ */
+public class CoordinateScalingStage implements ConcurrentPageObjectStage {
+	
+	private final double xFactor;
+	private final double yFactor;
+
+	/**
+	 * Constructor
+	 * @param xFactor Horizontal scaling factor
+	 * @param yFactor Vertical scaling factor
+	 */
+	public CoordinateScalingStage(double xFactor, double yFactor) {
+		this.xFactor = xFactor;
+		this.yFactor = yFactor;
+	}
+
+	@Override
+	public void beginPage(Page page) {
+		page.getLayout().setSize((int)(page.getLayout().getWidth() * xFactor), (int)(page.getLayout().getHeight() * yFactor));
+	}
+
+	@Override
+	public boolean process(GeometricObject obj) {
+		scale(obj.getCoords());
+		if (obj instanceof TextLine)
+			scale(((TextLine)obj).getBaseline());
+		return true;
+	}
+
+	@Override
+	public void endPage(Page page) {
+	}
+	
+	private void scale(Polygon polygon) {
+		if (polygon == null)
+			return;
+		
+		Point p;
+		for (int i=0; i<polygon.getSize(); i++) {
+			p = polygon.getPoint(i);
+			p.x = (int)(p.x * xFactor);
+			p.y = (int)(p.y * yFactor);
+		}		
+	}
+}
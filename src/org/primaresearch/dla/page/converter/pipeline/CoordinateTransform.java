@@ -0,0 +1,288 @@
+/*
+ * Copyright 2019 PRImA Research Lab, University of Salford, United Kingdom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.primaresearch.dla.page.converter.pipeline;
+
+/**
+ * Affine transformation of integer coordinates (scaling, translation, rotation, flipping).<br>
+ * <br>
+ * The transformation is applied to packed coordinate arrays (see {@link #apply(int[], int[], int)}),
+ * so that all points of a page can be transformed in one tight loop.
+ * Results are rounded down to integers (like the resolution scaling of earlier versions, also for
+ * negative results), with a small tolerance for floating point errors.
+ * 
+ * @author Christian Clausner
+ *
+ */
+public final class CoordinateTransform {
+	
+	/** Tolerance for floating point errors before rounding down (e.g. 99.9999999 should become 100) */
+	private static final double EPSILON = 1E-6;
+	
+	public static final CoordinateTransform IDENTITY = new CoordinateTransform(1.0, 0.0, 0.0, 0.0, 1.0, 0.0);
+
+	//x' = m00 * x + m01 * y + m02
+	//y' = m10 * x + m11 * y + m12
+	private final double m00, m01, m02;
+	private final double m10, m11, m12;
+	
+	private CoordinateTransform(double m00, double m01, double m02, double m10, double m11, double m12) {
+		this.m00 = m00;
+		this.m01 = m01;
+		this.m02 = m02;
+		this.m10 = m10;
+		this.m11 = m11;
+		this.m12 = m12;
+	}
+	
+	/**
+	 * Scaling relative to the origin
+	 */
+	public static CoordinateTransform scale(double xFactor, double yFactor) {
+		return new CoordinateTransform(xFactor, 0.0, 0.0, 0.0, yFactor, 0.0);
+	}
+	
+	/**
+	 * Translation by the given offset
+	 */
+	public static CoordinateTransform translate(double dx, double dy) {
+		return new CoordinateTransform(1.0, 0.0, dx, 0.0, 1.0, dy);
+	}
+	
+	/**
+	 * Clockwise rotation around the origin (y axis pointing down, as for image coordinates)
+	 * @param degrees Angle in degrees (multiples of 90 are exact)
+	 */
+	public static CoordinateTransform rotate(double degrees) {
+		double cos, sin;
+		double normalised = ((degrees % 360.0) + 360.0) % 360.0;
+		if (normalised == 0.0) {
+			cos = 1.0; sin = 0.0;
+		} else if (normalised == 90.0) {
+			cos = 0.0; sin = 1.0;
+		} else if (normalised == 180.0) {
+			cos = -1.0; sin = 0.0;
+		} else if (normalised == 270.0) {
+			cos = 0.0; sin = -1.0;
+		} else {
+			cos = Math.cos(Math.toRadians(normalised));
+			sin = Math.sin(Math.toRadians(normalised));
+		}
+		return new CoordinateTransform(cos, -sin, 0.0, sin, cos, 0.0);
+	}
+	
+	/**
+	 * Horizontal mirroring within a page of the given width (x' = width - 1 - x)
+	 */
+	public static CoordinateTransform flipHorizontal(int width) {
+		return new CoordinateTransform(-1.0, 0.0, width - 1, 0.0, 1.0, 0.0);
+	}
+	
+	/**
+	 * Vertical mirroring within a page of the given height (y' = height - 1 - y)
+	 */
+	public static CoordinateTransform flipVertical(int height) {
+		return new CoordinateTransform(1.0, 0.0, 0.0, 0.0, -1.0, height - 1);
+	}
+	
+	/**
+	 * Returns the transformation that applies this transformation first and then the given one
+	 */
+	public CoordinateTransform then(CoordinateTransform next) {
+		return new CoordinateTransform(
+				next.m00 * m00 + next.m01 * m10,
+				next.m00 * m01 + next.m01 * m11,
+				next.m00 * m02 + next.m01 * m12 + next.m02,
+				next.m10 * m00 + next.m11 * m10,
+				next.m10 * m01 + next.m11 * m11,
+				next.m10 * m02 + next.m11 * m12 + next.m12);
+	}
+	
+	public boolean isIdentity() {
+		return m00 == 1.0 && m01 == 0.0 && m02 == 0.0 && m10 == 0.0 && m11 == 1.0 && m12 == 0.0;
+	}
+	
+	public double transformX(double x, double y) {
+		return m00 * x + m01 * y + m02;
+	}
+	
+	public double transformY(double x, double y) {
+		return m10 * x + m11 * y + m12;
+	}
+	
+	/**
+	 * Transforms the given points in place
+	 * @param xs X coordinates
+	 * @param ys Y coordinates
+	 * @param count Number of points (from index 0)
+	 */
+	public void apply(int[] xs, int[] ys, int count) {
+		if (m01 == 0.0 && m10 == 0.0) {
+			//Axis-aligned (scaling, translation, flipping): x and y are independent
+			applyAxisAligned(xs, m00, m02, count);
+			applyAxisAligned(ys, m11, m12, count);
+			return;
+		}
+		final double a = m00, b = m01, c = m02 + EPSILON;
+		final double d = m10, e = m11, f = m12 + EPSILON;
+		for (int i=0; i<count; i++) {
+			double x = xs[i];
+			double y = ys[i];
+			xs[i] = (int)Math.floor(a * x + b * y + c);
+			ys[i] = (int)Math.floor(d * x + e * y + f);
+		}
+	}
+	
+	private static void applyAxisAligned(int[] values, double factor, double offset, int count) {
+		if (factor == 1.0 && offset == 0.0)
+			return;
+		final double o = offset + EPSILON;
+		for (int i=0; i<count; i++)
+			values[i] = (int)Math.floor(values[i] * factor + o);
+	}
+	
+	@Override
+	public String toString() {
+		return "[" + m00 + ", " + m01 + ", " + m02 + "; " + m10 + ", " + m11 + ", " + m12 + "]";
+	}
+	
+	
+	/**
+	 * Combines transformation steps and keeps track of the resulting page size.<br>
+	 * <br>
+	 * Rotations are followed by a translation that moves the rotated page back to the origin,
+	 * so all objects of the page keep non-negative coordinates.
+	 */
+	public static class Builder {
+		private CoordinateTransform transform = IDENTITY;
+		private int width;
+		private int height;
+		
+		/**
+		 * Constructor
+		 * @param width Original page width
+		 * @param height Original page height
+		 */
+		public Builder(int width, int height) {
+			this.width = width;
+			this.height = height;
+		}
+		
+		public Builder scale(double xFactor, double yFactor) {
+			transform = transform.then(CoordinateTransform.scale(xFactor, yFactor));
+			width = (int)(width * xFactor);
+			height = (int)(height * yFactor);
+			return this;
+		}
+		
+		public Builder translate(double dx, double dy) {
+			transform = transform.then(CoordinateTransform.translate(dx, dy));
+			return this;
+		}
+		
+		/**
+		 * Clockwise rotation of the whole page
+		 */
+		public Builder rotate(double degrees) {
+			CoordinateTransform rotation = CoordinateTransform.rotate(degrees);
+			//Bounding box of the rotated page
+			double minX = Double.MAX_VALUE, minY = Double.MAX_VALUE;
+			double maxX = -Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+			int[] cornersX = { 0, width - 1, 0, width - 1 };
+			int[] cornersY = { 0, 0, height - 1, height - 1 };
+			for (int i=0; i<4; i++) {
+				double x = rotation.transformX(cornersX[i], cornersY[i]);
+				double y = rotation.transformY(cornersX[i], cornersY[i]);
+				minX = Math.min(minX, x);
+				minY = Math.min(minY, y);
+				maxX = Math.max(maxX, x);
+				maxY = Math.max(maxY, y);
+			}
+			transform = transform.then(rotation).then(CoordinateTransform.translate(-minX, -minY));
+			width = (int)Math.ceil(maxX - minX - EPSILON) + 1;
+			height = (int)Math.ceil(maxY - minY - EPSILON) + 1;
+			return this;
+		}
+		
+		public Builder flipHorizontal() {
+			transform = transform.then(CoordinateTransform.flipHorizontal(width));
+			return this;
+		}
+		
+		public Builder flipVertical() {
+			transform = transform.then(CoordinateTransform.flipVertical(height));
+			return this;
+		}
+		
+		/**
+		 * Adds the steps of a transformation specification.<br>
+		 * Format: Steps separated by semicolons, applied in the given order:<br>
+		 * <code>scale:&lt;factor&gt;</code> or <code>scale:&lt;x factor&gt;,&lt;y factor&gt;</code>,
+		 * <code>translate:&lt;dx&gt;,&lt;dy&gt;</code>, <code>rotate:&lt;degrees clockwise&gt;</code>,
+		 * <code>flip:h</code> or <code>flip:v</code><br>
+		 * Example: <code>rotate:90;scale:0.5</code>
+		 * @throws IllegalArgumentException Invalid specification
+		 */
+		public Builder apply(String specification) {
+			for (String step : specification.split(";")) {
+				step = step.trim();
+				if (step.isEmpty())
+					continue;
+				int colon = step.indexOf(':');
+				if (colon < 0)
+					throw new IllegalArgumentException("Missing parameters in transformation step: "+step);
+				String name = step.substring(0, colon).trim();
+				String[] params = step.substring(colon+1).split(",");
+				try {
+					if ("scale".equals(name) && params.length == 1)
+						scale(Double.parseDouble(params[0].trim()), Double.parseDouble(params[0].trim()));
+					else if ("scale".equals(name) && params.length == 2)
+						scale(Double.parseDouble(params[0].trim()), Double.parseDouble(params[1].trim()));
+					else if ("translate".equals(name) && params.length == 2)
+						translate(Double.parseDouble(params[0].trim()), Double.parseDouble(params[1].trim()));
+					else if ("rotate".equals(name) && params.length == 1)
+						rotate(Double.parseDouble(params[0].trim()));
+					else if ("flip".equals(name) && params.length == 1 && "h".equals(params[0].trim()))
+						flipHorizontal();
+					else if ("flip".equals(name) && params.length == 1 && "v".equals(params[0].trim()))
+						flipVertical();
+					else
+						throw new IllegalArgumentException("Invalid transformation step: "+step);
+				} catch (NumberFormatException exc) {
+					throw new IllegalArgumentException("Invalid number in transformation step: "+step, exc);
+				}
+			}
+			return this;
+		}
+		
+		public CoordinateTransform getTransform() {
+			return transform;
+		}
+		
+		/**
+		 * Page width after the transformation
+		 */
+		public int getWidth() {
+			return width;
+		}
+
+		/**
+		 * Page height after the transformation
+		 */
+		public int getHeight() {
+			return height;
+		}
+	}
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2019 PRImA Research Lab, University of Salford, United Kingdom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.primaresearch.dla.page.converter.pipeline;
+
+import org.primaresearch.dla.page.Page;
+import org.primaresearch.dla.page.layout.shared.GeometricObject;
+import org.primaresearch.maths.geometry.Point;
+import org.primaresearch.maths.geometry.Polygon;
+
+/**
+ * Handles negative coordinates of any object with polygon,
+ * either by removing the object or by changing the negative values to 0.
+ * 
+ * @author Christian Clausner
+ *
+ */
+public class NegativeCoordinatesStage implements ConcurrentPageObjectStage {
+	
+	private final boolean removeObjects;
+
+	/**
+	 * Constructor
+	 * @param removeObjects If true, objects with negative coordinates are removed, otherwise the coordinates are set to 0.
+	 */
+	public NegativeCoordinatesStage(boolean removeObjects) {
+		this.removeObjects = removeObjects;
+	}
+
+	@Override
+	public void beginPage(Page page) {
+	}
+
+	@Override
+	public boolean process(GeometricObject obj) {
+		if (!hasNegativeCoordinates(obj.getCoords()))
+			return true;
+		if (removeObjects)
+			return false;
+		correctNegativeCoordinates(obj.getCoords());
+		return true;
+	}
+
+	@Override
+	public void endPage(Page page) {
+	}
+	
+	/** Returns true if at least one coordinate is negative */
+	public static boolean hasNegativeCoordinates(Polygon polygon) {
+		if (polygon == null)
+			return false;
+		
+		Point p;
+		for (int i=0; i<polygon.getSize(); i++) {
+			p = polygon.getPoint(i);
+			if (p.x < 0 || p.y < 0)
+				return true;
+		}
+		return false;
+	}
+	
+	/** Changes negative coordinates to zero */
+	public static void correctNegativeCoordinates(Polygon polygon) {
+		if (polygon == null)
+			return;
+		
+		Point p;
+		for (int i=0; i<polygon.getSize(); i++) {
+			p = polygon.getPoint(i);
+			if (p.x < 0)
+				p.x = 0;
+			if (p.y < 0)
+				p.y = 0;
+		}
+	}
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright 2019 PRImA Research Lab, University of Salford, United Kingdom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.primaresearch.dla.page.converter.pipeline;
+
+import org.primaresearch.dla.page.Page;
+import org.primaresearch.dla.page.layout.shared.GeometricObject;
+
+/**
+ * A processing step that is applied to the objects of a page
+ * (print space, border, regions, text lines, words and glyphs).<br>
+ * All stages of a {@link PageProcessingPipeline} are run during one traversal of the page.
+ * 
+ * @author Christian Clausner
+ *
+ */
+public interface PageObjectStage {
+
+	/**
+	 * Called once before the traversal of the given page
+	 */
+	public void beginPage(Page page);
+	
+	/**
+	 * Processes a single object.
+	 * @param obj Print space, border, region or low level text object
+	 * @return True to keep the object, false to remove it from the page
+	 * (subsequent stages and child objects are then skipped)
+	 */
+	public boolean process(GeometricObject obj);
+	
+	/**
+	 * Called once after the traversal of the given page
+	 */
+	public void endPage(Page page);
+}
@@ -0,0 +1,501 @@
+/*
+ * Copyright 2019 PRImA Research Lab, University of Salford, United Kingdom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.primaresearch.dla.page.converter.pipeline;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import org.primaresearch.dla.page.Page;
+import org.primaresearch.dla.page.layout.PageLayout;
+import org.primaresearch.dla.page.layout.physical.Region;
+import org.primaresearch.dla.page.layout.physical.text.LowLevelTextContainer;
+import org.primaresearch.dla.page.layout.physical.text.LowLevelTextObject;
+import org.primaresearch.dla.page.layout.shared.GeometricObject;
+
+/**
+ * Runs a sequence of {@link PageObjectStage}s on all objects of a page within a single traversal.<br>
+ * For each object, the stages are called in the order they were added. 
+ * Objects that a stage rejects are removed from their parent after the parent's children have been processed.<br>
+ * <br>
+ * Pages with many objects can be processed in parallel (see {@link #setParallelThreshold(int)}).
+ * The top-level regions are then split into fork-join tasks and all removals are carried out
+ * after the tasks have finished (on the calling thread, in traversal order).
+ * {@link PartitionedPageObjectStage}s get a separate partition per task; the partitions are merged
+ * when the tasks are joined.
+ * 
+ * @author Christian Clausner
+ *
+ */
+public class PageProcessingPipeline {
+
+	private static volatile ForkJoinPool defaultPool = null;
+	
+	private final List<PageObjectStage> stages = new ArrayList<PageObjectStage>();
+	private int parallelThreshold = 0;
+	private ForkJoinPool pool = null;
+	
+	//Statistics
+	private boolean collectStatistics = false;
+	private long[] stageNanos = new long[0];
+	private long objectCount = 0;
+	private long pointCount = 0;
+	private long removedCount = 0;
+	
+	/**
+	 * Appends a stage to the pipeline
+	 */
+	public void addStage(PageObjectStage stage) {
+		stages.add(stage);
+		stageNanos = new long[stages.size()];
+	}
+	
+	/**
+	 * Returns the number of stages
+	 */
+	public int getStageCount() {
+		return stages.size();
+	}
+	
+	/**
+	 * Returns the stage at the given index
+	 */
+	public PageObjectStage getStage(int index) {
+		return stages.get(index);
+	}
+	
+	/**
+	 * Returns true if no stages have been added
+	 */
+	public boolean isEmpty() {
+		return stages.isEmpty();
+	}
+	
+	/**
+	 * Runs all stages on the given page
+	 */
+	public void run(Page page) {
+		if (stages.isEmpty())
+			return;
+		
+		for (int i=0; i<stages.size(); i++) {
+			long start = collectStatistics ? System.nanoTime() : 0L;
+			stages.get(i).beginPage(page);
+			if (collectStatistics)
+				stageNanos[i] += System.nanoTime() - start;
+		}
+		
+		PageLayout layout = page.getLayout();
+		Traversal traversal = new Traversal(false);
+		
+		//Print space and border
+		if (layout.getPrintSpace() != null && !traversal.process(layout.getPrintSpace()))
+			layout.setPrintSpace(null);
+		if (layout.getBorder() != null && !traversal.process(layout.getBorder()))
+			layout.setBorder(null);
+		
+		//Regions
+		List<Region> toDelete = null;
+		if (isParallel(layout)) {
+			ForkJoinPool pool = getPool();
+			RegionTask task = new RegionTask(layout, 0, layout.getRegionCount(), 
+					Math.max(1, layout.getRegionCount() / (pool.getParallelism() * 4)));
+			Traversal result = pool.invoke(task);
+			result.applyRemovals();
+			traversal.add(result);
+			toDelete = task.toDelete;
+		}
+		else {
+			for (int i=0; i<layout.getRegionCount(); i++) {
+				Region region = layout.getRegion(i);
+				if (region == null)
+					continue;
+				if (traversal.processRegion(region)) 
+					continue;
+				if (toDelete == null)
+					toDelete = new ArrayList<Region>();
+				toDelete.add(region);
+			}
+		}
+		if (toDelete != null) {
+			for (Region region : toDelete)
+				layout.removeRegion(region.getId());
+			traversal.removedCount += toDelete.size();
+		}
+		addStatistics(traversal);
+		traversal.setPageResults();
+		
+		for (int i=0; i<stages.size(); i++) {
+			long start = collectStatistics ? System.nanoTime() : 0L;
+			stages.get(i).endPage(page);
+			if (collectStatistics)
+				stageNanos[i] += System.nanoTime() - start;
+		}
+	}
+	
+	/**
+	 * Checks if the regions of the given page are to be processed in parallel
+	 * (parallel mode enabled, all stages thread-safe and enough objects on the page)
+	 */
+	private boolean isParallel(PageLayout layout) {
+		if (parallelThreshold <= 0 || layout.getRegionCount() < 2)
+			return false;
+		for (int i=0; i<stages.size(); i++) {
+			if (!(stages.get(i) instanceof ConcurrentPageObjectStage))
+				return false;
+		}
+		//Count objects (stops at the threshold, so small pages are only counted)
+		int count = 0;
+		for (int i=0; i<layout.getRegionCount() && count < parallelThreshold; i++) 
+			count = countObjects(layout.getRegion(i), count);
+		return count >= parallelThreshold;
+	}
+	
+	/**
+	 * Adds the number of objects of the given region subtree to the given count (stops at the threshold)
+	 */
+	private int countObjects(Region region, int count) {
+		if (region == null)
+			return count;
+		count++;
+		for (int i=0; i<region.getRegionCount() && count < parallelThreshold; i++)
+			count = countObjects(region.getRegion(i), count);
+		if (region instanceof LowLevelTextContainer && count < parallelThreshold)
+			count = countTextObjects((LowLevelTextContainer)region, count);
+		return count;
+	}
+	
+	private int countTextObjects(LowLevelTextContainer container, int count) {
+		for (int i=0; i<container.getTextObjectCount() && count < parallelThreshold; i++) {
+			LowLevelTextObject child = container.getTextObject(i);
+			count++;
+			if (child instanceof LowLevelTextContainer)
+				count = countTextObjects((LowLevelTextContainer)child, count);
+		}
+		return count;
+	}
+	
+	/**
+	 * Fork-join task for a range of top-level regions
+	 */
+	private class RegionTask extends RecursiveTask<Traversal> {
+		private static final long serialVersionUID = 1L;
+		
+		private final PageLayout layout;
+		private final int from;
+		private final int to;
+		private final int grain;
+		/** Top-level regions to remove (in order) */
+		List<Region> toDelete = null;
+
+		RegionTask(PageLayout layout, int from, int to, int grain) {
+			this.layout = layout;
+			this.from = from;
+			this.to = to;
+			this.grain = grain;
+		}
+
+		@Override
+		protected Traversal compute() {
+			if (to - from <= grain) {
+				Traversal traversal = new Traversal(true);
+				for (int i=from; i<to; i++) {
+					Region region = layout.getRegion(i);
+					if (region == null || traversal.processRegion(region))
+						continue;
+					if (toDelete == null)
+						toDelete = new ArrayList<Region>();
+					toDelete.add(region);
+				}
+				return traversal;
+			}
+			int middle = (from + to) >>> 1;
+			RegionTask left = new RegionTask(layout, from, middle, grain);
+			RegionTask right = new RegionTask(layout, middle, to, grain);
+			right.fork();
+			Traversal result = left.compute();
+			result.add(right.join());
+			toDelete = merge(left.toDelete, right.toDelete);
+			return result;
+		}
+		
+		private List<Region> merge(List<Region> first, List<Region> second) {
+			if (first == null)
+				return second;
+			if (second != null)
+				first.addAll(second);
+			return first;
+		}
+	}
+	
+	/**
+	 * State of one traversal of (a part of) the page: statistics, partitions of the partitioned stages
+	 * and, in parallel mode, the deferred removals. Each fork-join task has its own traversal; the results are added up.
+	 */
+	private class Traversal {
+		private final boolean deferRemovals;
+		private final long[] nanos = new long[stages.size()];
+		private long objects = 0;
+		private long points = 0;
+		private long removedCount = 0;
+		/** Parents and children to remove (in parallel mode), in traversal order */
+		private List<Object> removals = null;
+		/** Partition per stage (null for stages that are not partitioned) */
+		private final Object[] partitions = new Object[stages.size()];
+		
+		Traversal(boolean deferRemovals) {
+			this.deferRemovals = deferRemovals;
+			for (int i=0; i<partitions.length; i++) {
+				if (stages.get(i) instanceof PartitionedPageObjectStage)
+					partitions[i] = ((PartitionedPageObjectStage<?>)stages.get(i)).createPartition();
+			}
+		}
+		
+		/**
+		 * Processes the given region, its nested regions and its text objects (recursive)
+		 * @return False if the region is to be removed
+		 */
+		boolean processRegion(Region region) {
+			if (!process(region))
+				return false;
+			
+			//Nested regions
+			List<Region> toDelete = null;
+			for (int i=0; i<region.getRegionCount(); i++) {
+				Region child = region.getRegion(i);
+				if (processRegion(child))
+					continue;
+				if (toDelete == null)
+					toDelete = new ArrayList<Region>();
+				toDelete.add(child);
+			}
+			if (toDelete != null) {
+				for (Region child : toDelete) {
+					if (deferRemovals)
+						deferRemoval(region, child);
+					else
+						region.removeRegion(child);
+				}
+				removedCount += toDelete.size();
+			}
+			
+			//Text objects
+			if (region instanceof LowLevelTextContainer)
+				processTextObjects((LowLevelTextContainer)region);
+			return true;
+		}
+		
+		/**
+		 * Processes the child text objects of the given container (recursive)
+		 */
+		private void processTextObjects(LowLevelTextContainer container) {
+			List<LowLevelTextObject> toDelete = null;
+			for (int i=0; i<container.getTextObjectCount(); i++) {
+				LowLevelTextObject child = container.getTextObject(i);
+				if (!process(child)) {
+					if (toDelete == null)
+						toDelete = new ArrayList<LowLevelTextObject>();
+					toDelete.add(child);
+					continue;
+				}
+				if (child instanceof LowLevelTextContainer)
+					processTextObjects((LowLevelTextContainer)child);
+			}
+			if (toDelete != null) {
+				for (LowLevelTextObject child : toDelete) {
+					if (deferRemovals)
+						deferRemoval(container, child);
+					else
+						container.removeTextObject(child.getId());
+				}
+				removedCount += toDelete.size();
+			}
+		}
+		
+		/**
+		 * Runs all stages on the given object
+		 * @return False if the object is to be removed
+		 */
+		boolean process(GeometricObject obj) {
+			if (collectStatistics)
+				return processWithStatistics(obj);
+			for (int i=0; i<stages.size(); i++) {
+				if (!process(i, obj))
+					return false;
+			}
+			return true;
+		}
+		
+		/**
+		 * Runs the specified stage on the given object (with the partition of this traversal, if partitioned)
+		 */
+		@SuppressWarnings("unchecked")
+		private boolean process(int stage, GeometricObject obj) {
+			if (partitions[stage] != null)
+				return ((PartitionedPageObjectStage<Object>)stages.get(stage)).process(obj, partitions[stage]);
+			return stages.get(stage).process(obj);
+		}
+		
+		/**
+		 * Runs all stages on the given object and measures the time per stage
+		 * @return False if the object is to be removed
+		 */
+		private boolean processWithStatistics(GeometricObject obj) {
+			objects++;
+			if (obj.getCoords() != null)
+				points += obj.getCoords().getSize();
+			long start = System.nanoTime();
+			for (int i=0; i<stages.size(); i++) {
+				boolean keep = process(i, obj);
+				long now = System.nanoTime();
+				nanos[i] += now - start;
+				start = now;
+				if (!keep)
+					return false;
+			}
+			return true;
+		}
+		
+		private void deferRemoval(Object parent, GeometricObject child) {
+			if (removals == null)
+				removals = new ArrayList<Object>();
+			removals.add(parent);
+			removals.add(child);
+		}
+		
+		/**
+		 * Removes the objects that have been collected in parallel mode
+		 */
+		void applyRemovals() {
+			if (removals == null)
+				return;
+			for (int i=0; i<removals.size(); i+=2) {
+				Object parent = removals.get(i);
+				if (parent instanceof LowLevelTextContainer && removals.get(i+1) instanceof LowLevelTextObject)
+					((LowLevelTextContainer)parent).removeTextObject(((LowLevelTextObject)removals.get(i+1)).getId());
+				else
+					((Region)parent).removeRegion((Region)removals.get(i+1));
+			}
+			removals = null;
+		}
+		
+		/**
+		 * Passes the (merged) partitions to their stages
+		 */
+		@SuppressWarnings("unchecked")
+		void setPageResults() {
+			for (int i=0; i<partitions.length; i++) {
+				if (partitions[i] != null)
+					((PartitionedPageObjectStage<Object>)stages.get(i)).setPageResult(partitions[i]);
+			}
+		}
+		
+		/**
+		 * Adds the statistics, partitions and removals of the given traversal (that comes after this one) to this one
+		 */
+		@SuppressWarnings("unchecked")
+		void add(Traversal other) {
+			for (int i=0; i<partitions.length; i++) {
+				if (partitions[i] != null)
+					((PartitionedPageObjectStage<Object>)stages.get(i)).merge(partitions[i], other.partitions[i]);
+			}
+			for (int i=0; i<nanos.length; i++)
+				nanos[i] += other.nanos[i];
+			objects += other.objects;
+			points += other.points;
+			removedCount += other.removedCount;
+			if (other.removals != null) {
+				if (removals == null)
+					removals = other.removals;
+				else
+					removals.addAll(other.removals);
+			}
+		}
+	}
+	
+	private void addStatistics(Traversal traversal) {
+		for (int i=0; i<stageNanos.length; i++)
+			stageNanos[i] += traversal.nanos[i];
+		objectCount += traversal.objects;
+		pointCount += traversal.points;
+		removedCount += traversal.removedCount;
+	}
+	
+	/**
+	 * Enables the collection of object/point counts and time per stage (slight overhead per object).
+	 * In parallel mode, the time per stage is the sum over all threads.
+	 */
+	public void setCollectStatistics(boolean collectStatistics) {
+		this.collectStatistics = collectStatistics;
+	}
+	
+	/**
+	 * Enables the parallel processing of the top-level regions for pages with at least the given number of objects
+	 * (regions and text objects). Only used if all stages are {@link ConcurrentPageObjectStage}s.
+	 * @param objectCount Minimum number of objects or 0 to disable parallel processing (default)
+	 */
+	public void setParallelThreshold(int objectCount) {
+		this.parallelThreshold = objectCount;
+	}
+	
+	/**
+	 * Sets the fork-join pool for parallel processing (default: a shared pool with one thread per CPU)
+	 */
+	public void setForkJoinPool(ForkJoinPool pool) {
+		this.pool = pool;
+	}
+	
+	private ForkJoinPool getPool() {
+		if (pool != null)
+			return pool;
+		if (defaultPool == null) {
+			synchronized (PageProcessingPipeline.class) {
+				if (defaultPool == null)
+					defaultPool = new ForkJoinPool();
+			}
+		}
+		return defaultPool;
+	}
+	
+	/**
+	 * Returns the accumulated time of the given stage in nanoseconds (if statistics are enabled)
+	 */
+	public long getStageTime(int index) {
+		return stageNanos[index];
+	}
+	
+	/**
+	 * Number of processed objects (if statistics are enabled)
+	 */
+	public long getObjectCount() {
+		return objectCount;
+	}
+	
+	/**
+	 * Number of polygon points of all processed objects (if statistics are enabled)
+	 */
+	public long getPointCount() {
+		return pointCount;
+	}
+	
+	/**
+	 * Number of removed objects
+	 */
+	public long getRemovedCount() {
+		return removedCount;
+	}
+}
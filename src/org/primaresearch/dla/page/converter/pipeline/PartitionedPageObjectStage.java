@@ -0,0 +1,56 @@
+/*
+ * Copyright 2019 PRImA Research Lab, University of Salford, United Kingdom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.primaresearch.dla.page.converter.pipeline;
+
+import org.primaresearch.dla.page.Page;
+import org.primaresearch.dla.page.layout.shared.GeometricObject;
+
+/**
+ * Concurrent stage that collects its results in one partition per traversal task instead of shared state.<br>
+ * <br>
+ * The pipeline creates a partition for each fork-join task (and one for the sequential traversal), calls
+ * {@link #process(GeometricObject, Object)} with the partition of the calling task, merges the partitions 
+ * when the tasks are joined and passes the merged partition to {@link #setPageResult(Object)} before 
+ * {@link #endPage(Page)}. {@link #process(GeometricObject)} is not called by the pipeline.
+ * 
+ * @author Christian Clausner
+ *
+ * @param <P> Partition type
+ */
+public interface PartitionedPageObjectStage<P> extends ConcurrentPageObjectStage {
+	
+	/**
+	 * Creates an empty partition (not null)
+	 */
+	public P createPartition();
+
+	/**
+	 * Processes the given object (see {@link #process(GeometricObject)})
+	 * @param partition Partition of the calling task (only used by one thread at a time)
+	 * @return False if the object is to be removed
+	 */
+	public boolean process(GeometricObject obj, P partition);
+	
+	/**
+	 * Adds the content of the source partition to the target partition (source comes after target in traversal order)
+	 */
+	public void merge(P target, P source);
+	
+	/**
+	 * Passes the merged partition of the whole page (called on the pipeline thread before {@link #endPage(Page)})
+	 */
+	public void setPageResult(P result);
+}
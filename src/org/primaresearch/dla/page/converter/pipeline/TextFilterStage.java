@@ -0,0 +1,69 @@
+/*
+ * Copyright 2019 PRImA Research Lab, University of Salford, United Kingdom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.primaresearch.dla.page.converter.pipeline;
+
+import org.primaresearch.dla.page.Page;
+import org.primaresearch.dla.page.converter.pipeline.CompiledTextFilter.ObjectType;
+import org.primaresearch.dla.page.layout.physical.text.TextObject;
+import org.primaresearch.dla.page.layout.shared.GeometricObject;
+import org.primaresearch.shared.variable.VariableMap;
+
+/**
+ * Applies a set of text filter rules to the text content of regions, lines, words and glyphs.
+ * The type of the target object (region, line, word, glyph) can be specified per rule.
+ * 
+ * @author Christian Clausner
+ *
+ */
+public class TextFilterStage implements ConcurrentPageObjectStage {
+	
+	private final CompiledTextFilter textFilter;
+
+	/**
+	 * Constructor
+	 * @param textFilterRules A collection of String variables, each containing a filter rule in the variable value.
+	 */
+	public TextFilterStage(VariableMap textFilterRules) {
+		this(new CompiledTextFilter(textFilterRules));
+	}
+
+	/**
+	 * Constructor
+	 * @param textFilter Prepared filter (can be shared by several stages and threads)
+	 */
+	public TextFilterStage(CompiledTextFilter textFilter) {
+		this.textFilter = textFilter;
+	}
+
+	@Override
+	public void beginPage(Page page) {
+	}
+
+	@Override
+	public boolean process(GeometricObject obj) {
+		if (obj instanceof TextObject) {
+			TextObject textObj = (TextObject)obj;
+			String text = textObj.getText(); 
+			if (text != null)
+				textObj.setText(textFilter.filter(text, ObjectType.of(obj)));
+		}
+		return true;
+	}
+
+	@Override
+	public void endPage(Page page) {
+	}
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright 2019 PRImA Research Lab, University of Salford, United Kingdom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.primaresearch.dla.page.converter;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+
+import org.junit.Test;
+
+/**
+ * Tests for the conversion manifest (source state and loading of damaged manifest files).
+ * 
+ * @author Christian Clausner
+ *
+ */
+public class ConversionManifestTest {
+	
+	@Test
+	public void testChangeDuringConversionIsNoticed() throws Exception {
+		File dir = Files.createTempDirectory("manifest").toFile();
+		try {
+			File source = new File(dir, "page.xml");
+			File target = new File(dir, "out.xml");
+			write(source, "before");
+			write(target, "output");
+			ConversionManifest manifest = new ConversionManifest(new File(dir, "manifest.tsv"));
+			
+			//Taken before the conversion, source changes while it is converted
+			ConversionManifest.SourceState state = ConversionManifest.getSourceState(source);
+			write(source, "changed during conversion");
+			manifest.update(source, state, target, "options");
+			
+			assertFalse(manifest.isUpToDate(source, target, "options"));
+		} finally {
+			deleteAll(dir);
+		}
+	}
+	
+	@Test
+	public void testStateOfContentInMemory() throws Exception {
+		File dir = Files.createTempDirectory("manifest").toFile();
+		try {
+			File source = new File(dir, "page.xml");
+			File target = new File(dir, "out.xml");
+			write(source, "content");
+			write(target, "output");
+			ConversionManifest manifest = new ConversionManifest(new File(dir, "manifest.tsv"));
+			
+			long modified = source.lastModified();
+			byte[] data = Files.readAllBytes(source.toPath());
+			manifest.update(source, ConversionManifest.getSourceState(modified, data), target, "options");
+			
+			assertTrue(manifest.isUpToDate(source, target, "options"));
+			assertFalse(manifest.isUpToDate(source, target, "other options"));
+		} finally {
+			deleteAll(dir);
+		}
+	}
+	
+	@Test
+	public void testInvalidOutputIsNotRecorded() throws Exception {
+		File dir = Files.createTempDirectory("manifest").toFile();
+		try {
+			File source = new File(dir, "page.xml");
+			File target = new File(dir, "out.xml");
+			write(source, "content");
+			write(target, "output");
+			ConversionManifest manifest = new ConversionManifest(new File(dir, "manifest.tsv"));
+			ConversionManifest.SourceState state = ConversionManifest.getSourceState(source);
+			
+			//Recorded, then failed validation
+			manifest.update(source, state, target, "options");
+			manifest.invalidate(target);
+			assertFalse(manifest.isUpToDate(source, target, "options"));
+			
+			//Deferred validation failed before the conversion was recorded
+			manifest.update(source, state, target, "options");
+			assertFalse(manifest.isUpToDate(source, target, "options"));
+		} finally {
+			deleteAll(dir);
+		}
+	}
+	
+	@Test
+	public void testCorruptLinesAreSkipped() throws Exception {
+		File dir = Files.createTempDirectory("manifest").toFile();
+		try {
+			File source = new File(dir, "page.xml");
+			File target = new File(dir, "out.xml");
+			write(source, "content");
+			write(target, "output");
+			File manifestFile = new File(dir, "manifest.tsv");
+			ConversionManifest manifest = new ConversionManifest(manifestFile);
+			manifest.update(source, ConversionManifest.getSourceState(source), target, "options");
+			manifest.save();
+			
+			//Append damaged lines (e.g. from an interrupted write by another tool)
+			Writer writer = new OutputStreamWriter(new FileOutputStream(manifestFile, true), "UTF-8");
+			try {
+				writer.write(new File(dir, "a.xml").getAbsolutePath() + "\tx12\t0\thash\toptions\tversion\ttarget\n");
+				writer.write(new File(dir, "b.xml").getAbsolutePath() + "\t12\t\thash\toptions\tversion\ttarget\n");
+				writer.write("truncated\t12\n");
+			} finally {
+				writer.close();
+			}
+			
+			ConversionManifest loaded = new ConversionManifest(manifestFile);
+			assertTrue(loaded.isUpToDate(source, target, "options"));
+		} finally {
+			deleteAll(dir);
+		}
+	}
+	
+	private static void write(File file, String text) throws IOException {
+		Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+		try {
+			writer.write(text);
+		} finally {
+			writer.close();
+		}
+	}
+	
+	private static void deleteAll(File file) {
+		File[] children = file.listFiles();
+		if (children != null)
+			for (File child : children)
+				deleteAll(child);
+		file.delete();
+	}
+}
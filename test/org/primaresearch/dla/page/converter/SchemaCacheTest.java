@@ -0,0 +1,105 @@
+/*
+ * Copyright 2019 PRImA Research Lab, University of Salford, United Kingdom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.primaresearch.dla.page.converter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Test;
+import org.primaresearch.io.xml.XmlFormatVersion;
+import org.primaresearch.io.xml.XmlValidator;
+
+/**
+ * Tests for the validator pool and the compiled schemas of the schema cache.
+ * 
+ * @author Christian Clausner
+ *
+ */
+public class SchemaCacheTest {
+	
+	private static final XmlFormatVersion VERSION = new XmlFormatVersion("2019-07-15");
+
+	@Test
+	public void testReturnedValidatorIsReused() throws Exception {
+		XmlValidator first = SchemaCache.borrowValidator(VERSION);
+		SchemaCache.returnValidator(VERSION, first);
+		int compiled = SchemaCache.getCompiledSchemaCount();
+		
+		XmlValidator second = SchemaCache.borrowValidator(VERSION);
+		SchemaCache.returnValidator(VERSION, second);
+		assertSame(first, second);
+		assertEquals(compiled, SchemaCache.getCompiledSchemaCount());
+	}
+	
+	@Test
+	public void testBorrowedValidatorsAreNotShared() throws Exception {
+		XmlValidator first = SchemaCache.borrowValidator(VERSION);
+		XmlValidator second = SchemaCache.borrowValidator(VERSION);
+		try {
+			assertNotSame(first, second);
+		} finally {
+			SchemaCache.returnValidator(VERSION, first);
+			SchemaCache.returnValidator(VERSION, second);
+		}
+	}
+	
+	@Test
+	public void testConcurrentValidatorsShareSchema() throws Exception {
+		SchemaCache.returnValidator(VERSION, SchemaCache.borrowValidator(VERSION));
+		int compiled = SchemaCache.getCompiledSchemaCount();
+		
+		//More validators in use at the same time than have been created so far
+		XmlValidator[] validators = new XmlValidator[4];
+		try {
+			for (int i=0; i<validators.length; i++)
+				validators[i] = SchemaCache.borrowValidator(VERSION);
+			for (int i=1; i<validators.length; i++)
+				assertSame(validators[0].getSchema(), validators[i].getSchema());
+		} finally {
+			for (int i=0; i<validators.length; i++)
+				SchemaCache.returnValidator(VERSION, validators[i]);
+		}
+		assertEquals(compiled, SchemaCache.getCompiledSchemaCount());
+	}
+	
+	@Test
+	public void testNewThreadsReuseValidators() throws Exception {
+		SchemaCache.returnValidator(VERSION, SchemaCache.borrowValidator(VERSION));
+		int compiled = SchemaCache.getCompiledSchemaCount();
+		
+		//One thread at a time (like consecutive batch runs with new thread pools)
+		for (int i=0; i<5; i++) {
+			ExecutorService executor = Executors.newSingleThreadExecutor();
+			try {
+				executor.submit(new Callable<Void>() {
+					@Override
+					public Void call() throws Exception {
+						SchemaCache.returnValidator(VERSION, SchemaCache.borrowValidator(VERSION));
+						return null;
+					}
+				}).get();
+			} finally {
+				executor.shutdown();
+			}
+		}
+		assertEquals(compiled, SchemaCache.getCompiledSchemaCount());
+	}
+}
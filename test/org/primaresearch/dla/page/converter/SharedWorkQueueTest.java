@@ -0,0 +1,210 @@
+/*
+ * Copyright 2019 PRImA Research Lab, University of Salford, United Kingdom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.primaresearch.dla.page.converter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+/**
+ * Tests for the claiming of chunks of the shared work queue, within one process and with several processes
+ * on the same folder.
+ * 
+ * @author Christian Clausner
+ *
+ */
+public class SharedWorkQueueTest {
+	
+	private static final long ONE_HOUR = 60L * 60L * 1000L;
+
+	@Test
+	public void testClaimRenewsModificationTime() throws Exception {
+		File dir = Files.createTempDirectory("queue").toFile();
+		try {
+			SharedWorkQueue nodeA = createQueue(dir, "a");
+			File chunk = new File(new File(dir, "pending"), "chunk-000000.txt");
+			assertTrue(chunk.setLastModified(System.currentTimeMillis() - ONE_HOUR));
+			
+			File claim = nodeA.claim();
+			assertNotNull(claim);
+			assertTrue(System.currentTimeMillis() - claim.lastModified() < ONE_HOUR / 2);
+			
+			//Not expired, so another node must not take it over
+			SharedWorkQueue nodeB = new SharedWorkQueue(dir, "b");
+			nodeB.setLeaseTimeout(ONE_HOUR / 2);
+			assertNull(nodeB.claim());
+			assertTrue(claim.exists());
+		} finally {
+			deleteAll(dir);
+		}
+	}
+	
+	@Test
+	public void testTakeOverExpiredChunk() throws Exception {
+		File dir = Files.createTempDirectory("queue").toFile();
+		try {
+			SharedWorkQueue nodeA = createQueue(dir, "a");
+			File claimA = nodeA.claim();
+			assertNotNull(claimA);
+			assertTrue(claimA.setLastModified(System.currentTimeMillis() - ONE_HOUR));
+			
+			SharedWorkQueue nodeB = new SharedWorkQueue(dir, "b");
+			nodeB.setLeaseTimeout(ONE_HOUR / 2);
+			File claimB = nodeB.claim();
+			assertNotNull(claimB);
+			assertTrue(claimB.getName().endsWith("@b"));
+			assertFalse(claimA.exists());
+			assertTrue(System.currentTimeMillis() - claimB.lastModified() < ONE_HOUR / 2);
+		} finally {
+			deleteAll(dir);
+		}
+	}
+	
+	@Test(timeout = 120000)
+	public void testSeveralProcesses() throws Exception {
+		File dir = Files.createTempDirectory("queue").toFile();
+		try {
+			File sourceDir = new File(dir, "sources");
+			File queueDir = new File(dir, "queue");
+			File logDir = new File(dir, "logs");
+			sourceDir.mkdirs();
+			logDir.mkdirs();
+			int fileCount = 40;
+			List<String> expected = new ArrayList<String>();
+			for (int i=0; i<fileCount; i++) {
+				File source = new File(sourceDir, String.format("page%03d.xml", i));
+				source.createNewFile();
+				expected.add(source.getAbsolutePath());
+			}
+			
+			//Nodes start at the same time and all try to create the queue
+			String java = new File(new File(System.getProperty("java.home"), "bin"), "java").getPath();
+			List<Process> processes = new ArrayList<Process>();
+			for (int n=0; n<3; n++) {
+				ProcessBuilder builder = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"), 
+						SharedWorkQueueTest.class.getName(), sourceDir.getPath(), queueDir.getPath(), logDir.getPath(), "node"+n);
+				builder.redirectErrorStream(true);
+				builder.redirectOutput(new File(dir, "node"+n+".out"));
+				processes.add(builder.start());
+			}
+			for (int n=0; n<processes.size(); n++)
+				assertEquals("Exit code of node"+n, 0, processes.get(n).waitFor());
+			
+			//Each file converted exactly once
+			Map<String, Integer> counts = new HashMap<String, Integer>();
+			for (File log : logDir.listFiles()) {
+				for (File file : BatchConverter.readFileList(log)) {
+					Integer count = counts.get(file.getPath());
+					counts.put(file.getPath(), count != null ? count + 1 : 1);
+				}
+			}
+			assertEquals(fileCount, counts.size());
+			for (String path : expected)
+				assertEquals(path, Integer.valueOf(1), counts.get(path));
+			
+			SharedWorkQueue queue = new SharedWorkQueue(queueDir, "check");
+			assertTrue(queue.isFinished());
+			assertEquals(14, new File(queueDir, "done").listFiles().length);
+		} finally {
+			deleteAll(dir);
+		}
+	}
+	
+	/**
+	 * Node of {@link #testSeveralProcesses()}
+	 * @param args Source folder, queue folder, log folder, node ID
+	 */
+	public static void main(String[] args) throws Exception {
+		File[] sources = new File(args[0]).listFiles();
+		List<File> sourceFiles = new ArrayList<File>();
+		for (File source : sources)
+			sourceFiles.add(source.getAbsoluteFile());
+		SharedWorkQueue queue = new SharedWorkQueue(new File(args[1]), args[3]);
+		queue.initialize(sourceFiles, 3);
+		queue.process(new RecordingBatch(new File(args[2], args[3] + ".txt")));
+	}
+	
+	/**
+	 * Creates a queue with one chunk
+	 */
+	private static SharedWorkQueue createQueue(File dir, String nodeId) throws Exception {
+		List<File> sourceFiles = new ArrayList<File>();
+		for (int i=0; i<2; i++)
+			sourceFiles.add(new File(dir, "page"+i+".xml"));
+		SharedWorkQueue queue = new SharedWorkQueue(dir, nodeId);
+		queue.setLeaseTimeout(ONE_HOUR / 2);
+		assertTrue(queue.initialize(sourceFiles, 2));
+		return queue;
+	}
+	
+	private static void deleteAll(File file) {
+		File[] children = file.listFiles();
+		if (children != null)
+			for (File child : children)
+				deleteAll(child);
+		file.delete();
+	}
+	
+	/**
+	 * Batch that records the files instead of converting them (checking the lease before each file)
+	 */
+	private static class RecordingBatch extends BatchConverter {
+		private final File log;
+		
+		RecordingBatch(File log) {
+			super(null, log.getParentFile(), false, null);
+			this.log = log;
+		}
+
+		@Override
+		public int run(List<File> sourceFiles) {
+			try {
+				Writer writer = new OutputStreamWriter(new FileOutputStream(log, true), "UTF-8");
+				try {
+					for (File sourceFile : sourceFiles) {
+						if (!canContinue())
+							break;
+						Thread.sleep(20);
+						writer.write(sourceFile.getPath() + "\n");
+						writer.flush();
+					}
+				} finally {
+					writer.close();
+				}
+			} catch (IOException exc) {
+				throw new RuntimeException(exc);
+			} catch (InterruptedException exc) {
+				Thread.currentThread().interrupt();
+			}
+			return 0;
+		}
+	}
+}
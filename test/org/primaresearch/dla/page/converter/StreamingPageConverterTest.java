@@ -0,0 +1,80 @@
+/*
+ * Copyright 2019 PRImA Research Lab, University of Salford, United Kingdom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.primaresearch.dla.page.converter;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+
+import javax.xml.stream.XMLStreamException;
+
+import org.junit.Test;
+
+/**
+ * Tests for the streaming conversion of PAGE XML (handling of document types and external entities).
+ * 
+ * @author Christian Clausner
+ *
+ */
+public class StreamingPageConverterTest {
+	
+	private static final String NAMESPACE = StreamingPageConverter.PAGE_NAMESPACE_PREFIX + "2013-07-15";
+	
+	@Test
+	public void testExternalEntityIsNotResolved() throws Exception {
+		File secret = File.createTempFile("secret", ".txt");
+		try {
+			OutputStream secretOut = new FileOutputStream(secret);
+			try {
+				secretOut.write("top-secret-content".getBytes("UTF-8"));
+			} finally {
+				secretOut.close();
+			}
+			String xml = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+					+ "<!DOCTYPE PcGts [<!ENTITY xxe SYSTEM \"" + secret.toURI() + "\">]>\n"
+					+ "<PcGts xmlns=\"" + NAMESPACE + "\"><Metadata><Comments>&xxe;</Comments></Metadata></PcGts>";
+			
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			try {
+				new StreamingPageConverter().convert(new ByteArrayInputStream(xml.getBytes("UTF-8")), out);
+			} catch (XMLStreamException exc) {
+				//Undeclared entity (also fine)
+			}
+			assertFalse(out.toString("UTF-8").contains("top-secret-content"));
+		} finally {
+			secret.delete();
+		}
+	}
+	
+	@Test
+	public void testDocumentTypeIsNotLoadedOrPassedOn() throws Exception {
+		String xml = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+				+ "<!DOCTYPE PcGts SYSTEM \"http://localhost/page.dtd\">\n"
+				+ "<PcGts xmlns=\"" + NAMESPACE + "\"><Metadata><Creator>test</Creator></Metadata></PcGts>";
+		
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		new StreamingPageConverter().convert(new ByteArrayInputStream(xml.getBytes("UTF-8")), out);
+		String output = out.toString("UTF-8");
+		assertFalse(output.contains("DOCTYPE"));
+		assertFalse(output.contains("DTD")); //No comment about an external DTD that could not be loaded
+		assertTrue(output.contains("<Creator>test</Creator>"));
+	}
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright 2019 PRImA Research Lab, University of Salford, United Kingdom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.primaresearch.dla.page.converter.archive;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+/**
+ * Round trip tests for the archive reader and writer.
+ * 
+ * @author Christian Clausner
+ *
+ */
+public class ArchiveReaderWriterTest {
+	
+	private static final String LONG_NAME = "folder/" + repeat('n', 120) + ".xml";
+	
+	private static final String[] NAMES = new String[] { "a.xml", "folder/b.json", "empty.xml", "block.xml", "f\u00e9\u20ac.xml", LONG_NAME };
+	private static final byte[][] CONTENT = new byte[][] { 
+		"<PcGts/>".getBytes(TarFormat.UTF8), 
+		"{}".getBytes(TarFormat.UTF8),
+		new byte[0],
+		filled(TarFormat.BLOCK_SIZE * 2, (byte)'b'),
+		filled(1000, (byte)'c'),
+		filled(TarFormat.BLOCK_SIZE + 1, (byte)'d')
+	};
+
+	@Test
+	public void testZipRoundTrip() throws Exception {
+		assertRoundTrip("test.zip");
+	}
+	
+	@Test
+	public void testTarRoundTrip() throws Exception {
+		assertRoundTrip("test.tar");
+	}
+	
+	@Test
+	public void testTarPaxPath() throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		String path = "folder/" + repeat('p', 150) + ".xml";
+		String record = "path=" + path + "\n";
+		int length = record.length() + 4; //"160 " - three digits and a space
+		byte[] records = (length + " " + record).getBytes(TarFormat.UTF8);
+		assertEquals(length, records.length);
+		
+		writeEntry(out, "PaxHeaders/x", TarFormat.TYPE_PAX_HEADER, records);
+		writeEntry(out, "folder/ppp.xml", TarFormat.TYPE_FILE, "<PcGts/>".getBytes(TarFormat.UTF8));
+		writeEntry(out, "other.xml", TarFormat.TYPE_FILE, "<x/>".getBytes(TarFormat.UTF8));
+		out.write(new byte[TarFormat.BLOCK_SIZE * 2]);
+		
+		ArchiveReader reader = ArchiveReader.open(new ByteArrayInputStream(out.toByteArray()), "test.tar");
+		try {
+			assertEquals(path, reader.nextEntry());
+			assertArrayEquals("<PcGts/>".getBytes(TarFormat.UTF8), reader.readEntry());
+			assertEquals("other.xml", reader.nextEntry()); //The pax path only applies to the next entry
+			assertNull(reader.nextEntry());
+		} finally {
+			reader.close();
+		}
+	}
+	
+	@Test
+	public void testTarSkipsUnreadContent() throws Exception {
+		byte[] archive = write("test.tar");
+		ArchiveReader reader = ArchiveReader.open(new ByteArrayInputStream(archive), "test.tar");
+		try {
+			for (int i=0; i<NAMES.length; i++)
+				assertEquals(NAMES[i], reader.nextEntry());
+			assertNull(reader.nextEntry());
+		} finally {
+			reader.close();
+		}
+	}
+	
+	@Test
+	public void testIsArchive() {
+		assertTrue(ArchiveReader.isArchive("a.ZIP"));
+		assertTrue(ArchiveReader.isArchive("a.tar"));
+		assertFalse(ArchiveReader.isArchive("a.tar.gz"));
+		assertFalse(ArchiveReader.isArchive("a.xml"));
+	}
+	
+	@Test(expected = IOException.class)
+	public void testUnsupportedType() throws Exception {
+		ArchiveWriter.create(new ByteArrayOutputStream(), "test.7z");
+	}
+	
+	private static void assertRoundTrip(String archiveName) throws IOException {
+		byte[] archive = write(archiveName);
+		ArchiveReader reader = ArchiveReader.open(new ByteArrayInputStream(archive), archiveName);
+		try {
+			for (int i=0; i<NAMES.length; i++) {
+				assertEquals(NAMES[i], reader.nextEntry());
+				assertArrayEquals(CONTENT[i], reader.readEntry());
+			}
+			assertNull(reader.nextEntry());
+		} finally {
+			reader.close();
+		}
+	}
+	
+	private static byte[] write(String archiveName) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ArchiveWriter writer = ArchiveWriter.create(out, archiveName);
+		for (int i=0; i<NAMES.length; i++)
+			writer.addEntry(NAMES[i], CONTENT[i]);
+		writer.close();
+		return out.toByteArray();
+	}
+	
+	/**
+	 * Writes a TAR entry with a ustar header
+	 */
+	private static void writeEntry(ByteArrayOutputStream out, String name, byte type, byte[] data) throws IOException {
+		byte[] header = new byte[TarFormat.BLOCK_SIZE];
+		TarFormat.writeString(header, TarFormat.NAME_OFFSET, TarFormat.NAME_LENGTH, name.getBytes(TarFormat.UTF8));
+		TarFormat.writeOctal(header, TarFormat.MODE_OFFSET, 8, 0644);
+		TarFormat.writeOctal(header, TarFormat.SIZE_OFFSET, TarFormat.SIZE_LENGTH, data.length);
+		header[TarFormat.TYPE_OFFSET] = type;
+		TarFormat.writeString(header, TarFormat.MAGIC_OFFSET, 8, "ustar\u000000".getBytes(TarFormat.UTF8));
+		TarFormat.writeChecksum(header);
+		out.write(header);
+		out.write(data);
+		out.write(new byte[(int)TarFormat.getPadding(data.length)]);
+	}
+	
+	private static byte[] filled(int length, byte value) {
+		byte[] data = new byte[length];
+		Arrays.fill(data, value);
+		return data;
+	}
+	
+	private static String repeat(char c, int count) {
+		char[] chars = new char[count];
+		Arrays.fill(chars, c);
+		return new String(chars);
+	}
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2019 PRImA Research Lab, University of Salford, United Kingdom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.primaresearch.dla.page.converter.archive;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+/**
+ * Tests for the TAR header helpers.
+ * 
+ * @author Christian Clausner
+ *
+ */
+public class TarFormatTest {
+
+	@Test
+	public void testOctalRoundTrip() {
+		byte[] header = new byte[TarFormat.BLOCK_SIZE];
+		long[] values = new long[] { 0, 1, 0644, 1234567, 077777777777L };
+		for (int i=0; i<values.length; i++) {
+			TarFormat.writeOctal(header, TarFormat.SIZE_OFFSET, TarFormat.SIZE_LENGTH, values[i]);
+			assertEquals(values[i], TarFormat.parseOctal(header, TarFormat.SIZE_OFFSET, TarFormat.SIZE_LENGTH));
+		}
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testOctalTooLarge() {
+		TarFormat.writeOctal(new byte[TarFormat.BLOCK_SIZE], TarFormat.MODE_OFFSET, 8, 010000000);
+	}
+	
+	@Test
+	public void testParseOctalSpaceTerminated() {
+		byte[] header = new byte[TarFormat.BLOCK_SIZE];
+		TarFormat.writeString(header, TarFormat.SIZE_OFFSET, TarFormat.SIZE_LENGTH, "   1750 ".getBytes(TarFormat.UTF8));
+		assertEquals(01750, TarFormat.parseOctal(header, TarFormat.SIZE_OFFSET, TarFormat.SIZE_LENGTH));
+	}
+	
+	@Test
+	public void testParseBase256() {
+		byte[] header = new byte[TarFormat.BLOCK_SIZE];
+		header[TarFormat.SIZE_OFFSET] = (byte)0x80;
+		header[TarFormat.SIZE_OFFSET + TarFormat.SIZE_LENGTH - 2] = 0x02;
+		header[TarFormat.SIZE_OFFSET + TarFormat.SIZE_LENGTH - 1] = 0x01;
+		assertEquals(0x0201, TarFormat.parseOctal(header, TarFormat.SIZE_OFFSET, TarFormat.SIZE_LENGTH));
+	}
+	
+	@Test
+	public void testStringRoundTrip() {
+		byte[] header = new byte[TarFormat.BLOCK_SIZE];
+		TarFormat.writeString(header, TarFormat.NAME_OFFSET, TarFormat.NAME_LENGTH, "folder/f\u00e9.xml".getBytes(TarFormat.UTF8));
+		assertEquals("folder/f\u00e9.xml", TarFormat.parseString(header, TarFormat.NAME_OFFSET, TarFormat.NAME_LENGTH));
+	}
+	
+	@Test
+	public void testChecksum() {
+		byte[] header = new byte[TarFormat.BLOCK_SIZE];
+		TarFormat.writeString(header, TarFormat.NAME_OFFSET, TarFormat.NAME_LENGTH, "a.xml".getBytes(TarFormat.UTF8));
+		TarFormat.writeChecksum(header);
+		long stored = TarFormat.parseOctal(header, TarFormat.CHECKSUM_OFFSET, TarFormat.CHECKSUM_LENGTH);
+		long sum = 0;
+		for (int i=0; i<header.length; i++)
+			sum += (i >= TarFormat.CHECKSUM_OFFSET && i < TarFormat.CHECKSUM_OFFSET + TarFormat.CHECKSUM_LENGTH) ? ' ' : header[i] & 0xFF;
+		assertEquals(sum, stored);
+	}
+	
+	@Test
+	public void testPadding() {
+		assertEquals(0, TarFormat.getPadding(0));
+		assertEquals(511, TarFormat.getPadding(1));
+		assertEquals(0, TarFormat.getPadding(1024));
+		assertEquals(12, TarFormat.getPadding(500));
+	}
+	
+	@Test
+	public void testPaxRecords() {
+		byte[] records = ("30 mtime=1569853871.123456789\n" + "21 path=folder/a.xml\n" + "11 size=42\n").getBytes(TarFormat.UTF8);
+		assertEquals("folder/a.xml", TarFormat.parsePaxRecord(records, "path"));
+		assertEquals("42", TarFormat.parsePaxRecord(records, "size"));
+		assertNull(TarFormat.parsePaxRecord(records, "linkpath"));
+		assertNull(TarFormat.parsePaxRecord("x path=a\n".getBytes(TarFormat.UTF8), "path"));
+	}
+}
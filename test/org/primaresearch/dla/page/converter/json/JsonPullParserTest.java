@@ -0,0 +1,156 @@
+/*
+ * Copyright 2019 PRImA Research Lab, University of Salford, United Kingdom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.primaresearch.dla.page.converter.json;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+import org.junit.Test;
+import org.primaresearch.dla.page.converter.json.JsonPullParser.Token;
+
+/**
+ * Tests for the JSON pull parser.
+ * 
+ * @author Christian Clausner
+ *
+ */
+public class JsonPullParserTest {
+
+	@Test
+	public void testTokens() throws Exception {
+		JsonPullParser parser = parser("{\"a\": [1, -2.5e1, \"x\", true, false, null], \"b\": {}}");
+		assertEquals(Token.START_OBJECT, parser.next());
+		assertEquals(Token.FIELD_NAME, parser.next());
+		assertTrue(parser.textEquals("a"));
+		assertEquals(Token.START_ARRAY, parser.next());
+		assertEquals(Token.NUMBER, parser.next());
+		assertEquals(1, parser.getInt());
+		assertEquals(Token.NUMBER, parser.next());
+		assertEquals(-25.0, parser.getDouble(), 0.0);
+		assertEquals(-25, parser.getInt());
+		assertEquals(Token.STRING, parser.next());
+		assertEquals("x", parser.getText());
+		assertEquals(Token.TRUE, parser.next());
+		assertEquals(Token.FALSE, parser.next());
+		assertEquals(Token.NULL, parser.next());
+		assertEquals(Token.END_ARRAY, parser.next());
+		assertEquals(Token.FIELD_NAME, parser.next());
+		assertFalse(parser.textEquals("a"));
+		assertEquals(Token.START_OBJECT, parser.next());
+		assertEquals(Token.END_OBJECT, parser.next());
+		assertEquals(Token.END_OBJECT, parser.next());
+		assertNull(parser.next());
+	}
+	
+	@Test
+	public void testEscapes() throws Exception {
+		JsonPullParser parser = parser("[\"a\\\"b\\\\c\\/d\\n\\u00e9\\u20AC\"]");
+		parser.next();
+		assertEquals(Token.STRING, parser.next());
+		assertEquals("a\"b\\c/d\n\u00e9\u20ac", parser.getText());
+	}
+	
+	@Test
+	public void testSkipValue() throws Exception {
+		JsonPullParser parser = parser("{\"skip\": {\"a\": [1, {\"b\": []}]}, \"keep\": 7}");
+		parser.next();
+		parser.next();
+		parser.skipNextValue();
+		assertEquals(Token.FIELD_NAME, parser.next());
+		assertTrue(parser.textEquals("keep"));
+		parser.next();
+		assertEquals(7, parser.getInt());
+	}
+	
+	/**
+	 * Strings and numbers that cross the boundary of the read buffer
+	 */
+	@Test
+	public void testBufferBoundary() throws Exception {
+		StringBuilder longText = new StringBuilder();
+		for (int i=0; i<100000; i++)
+			longText.append((char)('a' + i % 26));
+		StringBuilder json = new StringBuilder("[");
+		for (int i=0; i<20000; i++)
+			json.append(i).append(", ");
+		json.append('"').append(longText).append("\\n\"]");
+		
+		JsonPullParser parser = parser(json.toString());
+		parser.next();
+		for (int i=0; i<20000; i++) {
+			assertEquals(Token.NUMBER, parser.next());
+			assertEquals(i, parser.getInt());
+		}
+		assertEquals(Token.STRING, parser.next());
+		assertEquals(longText.append('\n').toString(), parser.getText());
+		assertEquals(Token.END_ARRAY, parser.next());
+	}
+	
+	@Test
+	public void testSharedText() throws Exception {
+		StringBuilder longText = new StringBuilder();
+		for (int i=0; i<=StringTable.MAX_LENGTH; i++)
+			longText.append('x');
+		JsonPullParser parser = parser("[\"ab\", \"c\", \"ab\", \""+longText+"\", \""+longText+"\"]");
+		StringTable table = new StringTable();
+		parser.next();
+		parser.next();
+		String first = parser.getText(table);
+		assertEquals("ab", first);
+		parser.next();
+		assertEquals("c", parser.getText(table));
+		parser.next();
+		assertSame(first, parser.getText(table));
+		assertSame(first, table.get(new StringBuilder("ab")));
+		parser.next();
+		String firstLong = parser.getText(table);
+		parser.next();
+		String secondLong = parser.getText(table);
+		assertEquals(longText.toString(), secondLong);
+		assertNotSame(firstLong, secondLong); //Too long for the table
+		assertEquals(2, table.size());
+		
+		//Many different texts (table grows)
+		for (int i=0; i<10000; i++)
+			assertSame(table.get("t"+i), table.get(new StringBuilder("t").append(i)));
+		assertEquals(10002, table.size());
+	}
+	
+	@Test(expected = IOException.class)
+	public void testUnterminatedString() throws Exception {
+		JsonPullParser parser = parser("[\"abc");
+		parser.next();
+		parser.next();
+	}
+	
+	@Test(expected = IOException.class)
+	public void testInvalidLiteral() throws Exception {
+		JsonPullParser parser = parser("[tru]");
+		parser.next();
+		parser.next();
+	}
+	
+	private static JsonPullParser parser(String json) {
+		return new JsonPullParser(new StringReader(json));
+	}
+}
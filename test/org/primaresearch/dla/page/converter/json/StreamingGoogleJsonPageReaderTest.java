@@ -0,0 +1,197 @@
+/*
+ * Copyright 2019 PRImA Research Lab, University of Salford, United Kingdom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.primaresearch.dla.page.converter.json;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+
+import org.junit.Test;
+import org.primaresearch.dla.page.Page;
+import org.primaresearch.dla.page.io.FileInput;
+import org.primaresearch.dla.page.io.json.GoogleJsonPageReader;
+import org.primaresearch.dla.page.layout.physical.ContentObject;
+import org.primaresearch.dla.page.layout.physical.Region;
+import org.primaresearch.dla.page.layout.physical.shared.RegionType;
+import org.primaresearch.dla.page.layout.physical.text.LowLevelTextContainer;
+import org.primaresearch.dla.page.layout.physical.text.TextObject;
+import org.primaresearch.maths.geometry.Polygon;
+import org.primaresearch.shared.variable.StringValue;
+import org.primaresearch.shared.variable.Variable;
+
+/**
+ * Tests for the streaming Google Cloud Vision JSON reader.
+ * 
+ * @author Christian Clausner
+ *
+ */
+public class StreamingGoogleJsonPageReaderTest {
+	
+	/** Text block followed by a table block. The block type is placed after the paragraphs (as written by Cloud Vision). */
+	private static final String SAMPLE = "{\"responses\": [{\"fullTextAnnotation\": {\"pages\": [{"
+			+ "\"property\": {\"detectedLanguages\": [{\"languageCode\": \"en\"}]}, \"width\": 200, \"height\": 100, \"blocks\": ["
+			+ "{\"property\": {\"detectedLanguages\": [{\"languageCode\": \"en\", \"confidence\": 0.9}, {\"languageCode\": \"de\"}]},"
+			+ " \"boundingBox\": {\"vertices\": [{\"x\": 10, \"y\": 10}, {\"x\": 90, \"y\": 10}, {\"x\": 90, \"y\": 50}, {\"x\": 10, \"y\": 50}]},"
+			+ " \"paragraphs\": [{\"boundingBox\": {\"vertices\": [{\"x\": 10, \"y\": 10}, {\"x\": 90, \"y\": 10}, {\"x\": 90, \"y\": 50}, {\"x\": 10, \"y\": 50}]},"
+			+ "  \"words\": ["
+			+ "   {\"boundingBox\": {\"vertices\": [{\"x\": 10, \"y\": 10}, {\"x\": 30, \"y\": 10}, {\"x\": 30, \"y\": 20}, {\"x\": 10, \"y\": 20}]},"
+			+ "    \"symbols\": [{\"text\": \"H\", \"confidence\": 0.5}, {\"property\": {\"detectedBreak\": {\"type\": \"SPACE\"}}, \"text\": \"i\", \"confidence\": 0.75}],"
+			+ "    \"confidence\": 0.625},"
+			+ "   {\"boundingBox\": {\"vertices\": [{\"x\": 40, \"y\": 12}, {\"x\": 90, \"y\": 12}, {\"x\": 90, \"y\": 22}, {\"x\": 40, \"y\": 22}]},"
+			+ "    \"symbols\": [{\"text\": \"y\"}, {\"text\": \"o\", \"property\": {\"detectedBreak\": {\"type\": \"LINE_BREAK\"}}}],"
+			+ "    \"confidence\": 0.875},"
+			+ "   {\"boundingBox\": {\"vertices\": [{\"x\": 10, \"y\": 40}, {\"x\": 20, \"y\": 40}, {\"x\": 20, \"y\": 50}, {\"x\": 10, \"y\": 50}]},"
+			+ "    \"symbols\": [{\"text\": \"!\"}]}"
+			+ "  ], \"confidence\": 0.75}],"
+			+ " \"blockType\": \"TEXT\", \"confidence\": 0.75},"
+			+ "{\"boundingBox\": {\"vertices\": [{\"x\": 10, \"y\": 60}, {\"x\": 90, \"y\": 60}, {\"x\": 90, \"y\": 90}, {\"x\": 10, \"y\": 90}]},"
+			+ " \"paragraphs\": [{\"words\": [{\"symbols\": [{\"text\": \"x\"}]}]}],"
+			+ " \"blockType\": \"TABLE\", \"confidence\": 0.5}"
+			+ "]}], \"text\": \"Hi yo\\n!\\nx\"}}]}";
+
+	@Test
+	public void testBlockTypeAfterParagraphs() throws Exception {
+		Page page = read(SAMPLE);
+		assertEquals(2, page.getLayout().getRegionCount());
+		assertSame(RegionType.TextRegion, page.getLayout().getRegion(0).getType());
+		assertSame(RegionType.TableRegion, page.getLayout().getRegion(1).getType());
+		assertEquals("10,60 90,60 90,90 10,90", toString(page.getLayout().getRegion(1).getCoords()));
+	}
+	
+	@Test
+	public void testTextHierarchy() throws Exception {
+		Region region = read(SAMPLE).getLayout().getRegion(0);
+		assertEquals("Hi yo\n!", ((TextObject)region).getText());
+		
+		LowLevelTextContainer lines = (LowLevelTextContainer)region;
+		assertEquals(2, lines.getTextObjectCount());
+		assertEquals("Hi yo", lines.getTextObject(0).getText());
+		assertEquals("10,10 90,10 90,22 10,22", toString(lines.getTextObject(0).getCoords()));
+		assertEquals("!", lines.getTextObject(1).getText());
+		
+		LowLevelTextContainer words = (LowLevelTextContainer)lines.getTextObject(0);
+		assertEquals(2, words.getTextObjectCount());
+		assertEquals("Hi", words.getTextObject(0).getText());
+		assertEquals("yo", words.getTextObject(1).getText());
+		assertEquals(2, ((LowLevelTextContainer)words.getTextObject(0)).getTextObjectCount());
+	}
+	
+	@Test
+	public void testConfidenceAndLanguage() throws Exception {
+		Region region = read(SAMPLE).getLayout().getRegion(0);
+		assertEquals(0.75, ((TextObject)region).getConfidence().doubleValue(), 0.0);
+		assertEquals("English", getStringAttribute(region, "primaryLanguage"));
+		
+		LowLevelTextContainer lines = (LowLevelTextContainer)region;
+		assertEquals(0.75, lines.getTextObject(0).getConfidence().doubleValue(), 0.0);
+		assertEquals(0.75, lines.getTextObject(1).getConfidence().doubleValue(), 0.0);
+		
+		LowLevelTextContainer words = (LowLevelTextContainer)lines.getTextObject(0);
+		assertEquals(0.625, words.getTextObject(0).getConfidence().doubleValue(), 0.0);
+		assertEquals(0.875, words.getTextObject(1).getConfidence().doubleValue(), 0.0);
+		
+		LowLevelTextContainer glyphs = (LowLevelTextContainer)words.getTextObject(0);
+		assertEquals(0.5, glyphs.getTextObject(0).getConfidence().doubleValue(), 0.0);
+		assertEquals(0.75, glyphs.getTextObject(1).getConfidence().doubleValue(), 0.0);
+	}
+	
+	/**
+	 * The streaming reader has to produce the same page content as the reader based on a JSON document tree
+	 */
+	@Test
+	public void testParityWithTreeReader() throws Exception {
+		File file = File.createTempFile("vision", ".json");
+		try {
+			OutputStream out = new FileOutputStream(file);
+			try {
+				out.write(SAMPLE.getBytes("UTF-8"));
+			} finally {
+				out.close();
+			}
+			Page expected = new GoogleJsonPageReader().read(new FileInput(file));
+			Page actual = new StreamingGoogleJsonPageReader().read(new FileInput(file));
+			assertNotNull(expected);
+			assertNotNull(actual);
+			
+			assertEquals(expected.getLayout().getWidth(), actual.getLayout().getWidth());
+			assertEquals(expected.getLayout().getHeight(), actual.getLayout().getHeight());
+			assertEquals(expected.getLayout().getRegionCount(), actual.getLayout().getRegionCount());
+			for (int i=0; i<expected.getLayout().getRegionCount(); i++) {
+				Region expectedRegion = expected.getLayout().getRegion(i);
+				Region actualRegion = actual.getLayout().getRegion(i);
+				assertSame(expectedRegion.getType(), actualRegion.getType());
+				assertEquals(getStringAttribute(expectedRegion, "primaryLanguage"), getStringAttribute(actualRegion, "primaryLanguage"));
+				assertSameContent("r"+i, expectedRegion, actualRegion);
+			}
+		} finally {
+			file.delete();
+		}
+	}
+	
+	/**
+	 * Compares coordinates, text, confidence and (recursively) the contained text objects
+	 */
+	private static void assertSameContent(String path, ContentObject expected, ContentObject actual) {
+		assertEquals(path+" coords", toString(expected.getCoords()), toString(actual.getCoords()));
+		assertEquals(path+" type", expected instanceof TextObject, actual instanceof TextObject);
+		if (expected instanceof TextObject) {
+			assertEquals(path+" text", ((TextObject)expected).getText(), ((TextObject)actual).getText());
+			assertEquals(path+" confidence", ((TextObject)expected).getConfidence(), ((TextObject)actual).getConfidence());
+		}
+		assertEquals(path+" container", expected instanceof LowLevelTextContainer, actual instanceof LowLevelTextContainer);
+		if (expected instanceof LowLevelTextContainer) {
+			LowLevelTextContainer expectedChildren = (LowLevelTextContainer)expected;
+			LowLevelTextContainer actualChildren = (LowLevelTextContainer)actual;
+			assertEquals(path+" children", expectedChildren.getTextObjectCount(), actualChildren.getTextObjectCount());
+			for (int i=0; i<expectedChildren.getTextObjectCount(); i++)
+				assertSameContent(path+"/"+i, expectedChildren.getTextObject(i), actualChildren.getTextObject(i));
+		}
+	}
+	
+	private static Page read(String json) throws Exception {
+		Page page = new StreamingGoogleJsonPageReader().read(new ByteArrayInputStream(json.getBytes("UTF-8")));
+		assertNotNull(page);
+		assertTrue(page.getLayout().getRegionCount() > 0);
+		return page;
+	}
+	
+	private static String getStringAttribute(ContentObject obj, String name) {
+		if (obj.getAttributes() == null)
+			return null;
+		Variable attribute = obj.getAttributes().get(name);
+		if (attribute == null || attribute.getValue() == null)
+			return null;
+		return ((StringValue)attribute.getValue()).val;
+	}
+	
+	private static String toString(Polygon polygon) {
+		if (polygon == null)
+			return null;
+		StringBuilder s = new StringBuilder();
+		for (int i=0; i<polygon.getSize(); i++) {
+			if (i > 0)
+				s.append(' ');
+			s.append(polygon.getPoint(i).x).append(',').append(polygon.getPoint(i).y);
+		}
+		return s.toString();
+	}
+}
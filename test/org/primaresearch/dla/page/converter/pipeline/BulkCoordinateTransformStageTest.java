@@ -0,0 +1,51 @@
+/*
+ * Copyright 2019 PRImA Research Lab, University of Salford, United Kingdom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.primaresearch.dla.page.converter.pipeline;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+/**
+ * Tests for the reused coordinate buffers of the bulk transformation.
+ * 
+ * @author Christian Clausner
+ *
+ */
+public class BulkCoordinateTransformStageTest {
+
+	@Test
+	public void testSmallBuffersAreReused() {
+		int[][] first = BulkCoordinateTransformStage.getBuffers(1000);
+		int[][] second = BulkCoordinateTransformStage.getBuffers(500);
+		assertSame(first, second);
+	}
+	
+	@Test
+	public void testLargeBuffersAreNotRetained() {
+		int size = BulkCoordinateTransformStage.MAX_RETAINED_POINTS + 1;
+		int[][] large = BulkCoordinateTransformStage.getBuffers(size);
+		assertEquals(size, large[0].length);
+		
+		//The thread keeps buffers of at most the maximum size
+		int[][] retained = BulkCoordinateTransformStage.getBuffers(BulkCoordinateTransformStage.MAX_RETAINED_POINTS);
+		assertNotSame(large, retained);
+		assertEquals(BulkCoordinateTransformStage.MAX_RETAINED_POINTS, retained[0].length);
+		assertSame(retained, BulkCoordinateTransformStage.getBuffers(10));
+	}
+}
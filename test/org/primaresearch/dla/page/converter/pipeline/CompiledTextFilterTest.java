@@ -0,0 +1,135 @@
+/*
+ * Copyright 2019 PRImA Research Lab, University of Salford, United Kingdom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.primaresearch.dla.page.converter.pipeline;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+import org.primaresearch.dla.page.converter.pipeline.CompiledTextFilter.ObjectType;
+import org.primaresearch.shared.variable.StringValue;
+import org.primaresearch.shared.variable.StringVariable;
+import org.primaresearch.shared.variable.VariableMap;
+import org.primaresearch.text.filter.TextFilter;
+import org.primaresearch.text.filter.TextFilter.TextObjectTypeFilterCallback;
+
+/**
+ * Compares the output of the prepared text filter with {@link TextFilter} used the way the converter
+ * used it before (one filter, object type checked by the callback per rule and object).
+ *
+ * @author Christian Clausner
+ *
+ */
+public class CompiledTextFilterTest {
+
+	/** Object types to compare (null for other text objects) */
+	private static final ObjectType[] TYPES = { ObjectType.REGION, ObjectType.LINE, ObjectType.WORD, ObjectType.GLYPH, null };
+
+	private static final String[] TEXTS = { "", "abc", "a b  c", "ſchön -- ﬁne", "line\nbreak", "123-456", "ÄäÖöÜü" };
+
+	/** Creates a rule set with one String variable per rule */
+	private static VariableMap createRules(String... rules) {
+		VariableMap map = new VariableMap();
+		for (int i=0; i<rules.length; i++)
+			map.add(new StringVariable("rule"+i, new StringValue(rules[i])));
+		return map;
+	}
+
+	/**
+	 * Filters the text with the library filter and the type filter callback of the converter
+	 */
+	private static String filterReference(VariableMap rules, String text, final ObjectType type) {
+		TextFilter textFilter = new TextFilter(rules);
+		textFilter.setTextObjectTypeFilterCallback(new TextObjectTypeFilterCallback() {
+			@Override
+			public boolean textFilterEnabledForObjectType(String textObjectTypeFilter) {
+				if (textObjectTypeFilter == null || textObjectTypeFilter.isEmpty())
+					return true;
+				if (type == ObjectType.REGION)
+					return textObjectTypeFilter.toLowerCase().contains("r");
+				if (type == ObjectType.LINE)
+					return textObjectTypeFilter.toLowerCase().contains("l");
+				if (type == ObjectType.WORD)
+					return textObjectTypeFilter.toLowerCase().contains("w");
+				if (type == ObjectType.GLYPH)
+					return textObjectTypeFilter.toLowerCase().contains("g");
+				return false;
+			}
+		});
+		return textFilter.filter(text);
+	}
+
+	private static void assertSameAsLibrary(VariableMap rules) {
+		CompiledTextFilter filter = new CompiledTextFilter(rules);
+		for (ObjectType type : TYPES) {
+			for (String text : TEXTS)
+				assertEquals("Type "+type+", text '"+text+"'", filterReference(rules, text, type), filter.filter(text, type));
+		}
+	}
+
+	@Test
+	public void testNoRules() {
+		assertSameAsLibrary(new VariableMap());
+	}
+
+	@Test
+	public void testRules() {
+		assertSameAsLibrary(createRules("ſ=s"));
+		assertSameAsLibrary(createRules("--=-", "ﬁ=fi", "ſ=s"));
+		assertSameAsLibrary(createRules("[lwg]ſ=s", "[r]ä=ae", "[G]ü=ue", "[]c=C", "[x]a=b"));
+	}
+
+	@Test
+	public void testSameFilterForSeveralPages() {
+		VariableMap rules = createRules("ſ=s", "[lw]a=b");
+		CompiledTextFilter filter = new CompiledTextFilter(rules);
+		for (int page=0; page<3; page++) {
+			for (ObjectType type : TYPES)
+				for (String text : TEXTS)
+					assertEquals(filterReference(rules, text, type), filter.filter(text, type));
+		}
+	}
+
+	@Test
+	public void testSharedBetweenThreads() throws Exception {
+		final VariableMap rules = createRules("ſ=s", "[lw]a=b", "[g]c=d");
+		final CompiledTextFilter filter = new CompiledTextFilter(rules);
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<String>> results = new ArrayList<Future<String>>();
+			for (int i=0; i<200; i++) {
+				final ObjectType type = TYPES[i % TYPES.length];
+				final String text = TEXTS[i % TEXTS.length];
+				results.add(executor.submit(new Callable<String>() {
+					@Override
+					public String call() {
+						return filter.filter(text, type);
+					}
+				}));
+			}
+			for (int i=0; i<results.size(); i++)
+				assertEquals(filterReference(rules, TEXTS[i % TEXTS.length], TYPES[i % TYPES.length]), results.get(i).get());
+		} finally {
+			executor.shutdown();
+		}
+	}
+}
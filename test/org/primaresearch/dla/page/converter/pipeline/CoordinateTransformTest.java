@@ -0,0 +1,135 @@
+/*
+ * Copyright 2019 PRImA Research Lab, University of Salford, United Kingdom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.primaresearch.dla.page.converter.pipeline;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Tests for the coordinate transformation (axis-aligned and general path).
+ * 
+ * @author Christian Clausner
+ *
+ */
+public class CoordinateTransformTest {
+
+	@Test
+	public void testTranslateToNegative() {
+		int[] xs = new int[] { 5, -5, 0, 100 };
+		int[] ys = new int[] { 5, -5, 0, 100 };
+		CoordinateTransform.translate(-10, -10).apply(xs, ys, xs.length);
+		assertArrayEquals(new int[] { -5, -15, -10, 90 }, xs);
+		assertArrayEquals(new int[] { -5, -15, -10, 90 }, ys);
+	}
+	
+	@Test
+	public void testScaleNegative() {
+		int[] xs = new int[] { -5, -3 };
+		int[] ys = new int[] { -5, -3 };
+		CoordinateTransform.scale(2, 2).apply(xs, ys, xs.length);
+		assertArrayEquals(new int[] { -10, -6 }, xs);
+		assertArrayEquals(new int[] { -10, -6 }, ys);
+	}
+	
+	@Test
+	public void testScaleRoundsDown() {
+		int[] xs = new int[] { 1000, 15, -15 };
+		int[] ys = new int[] { 1000, 15, -15 };
+		CoordinateTransform.scale(0.1, 0.1).apply(xs, ys, xs.length);
+		//0.1 * 1000 is not exact in floating point but must still give 100
+		assertArrayEquals(new int[] { 100, 1, -2 }, xs);
+		assertArrayEquals(new int[] { 100, 1, -2 }, ys);
+	}
+	
+	@Test
+	public void testRotatedNegative() {
+		//General path (not axis-aligned): rotation by 90 degrees without moving back to the origin
+		int[] xs = new int[] { 3, 0, -2 };
+		int[] ys = new int[] { 7, 0, 4 };
+		CoordinateTransform.rotate(90).apply(xs, ys, xs.length);
+		assertArrayEquals(new int[] { -7, 0, -4 }, xs);
+		assertArrayEquals(new int[] { 3, 0, -2 }, ys);
+	}
+	
+	@Test
+	public void testRotatedNonRightAngle() {
+		int[] xs = new int[] { 10, -10 };
+		int[] ys = new int[] { 0, 0 };
+		CoordinateTransform.rotate(45).apply(xs, ys, xs.length);
+		//10 * cos(45) = 7.07...
+		assertArrayEquals(new int[] { 7, -8 }, xs);
+		assertArrayEquals(new int[] { 7, -8 }, ys);
+	}
+	
+	@Test
+	public void testRotatedPageStaysOnPage() {
+		CoordinateTransform.Builder builder = new CoordinateTransform.Builder(10, 5);
+		builder.rotate(90);
+		assertEquals(5, builder.getWidth());
+		assertEquals(10, builder.getHeight());
+		
+		int[] xs = new int[] { 0, 9, 0, 9 };
+		int[] ys = new int[] { 0, 0, 4, 4 };
+		builder.getTransform().apply(xs, ys, xs.length);
+		assertArrayEquals(new int[] { 4, 4, 0, 0 }, xs);
+		assertArrayEquals(new int[] { 0, 9, 0, 9 }, ys);
+	}
+	
+	@Test
+	public void testFlip() {
+		CoordinateTransform.Builder builder = new CoordinateTransform.Builder(100, 50);
+		builder.flipHorizontal().flipVertical();
+		int[] xs = new int[] { 0, 99, 10 };
+		int[] ys = new int[] { 0, 49, 20 };
+		builder.getTransform().apply(xs, ys, xs.length);
+		assertArrayEquals(new int[] { 99, 0, 89 }, xs);
+		assertArrayEquals(new int[] { 49, 0, 29 }, ys);
+	}
+	
+	@Test
+	public void testFlipOutsidePage() {
+		//Points outside the page (e.g. before negative coordinates are removed) are mirrored as well
+		int[] xs = new int[] { -1, 105 };
+		int[] ys = new int[] { 0, 0 };
+		CoordinateTransform.flipHorizontal(100).apply(xs, ys, xs.length);
+		assertArrayEquals(new int[] { 100, -6 }, xs);
+	}
+	
+	@Test
+	public void testCombinedSpecification() {
+		CoordinateTransform.Builder builder = new CoordinateTransform.Builder(200, 100);
+		builder.apply("translate:-50,-50;scale:0.5");
+		int[] xs = new int[] { 0, 51, 150 };
+		int[] ys = new int[] { 0, 49, 150 };
+		builder.getTransform().apply(xs, ys, xs.length);
+		assertArrayEquals(new int[] { -25, 0, 50 }, xs);
+		assertArrayEquals(new int[] { -25, -1, 50 }, ys);
+	}
+	
+	@Test
+	public void testIdentity() {
+		assertTrue(CoordinateTransform.IDENTITY.isIdentity());
+		assertTrue(new CoordinateTransform.Builder(10, 10).apply("rotate:0;scale:1").getTransform().isIdentity());
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidSpecification() {
+		new CoordinateTransform.Builder(10, 10).apply("rotate");
+	}
+}